@@ -52,6 +52,11 @@ public enum ContentType {
      */
     OCTET_STREAM("application/octet-stream"),
 
+    /**
+     * Java序列化的对象，只有显式指定时才使用Java序列化
+     */
+    JAVA_SERIALIZED_OBJECT("application/x-java-serialized-object"),
+
     /**
      * 表单类型
      */
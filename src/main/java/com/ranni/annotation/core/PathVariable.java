@@ -0,0 +1,23 @@
+package com.ranni.annotation.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * controller实例方法中形参与路径模板中变量的对应
+ * 如：@RequestMapping("/user/{id}") 中的 {id}
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/6 10:21
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@Param
+public @interface PathVariable {
+    String value() default ""; // 路径变量名，默认为形参名
+}
@@ -13,6 +13,10 @@ public final class Globals {
 
     public static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
 
+    public static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+
+    public static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
     public static final boolean IS_SECURITY_ENABLED = (System.getSecurityManager() != null);
 
     public static final String PARAMETER_PARSE_FAILED_REASON_ATTR = "com.ranni.parameter_parse_failed_reason";
@@ -33,7 +37,10 @@ public final class Globals {
 
     public static final boolean STRICT_SERVLET_COMPLIANCE = Boolean.parseBoolean(System.getProperty("com.ranni.STRICT_SERVLET_COMPLIANCE", "false"));;
     
-    public static final String SENDFILE_SUPPORTED_ATTR = "com.ranni.sendfile.support";
+    public static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+
+    // 连接器允许的最大请求体大小（只读请求属性）
+    public static final String MAX_POST_SIZE_ATTR = "com.ranni.connector.MAX_POST_SIZE";
     
     // 工作目录属性
     public static final String WORK_DIR_ATTR = "javax.servlet.context.tempdir";
@@ -360,12 +360,24 @@ public class Connector implements Lifecycle {
         return this.service;
     }
 
+
+    /**
+     * 返回协议处理器
+     * 
+     * @return
+     */
+    public ProtocolHandler getProtocolHandler() {
+        return this.protocolHandler;
+    }
+
     /**
      * 设置所属的服务实例
      * @param service
      */
     public void setService(Service service) {
         this.service = service;
+        if (service != null && protocolHandler instanceof AbstractProtocol)
+            ((AbstractProtocol) protocolHandler).setServiceName(service.getName());
     }
 
 
@@ -1,9 +1,15 @@
 package com.ranni.connector;
 
+import com.ranni.container.Container;
 import com.ranni.container.Context;
+import com.ranni.container.Engine;
+import com.ranni.container.Host;
 import com.ranni.container.Wrapper;
+import com.ranni.container.pip.AccessLog;
+import com.ranni.container.pip.Pipeline;
 import com.ranni.connector.coyote.ActionCode;
 import com.ranni.connector.coyote.Adapter;
+import com.ranni.connector.coyote.RequestGroupInfo;
 import com.ranni.util.ServerInfo;
 import com.ranni.util.SessionConfig;
 import com.ranni.util.URLEncoder;
@@ -14,6 +20,7 @@ import com.ranni.util.buf.MessageBytes;
 import com.ranni.util.http.EncodedSolidusHandling;
 import com.ranni.util.http.ServerCookie;
 import com.ranni.util.http.ServerCookies;
+import com.ranni.util.metrics.MetricsRegistry;
 import com.ranni.util.net.SSLSupport;
 import com.ranni.util.net.SocketEvent;
 
@@ -136,6 +143,8 @@ public class CoyoteAdapter implements Adapter {
             } else {
                 request.finishRequest();
                 response.finishResponse();
+                updateMetrics(req, res, request.getMappingData().host, request.getMappingData().context);
+                logAccess(req, res, request.getMappingData().host);
             }
             
             
@@ -490,7 +499,90 @@ public class CoyoteAdapter implements Adapter {
     
     @Override
     public void log(com.ranni.connector.coyote.Request req, com.ranni.connector.coyote.Response res, long time) {
+        Request request = (Request) req.getNote(ADAPTER_NOTES);
+        logAccess(req, res, request == null ? null : request.getMappingData().host);
+    }
+
 
+    /**
+     * 把此次请求记入Host和Context的统计
+     * 连接器的统计和各阶段耗时由RequestInfo在请求结束时记录
+     *
+     * @param req CoyoteRequest
+     * @param res CoyoteResponse
+     * @param host 处理请求的Host，可以为null
+     * @param context 处理请求的Context，可以为null
+     */
+    protected void updateMetrics(com.ranni.connector.coyote.Request req, com.ranni.connector.coyote.Response res,
+                                 Host host, Context context) {
+        if (host == null)
+            return;
+
+        long nanos = System.nanoTime() - req.getRequestProcessor().getRequestStartNanos();
+        long bytesReceived = req.getBytesRead();
+        long bytesSent = res.getContentWritten();
+        boolean error = res.getStatus() >= 400;
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        String service = connector.getService() == null ? null : connector.getService().getName();
+
+        // 先查找，没有注册过才拼接名称注册
+        RequestGroupInfo metrics = registry.find(host);
+        if (metrics == null)
+            metrics = registry.register(host, service, "host", host.getName(), new RequestGroupInfo());
+        metrics.updateCounters(bytesReceived, bytesSent, nanos, error);
+
+        if (context != null) {
+            metrics = registry.find(context);
+            if (metrics == null)
+                metrics = registry.register(context, service, "context", host.getName() + context.getPath(), new RequestGroupInfo());
+            metrics.updateCounters(bytesReceived, bytesSent, nanos, error);
+        }
+    }
+
+
+    /**
+     * 交给Engine和Host管道中的访问日志阀记录此次请求
+     * 请求还没有映射到Host时使用默认的Host
+     *
+     * @param req CoyoteRequest
+     * @param res CoyoteResponse
+     * @param host 处理请求的Host，可以为null
+     */
+    protected void logAccess(com.ranni.connector.coyote.Request req, com.ranni.connector.coyote.Response res, Host host) {
+        Engine engine = connector.getService().getContainer();
+        if (engine == null)
+            return;
+
+        long time = req.getRequestProcessor().getRequestProcessingTime();
+        logAccess(engine, req, res, time);
+
+        Container container = host;
+        if (container == null && engine.getDefaultHost() != null)
+            container = engine.findChild(engine.getDefaultHost());
+        if (container != null)
+            logAccess(container, req, res, time);
+    }
+
+
+    /**
+     * 调用容器管道中所有的访问日志阀
+     *
+     * @param container
+     * @param req
+     * @param res
+     * @param time
+     */
+    private void logAccess(Container container, com.ranni.connector.coyote.Request req, com.ranni.connector.coyote.Response res, long time) {
+        if (!(container instanceof Pipeline))
+            return;
+
+        for (AccessLog accessLog : ((Pipeline) container).getAccessLogs()) {
+            try {
+                accessLog.log(req, res, time);
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
     }
 
     
@@ -6,6 +6,7 @@ import com.ranni.util.buf.Ascii;
 import com.ranni.util.buf.CharChunk;
 import com.ranni.util.buf.MessageBytes;
 
+import javax.servlet.http.MappingMatch;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -23,6 +24,11 @@ import java.util.List;
 public final class Mapper {
 
     // ==================================== 属性字段 ====================================
+
+    /**
+     * 默认wrapper的路径，所有未匹配上的请求都交给它处理
+     */
+    public static final String DEFAULT_PATH = "/";
     
     /**
      * 默认主机，如果请求没有指定那个主机处理它，那么就使用这个默认主机处理
@@ -189,7 +195,7 @@ public final class Mapper {
     protected final class MappedContext extends MapElement<Context> {
 
         private volatile boolean paused;
-        public volatile WrapperDictTree wrapperDictTree = new WrapperDictTree();
+        public volatile WrapperRouter wrapperRouter = new WrapperRouter();
         public final int slashCount;
         public final WebResourceRoot webResourceRoot;
         
@@ -214,169 +220,395 @@ public final class Mapper {
 
 
     /**
-     * wrapper路径字典树
+     * wrapper路由表<br>
+     * 按Servlet规范的顺序匹配：精确匹配 → 最长路径前缀匹配（/*） → 扩展名匹配（*.ext） → 默认（/）<br>
+     * 实例不可变，修改时生成新的实例再替换MappedContext中的引用（写时复制），
+     * 所以匹配时不需要加锁。精确和前缀路径在修改时会被编译成压缩前缀树（radix tree），
+     * 匹配时直接在CharChunk的字符数组上进行，不产生任何对象
      */
-    protected final class WrapperDictTree {
-        private class Node {
-            // 其实这个内存占用并不是太高，只是利用率可能会很低
-            Node[] map = new Node[26];
-            MappedWrapper mappedWrapper;
-            boolean slash;
-            boolean end;
+    protected final class WrapperRouter {
+        /**
+         * 精确匹配的wrapper，以路径升序存储
+         */
+        public final MappedWrapper[] exactWrappers;
+
+        /**
+         * 前缀匹配的wrapper，以去掉了"/*"后的路径升序存储
+         */
+        public final MappedWrapper[] wildcardWrappers;
+
+        /**
+         * 扩展名匹配的wrapper，以去掉了"*."后的扩展名升序存储
+         */
+        public final MappedWrapper[] extensionWrappers;
+
+        /**
+         * 默认wrapper，所有都没匹配上时使用
+         */
+        public final MappedWrapper defaultWrapper;
+
+        private final RadixNode exactTree; // 精确匹配的压缩前缀树
+        private final RadixNode wildcardTree; // 前缀匹配的压缩前缀树
+
+
+        public WrapperRouter() {
+            this(new MappedWrapper[0], new MappedWrapper[0], new MappedWrapper[0], null);
+        }
+
+        public WrapperRouter(MappedWrapper[] exactWrappers, MappedWrapper[] wildcardWrappers,
+                             MappedWrapper[] extensionWrappers, MappedWrapper defaultWrapper) {
+            this.exactWrappers = exactWrappers;
+            this.wildcardWrappers = wildcardWrappers;
+            this.extensionWrappers = extensionWrappers;
+            this.defaultWrapper = defaultWrapper;
+            this.exactTree = compile(exactWrappers, 0, exactWrappers.length, 0, new char[0]);
+            this.wildcardTree = compile(wildcardWrappers, 0, wildcardWrappers.length, 0, new char[0]);
         }
-        
-        private volatile Node root = new Node();
 
 
         /**
-         * 将wrapper的映射实例挂到wrapper路径字典树上<br>
-         * 默认传进来的uri是对应servlet的uri部分，已
-         * 经不包括context那部分了
-         * 
-         * @param uri 处理此请求的servlet路径
-         * @param wrapper wrapper实例
+         * 添加wrapper，如果已经存在相同路径的wrapper则替换掉
+         *
+         * @param path wrapper的映射路径
+         * @param wrapper wrapper容器
+         * @return 返回添加后的新路由表
          */
-        public void addMappedWrapper(String uri, Wrapper wrapper) {
-            Node node = root;
+        public WrapperRouter addWrapper(String path, Wrapper wrapper) {
+            if (path == null) {
+                return this;
+            } else if (DEFAULT_PATH.equals(path)) {
+                return new WrapperRouter(exactWrappers, wildcardWrappers, extensionWrappers,
+                        new MappedWrapper(path, wrapper));
+            } else if (path.endsWith("/*")) {
+                MappedWrapper mappedWrapper = new MappedWrapper(path.substring(0, path.length() - 2), wrapper);
+                return new WrapperRouter(exactWrappers, insertOrReplace(wildcardWrappers, mappedWrapper),
+                        extensionWrappers, defaultWrapper);
+            } else if (path.startsWith("*.")) {
+                MappedWrapper mappedWrapper = new MappedWrapper(path.substring(2), wrapper);
+                return new WrapperRouter(exactWrappers, wildcardWrappers,
+                        insertOrReplace(extensionWrappers, mappedWrapper), defaultWrapper);
+            } else {
+                MappedWrapper mappedWrapper = new MappedWrapper(path, wrapper);
+                return new WrapperRouter(insertOrReplace(exactWrappers, mappedWrapper), wildcardWrappers,
+                        extensionWrappers, defaultWrapper);
+            }
+        }
 
-            for (int i = 0; i < uri.length(); i++) {
-                if (uri.charAt(i) == '/') {
-                    node.slash = true;
-                    continue;
-                }
-                int index = getIndex(uri.charAt(i));
-                if (node.map[index] == null) {
-                    node.map[index] = new Node();
+
+        /**
+         * 删除wrapper
+         *
+         * @param path wrapper的映射路径
+         * @return 返回删除后的新路由表，如果不存在此路径则返回null
+         */
+        public WrapperRouter removeWrapper(String path) {
+            if (path == null) {
+                return null;
+            } else if (DEFAULT_PATH.equals(path)) {
+                if (defaultWrapper == null) {
+                    return null;
                 }
-                node = node.map[index];
+                return new WrapperRouter(exactWrappers, wildcardWrappers, extensionWrappers, null);
+            } else if (path.endsWith("/*")) {
+                MappedWrapper[] newMap = remove(wildcardWrappers, path.substring(0, path.length() - 2));
+                return newMap == null ? null
+                        : new WrapperRouter(exactWrappers, newMap, extensionWrappers, defaultWrapper);
+            } else if (path.startsWith("*.")) {
+                MappedWrapper[] newMap = remove(extensionWrappers, path.substring(2));
+                return newMap == null ? null
+                        : new WrapperRouter(exactWrappers, wildcardWrappers, newMap, defaultWrapper);
+            } else {
+                MappedWrapper[] newMap = remove(exactWrappers, path);
+                return newMap == null ? null
+                        : new WrapperRouter(newMap, wildcardWrappers, extensionWrappers, defaultWrapper);
             }
-            
-            node.end = true;
-            node.mappedWrapper = new MappedWrapper(uri, wrapper);            
         }
 
-        public void addMappedWrapper(MappedWrapper wrapper) {
-            Node node = root;
-            
-            for (char ch : wrapper.name.toCharArray()) {
-                if (ch == '/') {
-                    node.slash = true;
-                    continue;
+
+        /**
+         * 匹配wrapper，匹配的结果写入到mappingData中
+         *
+         * @param uri 请求的URI
+         * @param offset wrapper路径在URI中的起始偏移量（即context路径的长度）
+         * @param mappingData 映射数据
+         * @return 如果返回<b>true</b>，则表示匹配成功
+         */
+        public boolean map(CharChunk uri, int offset, MappingData mappingData) {
+            char[] buf = uri.getBuffer();
+            int start = uri.getStart() + offset;
+            int end = uri.getEnd();
+
+            // 1、精确匹配
+            MappedWrapper mappedWrapper = exactMatch(exactTree, buf, start, end);
+            if (mappedWrapper != null) {
+                mappingData.wrapper = mappedWrapper.obj;
+                mappingData.wrapperPath.setString(mappedWrapper.name);
+                mappingData.matchType = MappingMatch.EXACT;
+                return true;
+            }
+
+            // 2、最长路径前缀匹配
+            mappedWrapper = prefixMatch(wildcardTree, buf, start, end);
+            if (mappedWrapper != null) {
+                int prefixEnd = start + mappedWrapper.name.length();
+                mappingData.wrapper = mappedWrapper.obj;
+                mappingData.wrapperPath.setString(mappedWrapper.name);
+                if (prefixEnd < end) {
+                    mappingData.pathInfo.setChars(buf, prefixEnd, end - prefixEnd);
                 }
-                int index = getIndex(ch);
-                if (node.map[index] == null) {
-                    node.map[index] = new Node();
+                mappingData.matchType = MappingMatch.PATH;
+                return true;
+            }
+
+            // 3、扩展名匹配，只看最后一段路径
+            if (extensionWrappers.length > 0) {
+                int slash = end - 1;
+                while (slash >= start && buf[slash] != '/') {
+                    slash--;
                 }
-                node = node.map[index];
+                int period = end - 1;
+                while (period > slash && buf[period] != '.') {
+                    period--;
+                }
+                if (period > slash) {
+                    int pos = find(extensionWrappers, uri, period + 1, end);
+                    if (pos >= 0 && compare(uri, period + 1, end, extensionWrappers[pos].name) == 0) {
+                        mappingData.wrapper = extensionWrappers[pos].obj;
+                        mappingData.wrapperPath.setChars(buf, start, end - start);
+                        mappingData.matchType = MappingMatch.EXTENSION;
+                        return true;
+                    }
+                }
+            }
+
+            // 4、默认wrapper
+            if (defaultWrapper != null) {
+                mappingData.wrapper = defaultWrapper.obj;
+                if (start < end) {
+                    mappingData.wrapperPath.setChars(buf, start, end - start);
+                } else {
+                    mappingData.wrapperPath.setString(DEFAULT_PATH);
+                }
+                mappingData.matchType = MappingMatch.DEFAULT;
+                return true;
             }
 
-            node.end = true;
-            node.mappedWrapper = wrapper;
+            return false;
         }
 
 
         /**
-         * 根据uri取得对应的wrapper映射实例<br>
-         * 默认传入的uri是对应servlet的uri部分，
-         * 已经不包括context那部分了
-         * 
-         * @param uri 处理此请求的servlet路径
+         * 插入映射元素，如果已经存在同名的元素则替换掉
+         *
+         * @param oldMap 旧的映射元素数组
+         * @param mappedWrapper 要插入的映射元素
+         * @return 返回新的映射元素数组
          */
-        public MappedWrapper getMappedWrapper(CharChunk uri, int offset) {
-            Node node = root;
-            Node prev = node;
-            MappedWrapper res = null;
-
-            for (int i = uri.charAt(offset) == '/' ? 1 : 0; i < uri.length() - offset; i++) {
-                if (uri.charAt(i + offset) == '/') {
-                    if (node.end) {
-                        res = node.mappedWrapper;
-                    }
-                    continue;
-                }
-                
-                int index = getIndex(uri.charAt(i + offset));                
-                if (node.map[index] == null) {
-                    // 不用break是为了避免出现下面这种情况：
-                    //   url1: /test/a/dc/a
-                    //
-                    //   ----------- 上面是存入到字典树中的url，下面是请求的url -----------
-                    //
-                    //   url2: /test/ak
-                    // 
-                    // 字典树会存为：
-                    //           url1                 root             url2
-                    //            |                     t                |
-                    //            V                     e                |
-                    //                                  s                |
-                    //   has MappedWrapper 1 ---->      t                V
-                    //   has MappedWrapper 2 ---->      a      
-                    //                               d     k    <---- 不存在，为null
-                    //   has MappedWrapper 3 ---->   c        
-                    //   has MappedWrapper 4 ---->   a        
-                    //
-                    // 当传入的是url2程序会执行到这里。这时prev = testa 中最后一个字符'a'指向的节点
-                    // 该位置上，因为有url1这样一个url，这里prev的mappedWrapper是不为null的再如果
-                    // 此时这里用的是break，则会执行到循环体外的if。
-                    // uri.charAt(uri.length() - 1) != '/' && prev.mappedWrapper != null 
-                    // 成立，res错误的指向了url1中编号为2的MappedWrapper。正确是应该指向最精准且正确
-                    // 的编号为1的MappedWrapper。
-                    
-                    return res;
-                }
-                prev = node;
-                node = node.map[index];
+        private MappedWrapper[] insertOrReplace(MappedWrapper[] oldMap, MappedWrapper mappedWrapper) {
+            MappedWrapper[] newMap = new MappedWrapper[oldMap.length + 1];
+            if (insertMap(oldMap, newMap, mappedWrapper)) {
+                return newMap;
             }
-            
-            // XXX - 未经严格测试，可能存在BUG
-            if (node.mappedWrapper != null) {
-                res = node.mappedWrapper;
-            } else if (uri.charAt(uri.length() - 1) != '/' && prev.mappedWrapper != null) {
-                res = prev.mappedWrapper;
+
+            newMap = oldMap.clone();
+            newMap[find(oldMap, mappedWrapper.name)] = mappedWrapper;
+            return newMap;
+        }
+
+
+        /**
+         * 删除映射元素
+         *
+         * @param oldMap 旧的映射元素数组
+         * @param name 要删除的元素名
+         * @return 返回新的映射元素数组，不存在此元素则返回null
+         */
+        private MappedWrapper[] remove(MappedWrapper[] oldMap, String name) {
+            if (oldMap.length == 0) {
+                return null;
             }
-            
-            return res;            
+            MappedWrapper[] newMap = new MappedWrapper[oldMap.length - 1];
+            if (removeMap(oldMap, newMap, name)) {
+                return newMap;
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * 压缩前缀树（radix tree）的节点，编译完成后不可变。<br>
+     * 每条边上存的是一段字符而不是单个字符，子节点按边的首字符升序排列，
+     * 查找子节点时对首字符二分
+     */
+    protected static final class RadixNode {
+        private static final char[] EMPTY_CHARS = new char[0];
+        private static final RadixNode[] EMPTY_CHILDREN = new RadixNode[0];
+
+        final char[] label; // 父节点到此节点的边上的字符
+        final char[] firstChars; // 所有子节点的边的首字符
+        final RadixNode[] children; // 子节点，和firstChars一一对应
+        final MappedWrapper mappedWrapper; // 到此节点为止刚好是一个完整路径时对应的wrapper
+
+
+        RadixNode(char[] label, char[] firstChars, RadixNode[] children, MappedWrapper mappedWrapper) {
+            this.label = label;
+            this.firstChars = firstChars;
+            this.children = children;
+            this.mappedWrapper = mappedWrapper;
         }
 
-        public MappedWrapper getMappedWrapper(String uri, int offset) {
-            Node node = root;
-            Node prev = node;
-            MappedWrapper res = null;
-            
-            for (int i = uri.charAt(offset) == '/' ? 1 : 0; i < uri.length() - offset; i++) {
-                if (uri.charAt(i + offset) == '/' && prev.mappedWrapper != null) {
-                    res = prev.mappedWrapper;
-                }
 
-                int index = getIndex(uri.charAt(i + offset));
-                if (node.map[index] == null) {
-                    return res;
+        /**
+         * 根据边的首字符找到子节点
+         *
+         * @param ch 首字符
+         * @return 返回子节点，没有则返回null
+         */
+        RadixNode child(char ch) {
+            int a = 0;
+            int b = firstChars.length - 1;
+            while (a <= b) {
+                int i = (a + b) >>> 1;
+                char c = firstChars[i];
+                if (c < ch) {
+                    a = i + 1;
+                } else if (c > ch) {
+                    b = i - 1;
+                } else {
+                    return children[i];
                 }
-                prev = node;
-                node = node.map[index];
             }
+            return null;
+        }
+    }
+
 
-            // XXX - 未经严格测试，可能存在BUG
-            if (node.mappedWrapper != null) {
-                res = node.mappedWrapper;
-            } else if (uri.charAt(uri.length() - 1) != '/' && prev.mappedWrapper != null) {
-                res = prev.mappedWrapper;
+    /**
+     * 将有序的映射元素数组编译成压缩前缀树<br>
+     * [from, to)区间内的元素名在depth之前的部分都是相同的
+     *
+     * @param map 以名字升序排列的映射元素数组
+     * @param from 起始下标
+     * @param to 结束下标（不包含）
+     * @param depth 已经匹配过的字符数
+     * @param label 指向此节点的边上的字符
+     * @return 返回编译后的节点
+     */
+    private static RadixNode compile(MappedWrapper[] map, int from, int to, int depth, char[] label) {
+        MappedWrapper mappedWrapper = null;
+        if (from < to && map[from].name.length() == depth) {
+            // 升序排列，刚好在此处结束的路径一定排在最前面
+            mappedWrapper = map[from++];
+        }
+
+        if (from >= to) {
+            return new RadixNode(label, RadixNode.EMPTY_CHARS, RadixNode.EMPTY_CHILDREN, mappedWrapper);
+        }
+
+        List<RadixNode> children = new ArrayList<>();
+        int i = from;
+        while (i < to) {
+            String first = map[i].name;
+            char ch = first.charAt(depth);
+            int j = i + 1;
+            while (j < to && map[j].name.charAt(depth) == ch) {
+                j++;
             }
 
-            return res;
+            // 有序数组中，一组元素的公共前缀就是第一个和最后一个元素的公共前缀
+            String last = map[j - 1].name;
+            int max = Math.min(first.length(), last.length());
+            int end = depth + 1;
+            while (end < max && first.charAt(end) == last.charAt(end)) {
+                end++;
+            }
+
+            children.add(compile(map, i, j, end, first.substring(depth, end).toCharArray()));
+            i = j;
         }
-        
-        public void recycle() {
-            root = new Node();
+
+        char[] firstChars = new char[children.size()];
+        for (int k = 0; k < firstChars.length; k++) {
+            firstChars[k] = children.get(k).label[0];
         }
-        
-        public int getIndex(char ch) {
-            if (ch >= 'A' && ch <= 'Z') {
-                return ch - 'A';
-            } else {
-                return ch - 'a';
+
+        return new RadixNode(label, firstChars, children.toArray(RadixNode.EMPTY_CHILDREN), mappedWrapper);
+    }
+
+
+    /**
+     * 在压缩前缀树上做精确匹配
+     *
+     * @param root 根节点
+     * @param buf 字符数组
+     * @param pos 起始位置
+     * @param end 结束位置（不包含）
+     * @return 返回匹配上的wrapper映射，没有则返回null
+     */
+    private static MappedWrapper exactMatch(RadixNode root, char[] buf, int pos, int end) {
+        RadixNode node = root;
+        while (pos < end) {
+            node = node.child(buf[pos]);
+            if (node == null) {
+                return null;
+            }
+
+            char[] label = node.label;
+            if (end - pos < label.length) {
+                return null;
+            }
+            for (int i = 1; i < label.length; i++) {
+                if (buf[pos + i] != label[i]) {
+                    return null;
+                }
+            }
+            pos += label.length;
+        }
+
+        return node.mappedWrapper;
+    }
+
+
+    /**
+     * 在压缩前缀树上做最长路径前缀匹配<br>
+     * 前缀必须在'/'处或路径末尾结束，如 /user 能匹配 /user 和 /user/1，不能匹配 /users
+     *
+     * @param root 根节点
+     * @param buf 字符数组
+     * @param pos 起始位置
+     * @param end 结束位置（不包含）
+     * @return 返回最长的匹配上的wrapper映射，没有则返回null
+     */
+    private static MappedWrapper prefixMatch(RadixNode root, char[] buf, int pos, int end) {
+        RadixNode node = root;
+        MappedWrapper result = null;
+        while (true) {
+            if (node.mappedWrapper != null && (pos == end || buf[pos] == '/')) {
+                result = node.mappedWrapper;
+            }
+            if (pos >= end) {
+                break;
+            }
+
+            node = node.child(buf[pos]);
+            if (node == null) {
+                break;
+            }
+
+            char[] label = node.label;
+            if (end - pos < label.length) {
+                break;
+            }
+            for (int i = 1; i < label.length; i++) {
+                if (buf[pos + i] != label[i]) {
+                    return result;
+                }
             }
+            pos += label.length;
         }
+
+        return result;
     }
     
 
@@ -583,7 +815,7 @@ public final class Mapper {
         int slashCount = slashCount(context.getPath());
         MappedContext contextMapped = new MappedContext(context.getPath(), context, slashCount, resources);
 
-        synchronized (mappedHost.contextList) {
+        synchronized (mappedHost) {
             ContextList contextList = mappedHost.contextList.addContext(contextMapped, slashCount);
             if (contextList == null) {
                 // 已经有一个相同path的容器映射了
@@ -628,7 +860,7 @@ public final class Mapper {
         int slashCount = slashCount(path);
         MappedContext contextMapped = new MappedContext(path, context, slashCount, resources);
         
-        synchronized (mappedHost.contextList) {
+        synchronized (mappedHost) {
             ContextList contextList = mappedHost.contextList.addContext(contextMapped, slashCount);
             if (contextList == null) {
                 // 已经有一个相同path的容器映射了
@@ -673,7 +905,7 @@ public final class Mapper {
         int slashCount = slashCount(context.getPath());
         MappedContext contextMapped = new MappedContext(context.getPath(), context, slashCount, resources);
 
-        synchronized (mappedHost.contextList) {
+        synchronized (mappedHost) {
             ContextList contextList = mappedHost.contextList.addContext(contextMapped, slashCount);
             if (contextList == null) {
                 // 已经有一个相同path的容器映射了
@@ -741,7 +973,7 @@ public final class Mapper {
 
     /**
      * 添加wrapper到所属的context下。底层是根据path挂在
-     * 字典树上。
+     * 路由表上。
      *
      * @param wrapper wrapper容器
      */
@@ -766,13 +998,13 @@ public final class Mapper {
             return;
         }
 
-        mappedContext.wrapperDictTree.addMappedWrapper(wrapper.getPath(), wrapper);
+        addWrapper(mappedContext, wrapper.getPath(), wrapper);
     }
     
 
     /**
      * 添加wrapper到所属的context下。底层是根据path挂在
-     * 字典树上。
+     * 路由表上。
      * 
      * @param hostname 主机名
      * @param path context容器路径
@@ -789,32 +1021,80 @@ public final class Mapper {
             return;
         }
         
-        mappedContext.wrapperDictTree.addMappedWrapper(wrapper.getName(), wrapper);
+        addWrapper(mappedContext, wrapper.getName(), wrapper);
     }
     
 
     /**
      * 添加wrapper到所属的context下。底层是根据path挂在
-     * 字典树上。
+     * 路由表上。
      * 
      * @param context 所属的MappedContext
      * @param path wrapper的path
      * @param wrapper 需要挂上去的wrapper
      */
     public void addWrapper(MappedContext context, String path, Wrapper wrapper) {
-        context.wrapperDictTree.addMappedWrapper(path, wrapper);
+        synchronized (context) {
+            context.wrapperRouter = context.wrapperRouter.addWrapper(path, wrapper);
+        }
     }
 
 
     /**
      * 添加wrapper到所属的context下。底层是根据path挂在
-     * 字典树上。
+     * 路由表上。
      *
      * @param context 所属的MappedContext
      * @param wrapper 需要挂上去的MappedWrapper
      */
     public void addWrapper(MappedContext context, MappedWrapper wrapper) {
-        context.wrapperDictTree.addMappedWrapper(wrapper);
+        addWrapper(context, wrapper.name, wrapper.obj);
+    }
+
+
+    /**
+     * 从所属的context的路由表中删除wrapper
+     *
+     * @param wrapper wrapper容器
+     */
+    public void removeWrapper(Wrapper wrapper) {
+        Context context = (Context) wrapper.getParent();
+        if (context == null) {
+            return;
+        }
+
+        Host host = (Host) context.getParent();
+        if (host == null) {
+            return;
+        }
+
+        MappedHost mappedHost = exactFind(hosts, host.getName());
+        if (mappedHost == null) {
+            return;
+        }
+
+        MappedContext mappedContext = exactFind(mappedHost.contextList.contexts, context.getPath());
+        if (mappedContext == null) {
+            return;
+        }
+
+        removeWrapper(mappedContext, wrapper.getPath());
+    }
+
+
+    /**
+     * 从所属的context的路由表中删除wrapper
+     *
+     * @param context 所属的MappedContext
+     * @param path wrapper的path
+     */
+    public void removeWrapper(MappedContext context, String path) {
+        synchronized (context) {
+            WrapperRouter router = context.wrapperRouter.removeWrapper(path);
+            if (router != null) {
+                context.wrapperRouter = router;
+            }
+        }
     }
     
     
@@ -943,15 +1223,8 @@ public final class Mapper {
      * @param mappingData 映射数据
      */
     private final void internalMapWrapper(MappedContext context, CharChunk uri, MappingData mappingData) {
-        // XXX - 当前只做严格匹配
-        // 做个字典树匹配，以便精准匹配
-        MappedWrapper mappedWrapper = context.wrapperDictTree.getMappedWrapper(uri, context.name.length());
-        if (mappedWrapper == null) {
-            return;
-        }
-        
-        mappingData.wrapper = mappedWrapper.obj;
-        mappingData.wrapperPath.setString(mappedWrapper.name);
+        // 路由表是不可变的，取一次引用即可
+        context.wrapperRouter.map(uri, context.name.length(), mappingData);
     }
 
 
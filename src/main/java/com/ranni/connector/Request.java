@@ -8,6 +8,7 @@ import com.ranni.container.Wrapper;
 import com.ranni.container.session.Manager;
 import com.ranni.container.session.Session;
 import com.ranni.core.ApplicationMapping;
+import com.ranni.core.ApplicationPart;
 import com.ranni.core.ApplicationSessionCookieConfig;
 import com.ranni.connector.coyote.ActionCode;
 import com.ranni.connector.coyote.Constants;
@@ -20,12 +21,16 @@ import com.ranni.util.http.CookieProcessor;
 import com.ranni.util.http.FastHttpDateFormat;
 import com.ranni.util.http.Parameters;
 import com.ranni.util.http.ServerCookies;
+import com.ranni.util.http.fileupload.DeferredFileOutputStream;
+import com.ranni.util.http.fileupload.LimitedInputStream;
+import com.ranni.util.http.fileupload.MultipartStream;
 import com.ranni.util.http.parse.AcceptLanguage;
 
 import javax.servlet.*;
 import javax.servlet.http.*;
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -181,6 +186,11 @@ public class Request implements HttpServletRequest {
      */
     protected Session session;
 
+    /**
+     * 调用过access()的session，请求回收时对同一个session调用endAccess()
+     */
+    protected Session accessedSession;
+
     /**
      * 转发路径
      */
@@ -402,13 +412,10 @@ public class Request implements HttpServletRequest {
      * 重置session信息
      */
     protected void recycleSessionInfo() {
-        if (session != null) {
-            try {
-                session.endAccess();
-            } catch (Throwable t) {
-                throw t;
-            }
-        }
+        Session accessed = accessedSession;
+        accessedSession = null;
+        if (accessed != null)
+            accessed.endAccess();
 
         session = null;
         requestedSessionCookie = false;
@@ -1119,6 +1126,13 @@ public class Request implements HttpServletRequest {
     @Override
     public Object getAttribute(String name) {
         // XXX - 特殊属性
+        if (Globals.SENDFILE_SUPPORTED_ATTR.equals(name)) {
+            // 连接器支持发送文件，且当前请求允许发送文件
+            return Boolean.valueOf(connector.getProtocolHandler().isSendfileSupported()
+                    && coyoteRequest.getSendfile());
+        } else if (Globals.MAX_POST_SIZE_ATTR.equals(name)) {
+            return Integer.valueOf(connector.getMaxPostSize());
+        }
 
         Object attr = attributes.get(name);
         if (attr != null) {
@@ -1685,7 +1699,7 @@ public class Request implements HttpServletRequest {
 
         Object oldValue = attributes.put(name, value);
         
-        if (name.startsWith("com.ranni.")) {
+        if (name.startsWith("com.ranni.") || name.startsWith("org.apache.tomcat.")) {
             coyoteRequest.setAttribute(name, value);
         }
         
@@ -1701,7 +1715,7 @@ public class Request implements HttpServletRequest {
      */
     @Override
     public void removeAttribute(String name) {
-        if (name.startsWith("com.ranni.")) {
+        if (name.startsWith("com.ranni.") || name.startsWith("org.apache.tomcat.")) {
             coyoteRequest.getAttributes().remove(name);
         }
 
@@ -2053,15 +2067,19 @@ public class Request implements HttpServletRequest {
 
         boolean success = false;
 
+        File tempDir = (File) context.getServletContext().getAttribute(ServletContext.TEMPDIR);
+        if (tempDir == null) {
+            tempDir = new File(System.getProperty("java.io.tmpdir"));
+        }
+
         File location;
         String locationStr = mce.getLocation();
         if (locationStr == null || locationStr.length() == 0) {
-            location = (File) context.getServletContext().getAttribute(ServletContext.TEMPDIR);
+            location = tempDir;
         } else  {
             location = new File(locationStr);
             if (!location.isAbsolute()) {
-                location = new File((File) context.getServletContext().getAttribute(ServletContext.TEMPDIR),
-                        locationStr).getAbsoluteFile();
+                location = new File(tempDir, locationStr).getAbsoluteFile();
             }
         }
 
@@ -2078,8 +2096,133 @@ public class Request implements HttpServletRequest {
             return;
         }
 
-        // TODO - 未完成
+        byte[] boundary = getBoundary(getContentType());
+        if (boundary == null) {
+            parameters.setParseFailedReason(Parameters.FailReason.INVALID_CONTENT_TYPE);
+            partsParseException = new ServletException("coyoteRequest.noBoundary");
+            return;
+        }
+
+        // 请求体大小的上限，取MultipartConfigElement和连接器中较小的一个
+        long maxRequestSize = mce.getMaxRequestSize();
+        int maxPostSize = connector.getMaxPostSize();
+        if (maxPostSize >= 0 && (maxRequestSize < 0 || maxPostSize < maxRequestSize)) {
+            maxRequestSize = maxPostSize;
+        }
+
+        long len = getContentLengthLong();
+        if (maxRequestSize >= 0 && len > maxRequestSize) {
+            checkSwallowInput();
+            parameters.setParseFailedReason(Parameters.FailReason.POST_TOO_LARGE);
+            partsParseException = new IllegalStateException("coyoteRequest.postTooLarge");
+            return;
+        }
+
+        Charset charset = getCharset();
+        List<Part> parts = new ArrayList<>();
+        DeferredFileOutputStream data = null;
+
+        try {
+            InputStream in = getInputStream();
+            if (maxRequestSize >= 0 && len < 0) {
+                in = new LimitedInputStream(in, maxRequestSize);
+            }
+
+            MultipartStream multipart = new MultipartStream(in, boundary,
+                    MultipartStream.DEFAULT_BUFFER_SIZE, charset);
+
+            boolean hasNext = multipart.skipPreamble();
+            while (hasNext) {
+                Map<String, String> headers = multipart.readHeaders();
+                data = new DeferredFileOutputStream(mce.getFileSizeThreshold(), mce.getMaxFileSize(), location);
+                multipart.readBodyData(data);
+                data.close();
+
+                ApplicationPart part = new ApplicationPart(headers, data, location);
+                data = null;
+                parts.add(part);
+
+                // 普通表单字段同时作为请求参数
+                if (!part.isFile() && part.getName() != null) {
+                    parameters.addParameter(part.getName(), part.getString(charset));
+                }
+
+                hasNext = multipart.readBoundary();
+            }
+            multipart.discardEpilogue();
+
+            success = true;
+
+        } catch (IllegalStateException e) {
+            // 超出大小或参数个数限制
+            checkSwallowInput();
+            parameters.setParseFailedReason(Parameters.FailReason.POST_TOO_LARGE);
+            partsParseException = e;
+
+        } catch (MultipartStream.MalformedStreamException e) {
+            parameters.setParseFailedReason(Parameters.FailReason.UNKNOWN);
+            partsParseException = new ServletException(e);
+
+        } catch (IOException e) {
+            parameters.setParseFailedReason(Parameters.FailReason.IO_ERROR);
+            partsParseException = e;
+
+        } finally {
+            if (data != null) {
+                data.discard();
+            }
+
+            if (success) {
+                this.parts = parts;
+            } else {
+                // 解析失败，删除已经落盘的临时文件
+                for (Part part : parts) {
+                    try {
+                        part.delete();
+                    } catch (IOException e) {
+                        ;
+                    }
+                }
+                if (!parameters.isParseFailed()) {
+                    parameters.setParseFailedReason(Parameters.FailReason.UNKNOWN);
+                }
+            }
+        }
+    }
+
 
+    /**
+     * 从Content-Type中取得multipart的分隔符
+     *
+     * @param contentType 请求体类型
+     * @return 返回分隔符，没有返回null
+     */
+    private byte[] getBoundary(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+
+        String lower = contentType.toLowerCase(Locale.ENGLISH);
+        int pos = lower.indexOf("boundary=");
+        if (pos < 0) {
+            return null;
+        }
+
+        String boundary = contentType.substring(pos + "boundary=".length());
+        int semicolon = boundary.indexOf(';');
+        if (semicolon >= 0) {
+            boundary = boundary.substring(0, semicolon);
+        }
+        boundary = boundary.trim();
+        if (boundary.length() >= 2 && boundary.charAt(0) == '"' && boundary.charAt(boundary.length() - 1) == '"') {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+
+        if (boundary.isEmpty()) {
+            return null;
+        }
+        
+        return boundary.getBytes(StandardCharsets.ISO_8859_1);
     }
 
 
@@ -2208,4 +2351,24 @@ public class Request implements HttpServletRequest {
     public Session getSessionInternal(boolean b) {
         return doGetSession(b);
     }
+
+
+    /**
+     * 访问此请求关联的session，更新它的访问时间
+     * 记录被访问的session，请求回收时只对这个session调用endAccess()，
+     * 即使请求处理过程中session被替换（失效后新建、id轮换等），access()和endAccess()也总是成对出现
+     *
+     * @return 返回被访问的session，没有session返回null
+     */
+    public Session accessSession() {
+        if (accessedSession != null)
+            return accessedSession;
+
+        Session session = doGetSession(false);
+        if (session != null) {
+            session.access();
+            accessedSession = session;
+        }
+        return session;
+    }
 }
@@ -3,10 +3,12 @@ package com.ranni.connector.coyote;
 import com.ranni.util.collections.SynchronizedStack;
 import com.ranni.util.net.AbstractEndpoint;
 import com.ranni.util.net.SocketEvent;
+import com.ranni.util.metrics.MetricsRegistry;
 import com.ranni.util.net.SocketWrapperBase;
 
 import java.net.InetAddress;
 import java.util.Collections;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
@@ -45,6 +47,8 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler {
     private int maxHeaderCount = 100;
     protected int processorCache = 200;
     protected Adapter adapter; // 适配器，用于ProtocolHandler和连接器之间的连接
+    protected String serviceName; // 所属的服务名
+    private final RequestGroupInfo global = new RequestGroupInfo(); // 此连接器上所有请求的统计
     
     
     // ==================================== 构造方法 ====================================
@@ -63,6 +67,31 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler {
     @Override
     public Adapter getAdapter() { return adapter; }
     
+    /**
+     * @return 返回此连接器上所有请求的统计
+     */
+    public RequestGroupInfo getGlobal() {
+        return global;
+    }
+
+    /**
+     * @return 返回所属的服务名，用于区分不同服务中的同名统计
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public void setServiceName(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * @return 返回统计使用的名称，如 http-8080
+     */
+    public String getName() {
+        return getProtocolName().toLowerCase(Locale.ENGLISH) + "-" + getPort();
+    }
+
     public int getMaxHeaderCount() {
         return maxHeaderCount;
     }
@@ -230,8 +259,10 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler {
     
     @Override
     public void init() throws Exception {
-        // XXX - 省略的JMX相关配置
         endpoint.init();
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.reopen(this);
+        registry.register(this, serviceName, "connector", getName(), global);
     }
 
 
@@ -270,6 +301,7 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler {
 
     @Override
     public void destroy() throws Exception {
+        MetricsRegistry.getInstance().unregister(this);
         endpoint.destroy();
     }
 
@@ -383,7 +415,9 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler {
                     // 注册读取兴趣，以便在有数据时可以直接存入到输入缓冲区中
                     wrapper.registerReadInterest();
                 } else if (state == SocketState.SENDFILE) {
-                    // XXX - 文件发送
+                    // 文件正在异步发送中，处理器继续与此socket关联。
+                    // 发送失败时socket会被关闭，发送完成后要么注册读
+                    // 兴趣等待下一个请求，要么直接处理流水线中的请求
                 } else if (state == SocketState.UPGRADED) {
                     // XXX - 协议升级过
                 } else if (state == SocketState.SUSPENDED) {
@@ -31,9 +31,12 @@ public final class Constants {
     public static final int STAGE_KEEPALIVE = 6;
     public static final int STAGE_ENDED = 7;
 
-    public static final String SENDFILE_FILE_END_ATTR = "com.ranni.sendfile.end";
+    // 发送文件相关的请求属性
+    public static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
     
-    public static final String SENDFILE_FILE_START_ATTR = "com.ranni.sendfile.start";
+    public static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    
+    public static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
 
     public static final String REMOTE_ADDR_ATTRIBUTE = "com.ranni.remoteAddr";
 
@@ -0,0 +1,148 @@
+package com.ranni.connector.coyote;
+
+import com.ranni.util.metrics.LatencyHistogram;
+import com.ranni.util.metrics.LatencySnapshot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 一组请求的统计，可以是一个连接器、一个Host或者一个Context
+ * 各个工作线程并发更新，计数使用LongAdder，耗时使用无锁的LatencyHistogram，
+ * 请求路径上没有锁
+ *
+ * 连接器的统计由各个处理器的RequestInfo在请求结束时汇总，并记录每个处理阶段的耗时；
+ * Host和Context的统计由CoyoteAdapter在响应结束时记录，没有阶段耗时
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/21 10:10
+ */
+public class RequestGroupInfo implements RequestGroupInfoMXBean {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final String[] STAGE_NAMES = { null, "parse", "prepare", "service", "endinput", "endoutput" };
+
+    private final LongAdder requestCount = new LongAdder(); // 请求数
+    private final LongAdder errorCount = new LongAdder(); // 状态码大于等于400的请求数
+    private final LongAdder bytesSent = new LongAdder(); // 发送的字节数
+    private final LongAdder bytesReceived = new LongAdder(); // 接收的字节数
+    private final LongAdder processingTime = new LongAdder(); // 总处理时间，单位毫秒
+    private final LongAccumulator maxTime = new LongAccumulator(Math::max, 0L); // 最长处理时间，单位毫秒
+    private final LatencyHistogram requestTime = new LatencyHistogram(); // 请求耗时分布
+    private final LatencyHistogram[] stageTimes = new LatencyHistogram[STAGE_NAMES.length]; // 阶段耗时分布
+
+
+    public RequestGroupInfo() {
+        for (int i = Constants.STAGE_PARSE; i <= Constants.STAGE_ENDOUTPUT; i++)
+            stageTimes[i] = new LatencyHistogram();
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 记录一次请求
+     *
+     * @param bytesReceived 接收的字节数
+     * @param bytesSent 发送的字节数
+     * @param nanos 请求耗时，单位纳秒
+     * @param error 是否是错误的响应
+     */
+    public void updateCounters(long bytesReceived, long bytesSent, long nanos, boolean error) {
+        requestCount.increment();
+        if (error)
+            errorCount.increment();
+        this.bytesReceived.add(bytesReceived);
+        this.bytesSent.add(bytesSent);
+
+        long millis = nanos / 1_000_000L;
+        processingTime.add(millis);
+        maxTime.accumulate(millis);
+        requestTime.record(nanos / 1000L);
+    }
+
+
+    /**
+     * 记录一个处理阶段的耗时
+     *
+     * @param stage Constants中的STAGE_PARSE到STAGE_ENDOUTPUT
+     * @param nanos 耗时，单位纳秒
+     */
+    public void recordStage(int stage, long nanos) {
+        if (stage >= Constants.STAGE_PARSE && stage <= Constants.STAGE_ENDOUTPUT)
+            stageTimes[stage].record(nanos / 1000L);
+    }
+
+
+    @Override
+    public void resetCounters() {
+        requestCount.reset();
+        errorCount.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+        processingTime.reset();
+        maxTime.reset();
+        requestTime.reset();
+        for (LatencyHistogram histogram : stageTimes) {
+            if (histogram != null)
+                histogram.reset();
+        }
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getProcessingTime() {
+        return processingTime.sum();
+    }
+
+    @Override
+    public long getMaxTime() {
+        return maxTime.get();
+    }
+
+    @Override
+    public LatencySnapshot getRequestTime() {
+        return requestTime.snapshot();
+    }
+
+    /**
+     * @return 返回各个阶段的耗时分布，没有记录过的阶段不返回
+     */
+    @Override
+    public Map<String, LatencySnapshot> getStageTimes() {
+        Map<String, LatencySnapshot> map = new LinkedHashMap<>();
+        for (int i = Constants.STAGE_PARSE; i <= Constants.STAGE_ENDOUTPUT; i++) {
+            if (stageTimes[i].getCount() > 0)
+                map.put(STAGE_NAMES[i], stageTimes[i].snapshot());
+        }
+        return map;
+    }
+}
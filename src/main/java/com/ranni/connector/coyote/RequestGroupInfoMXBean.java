@@ -0,0 +1,45 @@
+package com.ranni.connector.coyote;
+
+import com.ranni.util.metrics.LatencySnapshot;
+
+import java.util.Map;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * RequestGroupInfo的JMX管理接口
+ * 时间类的统计中，processingTime和maxTime的单位是毫秒，直方图的单位是微秒
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/21 10:00
+ */
+public interface RequestGroupInfoMXBean {
+
+    long getRequestCount();
+
+    long getErrorCount();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    long getProcessingTime();
+
+    long getMaxTime();
+
+    /**
+     * @return 返回整个请求的耗时分布
+     */
+    LatencySnapshot getRequestTime();
+
+    /**
+     * @return 返回各个处理阶段（parse、prepare、service、endinput、endoutput）的耗时分布
+     */
+    Map<String, LatencySnapshot> getStageTimes();
+
+    /**
+     * 清空所有统计
+     */
+    void resetCounters();
+}
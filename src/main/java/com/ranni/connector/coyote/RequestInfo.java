@@ -32,7 +32,7 @@ import javax.management.ObjectName;
  * @author Costin Manolache
  */
 public class RequestInfo  {
-//    private RequestGroupInfo global=null;
+    private RequestGroupInfo global=null;
 
     // ----------------------------------------------------------- Constructors
 
@@ -40,26 +40,25 @@ public class RequestInfo  {
         this.req=req;
     }
 
-//    public RequestGroupInfo getGlobalProcessor() {
-//        return global;
-//    }
+    public RequestGroupInfo getGlobalProcessor() {
+        return global;
+    }
 
-//    public void setGlobalProcessor(RequestGroupInfo global) {
-//        if( global != null) {
-//            this.global=global;
-//            global.addRequestProcessor( this );
-//        } else {
-//            if (this.global != null) {
-//                this.global.removeRequestProcessor( this );
-//                this.global = null;
-//            }
-//        }
-//    }
+    /**
+     * Counters of every request handled by this processor are added to the
+     * given group when the request ends. The group is updated with LongAdders,
+     * so processors do not need to be registered with it.
+     */
+    public void setGlobalProcessor(RequestGroupInfo global) {
+        this.global=global;
+    }
 
 
     // ----------------------------------------------------- Instance Variables
     private final Request req;
     private int stage = Constants.STAGE_NEW;
+    private long stageStartNanos;
+    private long requestStartNanos;
     private String workerThreadName;
     private ObjectName rpName;
 
@@ -177,14 +176,42 @@ public class RequestInfo  {
             maxTime=time;
             maxRequestUri=req.requestURI().toString();
         }
+
+        if (global != null) {
+            global.updateCounters(req.getBytesRead(), req.getResponse().getContentWritten(),
+                    System.nanoTime() - requestStartNanos, req.getResponse().getStatus() >= 400);
+        }
     }
 
     public int getStage() {
         return stage;
     }
 
+    /**
+     * Moving to the next stage records how long the current one took. Only
+     * the sequential transitions from STAGE_PARSE to STAGE_KEEPALIVE are
+     * timed, so a request that skips stages after an error does not pollute
+     * the histograms. Entering STAGE_PARSE marks the start of a request.
+     */
     public void setStage(int stage) {
+        long now = System.nanoTime();
+        if (global != null && stage == this.stage + 1
+                && this.stage >= Constants.STAGE_PARSE && this.stage <= Constants.STAGE_ENDOUTPUT) {
+            global.recordStage(this.stage, now - stageStartNanos);
+        }
+        if (stage == Constants.STAGE_PARSE) {
+            requestStartNanos = now;
+        }
         this.stage = stage;
+        this.stageStartNanos = now;
+    }
+
+    /**
+     * @return the System.nanoTime() at which the current request entered
+     *         STAGE_PARSE
+     */
+    public long getRequestStartNanos() {
+        return requestStartNanos;
     }
 
     public long getBytesSent() {
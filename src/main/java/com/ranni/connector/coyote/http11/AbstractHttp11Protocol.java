@@ -48,6 +48,7 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     @Override
     protected Processor createProcessor() {
         Http11Processor processor = new Http11Processor(this, adapter);
+        processor.getRequest().getRequestProcessor().setGlobalProcessor(getGlobal());
         return processor;
     }
 
@@ -10,6 +10,7 @@ import com.ranni.util.http.parse.HttpParser;
 import com.ranni.util.http.parse.TokenList;
 import com.ranni.util.net.AbstractEndpoint.Handler.SocketState;
 import com.ranni.util.net.SendfileDataBase;
+import com.ranni.util.net.SendfileKeepAliveState;
 import com.ranni.util.net.SendfileState;
 import com.ranni.util.net.SocketWrapperBase;
 
@@ -173,7 +174,6 @@ public class Http11Processor extends AbstractProcessor {
     public SocketState service(SocketWrapperBase<?> socketWrapper) throws IOException {
 //        System.out.println("Http11Processor#service()");
         RequestInfo ri = request.getRequestProcessor();
-        ri.setStage(com.ranni.connector.coyote.Constants.STAGE_PARSE); // 切换到请求解析状态
         
         setSocketWrapper(socketWrapper);
         
@@ -187,6 +187,8 @@ public class Http11Processor extends AbstractProcessor {
         while (!getErrorState().isError() && keepAlive && !isAsync() 
                 && sendfileState == SendfileState.DONE && !protocol.isPaused()) {
             
+            // 切换到请求解析状态，keep-alive连接上的每个请求都从这里开始计时
+            ri.setStage(com.ranni.connector.coyote.Constants.STAGE_PARSE);
             
             try {
                 // 解析请求行
@@ -320,7 +322,7 @@ public class Http11Processor extends AbstractProcessor {
             }
             
             ri.setStage(com.ranni.connector.coyote.Constants.STAGE_KEEPALIVE);
-//            sendfileState = processSendfile(socketWrapper);
+            sendfileState = processSendfile(socketWrapper);
             
         } // while end
         
@@ -944,19 +946,55 @@ public class Http11Processor extends AbstractProcessor {
      * @param outputFilters 过滤器库
      */
     private void prepareSendfile(OutputFilter[] outputFilters) {
-        String fileName = (String) request.getAttribute(com.ranni.connector.coyote.Constants.SENDFILE_FILE_END_ATTR);
+        String fileName = (String) request.getAttribute(com.ranni.connector.coyote.Constants.SENDFILE_FILENAME_ATTR);
         if (fileName == null) {
             sendfileData = null;
         } else {
+            // 响应正文由文件发送完成，过滤掉往响应正文中写入的数据
             outputBuffer.addActiveFilter(outputFilters[Constants.VOID_FILTER]);
             contentDelimitation = true;
-            long pos = (long) request.getAttribute(com.ranni.connector.coyote.Constants.SENDFILE_FILE_START_ATTR);
-            long end = (long) request.getAttribute(com.ranni.connector.coyote.Constants.SENDFILE_FILE_END_ATTR);
-            sendfileData = socketWrapper.createSendfileData(fileName, pos, end);
+            long pos = ((Long) request.getAttribute(com.ranni.connector.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
+            long end = ((Long) request.getAttribute(com.ranni.connector.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue();
+            sendfileData = socketWrapper.createSendfileData(fileName, pos, end - pos);
         }
     }
 
 
+    /**
+     * 如果此次响应需要发送文件，那么在响应头发送完毕后由socket包装
+     * 实例发送文件。发送文件前需要确定发送完毕后连接的去向
+     * 
+     * @param socketWrapper socket包装实例
+     * @return 返回文件发送状态，没有要发送的文件视为 {@link SendfileState#DONE}
+     */
+    private SendfileState processSendfile(SocketWrapperBase<?> socketWrapper) {
+        openSocket = keepAlive;
+        SendfileState result = SendfileState.DONE;
+        
+        if (sendfileData != null && !getErrorState().isError()) {
+            if (keepAlive) {
+                if (available(false) == 0) {
+                    // 等待下一个请求
+                    sendfileData.keepAliveState = SendfileKeepAliveState.OPEN;
+                } else {
+                    // 输入缓冲区中已经有下一个请求的数据了
+                    sendfileData.keepAliveState = SendfileKeepAliveState.PIPELINED;
+                }
+            } else {
+                sendfileData.keepAliveState = SendfileKeepAliveState.NONE;
+            }
+            
+            result = socketWrapper.processSendfile(sendfileData);
+            if (result == SendfileState.ERROR) {
+                setErrorState(ErrorState.CLOSE_CONNECTION_NOW, null);
+            }
+            sendfileData = null;
+        }
+        
+        return result;
+    }
+
+
     /**
      * 设置socket映射实例
      *
@@ -6,6 +6,7 @@ import com.ranni.lifecycle.Lifecycle;
 import com.ranni.lifecycle.LifecycleException;
 import com.ranni.lifecycle.LifecycleListener;
 import com.ranni.loader.Loader;
+import com.ranni.container.pip.AccessLog;
 import com.ranni.container.pip.Pipeline;
 import com.ranni.container.pip.StandardPipeline;
 import com.ranni.container.pip.Valve;
@@ -13,15 +14,19 @@ import com.ranni.logger.Logger;
 import com.ranni.naming.ProxyDirContext;
 import com.ranni.container.session.Manager;
 import com.ranni.util.LifecycleSupport;
+import com.ranni.util.metrics.MetricsRegistry;
 
 import javax.naming.directory.DirContext;
 import javax.servlet.ServletException;
 import java.awt.event.ContainerListener;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Title: HttpServer
@@ -49,6 +54,7 @@ public abstract class ContainerBase implements Container, Pipeline, Lifecycle {
     protected Thread thread; // 后台任务线程
     protected LifecycleSupport lifecycle = new LifecycleSupport(this); // 生命周期管理工具实例
     protected String mapperClass; // 映射器全限定类名
+    protected int startStopThreads; // 并行启动子容器的线程数，小于等于0为CPU核数，1为依次启动
 
 
     /**
@@ -411,9 +417,10 @@ public abstract class ContainerBase implements Container, Pipeline, Lifecycle {
      * 移除阀
      *
      * @param valve
+     * @throws LifecycleException
      */
     @Override
-    public void removeValve(Valve valve) {
+    public void removeValve(Valve valve) throws LifecycleException {
         pipeline.removeValve(valve);
     }
 
@@ -469,9 +476,10 @@ public abstract class ContainerBase implements Container, Pipeline, Lifecycle {
      * 设置基础阀
      *
      * @param valve
+     * @throws LifecycleException
      */
     @Override
-    public void setBasic(Valve valve) {
+    public void setBasic(Valve valve) throws LifecycleException {
         pipeline.setBasic(valve);
     }
 
@@ -480,9 +488,10 @@ public abstract class ContainerBase implements Container, Pipeline, Lifecycle {
      * 添加阀
      *
      * @param valve
+     * @throws LifecycleException
      */
     @Override
-    public void addValve(Valve valve) {
+    public void addValve(Valve valve) throws LifecycleException {
         pipeline.addValve(valve);
     }
 
@@ -497,6 +506,17 @@ public abstract class ContainerBase implements Container, Pipeline, Lifecycle {
         return pipeline.getValves();
     }
 
+
+    /**
+     * 返回非基础阀中所有的访问日志阀
+     *
+     * @return
+     */
+    @Override
+    public AccessLog[] getAccessLogs() {
+        return pipeline.getAccessLogs();
+    }
+
     
     /**
      * 写入日志文件
@@ -668,6 +688,7 @@ public abstract class ContainerBase implements Container, Pipeline, Lifecycle {
         lifecycle.fireLifecycleEvent(Lifecycle.BEFORE_START_EVENT, null);
         
         started = true;
+        MetricsRegistry.getInstance().reopen(this); // 上次停止时注销的统计允许重新注册
         
         // 启动组件
         if (loader != null && loader instanceof Lifecycle)
@@ -681,10 +702,7 @@ public abstract class ContainerBase implements Container, Pipeline, Lifecycle {
         
         
         // 启动子容器
-        for (Container container : findChildren()) {
-            if (container instanceof Lifecycle)
-                ((Lifecycle) container).start();
-        }
+        startChildren(findChildren());
         
         // 启动管道
         if (pipeline instanceof Lifecycle)
@@ -697,6 +715,123 @@ public abstract class ContainerBase implements Container, Pipeline, Lifecycle {
     }
 
 
+    /**
+     * 启动子容器
+     * 子容器按启动顺序分组，组与组之间依次启动，同一组内的子容器并行启动，
+     * 一组中有子容器启动失败时，后面的组不再启动
+     *
+     * @param children
+     * @throws LifecycleException
+     */
+    protected void startChildren(Container[] children) throws LifecycleException {
+        TreeMap<Integer, List<Container>> groups = new TreeMap<>();
+        for (Container child : children) {
+            if (child instanceof Lifecycle)
+                groups.computeIfAbsent(getStartupOrder(child), k -> new ArrayList<>()).add(child);
+        }
+        if (groups.isEmpty())
+            return;
+
+        int threads = startStopThreads > 0 ? startStopThreads : Runtime.getRuntime().availableProcessors();
+        if (threads == 1 || children.length == 1) {
+            for (List<Container> group : groups.values()) {
+                for (Container child : group)
+                    startChild(child);
+            }
+            return;
+        }
+
+        // 每个容器用自己的线程池，父容器的启动线程等待子容器时不会占用子容器的线程
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, children.length), r -> {
+            Thread thread = new Thread(r, getName() + "-startStop-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (List<Container> group : groups.values()) {
+                CompletableFuture<?>[] futures = new CompletableFuture<?>[group.size()];
+                for (int i = 0; i < futures.length; i++) {
+                    Container child = group.get(i);
+                    futures[i] = CompletableFuture.runAsync(() -> {
+                        try {
+                            startChild(child);
+                        } catch (LifecycleException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor);
+                }
+
+                // 等待这一组全部结束再启动下一组
+                LifecycleException exception = null;
+                for (CompletableFuture<?> future : futures) {
+                    try {
+                        future.join();
+                    } catch (CompletionException e) {
+                        if (exception != null)
+                            continue;
+                        if (e.getCause() instanceof LifecycleException)
+                            exception = (LifecycleException) e.getCause();
+                        else
+                            exception = new LifecycleException("子容器启动失败！", e.getCause());
+                    }
+                }
+                if (exception != null)
+                    throw exception;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * 启动一个子容器并记录启动耗时
+     *
+     * @param child
+     * @throws LifecycleException
+     */
+    private void startChild(Container child) throws LifecycleException {
+        long start = System.nanoTime();
+        ((Lifecycle) child).start();
+        log("子容器[ " + child.getName() + " ]启动耗时 " + (System.nanoTime() - start) / 1000000L + "ms");
+    }
+
+
+    /**
+     * 返回子容器的启动顺序，值小的先启动，只有Context容器可以声明启动顺序
+     *
+     * @param child
+     * @return
+     */
+    protected int getStartupOrder(Container child) {
+        if (child instanceof Context)
+            return ((Context) child).getStartupOrder();
+        return 0;
+    }
+
+
+    /**
+     * 设置并行启动子容器的线程数
+     *
+     * @param startStopThreads 小于等于0为CPU核数，1为依次启动
+     */
+    public void setStartStopThreads(int startStopThreads) {
+        this.startStopThreads = startStopThreads;
+    }
+
+
+    /**
+     * 返回并行启动子容器的线程数
+     *
+     * @return
+     */
+    public int getStartStopThreads() {
+        return startStopThreads;
+    }
+
+
     /**
      * 通用容器停止方法
      *
@@ -732,6 +867,8 @@ public abstract class ContainerBase implements Container, Pipeline, Lifecycle {
         if (loader != null && loader instanceof Lifecycle)
             ((Lifecycle) loader).stop();
         
+        MetricsRegistry.getInstance().unregister(this);
+        
         lifecycle.fireLifecycleEvent(AFTER_STOP_EVENT, null);
     }
 
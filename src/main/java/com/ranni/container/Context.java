@@ -237,6 +237,22 @@ public interface Context extends Container, ContextBind {
      */
     void setReloadable(boolean reloadable);
 
+
+    /**
+     * 返回启动顺序，同一个Host中值小的Context先启动，值相同的并行启动
+     *
+     * @return
+     */
+    int getStartupOrder();
+
+
+    /**
+     * 设置启动顺序
+     *
+     * @param startupOrder
+     */
+    void setStartupOrder(int startupOrder);
+
     /**
      * 返回重写标志
      *
@@ -240,6 +240,14 @@ public interface Wrapper extends Container {
     MultipartConfigElement getMultipartConfigElement();
 
 
+    /**
+     * 设置Multipart配置
+     *
+     * @param multipartConfigElement Multipart配置
+     */
+    void setMultipartConfigElement(MultipartConfigElement multipartConfigElement);
+
+
     /**
      * servlet支持的方法
      */
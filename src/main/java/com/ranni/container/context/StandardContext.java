@@ -2,15 +2,21 @@ package com.ranni.container.context;
 
 import com.ranni.common.Globals;
 import com.ranni.common.SystemProperty;
+import com.ranni.connector.Mapper;
 import com.ranni.connector.Request;
 import com.ranni.connector.Response;
 import com.ranni.container.Container;
 import com.ranni.container.ContainerBase;
 import com.ranni.container.Context;
+import com.ranni.container.Engine;
 import com.ranni.container.Host;
+import com.ranni.container.Wrapper;
 import com.ranni.container.host.StandardHost;
 import com.ranni.container.scope.ApplicationContext;
+import com.ranni.container.session.DeltaManager;
 import com.ranni.container.session.StandardManager;
+import com.ranni.container.wrapper.StandardWrapper;
+import com.ranni.core.Service;
 import com.ranni.core.ApplicationFilterConfig;
 import com.ranni.core.FilterDef;
 import com.ranni.deploy.FilterMap;
@@ -24,6 +30,7 @@ import com.ranni.naming.WARDirContext;
 import com.ranni.util.CharsetMapper;
 import com.ranni.util.RequestUtil;
 import com.ranni.util.http.CookieProcessor;
+import com.ranni.util.metrics.MetricsRegistry;
 import com.ranni.util.http.Rfc6265CookieProcessor;
 
 import javax.naming.directory.DirContext;
@@ -34,6 +41,7 @@ import javax.servlet.http.HttpServletRequest;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Title: HttpServer
@@ -45,6 +53,9 @@ import java.util.*;
  * @Date 2022-03-28 17:29
  */
 public class StandardContext extends ContainerBase implements Context {
+    public static final String DEFAULT_SERVLET_NAME = "default"; // 默认servlet的名字
+    public static final String DEFAULT_SERVLET_CLASS = "com.ranni.container.wrapper.DefaultServlet"; // 默认servlet的类名
+    
     private ApplicationContext context; // servlet的全局作用域
     private String docBase; // web应用程序文档根目录（相对路径）
     private boolean crossContext; // 跨servlet访问
@@ -66,13 +77,16 @@ public class StandardContext extends ContainerBase implements Context {
     private boolean privileged; // 此容器是否具备特权
     private boolean available; // 此WebApp是否可用
     private boolean configured; // 此Context容器的配置标志，在start()通过生命周期事件触发配置监听器对此context容器进行配置，为true时WebApp才能启动
-    private FilterMap[] filterMaps = new FilterMap[0]; // 过滤器映射集合
+    private volatile FilterMap[] filterMaps = new FilterMap[0]; // 过滤器映射集合
+    private final Object filterMapsLock = new Object(); // 修改过滤器映射集合时用的锁
+    private final AtomicInteger filterMapsVersion = new AtomicInteger(); // 过滤器映射或过滤器配置的版本号，每次变更都加1，用于使过滤器链缓存失效
     private CharsetMapper charsetMapper; // 字符集
     private String charsetMapperClass = "com.ranni.util.CharsetMapper"; // 默认的字符集类
     private String mapperClass = "com.ranni.container.context.StandardContextMapper"; // 默认映射器
     private int count; // 正式进行Session回收任务的倒计时
     private int managerChecksFrequency = 15; // Session回收频率，默认15
     private boolean reloadable; // 容器的重载标志位
+    private int startupOrder; // 启动顺序，值小的先启动
     private String publicId; // xml公共id
     private String systemId; // xml系统id
     private boolean swallowAbortedUploads = true; // 对请求大小进行约束的标志位
@@ -112,7 +126,11 @@ public class StandardContext extends ContainerBase implements Context {
 
 
     public StandardContext() {
-        pipeline.setBasic(new StandardContextValve(this));
+        try {
+            pipeline.setBasic(new StandardContextValve(this));
+        } catch (LifecycleException e) {
+            ; // 管道还没有启动，不会启动基础阀
+        }
     }
 
 
@@ -690,6 +708,28 @@ public class StandardContext extends ContainerBase implements Context {
         this.reloadable = reloadable;
     }
 
+
+    /**
+     * 返回启动顺序
+     *
+     * @return
+     */
+    @Override
+    public int getStartupOrder() {
+        return startupOrder;
+    }
+
+
+    /**
+     * 设置启动顺序，同一个Host中值小的Context先启动，值相同的并行启动
+     *
+     * @param startupOrder
+     */
+    @Override
+    public void setStartupOrder(int startupOrder) {
+        this.startupOrder = startupOrder;
+    }
+
     @Override
     public boolean getOverride() {
         return false;
@@ -836,11 +876,12 @@ public class StandardContext extends ContainerBase implements Context {
         if (servletName != null && urlPattern != null)
             throw new IllegalArgumentException("StandardContext.addFilterMap：此FilterMap已经添加");
         
-        synchronized (filterMaps) {
+        synchronized (filterMapsLock) {
             FilterMap[] newArs = new FilterMap[filterMaps.length + 1];
             System.arraycopy(filterMaps, 0, newArs, 0, filterMaps.length);
             newArs[filterMaps.length] = filterMap;
             filterMaps = newArs;
+            filterMapsVersion.incrementAndGet();
         }
     }
 
@@ -1019,6 +1060,16 @@ public class StandardContext extends ContainerBase implements Context {
     public FilterMap[] findFilterMaps() {
         return filterMaps;
     }
+
+
+    /**
+     * 返回过滤器映射的版本号，过滤器映射或过滤器配置每次变更都会加1
+     *
+     * @return
+     */
+    public int getFilterMapsVersion() {
+        return filterMapsVersion.get();
+    }
     
     
     /**
@@ -1212,9 +1263,31 @@ public class StandardContext extends ContainerBase implements Context {
 
     }
 
+    /**
+     * 移除过滤器映射
+     *
+     * @param filterMap
+     */
     @Override
     public void removeFilterMap(FilterMap filterMap) {
-
+        synchronized (filterMapsLock) {
+            int index = -1;
+            for (int i = 0; i < filterMaps.length; i++) {
+                if (filterMaps[i] == filterMap) {
+                    index = i;
+                    break;
+                }
+            }
+            
+            if (index < 0)
+                return;
+            
+            FilterMap[] newArs = new FilterMap[filterMaps.length - 1];
+            System.arraycopy(filterMaps, 0, newArs, 0, index);
+            System.arraycopy(filterMaps, index + 1, newArs, index, filterMaps.length - index - 1);
+            filterMaps = newArs;
+            filterMapsVersion.incrementAndGet();
+        }
     }
 
     @Override
@@ -1480,6 +1553,7 @@ public class StandardContext extends ContainerBase implements Context {
         boolean ok = true;
         setConfigured(false);
         setAvailable(false);
+        MetricsRegistry.getInstance().reopen(this); // 上次停止时注销的统计允许重新注册
         
         // 配置资源
         if (getResources() == null) {
@@ -1531,7 +1605,7 @@ public class StandardContext extends ContainerBase implements Context {
             if (debug >= 1)
                 log("开始配置session管理器");
             
-            setManager(new StandardManager());
+            setManager(getDistributable() ? new DeltaManager() : new StandardManager());
         }
         
         // 初始化字符集
@@ -1567,6 +1641,9 @@ public class StandardContext extends ContainerBase implements Context {
                 if (resources != null && resources instanceof Lifecycle)
                     ((Lifecycle) resources).start();
                 
+                // 添加处理静态资源的默认wrapper
+                addDefaultWrapper();
+                
                 // 启动子容器
                 Container[] children = findChildren();
                 for (Container child : children) {
@@ -1643,6 +1720,35 @@ public class StandardContext extends ContainerBase implements Context {
     }
 
 
+    /**
+     * 如果没有子容器映射在"/"上，就添加一个处理静态资源的默认wrapper，
+     * Mapper在所有wrapper都匹配不上时会使用它
+     */
+    private void addDefaultWrapper() {
+        for (Container child : findChildren()) {
+            if (Mapper.DEFAULT_PATH.equals(((Wrapper) child).getPath()))
+                return;
+        }
+        
+        if (findChild(DEFAULT_SERVLET_NAME) != null)
+            return;
+
+        StandardWrapper wrapper = new StandardWrapper();
+        wrapper.setName(DEFAULT_SERVLET_NAME);
+        wrapper.setServletClass(DEFAULT_SERVLET_CLASS);
+        wrapper.setPath(Mapper.DEFAULT_PATH);
+        addChild(wrapper);
+
+        // 如果此Context已经注册到Mapper中，则需要把默认wrapper也注册上去
+        Container host = getParent();
+        if (host != null && host.getParent() instanceof Engine) {
+            Service service = ((Engine) host.getParent()).getService();
+            if (service != null && service.getMapper() != null)
+                service.getMapper().addWrapper(wrapper);
+        }
+    }
+
+
     /**
      * TODO 启动监听器
      */
@@ -1713,6 +1819,7 @@ public class StandardContext extends ContainerBase implements Context {
                     ok = false;
                 }
             }
+            filterMapsVersion.incrementAndGet();
         }
         
         return ok;
@@ -1881,6 +1988,7 @@ public class StandardContext extends ContainerBase implements Context {
         }
         
         context = null;
+        MetricsRegistry.getInstance().unregister(this);
         
         lifecycle.fireLifecycleEvent(AFTER_STOP_EVENT, null);
         if (debug >= 1)
@@ -1914,6 +2022,7 @@ public class StandardContext extends ContainerBase implements Context {
             }
             
             filterConfigs.clear();
+            filterMapsVersion.incrementAndGet();
         }
     }
 
@@ -21,7 +21,11 @@ public class StandardEngine extends ContainerBase implements Engine {
 
 
     public StandardEngine() {
-        pipeline.setBasic(new StandardEngineValve(this));
+        try {
+            pipeline.setBasic(new StandardEngineValve(this));
+        } catch (LifecycleException e) {
+            ; // 管道还没有启动，不会启动基础阀
+        }
     }
 
 
@@ -29,7 +29,11 @@ public class StandardHost extends ContainerBase implements Host {
 
 
     public StandardHost() {
-        pipeline.setBasic(new StandardHostValve(this));
+        try {
+            pipeline.setBasic(new StandardHostValve(this));
+        } catch (LifecycleException e) {
+            ; // 管道还没有启动，不会启动基础阀
+        }
     }
 
 
@@ -6,8 +6,6 @@ import com.ranni.container.Context;
 import com.ranni.container.Host;
 import com.ranni.container.pip.ValveBase;
 import com.ranni.container.pip.ValveContext;
-import com.ranni.container.session.Manager;
-import com.ranni.container.session.Session;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -64,17 +62,10 @@ public class StandardHostValve extends ValveBase {
         ClassLoader oldCCL = Thread.currentThread().getContextClassLoader();
         Thread.currentThread().setContextClassLoader(context.getLoader().getClassLoader());
         
-        // 更新Session访问时间
+        // 更新Session访问时间，session关联到请求上，请求回收时调用endAccess()与access()配对
         String sessionId = ((HttpServletRequest) request).getRequestedSessionId();
-        if (sessionId != null) {
-            Manager manager = context.getManager();
-            if (manager != null) {
-                Session session = manager.findSession(sessionId);
-                if (session != null && session.isValid()) {
-                    session.access();
-                }
-            }
-        }
+        if (sessionId != null && context.getManager() != null)
+            request.accessSession();
 
         context.invoke(request, response);
         
@@ -0,0 +1,27 @@
+package com.ranni.container.pip;
+
+import com.ranni.connector.coyote.Request;
+import com.ranni.connector.coyote.Response;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 访问日志接口
+ * 由CoyoteAdapter在响应结束之后调用，此时响应的字节数和处理时间都已经确定。
+ * 请求在进入容器之前就出错时（例如请求行非法）也会调用
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/20 14:00
+ */
+public interface AccessLog {
+
+    /**
+     * 记录一次请求
+     *
+     * @param request CoyoteRequest
+     * @param response CoyoteResponse
+     * @param time 请求处理时间，单位毫秒
+     */
+    void log(Request request, Response response, long time);
+}
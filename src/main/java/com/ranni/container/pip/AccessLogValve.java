@@ -0,0 +1,614 @@
+package com.ranni.container.pip;
+
+import com.ranni.connector.Request;
+import com.ranni.connector.Response;
+import com.ranni.connector.coyote.ActionCode;
+import com.ranni.lifecycle.Lifecycle;
+import com.ranni.lifecycle.LifecycleException;
+import com.ranni.lifecycle.LifecycleListener;
+import com.ranni.logger.AsyncFileWriter;
+import com.ranni.util.LifecycleSupport;
+import com.ranni.util.buf.ByteChunk;
+import com.ranni.util.buf.MessageBytes;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 访问日志阀，放在StandardEngine或StandardHost的管道中
+ * 1、格式字符串在设置时解析成一组日志元素，每次请求按顺序调用
+ * 2、日志直接渲染到线程私有的ByteChunk中，不拼接String
+ * 3、渲染好的字节交给AsyncFileWriter，由后台线程按天滚动写入文件
+ *
+ * 阀本身只是放行请求，日志由CoyoteAdapter在响应结束之后通过AccessLog接口记录，
+ * 这时响应的字节数和处理时间才是准确的
+ *
+ * 支持的格式：
+ * %a 客户端IP  %A 本地IP  %b 响应字节数（0为-）  %B 响应字节数  %D 处理时间（毫秒）
+ * %h 客户端IP  %H 协议  %l -  %m 请求方法  %p 本地端口  %q 查询字符串（带?）
+ * %r 请求行  %s 状态码  %t 时间 [dd/MMM/yyyy:HH:mm:ss Z]  %T 处理时间（秒）  %u 远程用户  %U 请求URI  %v 服务器名
+ * %{xxx}i 请求头  %{xxx}o 响应头  %% 百分号
+ * common 和 combined 是两种预定义的格式
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/20 14:10
+ */
+public class AccessLogValve extends ValveBase implements AccessLog, Lifecycle {
+
+    // ==================================== 属性字段 ====================================
+
+    /**
+     * Common Log Format
+     */
+    public static final String COMMON = "%h %l %u %t \"%r\" %s %b";
+
+    /**
+     * Combined Log Format
+     */
+    public static final String COMBINED = COMMON + " \"%{Referer}i\" \"%{User-Agent}i\"";
+
+    private static final String info = "com.ranni.container.pip.AccessLogValve/1.0";
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 每个线程一个渲染缓冲区
+     */
+    private static final ThreadLocal<LogBuffer> buffers = ThreadLocal.withInitial(LogBuffer::new);
+
+    protected LifecycleSupport lifecycle = new LifecycleSupport(this); // 生命周期管理工具
+    private final AsyncFileWriter writer = new AsyncFileWriter(); // 异步写入器
+    private String pattern; // 格式字符串
+    private AccessLogElement[] elements; // 解析后的日志元素
+    private boolean enabled = true; // 是否记录
+    private boolean started; // 启动标志位
+
+    private static final DateTimeFormatter CLF_DATE =
+            DateTimeFormatter.ofPattern("'['dd/MMM/yyyy:HH:mm:ss Z']'", Locale.US); // Common Log Format的时间
+    private final ZoneId zone = ZoneId.systemDefault();
+    private volatile CachedDate cachedDate = new CachedDate(Long.MIN_VALUE, new byte[0]); // 缓存的%t
+
+
+    public AccessLogValve() {
+        writer.setPrefix("access_log.");
+        writer.setSuffix(".txt");
+        setPattern("common");
+    }
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 日志元素，把请求的某一部分写入缓冲区
+     */
+    protected interface AccessLogElement {
+        void append(LogBuffer buf, com.ranni.connector.coyote.Request request,
+                    com.ranni.connector.coyote.Response response, long time) throws IOException;
+    }
+
+
+    /**
+     * 线程私有的渲染缓冲区
+     */
+    protected static final class LogBuffer {
+        private final ByteChunk chunk = new ByteChunk(256);
+        private final byte[] digits = new byte[20];
+
+        void append(byte b) throws IOException {
+            chunk.append(b);
+        }
+
+        void append(byte[] bytes) throws IOException {
+            chunk.append(bytes, 0, bytes.length);
+        }
+
+        /**
+         * 写入数字
+         *
+         * @param value
+         * @throws IOException
+         */
+        void append(long value) throws IOException {
+            if (value == 0) {
+                chunk.append((byte) '0');
+                return;
+            }
+            if (value < 0) {
+                chunk.append((byte) '-');
+                if (value == Long.MIN_VALUE) {
+                    append(Long.toString(value).substring(1));
+                    return;
+                }
+                value = -value;
+            }
+
+            int pos = digits.length;
+            while (value > 0) {
+                digits[--pos] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            chunk.append(digits, pos, digits.length - pos);
+        }
+
+        /**
+         * 写入字符串，非ASCII字符按UTF-8编码，控制字符写成?，双引号前加反斜杠
+         *
+         * @param str
+         * @throws IOException
+         */
+        void append(String str) throws IOException {
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                if (c == '"') {
+                    chunk.append((byte) '\\');
+                    chunk.append((byte) '"');
+                } else if (c < 0x80) {
+                    chunk.append(c < 0x20 || c == 0x7f ? (byte) '?' : (byte) c);
+                } else if (c < 0x800) {
+                    chunk.append((byte) (0xc0 | (c >> 6)));
+                    chunk.append((byte) (0x80 | (c & 0x3f)));
+                } else if (Character.isSurrogate(c)) {
+                    chunk.append((byte) '?');
+                } else {
+                    chunk.append((byte) (0xe0 | (c >> 12)));
+                    chunk.append((byte) (0x80 | ((c >> 6) & 0x3f)));
+                    chunk.append((byte) (0x80 | (c & 0x3f)));
+                }
+            }
+        }
+
+        /**
+         * 写入MessageBytes，为空时写入-
+         *
+         * @param mb
+         * @throws IOException
+         */
+        void append(MessageBytes mb) throws IOException {
+            if (mb == null || mb.isNull()) {
+                chunk.append((byte) '-');
+                return;
+            }
+
+            if (mb.getType() != MessageBytes.T_BYTES) {
+                append(mb.toString());
+                return;
+            }
+
+            ByteChunk bc = mb.getByteChunk();
+            byte[] bytes = bc.getBuffer();
+            int end = bc.getStart() + bc.getLength();
+            for (int i = bc.getStart(); i < end; i++) {
+                byte b = bytes[i];
+                if (b == '"')
+                    chunk.append((byte) '\\');
+                chunk.append(b >= 0 && (b < 0x20 || b == 0x7f) ? (byte) '?' : b);
+            }
+        }
+    }
+
+
+    /**
+     * 缓存的%t，每秒只格式化和编码一次
+     */
+    private static final class CachedDate {
+        private final long second;
+        private final byte[] bytes;
+
+        CachedDate(long second, byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+
+
+    /**
+     * 原样写入的文本
+     */
+    private static final class TextElement implements AccessLogElement {
+        private final byte[] text;
+
+        TextElement(String text) {
+            this.text = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void append(LogBuffer buf, com.ranni.connector.coyote.Request request,
+                           com.ranni.connector.coyote.Response response, long time) throws IOException {
+            buf.append(text);
+        }
+    }
+
+
+    /**
+     * 请求头
+     */
+    private static final class RequestHeaderElement implements AccessLogElement {
+        private final String name;
+
+        RequestHeaderElement(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void append(LogBuffer buf, com.ranni.connector.coyote.Request request,
+                           com.ranni.connector.coyote.Response response, long time) throws IOException {
+            buf.append(request.getMimeHeaders().getValue(name));
+        }
+    }
+
+
+    /**
+     * 响应头
+     */
+    private static final class ResponseHeaderElement implements AccessLogElement {
+        private final String name;
+
+        ResponseHeaderElement(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void append(LogBuffer buf, com.ranni.connector.coyote.Request request,
+                           com.ranni.connector.coyote.Response response, long time) throws IOException {
+            buf.append(response.getMimeHeaders().getValue(name));
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 放行请求，日志在响应结束之后由{@link #log(com.ranni.connector.coyote.Request, com.ranni.connector.coyote.Response, long)}记录
+     *
+     * @param request
+     * @param response
+     * @param valveContext
+     * @throws IOException
+     * @throws ServletException
+     */
+    @Override
+    public void invoke(Request request, Response response, ValveContext valveContext) throws IOException, ServletException {
+        valveContext.invokeNext(request, response);
+    }
+
+
+    /**
+     * 记录一次请求
+     *
+     * @param request CoyoteRequest
+     * @param response CoyoteResponse
+     * @param time 请求处理时间，单位毫秒
+     */
+    @Override
+    public void log(com.ranni.connector.coyote.Request request, com.ranni.connector.coyote.Response response, long time) {
+        if (!enabled || !started)
+            return;
+
+        AccessLogElement[] elements = this.elements;
+        LogBuffer buf = buffers.get();
+        ByteChunk chunk = buf.chunk;
+        chunk.recycle();
+        chunk.allocate(256, -1);
+
+        try {
+            for (AccessLogElement element : elements)
+                element.append(buf, request, response, time);
+            buf.append(LINE_SEPARATOR);
+        } catch (IOException e) {
+            log("AccessLogValve.log  渲染访问日志失败！", e);
+            return;
+        }
+
+        writer.publish(Arrays.copyOfRange(chunk.getBuffer(), chunk.getStart(), chunk.getStart() + chunk.getLength()),
+                System.currentTimeMillis(), com.ranni.logger.Logger.INFORMATION);
+    }
+
+
+    /**
+     * 把格式字符串解析成日志元素
+     *
+     * @param pattern
+     * @return
+     */
+    protected AccessLogElement[] parse(String pattern) {
+        List<AccessLogElement> list = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '%' || i + 1 >= pattern.length()) {
+                text.append(c);
+                continue;
+            }
+
+            c = pattern.charAt(++i);
+            if (c == '%') {
+                text.append('%');
+                continue;
+            }
+
+            String name = null;
+            if (c == '{') {
+                int end = pattern.indexOf('}', i);
+                if (end < 0 || end + 1 >= pattern.length()) {
+                    text.append("%{");
+                    continue;
+                }
+                name = pattern.substring(i + 1, end);
+                i = end + 1;
+                c = pattern.charAt(i);
+            }
+
+            AccessLogElement element = name == null ? createElement(c) : createElement(name, c);
+            if (element == null) {
+                text.append('?');
+                continue;
+            }
+
+            if (text.length() > 0) {
+                list.add(new TextElement(text.toString()));
+                text.setLength(0);
+            }
+            list.add(element);
+        }
+
+        if (text.length() > 0)
+            list.add(new TextElement(text.toString()));
+
+        return list.toArray(new AccessLogElement[0]);
+    }
+
+
+    /**
+     * 创建带参数的日志元素
+     *
+     * @param name 参数
+     * @param type 类型
+     * @return 不支持的类型返回null
+     */
+    protected AccessLogElement createElement(String name, char type) {
+        switch (type) {
+            case 'i':
+                return new RequestHeaderElement(name);
+            case 'o':
+                return new ResponseHeaderElement(name);
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+     * 创建日志元素
+     *
+     * @param type 类型
+     * @return 不支持的类型返回null
+     */
+    protected AccessLogElement createElement(char type) {
+        switch (type) {
+            case 'a':
+            case 'h':
+                return (buf, req, res, time) -> {
+                    if (req.remoteAddr().isNull())
+                        req.action(ActionCode.REQ_HOST_ADDR_ATTRIBUTE, req);
+                    buf.append(req.remoteAddr());
+                };
+            case 'A':
+                return (buf, req, res, time) -> {
+                    if (req.localAddr().isNull())
+                        req.action(ActionCode.REQ_LOCAL_ADDR_ATTRIBUTE, req);
+                    buf.append(req.localAddr());
+                };
+            case 'b':
+                return (buf, req, res, time) -> {
+                    long length = res.getContentWritten();
+                    if (length <= 0)
+                        buf.append((byte) '-');
+                    else
+                        buf.append(length);
+                };
+            case 'B':
+                return (buf, req, res, time) -> buf.append(res.getContentWritten());
+            case 'D':
+                return (buf, req, res, time) -> buf.append(time);
+            case 'H':
+                return (buf, req, res, time) -> buf.append(req.protocol());
+            case 'l':
+            case 'u':
+                return (buf, req, res, time) -> buf.append((byte) '-');
+            case 'm':
+                return (buf, req, res, time) -> buf.append(req.method());
+            case 'p':
+                return (buf, req, res, time) -> {
+                    if (req.getLocalPort() <= 0)
+                        req.action(ActionCode.REQ_LOCALPORT_ATTRIBUTE, req);
+                    buf.append(req.getLocalPort());
+                };
+            case 'q':
+                return (buf, req, res, time) -> {
+                    if (!req.queryString().isNull()) {
+                        buf.append((byte) '?');
+                        buf.append(req.queryString());
+                    }
+                };
+            case 'r':
+                return (buf, req, res, time) -> {
+                    buf.append(req.method());
+                    buf.append((byte) ' ');
+                    buf.append(req.requestURI());
+                    if (!req.queryString().isNull()) {
+                        buf.append((byte) '?');
+                        buf.append(req.queryString());
+                    }
+                    buf.append((byte) ' ');
+                    buf.append(req.protocol());
+                };
+            case 's':
+                return (buf, req, res, time) -> buf.append(res.getStatus());
+            case 't':
+                return (buf, req, res, time) -> buf.append(currentDate());
+            case 'T':
+                return (buf, req, res, time) -> buf.append(time / 1000);
+            case 'U':
+                return (buf, req, res, time) -> buf.append(req.requestURI());
+            case 'v':
+                return (buf, req, res, time) -> buf.append(req.serverName());
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+     * 取得当前时间的Common Log Format字节 [dd/MMM/yyyy:HH:mm:ss Z]，同一秒内复用
+     *
+     * @return
+     */
+    private byte[] currentDate() {
+        long second = Math.floorDiv(System.currentTimeMillis(), 1000L);
+        CachedDate cached = cachedDate;
+        if (cached.second != second) {
+            String date = CLF_DATE.format(Instant.ofEpochSecond(second).atZone(zone));
+            cached = new CachedDate(second, date.getBytes(StandardCharsets.US_ASCII));
+            cachedDate = cached;
+        }
+        return cached.bytes;
+    }
+
+
+    /**
+     * 启动访问日志阀
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    public synchronized void start() throws LifecycleException {
+        if (started)
+            throw new LifecycleException("AccessLogValve.start  访问日志阀已经启动！");
+
+        lifecycle.fireLifecycleEvent(BEFORE_START_EVENT, null);
+        writer.start();
+        started = true;
+        lifecycle.fireLifecycleEvent(START_EVENT, null);
+        lifecycle.fireLifecycleEvent(AFTER_START_EVENT, null);
+    }
+
+
+    /**
+     * 停止访问日志阀，缓冲区中的日志会先写完
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    public synchronized void stop() throws LifecycleException {
+        if (!started)
+            throw new LifecycleException("AccessLogValve.stop  访问日志阀已经停止！");
+
+        lifecycle.fireLifecycleEvent(BEFORE_STOP_EVENT, null);
+        lifecycle.fireLifecycleEvent(STOP_EVENT, null);
+        started = false;
+        writer.stop();
+        lifecycle.fireLifecycleEvent(AFTER_STOP_EVENT, null);
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * 设置格式字符串，common和combined为预定义的格式
+     *
+     * @param pattern
+     */
+    public void setPattern(String pattern) {
+        if (pattern == null)
+            pattern = "";
+        if ("common".equalsIgnoreCase(pattern))
+            pattern = COMMON;
+        else if ("combined".equalsIgnoreCase(pattern))
+            pattern = COMBINED;
+
+        this.pattern = pattern;
+        this.elements = parse(pattern);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setDirectory(String directory) {
+        writer.setDirectory(directory);
+    }
+
+    public void setPrefix(String prefix) {
+        writer.setPrefix(prefix);
+    }
+
+    public void setSuffix(String suffix) {
+        writer.setSuffix(suffix);
+    }
+
+    /**
+     * 设置缓冲区满时的溢出策略
+     * @see AsyncFileWriter#setOverflowPolicy(String)
+     *
+     * @param overflowPolicy
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        writer.setOverflowPolicy(overflowPolicy);
+    }
+
+    @Override
+    public void addLifecycleListener(LifecycleListener listener) {
+        lifecycle.addLifecycleListener(listener);
+    }
+
+    @Override
+    public LifecycleListener[] findLifecycleListeners() {
+        return lifecycle.findLifecycleListeners();
+    }
+
+    @Override
+    public void removeLifecycleListener(LifecycleListener listener) {
+        lifecycle.removeLifecycleListener(listener);
+    }
+
+
+    /**
+     * 日志记录，交给所在容器的日志记录器
+     *
+     * @param message
+     * @param throwable
+     */
+    private void log(String message, Throwable throwable) {
+        if (container != null && container.getLogger() != null) {
+            container.getLogger().log(message, throwable);
+        } else {
+            System.out.println("AccessLogValve: " + message);
+            throwable.printStackTrace(System.out);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.ranni.container.pip;
 
 import com.ranni.connector.Request;
 import com.ranni.connector.Response;
+import com.ranni.lifecycle.LifecycleException;
 
 import javax.servlet.ServletException;
 import java.io.IOException;
@@ -26,15 +27,17 @@ public interface Pipeline {
     /**
      * 设置基础阀
      * @param valve
+     * @throws LifecycleException 管道已经启动且基础阀启动或关闭失败时抛出
      */
-    void setBasic(Valve valve);
+    void setBasic(Valve valve) throws LifecycleException;
 
 
     /**
      * 添加非基础阀
      * @param valve
+     * @throws LifecycleException 管道已经启动且阀启动失败时抛出
      */
-    void addValve(Valve valve);
+    void addValve(Valve valve) throws LifecycleException;
 
 
     /**
@@ -44,6 +47,14 @@ public interface Pipeline {
     Valve[] getValves();
 
 
+    /**
+     * 返回非基础阀中所有的访问日志阀
+     * 返回的数组在添加、移除阀时才会重建，调用者不能修改
+     * @return
+     */
+    AccessLog[] getAccessLogs();
+
+
     /**
      * 调用管道中的阀和基础阀
      * @param request
@@ -57,6 +68,7 @@ public interface Pipeline {
     /**
      * 移除指定阀
      * @param valve
+     * @throws LifecycleException 管道已经启动且阀关闭失败时抛出
      */
-    void removeValve(Valve valve);
+    void removeValve(Valve valve) throws LifecycleException;
 }
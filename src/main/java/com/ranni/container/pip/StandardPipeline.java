@@ -6,14 +6,20 @@ import com.ranni.container.Container;
 import com.ranni.lifecycle.Lifecycle;
 import com.ranni.lifecycle.LifecycleException;
 import com.ranni.lifecycle.LifecycleListener;
+import com.ranni.logger.Logger;
+import com.ranni.util.LifecycleSupport;
 
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Title: HttpServer
  * Description:
  * 标准管道实现类
+ * 
+ * 阀数组和调用链都是写时复制的，添加、移除阀和设置基础阀时重新编译调用链并重建访问日志阀数组，
+ * 请求线程只读取volatile的调用链，因此可以在运行时安全地替换阀
  *
  * @Author 2Executioner
  * @Email 1205878539@qq.com
@@ -21,9 +27,13 @@ import java.io.IOException;
  */
 public class StandardPipeline implements Pipeline, Contained, Lifecycle {
     private Container container;
-    private Valve[] valves = new Valve[0]; // 阀
-    private Valve basic; // 基础阀
-    private final ValveContext valveContext = new StandardValveContext();
+    private volatile Valve[] valves = new Valve[0]; // 阀
+    private volatile Valve basic; // 基础阀
+    private volatile ValveContext first = StandardValveContext.compile(null, valves); // 调用链的第一个节点
+    private volatile AccessLog[] accessLogs = new AccessLog[0]; // 非基础阀中的访问日志阀
+    private final LifecycleSupport lifecycle = new LifecycleSupport(this); // 生命周期管理工具
+    private boolean started; // 启动标志
+    private Lifecycle[] unstopped; // 上次关闭失败的阀，重试关闭时只关闭这些阀
 
     public StandardPipeline(Container container) {
         setContainer(container);
@@ -40,29 +50,71 @@ public class StandardPipeline implements Pipeline, Contained, Lifecycle {
 
     /**
      * 设置基础阀
+     * 如果管道已经启动，启动新的基础阀并关闭旧的基础阀
+     * 
      * @param valve
+     * @throws LifecycleException 新的基础阀启动失败或旧的基础阀关闭失败时抛出，启动失败时基础阀不变
      */
     @Override
-    public void setBasic(Valve valve) {
+    public synchronized void setBasic(Valve valve) throws LifecycleException {
+        Valve oldBasic = this.basic;
+        if (oldBasic == valve)
+            return;
+        
+        if (valve instanceof Contained) {
+            ((Contained) valve).setContainer(container);
+        }
+        
+        if (started && valve instanceof Lifecycle) {
+            try {
+                ((Lifecycle) valve).start();
+            } catch (LifecycleException e) {
+                log("StandardPipeline.setBasic  基础阀启动失败！ " + valve, e);
+                throw e;
+            }
+        }
+        
         this.basic = valve;
+        rebuild();
+
+        if (started && oldBasic instanceof Lifecycle) {
+            try {
+                ((Lifecycle) oldBasic).stop();
+            } catch (LifecycleException e) {
+                log("StandardPipeline.setBasic  旧的基础阀关闭失败！ " + oldBasic, e);
+                throw e;
+            }
+        }
     }
 
     /**
      * 添加阀
+     * 如果管道已经启动，先启动阀再加入调用链
      *
      * @param valve
+     * @throws LifecycleException 阀启动失败时抛出，此时阀不会加入调用链
      */
     @Override
-    public void addValve(Valve valve) {
+    public synchronized void addValve(Valve valve) throws LifecycleException {
         if (valve instanceof Contained) {
             ((Contained) valve).setContainer(container);
         }
-        synchronized (valves) {
-            Valve[] newValues = new Valve[valves.length + 1];
-            System.arraycopy(valves, 0, newValues, 0, valves.length);
-            newValues[valves.length] = valve;
-            valves = newValues;
+        
+        if (started && valve instanceof Lifecycle) {
+            try {
+                ((Lifecycle) valve).start();
+            } catch (LifecycleException e) {
+                log("StandardPipeline.addValve  阀启动失败！ " + valve, e);
+                throw e;
+            }
         }
+        
+        Valve[] valves = this.valves;
+        Valve[] newValues = new Valve[valves.length + 1];
+        System.arraycopy(valves, 0, newValues, 0, valves.length);
+        newValues[valves.length] = valve;
+        this.valves = newValues;
+        rebuild();
     }
 
     /**
@@ -71,7 +123,18 @@ public class StandardPipeline implements Pipeline, Contained, Lifecycle {
      */
     @Override
     public Valve[] getValves() {
-        return valves;
+        return valves.clone();
+    }
+
+    /**
+     * 返回非基础阀中所有的访问日志阀
+     * 不复制数组，调用者不能修改
+     *
+     * @return
+     */
+    @Override
+    public AccessLog[] getAccessLogs() {
+        return accessLogs;
     }
 
     /**
@@ -83,13 +146,80 @@ public class StandardPipeline implements Pipeline, Contained, Lifecycle {
      */
     @Override
     public void invoke(Request request, Response response) throws IOException, ServletException {
-        valveContext.setValve(basic, valves);
-        valveContext.invokeNext(request, response);
+        first.invokeNext(request, response);
     }
 
+    /**
+     * 移除阀
+     * 先从调用链中移除，如果管道已经启动再关闭此阀。
+     * 正在执行的请求仍然持有旧的调用链，会照常执行完
+     * 
+     * @param valve
+     * @throws LifecycleException 阀关闭失败时抛出，此时阀已经从调用链中移除
+     */
     @Override
-    public void removeValve(Valve valve) {
+    public synchronized void removeValve(Valve valve) throws LifecycleException {
+        Valve[] valves = this.valves;
+        int index = -1;
+        for (int i = 0; i < valves.length; i++) {
+            if (valves[i] == valve) {
+                index = i;
+                break;
+            }
+        }
+        
+        if (index < 0)
+            return;
+        
+        Valve[] newValves = new Valve[valves.length - 1];
+        System.arraycopy(valves, 0, newValves, 0, index);
+        System.arraycopy(valves, index + 1, newValves, index, valves.length - index - 1);
+        this.valves = newValves;
+        rebuild();
+        
+        if (valve instanceof Contained) {
+            ((Contained) valve).setContainer(null);
+        }
+        
+        if (started && valve instanceof Lifecycle) {
+            try {
+                ((Lifecycle) valve).stop();
+            } catch (LifecycleException e) {
+                log("StandardPipeline.removeValve  阀关闭失败！ " + valve, e);
+                throw e;
+            }
+        }
+    }
 
+    /**
+     * 通过容器的日志记录器记录日志，没有日志记录器时输出到标准输出
+     *
+     * @param message
+     * @param throwable
+     */
+    private void log(String message, Throwable throwable) {
+        Logger logger = container == null ? null : container.getLogger();
+        if (logger != null)
+            logger.log("StandardPipeline[" + container.getName() + "]: " + message, throwable);
+        else
+            System.out.println("StandardPipeline: " + message + ": " + throwable);
+    }
+
+
+    /**
+     * 重新编译调用链，重建访问日志阀数组
+     */
+    private void rebuild() {
+        Valve[] valves = this.valves;
+        int count = 0;
+        AccessLog[] accessLogs = new AccessLog[valves.length];
+        for (Valve valve : valves) {
+            if (valve instanceof AccessLog)
+                accessLogs[count++] = (AccessLog) valve;
+        }
+
+        this.accessLogs = count == accessLogs.length ? accessLogs : Arrays.copyOf(accessLogs, count);
+        first = StandardValveContext.compile(basic, valves);
     }
 
     /**
@@ -112,26 +242,118 @@ public class StandardPipeline implements Pipeline, Contained, Lifecycle {
 
     @Override
     public void addLifecycleListener(LifecycleListener listener) {
-
+        lifecycle.addLifecycleListener(listener);
     }
 
     @Override
     public LifecycleListener[] findLifecycleListeners() {
-        return new LifecycleListener[0];
+        return lifecycle.findLifecycleListeners();
     }
 
     @Override
     public void removeLifecycleListener(LifecycleListener listener) {
-
+        lifecycle.removeLifecycleListener(listener);
     }
 
+    /**
+     * 启动管道
+     * 按调用顺序启动实现了Lifecycle接口的阀，最后启动基础阀。
+     * 有阀启动失败时，逆序关闭已经启动的阀，管道保持未启动状态，可以再次启动
+     * 
+     * @throws LifecycleException 管道已经启动或有阀启动失败时抛出
+     */
     @Override
-    public void start() throws LifecycleException {
+    public synchronized void start() throws LifecycleException {
+        if (started)
+            throw new LifecycleException("StandardPipeline.start  管道已经启动！");
+        
+        lifecycle.fireLifecycleEvent(BEFORE_START_EVENT, null);
+        
+        Valve[] valves = this.valves;
+        Lifecycle[] startedValves = new Lifecycle[valves.length + 1];
+        int count = 0;
+        try {
+            for (Valve valve : valves) {
+                if (valve instanceof Lifecycle) {
+                    ((Lifecycle) valve).start();
+                    startedValves[count++] = (Lifecycle) valve;
+                }
+            }
 
+            if (basic instanceof Lifecycle) {
+                ((Lifecycle) basic).start();
+                startedValves[count++] = (Lifecycle) basic;
+            }
+        } catch (LifecycleException e) {
+            log("StandardPipeline.start  阀启动失败！", e);
+            for (int i = count - 1; i >= 0; i--) {
+                try {
+                    startedValves[i].stop();
+                } catch (LifecycleException ex) {
+                    log("StandardPipeline.start  关闭已经启动的阀失败！ " + startedValves[i], ex);
+                }
+            }
+            throw e;
+        }
+        
+        started = true;
+        lifecycle.fireLifecycleEvent(START_EVENT, null);
+        lifecycle.fireLifecycleEvent(AFTER_START_EVENT, null);
     }
 
+    /**
+     * 关闭管道
+     * 先关闭基础阀，再按调用的逆序关闭其它阀
+     * 某个阀关闭失败不会影响其它阀的关闭，所有阀都尝试关闭后抛出第一个异常，其余异常作为被抑制的异常附加在上面。
+     * 关闭失败时管道仍然处于启动状态，再次调用此方法只会关闭上次关闭失败的阀
+     * 
+     * @throws LifecycleException 管道已经关闭或者有阀关闭失败时抛出
+     */
     @Override
-    public void stop() throws LifecycleException {
-
+    public synchronized void stop() throws LifecycleException {
+        if (!started)
+            throw new LifecycleException("StandardPipeline.stop  管道已经停止！");
+        
+        Lifecycle[] targets = unstopped;
+        if (targets == null) {
+            lifecycle.fireLifecycleEvent(BEFORE_STOP_EVENT, null);
+            lifecycle.fireLifecycleEvent(STOP_EVENT, null);
+            
+            Valve[] valves = this.valves;
+            targets = new Lifecycle[valves.length + 1];
+            int count = 0;
+            if (basic instanceof Lifecycle)
+                targets[count++] = (Lifecycle) basic;
+            for (int i = valves.length - 1; i >= 0; i--) {
+                if (valves[i] instanceof Lifecycle)
+                    targets[count++] = (Lifecycle) valves[i];
+            }
+            targets = Arrays.copyOf(targets, count);
+        }
+        
+        LifecycleException failure = null;
+        Lifecycle[] failed = new Lifecycle[targets.length];
+        int failedCount = 0;
+        for (Lifecycle target : targets) {
+            try {
+                target.stop();
+            } catch (LifecycleException e) {
+                log("StandardPipeline.stop  阀关闭失败！ " + target, e);
+                failed[failedCount++] = target;
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        
+        if (failure != null) {
+            unstopped = Arrays.copyOf(failed, failedCount);
+            throw failure;
+        }
+        
+        unstopped = null;
+        started = false;
+        lifecycle.fireLifecycleEvent(AFTER_STOP_EVENT, null);
     }
 }
@@ -12,41 +12,66 @@ import java.io.IOException;
  * 标准阀容器，主要用于遍历阀的执行
  * 此类在Tomcat 4 中作为标准管道实现类的内部类存在的
  *
+ * 管道在添加、移除阀和设置基础阀时就把所有阀编译成一条不可变的链，
+ * 链上每个节点持有一个阀和下一个节点，调用invokeNext()就是执行本节点的阀，
+ * 并把下一个节点作为阀容器传给它。执行过程中不需要计数，
+ * 不需要ThreadLocal，也不会在每次请求时创建任何对象
+ *
  * @Author 2Executioner
  * @Email 1205878539@qq.com
  * @Date 2022-03-27 21:14
  */
 public final class StandardValveContext implements ValveContext {
-    private Valve basic; // 基础阀
-    private Valve[] valves; // 非基础阀
-    private ThreadLocal<Integer> local; // 阀执行计数
+    private static final String info = "com.ranni.container.pip.StandardValveContext/1.0";
+    
+    /**
+     * 链的末尾，没有阀可以执行
+     */
+    private static final StandardValveContext END = new StandardValveContext(null, null);
+    
+    private final Valve valve; // 此节点要执行的阀
+    private final ValveContext next; // 下一个节点
+
+    
+    private StandardValveContext(Valve valve, ValveContext next) {
+        this.valve = valve;
+        this.next = next;
+    }
+
 
     /**
-     * 返回该类的信息
+     * 把阀编译成调用链，非基础阀按添加顺序执行，最后执行基础阀
      *
-     * @return
+     * @param basic 基础阀，可以为null
+     * @param valves 非基础阀
+     * @return 返回调用链的第一个节点
      */
-    @Override
-    public String getInfo() {
-        return null;
+    public static ValveContext compile(Valve basic, Valve[] valves) {
+        ValveContext context = END;
+        
+        if (basic != null)
+            context = new StandardValveContext(basic, context);
+        
+        for (int i = valves.length - 1; i >= 0; i--)
+            context = new StandardValveContext(valves[i], context);
+        
+        return context;
     }
+    
 
     /**
-     * 设置基础阀和非基础阀
-     * 并且将阀执行计数清0
+     * 返回该类的信息
      *
-     * @param basic
-     * @param valves
+     * @return
      */
     @Override
-    public void setValve(Valve basic, Valve[] valves) {
-        local = new ThreadLocal<>();
-        this.basic = basic;
-        this.valves = valves;
+    public String getInfo() {
+        return info;
     }
 
+
     /**
-     * 该方法实现执行下一个阀
+     * 执行此节点的阀，阀中再调用invokeNext()时执行的就是下一个节点
      *
      * @param request
      * @param response
@@ -55,21 +80,9 @@ public final class StandardValveContext implements ValveContext {
      */
     @Override
     public void invokeNext(Request request, Response response) throws IOException, ServletException {
-        // 在这里就要开始计数+1，因为有可能在阀中调用此方法
-        Integer stage = local.get();
-        stage = stage == null ? 0 : stage;
-        
-        if (stage < valves.length) {
-            // 执行非基础阀
-            local.set(stage + 1);
-            valves[stage].invoke(request, response, this);
-        } else if (stage == valves.length && basic != null) {
-            // 执行基础阀
-            local.set(0);
-            basic.invoke(request, response, this);
-        } else {
-            local.set(0);
+        if (valve == null)
             throw new ServletException("没有阀可以执行了！");
-        }
+        
+        valve.invoke(request, response, next);
     }
 }
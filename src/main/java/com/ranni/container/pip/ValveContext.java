@@ -22,14 +22,6 @@ public interface ValveContext {
      */
     String getInfo();
 
-    /**
-     * 设置基础阀和非基础阀
-     * 并且将阀执行计数清0
-     * @param valves
-     */
-    void setValve(Valve basic, Valve[] valves);
-
-
     /**
      * 调用中执行下一个阀
      * @param request
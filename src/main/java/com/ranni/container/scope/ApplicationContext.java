@@ -7,6 +7,7 @@ import com.ranni.container.context.StandardContext;
 import com.ranni.core.ApplicationSessionCookieConfig;
 import com.ranni.naming.Resource;
 import com.ranni.util.Enumerator;
+import com.ranni.util.MimeTypeMapper;
 
 import javax.naming.directory.DirContext;
 import javax.servlet.*;
@@ -29,6 +30,7 @@ import java.util.*;
  */
 public class ApplicationContext implements ServletContext {
     private static final List empty = new ArrayList(); // 统一空集合
+    private static final MimeTypeMapper mimeTypeMapper = new MimeTypeMapper(); // 默认的MIME类型映射
 
     private StandardContext context;
     private String basePath; // 根路径
@@ -124,7 +126,7 @@ public class ApplicationContext implements ServletContext {
 
     @Override
     public String getMimeType(String s) {
-        return null;
+        return mimeTypeMapper.getMimeType(s);
     }
 
     @Override
@@ -0,0 +1,751 @@
+package com.ranni.container.session;
+
+import com.ranni.container.session.cluster.InMemoryTransport;
+import com.ranni.container.session.cluster.Nio2Transport;
+import com.ranni.container.session.cluster.ReplicationListener;
+import com.ranni.container.session.cluster.ReplicationTransport;
+import com.ranni.lifecycle.LifecycleException;
+import com.ranni.logger.Logger;
+import com.ranni.util.http.fileupload.LimitedInputStream;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 在多个节点之间复制session的管理器
+ * 1、请求结束时（Request回收时调用Session.endAccess()），被修改过的session放入复制队列，
+ *    请求线程不做任何序列化和网络I/O
+ * 2、发送线程按sendDelay间隔把队列中的session合并成一批，只发送被修改过的属性的最终值，
+ *    整批压缩后通过传输层发送给所有成员
+ * 3、session失效或者id轮换时通知其它成员移除旧id，只有session的所有者（最近一次访问发生在本节点）才通知，
+ *    通知中带有所有者记录的访问时间，本地访问时间更新的副本不会被移除
+ * 4、有成员加入时向它请求全量session，加入的节点因此能拿到集群中已有的所有session。
+ *    只回应传输层认证过的成员的请求，并且通过请求到来的那条连接回复
+ *
+ * 收到的消息解压后不能超过maxMessageSize，属性值只能反序列化allowedClasses中的类和webapp自己的类
+ *
+ * 没有修改属性的请求只在距离上次复制超过accessReplicationInterval时复制一次访问时间，
+ * 副本上的访问时间最多落后accessReplicationInterval，所以副本在过期之后还要再等待这么长的时间才失效，
+ * 且副本失效时不通知其它成员，避免其它节点上还在使用的session被移除
+ *
+ * 消息格式：byte 类型 + 压缩后的内容。
+ * 失效通知：int 数量、每个id为 UTF id + long 所有者记录的访问时间
+ * session条目：boolean 是否还有条目、UTF id、long 创建时间、long 上次访问时间、long 当前访问时间、
+ * int 最大生存时间、int 属性数量、每个属性为 UTF 名称 + int 长度（-1表示被移除）+ 序列化的值
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/19 15:00
+ */
+public class DeltaManager extends StandardManager implements ReplicationListener {
+
+    // ==================================== 属性字段 ====================================
+
+    protected static String name = "DeltaManager"; // 类名
+
+    private static final byte MSG_DELTA = 1; // 增量
+    private static final byte MSG_EXPIRE = 2; // 失效
+    private static final byte MSG_GET_ALL = 3; // 请求全量session
+    private static final byte MSG_ALL_DATA = 4; // 全量session
+    private static final int MAX_ATTRIBUTES = 65536; // 一个session条目最多包含的属性数量
+    private static final long MAX_DEPTH = 64; // 反序列化的最大嵌套深度
+    private static final long MAX_REFERENCES = 1_000_000; // 反序列化的最大对象引用数
+
+    private final LinkedBlockingQueue<DeltaSession> pending = new LinkedBlockingQueue<>(); // 等待复制的session
+    private final ConcurrentLinkedQueue<ExpiredId> expiredIds = new ConcurrentLinkedQueue<>(); // 等待通知失效的id
+    private ReplicationTransport transport; // 传输层
+    private long sendDelay = 100L; // 发送间隔，单位毫秒
+    private int batchSize = 512; // 每条消息最多包含的session数量
+    private int accessReplicationInterval = 60; // 只更新访问时间的复制间隔，单位秒
+    private int maxMessageSize = 32 << 20; // 一条消息解压后的最大字节数
+    private String allowedClasses = "java.lang.*;java.util.*;java.util.concurrent.*;"
+            + "java.util.concurrent.atomic.*;java.time.*;java.math.*"; // 允许反序列化的类，ObjectInputFilter的模式
+    private volatile ObjectInputFilter allowedFilter; // 由allowedClasses创建
+    private volatile boolean senderDone = true; // 发送线程结束标志位
+    private Thread sender; // 发送线程
+
+
+    public DeltaManager() {
+        setDistributable(true);
+    }
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 等待通知其它成员的失效id
+     */
+    private static final class ExpiredId {
+        final String id;
+        final long accessedTime; // 失效时记录的访问时间
+
+        ExpiredId(String id, long accessedTime) {
+            this.id = id;
+            this.accessedTime = accessedTime;
+        }
+    }
+
+
+    /**
+     * 发送线程
+     */
+    protected class ReplicationSender implements Runnable {
+
+        @Override
+        public void run() {
+            while (!senderDone) {
+                try {
+                    Thread.sleep(sendDelay);
+                } catch (InterruptedException e) {
+                    ;
+                }
+
+                processReplication();
+            }
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 启动session管理器、发送线程和传输层
+     * 没有设置传输层时使用以context名为组名的InMemoryTransport
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    public void start() throws LifecycleException {
+        super.start();
+
+        if (transport == null)
+            transport = new InMemoryTransport(container == null ? "" : container.getName());
+        transport.setListener(this);
+        if (transport instanceof Nio2Transport && ((Nio2Transport) transport).getLogger() == null && container != null)
+            ((Nio2Transport) transport).setLogger(container.getLogger());
+
+        senderStart();
+        try {
+            transport.start();
+        } catch (IOException e) {
+            senderStop();
+            throw new LifecycleException("DeltaManager.start  启动传输层失败！", e);
+        }
+    }
+
+
+    /**
+     * 发完队列中的消息后停止传输层，再停止session管理器
+     * 停止的节点上的session不会通知其它成员失效
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    public void stop() throws LifecycleException {
+        senderStop();
+        if (transport != null)
+            transport.stop();
+        super.stop();
+    }
+
+
+    @Override
+    protected StandardSession createEmptySession() {
+        return new DeltaSession(this);
+    }
+
+
+    /**
+     * 创建session，本节点成为session的所有者
+     *
+     * @return
+     */
+    @Override
+    public Session createSession() {
+        Session session = super.createSession();
+        if (session instanceof DeltaSession)
+            ((DeltaSession) session).setPrimary(true);
+        return session;
+    }
+
+
+    /**
+     * 请求结束，被修改过的session放入复制队列
+     *
+     * @param session
+     */
+    @Override
+    protected void endAccess(Session session) {
+        if (senderDone || !(session instanceof DeltaSession) || !session.isValid())
+            return;
+
+        DeltaSession deltaSession = (DeltaSession) session;
+        long replicatedTime = deltaSession.getReplicatedTime();
+        if (deltaSession.hasChanges() || replicatedTime == 0L
+                || System.currentTimeMillis() - replicatedTime >= accessReplicationInterval * 1000L) {
+
+            if (deltaSession.enqueue())
+                pending.offer(deltaSession);
+        }
+    }
+
+
+    /**
+     * 移除session，本节点是所有者时，本地失效或者id轮换都通知其它成员
+     *
+     * @param session
+     */
+    @Override
+    public void remove(Session session) {
+        String id = session.getIdInternal();
+        long accessedTime = session.getThisAccessedTime();
+        super.remove(session);
+
+        if (id != null && !senderDone && session instanceof DeltaSession
+                && ((DeltaSession) session).isPrimary()
+                && !((DeltaSession) session).isExpiredByPeer()) {
+            expiredIds.offer(new ExpiredId(id, accessedTime));
+        }
+    }
+
+
+    /**
+     * 推进过期时间轮
+     * 不是所有者的副本，过期后再等待accessReplicationInterval才失效，
+     * 所有者在这段时间内复制来的访问时间会让它继续存活
+     *
+     * @return 返回失效的session数量
+     */
+    @Override
+    protected int processExpires() {
+        long now = System.currentTimeMillis();
+        long grace = accessReplicationInterval * 1000L;
+        return expiryWheel.advance(now, session -> {
+            if (session instanceof DeltaSession && !((DeltaSession) session).isPrimary()
+                    && !isExpired(session, now - grace)) {
+                expiryWheel.schedule(session);
+                return;
+            }
+            session.expire();
+        });
+    }
+
+
+    /**
+     * 发送队列中的增量和失效通知
+     * 增量先于失效发送，同一轮中先创建后失效的session在其它节点上也是先创建后失效
+     */
+    protected void processReplication() {
+        if (transport == null)
+            return;
+
+        List<DeltaSession> batch = new ArrayList<>(batchSize);
+        while (pending.drainTo(batch, batchSize) > 0) {
+            for (DeltaSession session : batch)
+                session.dequeue();
+
+            byte[] message = encodeSessions(MSG_DELTA, batch, false);
+            batch.clear();
+            if (message != null)
+                send(null, message);
+        }
+
+        List<ExpiredId> ids = new ArrayList<>();
+        ExpiredId id;
+        while ((id = expiredIds.poll()) != null)
+            ids.add(id);
+
+        if (!ids.isEmpty()) {
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                bos.write(MSG_EXPIRE);
+                try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bos))) {
+                    out.writeInt(ids.size());
+                    for (ExpiredId expiredId : ids) {
+                        out.writeUTF(expiredId.id);
+                        out.writeLong(expiredId.accessedTime);
+                    }
+                }
+                send(null, bos.toByteArray());
+            } catch (IOException e) {
+                log("DeltaManager.processReplication  编码失效通知失败！", e);
+            }
+        }
+    }
+
+
+    /**
+     * 收到其它成员的消息
+     *
+     * @param sender 发送者
+     * @param data 消息内容
+     */
+    @Override
+    public void messageReceived(String sender, byte[] data) {
+        if (!isStarted() || data.length == 0)
+            return;
+
+        byte type = data[0];
+        if (type == MSG_GET_ALL) {
+            if (Arrays.asList(transport.getMembers()).contains(sender))
+                sendAllSessions(sender);
+            else
+                log("DeltaManager.messageReceived  忽略非成员的全量session请求！ " + sender);
+            return;
+        }
+
+        try (InflaterInputStream inflater = new InflaterInputStream(
+                new ByteArrayInputStream(data, 1, data.length - 1))) {
+
+            DataInputStream in = new DataInputStream(new LimitedInputStream(inflater, maxMessageSize));
+
+            switch (type) {
+                case MSG_DELTA:
+                case MSG_ALL_DATA:
+                    while (in.readBoolean())
+                        applySession(in);
+                    break;
+
+                case MSG_EXPIRE:
+                    // 本地访问时间更新，说明session在本节点上还在使用，不移除
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        Session session = super.findSession(in.readUTF());
+                        long accessedTime = in.readLong();
+                        if (session instanceof DeltaSession && session.isValid()
+                                && session.getThisAccessedTime() <= accessedTime)
+                            ((DeltaSession) session).expireByPeer();
+                    }
+                    break;
+
+                default:
+                    log("DeltaManager.messageReceived  未知的消息类型！ " + type);
+            }
+        } catch (IOException | IllegalStateException e) {
+            // 超出maxMessageSize时LimitedInputStream抛出IllegalStateException
+            log("DeltaManager.messageReceived  解析消息失败！ " + sender, e);
+        }
+    }
+
+
+    /**
+     * 有成员加入，向它请求全量session
+     *
+     * @param member 成员名
+     */
+    @Override
+    public void memberAdded(String member) {
+        if (debug >= Logger.INFORMATION)
+            log("DeltaManager.memberAdded  成员加入：" + member);
+
+        send(member, new byte[] { MSG_GET_ALL });
+    }
+
+
+    @Override
+    public void memberDisappeared(String member) {
+        if (debug >= Logger.INFORMATION)
+            log("DeltaManager.memberDisappeared  成员离开：" + member);
+    }
+
+
+    /**
+     * 把所有session分批发送给指定成员
+     *
+     * @param member 成员名
+     */
+    private void sendAllSessions(String member) {
+        List<DeltaSession> batch = new ArrayList<>(batchSize);
+        for (Session session : findSessions()) {
+            if (!(session instanceof DeltaSession))
+                continue;
+
+            batch.add((DeltaSession) session);
+            if (batch.size() == batchSize) {
+                byte[] message = encodeSessions(MSG_ALL_DATA, batch, true);
+                if (message != null)
+                    reply(member, message);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            byte[] message = encodeSessions(MSG_ALL_DATA, batch, true);
+            if (message != null)
+                reply(member, message);
+        }
+    }
+
+
+    /**
+     * 编码一批session
+     *
+     * @param type 消息类型
+     * @param sessions 要编码的session
+     * @param full 为<b>true</b>时编码所有属性，否则只编码被修改过的属性
+     * @return 返回消息，没有有效的session时返回null
+     */
+    private byte[] encodeSessions(byte type, List<DeltaSession> sessions, boolean full) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        bos.write(type);
+        int count = 0;
+        long now = System.currentTimeMillis();
+
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bos))) {
+            for (DeltaSession session : sessions) {
+                String id = session.getIdInternal();
+                if (id == null || !session.isValid())
+                    continue;
+
+                // 先把要写的内容都取出来，session在此期间失效时整条跳过，不会写出半条
+                long creationTime;
+                String[] names;
+                byte[][] values;
+                try {
+                    creationTime = session.getCreationTime();
+                    if (full) {
+                        session.markAllChanged();
+                        names = session.getValueNames();
+                    } else {
+                        names = session.drainChangedNames();
+                    }
+
+                    values = new byte[names.length][];
+                    for (int i = 0; i < names.length; i++)
+                        values[i] = serialize(names[i], session.getAttribute(names[i]));
+                } catch (IllegalStateException e) {
+                    continue;
+                }
+
+                out.writeBoolean(true);
+                out.writeUTF(id);
+                out.writeLong(creationTime);
+                out.writeLong(session.getLastAccessedTime());
+                out.writeLong(session.getThisAccessedTime());
+                out.writeInt(session.getMaxInactiveInterval());
+                out.writeInt(names.length);
+                for (int i = 0; i < names.length; i++) {
+                    out.writeUTF(names[i]);
+                    if (values[i] == null) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(values[i].length);
+                        out.write(values[i]);
+                    }
+                }
+
+                if (!full)
+                    session.setReplicatedTime(now);
+                count++;
+            }
+            out.writeBoolean(false);
+        } catch (IOException e) {
+            log("DeltaManager.encodeSessions  编码session失败！", e);
+            return null;
+        }
+
+        return count == 0 ? null : bos.toByteArray();
+    }
+
+
+    /**
+     * 序列化属性值
+     * 不能序列化的值视为被移除，其它节点上不会出现这个属性
+     *
+     * @param name 属性名
+     * @param value 属性值，为null表示已被移除
+     * @return 返回序列化后的值，被移除返回null
+     */
+    private byte[] serialize(String name, Object value) {
+        if (!(value instanceof Serializable))
+            return null;
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(value);
+        } catch (IOException e) {
+            log("DeltaManager.serialize  属性不能序列化！ " + name, e);
+            return null;
+        }
+        return bos.toByteArray();
+    }
+
+
+    /**
+     * 应用一条session条目，本地没有这个session时创建
+     *
+     * @param in 输入流
+     * @throws IOException
+     */
+    private void applySession(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        long creationTime = in.readLong();
+        long lastAccessedTime = in.readLong();
+        long thisAccessedTime = in.readLong();
+        int maxInactiveInterval = in.readInt();
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ATTRIBUTES)
+            throw new IOException("DeltaManager.applySession  属性数量错误！ " + count);
+
+        String[] names = new String[count];
+        byte[][] values = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            names[i] = in.readUTF();
+            int length = in.readInt();
+            if (length > maxMessageSize)
+                throw new IOException("DeltaManager.applySession  属性长度错误！ " + length);
+            if (length >= 0) {
+                values[i] = new byte[length];
+                in.readFully(values[i]);
+            }
+        }
+
+        Session existing = super.findSession(id);
+        DeltaSession session;
+        if (existing instanceof DeltaSession) {
+            session = (DeltaSession) existing;
+        } else if (existing == null) {
+            session = (DeltaSession) createEmptySession();
+            session.setNew(false);
+            session.setValid(true);
+            session.setCreationTime(creationTime);
+            session.setMaxInactiveInterval(maxInactiveInterval);
+            session.setReplicatedTime(System.currentTimeMillis());
+            session.setId(id);
+        } else {
+            return;
+        }
+
+        // 其它节点上的访问更新，所有者变成了发送者
+        if (thisAccessedTime > session.getThisAccessedTime()) {
+            session.restoreAccessTime(lastAccessedTime, thisAccessedTime);
+            session.setPrimary(false);
+        }
+        session.setMaxInactiveInterval(maxInactiveInterval);
+
+        ClassLoader classLoader = getClassLoader();
+        ObjectInputFilter filter = attributeFilter(classLoader);
+        for (int i = 0; i < count; i++) {
+            Object value = null;
+            if (values[i] != null) {
+                try (ObjectInputStream ois = new LoaderObjectInputStream(
+                        new ByteArrayInputStream(values[i]), classLoader)) {
+                    ois.setObjectInputFilter(filter);
+                    value = ois.readObject();
+                } catch (ClassNotFoundException | IOException e) {
+                    log("DeltaManager.applySession  反序列化属性失败！ " + names[i], e);
+                    continue;
+                }
+            }
+
+            try {
+                session.applyAttribute(names[i], value);
+            } catch (IllegalStateException e) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * 反序列化属性值的过滤器
+     * 只允许allowedClasses中的类和由webapp类加载器定义的类，其它类一律拒绝，并限制嵌套深度和引用数
+     *
+     * @param classLoader webapp类加载器
+     * @return
+     */
+    private ObjectInputFilter attributeFilter(ClassLoader classLoader) {
+        ObjectInputFilter allowed = allowedFilter;
+        if (allowed == null)
+            allowedFilter = allowed = ObjectInputFilter.Config.createFilter(allowedClasses);
+
+        ObjectInputFilter patterns = allowed;
+        return info -> {
+            if (info.depth() > MAX_DEPTH || info.references() > MAX_REFERENCES
+                    || info.arrayLength() > maxMessageSize)
+                return ObjectInputFilter.Status.REJECTED;
+
+            Class<?> clazz = info.serialClass();
+            if (clazz == null)
+                return ObjectInputFilter.Status.ALLOWED;
+            while (clazz.isArray())
+                clazz = clazz.getComponentType();
+            if (clazz.isPrimitive())
+                return ObjectInputFilter.Status.ALLOWED;
+            if (classLoader != null && clazz.getClassLoader() == classLoader)
+                return ObjectInputFilter.Status.ALLOWED;
+
+            return patterns.checkInput(info) == ObjectInputFilter.Status.ALLOWED
+                    ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+        };
+    }
+
+
+    /**
+     * 通过请求到来的连接回复，失败只记录日志
+     *
+     * @param member 成员名
+     * @param message 消息
+     */
+    private void reply(String member, byte[] message) {
+        ReplicationTransport transport = this.transport;
+        if (transport == null)
+            return;
+
+        try {
+            transport.reply(member, message);
+        } catch (IOException e) {
+            log("DeltaManager.reply  回复复制消息失败！ " + member, e);
+        }
+    }
+
+
+    /**
+     * 发送消息，失败只记录日志
+     *
+     * @param member 成员名，为null则发送给所有成员
+     * @param message 消息
+     */
+    private void send(String member, byte[] message) {
+        ReplicationTransport transport = this.transport;
+        if (transport == null)
+            return;
+
+        try {
+            if (member == null)
+                transport.send(message);
+            else
+                transport.send(member, message);
+        } catch (IOException e) {
+            log("DeltaManager.send  发送复制消息失败！ " + (member == null ? "*" : member), e);
+        }
+    }
+
+
+    /**
+     * 启动发送线程
+     */
+    private void senderStart() {
+        if (sender != null)
+            return;
+
+        senderDone = false;
+        sender = new Thread(new ReplicationSender());
+        sender.setName("DeltaManagerSender[" + (container == null ? null : container.getName()) + "]");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+
+    /**
+     * 停止发送线程，并发完队列中的消息
+     */
+    private void senderStop() {
+        if (sender == null)
+            return;
+
+        senderDone = true;
+        sender.interrupt();
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sender = null;
+
+        processReplication();
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    public ReplicationTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * 设置传输层，必须在启动之前设置
+     *
+     * @param transport
+     */
+    public void setTransport(ReplicationTransport transport) {
+        if (isStarted())
+            throw new IllegalStateException("DeltaManager.setTransport  session管理器已经启动！ " + this);
+        this.transport = transport;
+    }
+
+    public long getSendDelay() {
+        return sendDelay;
+    }
+
+    /**
+     * 设置发送间隔，单位毫秒
+     *
+     * @param sendDelay
+     */
+    public void setSendDelay(long sendDelay) {
+        this.sendDelay = sendDelay;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int getAccessReplicationInterval() {
+        return accessReplicationInterval;
+    }
+
+    /**
+     * 设置只更新访问时间的复制间隔，单位秒
+     *
+     * @param accessReplicationInterval
+     */
+    public void setAccessReplicationInterval(int accessReplicationInterval) {
+        this.accessReplicationInterval = accessReplicationInterval;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * 设置一条消息解压后的最大字节数
+     *
+     * @param maxMessageSize
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public String getAllowedClasses() {
+        return allowedClasses;
+    }
+
+    /**
+     * 设置允许反序列化的类，格式同ObjectInputFilter的模式，例如 "java.lang.*;com.example.**"
+     * webapp类加载器定义的类总是允许的
+     *
+     * @param allowedClasses
+     */
+    public void setAllowedClasses(String allowedClasses) {
+        this.allowedClasses = allowedClasses;
+        this.allowedFilter = null;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
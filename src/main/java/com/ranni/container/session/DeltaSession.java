@@ -0,0 +1,193 @@
+package com.ranni.container.session;
+
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 记录属性修改的session，由DeltaManager使用
+ * 只记录被修改过的属性名，不记录每次修改的值，同一个属性在一次请求中被修改多次时，
+ * 复制时只发送它最终的值（或者已被移除）
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/19 14:00
+ */
+public class DeltaSession extends StandardSession {
+    private static final long serialVersionUID = 1L;
+
+    private transient Set<String> changedNames = ConcurrentHashMap.newKeySet(); // 被修改过的属性名
+    private transient final AtomicBoolean queued = new AtomicBoolean(); // 是否已经在复制队列中
+    private transient volatile long replicatedTime; // 上次复制的时间，0为从未复制
+    private transient volatile boolean expiredByPeer; // 是否是其它节点通知的失效
+    private transient volatile boolean primary; // 此节点是否是session的所有者，即最近一次访问发生在此节点上
+
+
+    public DeltaSession(Manager manager) {
+        super(manager);
+    }
+
+
+    /**
+     * 本节点上的请求访问了此session，此节点成为session的所有者
+     */
+    @Override
+    public void access() {
+        primary = true;
+        super.access();
+    }
+
+
+    /**
+     * 添加属性，并记录属性名
+     *
+     * @param name
+     * @param value
+     */
+    @Override
+    public void setAttribute(String name, Object value) {
+        super.setAttribute(name, value);
+        changedNames.add(name);
+    }
+
+
+    /**
+     * 删除属性，并记录属性名
+     *
+     * @param name 要删除的属性的name
+     * @param notify 是否通知相关的监听器
+     */
+    @Override
+    public void removeAttribute(String name, boolean notify) {
+        super.removeAttribute(name, notify);
+        if (name != null && isValid())
+            changedNames.add(name);
+    }
+
+
+    /**
+     * 设置session id
+     * id轮换时所有属性都要在新id下重新复制
+     *
+     * @param id
+     */
+    @Override
+    public void setId(String id) {
+        boolean rotate = getIdInternal() != null && isValid();
+        super.setId(id);
+        if (rotate) {
+            markAllChanged();
+            replicatedTime = 0L;
+        }
+    }
+
+
+    /**
+     * 应用其它节点复制来的属性，不记录修改
+     *
+     * @param name
+     * @param value 为null表示移除
+     */
+    void applyAttribute(String name, Object value) {
+        if (value == null)
+            super.removeAttribute(name, false);
+        else
+            super.setAttribute(name, value);
+    }
+
+
+    /**
+     * 使其它节点已经失效的session失效，不再通知其它节点
+     */
+    void expireByPeer() {
+        expiredByPeer = true;
+        expire(false);
+    }
+
+
+    /**
+     * 取出并清空被修改过的属性名
+     *
+     * @return
+     */
+    String[] drainChangedNames() {
+        String[] names = changedNames.toArray(new String[0]);
+        for (String name : names)
+            changedNames.remove(name);
+        return names;
+    }
+
+
+    /**
+     * 把所有属性标记为被修改过，用于全量复制
+     */
+    void markAllChanged() {
+        Enumeration names = getAttributeNames();
+        while (names.hasMoreElements())
+            changedNames.add((String) names.nextElement());
+    }
+
+
+    /**
+     * @return 如果有被修改过的属性返回<b>true</b>
+     */
+    boolean hasChanges() {
+        return !changedNames.isEmpty();
+    }
+
+
+    /**
+     * 尝试放入复制队列
+     *
+     * @return 如果已经在队列中返回<b>false</b>
+     */
+    boolean enqueue() {
+        return queued.compareAndSet(false, true);
+    }
+
+
+    /**
+     * 移出复制队列，之后的修改会让它重新入队
+     */
+    void dequeue() {
+        queued.set(false);
+    }
+
+
+    long getReplicatedTime() {
+        return replicatedTime;
+    }
+
+    void setReplicatedTime(long replicatedTime) {
+        this.replicatedTime = replicatedTime;
+    }
+
+    boolean isExpiredByPeer() {
+        return expiredByPeer;
+    }
+
+    boolean isPrimary() {
+        return primary;
+    }
+
+    void setPrimary(boolean primary) {
+        this.primary = primary;
+    }
+
+
+    /**
+     * 初始化属性
+     */
+    @Override
+    public void recycle() {
+        changedNames.clear();
+        queued.set(false);
+        replicatedTime = 0L;
+        expiredByPeer = false;
+        primary = false;
+        super.recycle();
+    }
+}
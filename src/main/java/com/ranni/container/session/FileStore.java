@@ -0,0 +1,704 @@
+package com.ranni.container.session;
+
+import com.ranni.common.Globals;
+import com.ranni.common.SystemProperty;
+import com.ranni.container.Container;
+import com.ranni.container.Context;
+import com.ranni.lifecycle.LifecycleException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 基于文件的session存储器
+ * 每个context只有一个只追加写的段文件，存入和移除session都是在文件末尾追加一条记录，
+ * 内存中只保存session id到最新记录位置的索引，不保存session本身。
+ * 被覆盖和被移除的记录成为垃圾，垃圾超过有效数据时在后台把有效记录复制到新文件，再原子替换旧文件。
+ * 压缩时大部分复制工作不持有此存储器的锁，不阻塞请求线程的换入换出
+ *
+ * 记录格式：
+ * <pre>
+ * int 记录长度（不包括这4个字节）
+ * int CRC32校验值，校验范围是此字段之后的所有字节
+ * byte 记录类型，1为存入，2为移除
+ * long 过期时间，永不过期为Long.MAX_VALUE
+ * UTF session id
+ * 序列化的session（只有存入记录才有）
+ * </pre>
+ * 启动时顺序扫描一遍文件并校验每条记录重建索引，从第一条不完整或者校验失败的记录（写入时进程崩溃）开始截断
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/16 9:45
+ */
+public class FileStore extends StoreBase {
+
+    // ==================================== 属性字段 ====================================
+
+    /**
+     * 默认的段文件名
+     */
+    public static final String DEFAULT_FILE_NAME = "SESSIONS.log";
+
+    private static final String INFO = "com.ranni.container.session.FileStore/1.0";
+    private static final byte TYPE_SAVE = 1; // 存入记录
+    private static final byte TYPE_REMOVE = 2; // 移除记录
+    private static final int HEADER_SIZE = 4; // 记录长度所占的字节数
+    private static final int PREFIX_SIZE = HEADER_SIZE + 4; // 记录长度和校验值所占的字节数
+    private static final int MIN_BODY_SIZE = 1 + 8 + 2; // 类型、过期时间和session id长度所占的字节数
+    private static final long COMPACT_MIN_SIZE = 1L << 20; // 文件小于此值时不压缩
+
+    private final Map<String, Record> index = new HashMap<>(); // session id -> 最新的存入记录
+    private String directory; // 存储目录，为null则使用context的工作目录
+    private String fileName = DEFAULT_FILE_NAME; // 段文件名
+    private File file; // 段文件
+    private FileChannel channel; // 段文件通道
+    private long liveBytes; // 有效记录的总字节数
+    private boolean compacting; // 是否正在压缩
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 索引中的一条存入记录
+     */
+    private static final class Record {
+        final long offset; // 在文件中的起始位置
+        final int length; // 包括记录长度在内的总字节数
+        final long expiresAt; // 过期时间
+
+        Record(long offset, int length, long expiresAt) {
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 打开段文件并重建索引
+     *
+     * @throws LifecycleException 打开文件失败时抛出
+     */
+    @Override
+    public synchronized void start() throws LifecycleException {
+        if (started)
+            throw new LifecycleException("FileStore.start  此存储器已经启动！ " + this);
+
+        lifecycle.fireLifecycleEvent(START_EVENT, null);
+        started = true;
+
+        try {
+            open();
+        } catch (IOException e) {
+            throw new LifecycleException("FileStore.start  打开段文件失败！ " + file, e);
+        }
+    }
+
+
+    /**
+     * 关闭段文件
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    public synchronized void stop() throws LifecycleException {
+        if (!started)
+            throw new LifecycleException("FileStore.stop  此存储器已经停止！ " + this);
+
+        lifecycle.fireLifecycleEvent(STOP_EVENT, null);
+        started = false;
+
+        close();
+    }
+
+
+    /**
+     * 返回存储器中的session数量
+     *
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public synchronized int getSize() throws IOException {
+        open();
+        return index.size();
+    }
+
+
+    /**
+     * 返回存储器中所有的session id
+     *
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public synchronized String[] keys() throws IOException {
+        open();
+        return index.keySet().toArray(new String[0]);
+    }
+
+
+    /**
+     * 从段文件中读取session
+     *
+     * @param id session id
+     * @return 返回session，不存在返回null
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        if (id == null)
+            return null;
+
+        ByteBuffer buffer;
+        synchronized (this) {
+            open();
+            Record record = index.get(id);
+            if (record == null)
+                return null;
+
+            buffer = ByteBuffer.allocate(record.length);
+            readFully(buffer, record.offset);
+        }
+
+        // 校验和反序列化不需要持有锁
+        byte[] bytes = buffer.array();
+        if (!verify(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE))
+            throw new IOException("FileStore.load  记录校验失败！ " + id);
+
+        InputStream in = new ByteArrayInputStream(bytes);
+        DataInputStream dis = new DataInputStream(in);
+        dis.readInt();
+        dis.readInt();
+        dis.readByte();
+        dis.readLong();
+        dis.readUTF();
+
+        return readSession(in);
+    }
+
+
+    /**
+     * 把session追加到段文件末尾
+     *
+     * @param session
+     * @throws IOException
+     */
+    @Override
+    public void save(Session session) throws IOException {
+        String id = session.getIdInternal();
+        if (id == null)
+            return;
+
+        // 序列化不需要持有锁
+        long expiresAt = expiresAt(session);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeByte(TYPE_SAVE);
+        dos.writeLong(expiresAt);
+        dos.writeUTF(id);
+        writeSession(session, bos);
+
+        byte[] bytes = bos.toByteArray();
+        seal(bytes);
+
+        synchronized (this) {
+            open();
+            long offset = append(bytes);
+            Record old = index.put(id, new Record(offset, bytes.length, expiresAt));
+            if (old != null)
+                liveBytes -= old.length;
+            liveBytes += bytes.length;
+        }
+    }
+
+
+    /**
+     * 追加一条移除记录
+     *
+     * @param id session id
+     * @throws IOException
+     */
+    @Override
+    public synchronized void remove(String id) throws IOException {
+        if (id == null)
+            return;
+
+        open();
+        Record old = index.remove(id);
+        if (old == null)
+            return;
+
+        liveBytes -= old.length;
+        append(removeRecord(id));
+    }
+
+
+    /**
+     * 清空段文件
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        open();
+        index.clear();
+        liveBytes = 0L;
+        channel.truncate(0L);
+    }
+
+
+    /**
+     * 移除已经过期的session，垃圾过多时压缩段文件
+     * 由后台线程调用，压缩时不持有此存储器的锁
+     */
+    @Override
+    public void processExpires() {
+        try {
+            synchronized (this) {
+                open();
+
+                long now = System.currentTimeMillis();
+                List<String> expired = new ArrayList<>();
+                for (Map.Entry<String, Record> entry : index.entrySet()) {
+                    if (entry.getValue().expiresAt <= now)
+                        expired.add(entry.getKey());
+                }
+
+                for (String id : expired)
+                    remove(id);
+            }
+
+            if (needsCompaction())
+                compact();
+        } catch (IOException e) {
+            log("FileStore.processExpires  处理过期session失败！", e);
+        }
+    }
+
+
+    /**
+     * @return 如果垃圾记录比有效记录多，返回<b>true</b>
+     * @throws IOException
+     */
+    public synchronized boolean needsCompaction() throws IOException {
+        if (channel == null)
+            return false;
+
+        long size = channel.size();
+        return size >= COMPACT_MIN_SIZE && size - liveBytes > liveBytes;
+    }
+
+
+    /**
+     * 压缩段文件
+     * 1、持有锁取得索引的快照
+     * 2、不持有锁，把快照中的记录依次复制到临时文件并刷盘，期间请求线程可以继续存入、读取和移除
+     * 3、持有锁，补上快照之后被存入的记录，为快照之后被移除的session追加移除记录，
+     *    刷盘后原子替换旧文件，最后才更新索引
+     * 中途失败时旧文件和索引保持不变。同一时间只有一个线程在压缩，其它线程直接返回
+     *
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        FileChannel source;
+        String[] ids;
+        Record[] records;
+        Path target;
+        Path tmp;
+
+        synchronized (this) {
+            if (compacting)
+                return;
+
+            open();
+            compacting = true;
+            source = channel;
+            target = file.toPath();
+            tmp = target.resolveSibling(fileName + ".compact");
+
+            ids = new String[index.size()];
+            records = new Record[ids.length];
+            int i = 0;
+            for (Map.Entry<String, Record> entry : index.entrySet()) {
+                ids[i] = entry.getKey();
+                records[i++] = entry.getValue();
+            }
+        }
+
+        boolean replaced = false;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            // 记录只追加不修改，不持有锁也可以从旧文件中复制
+            long[] offsets = new long[ids.length];
+            long position = 0L;
+            for (int i = 0; i < ids.length; i++) {
+                offsets[i] = position;
+                position += transfer(source, records[i], out, position, ids[i]);
+            }
+            out.force(true);
+
+            synchronized (this) {
+                if (channel != source)
+                    throw new IOException("FileStore.compact  段文件在压缩期间被关闭！ " + file);
+
+                Map<String, Record> compacted = new HashMap<>(index.size() * 2);
+                for (int i = 0; i < ids.length; i++) {
+                    Record current = index.get(ids[i]);
+                    if (current == records[i]) {
+                        compacted.put(ids[i], new Record(offsets[i], current.length, current.expiresAt));
+                    } else if (current == null) {
+                        // 快照之后被移除，追加移除记录，避免重新打开时被复活
+                        ByteBuffer buffer = ByteBuffer.wrap(removeRecord(ids[i]));
+                        while (buffer.hasRemaining())
+                            position += out.write(buffer, position);
+                    }
+                }
+                for (Map.Entry<String, Record> entry : index.entrySet()) {
+                    if (compacted.containsKey(entry.getKey()))
+                        continue;
+
+                    Record current = entry.getValue();
+                    compacted.put(entry.getKey(), new Record(position, current.length, current.expiresAt));
+                    position += transfer(channel, current, out, position, entry.getKey());
+                }
+                out.force(true);
+
+                channel.close();
+                channel = null;
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                replaced = true;
+
+                // 替换成功才更新索引
+                index.clear();
+                index.putAll(compacted);
+                liveBytes = 0L;
+                for (Record record : compacted.values())
+                    liveBytes += record.length;
+            }
+        } finally {
+            if (!replaced)
+                Files.deleteIfExists(tmp);
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+
+    /**
+     * 把一条记录从段文件复制到另一个文件
+     *
+     * @param source 段文件
+     * @param record 记录
+     * @param out 目标文件
+     * @param position 在目标文件中的位置
+     * @param id session id
+     * @return 返回复制的字节数
+     * @throws IOException
+     */
+    private static long transfer(FileChannel source, Record record, FileChannel out,
+                                 long position, String id) throws IOException {
+        long done = 0L;
+        while (done < record.length) {
+            long n = source.transferTo(record.offset + done, record.length - done, out.position(position + done));
+            if (n <= 0)
+                throw new EOFException("FileStore.compact  记录不完整！ " + id);
+            done += n;
+        }
+        return done;
+    }
+
+
+    /**
+     * 打开段文件，顺序扫描重建索引
+     *
+     * @throws IOException
+     */
+    private void open() throws IOException {
+        if (channel != null)
+            return;
+
+        file = file();
+        File parent = file.getParentFile();
+        if (parent != null)
+            parent.mkdirs();
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        index.clear();
+        liveBytes = 0L;
+
+        long size = channel.size();
+        long position = 0L;
+        ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SIZE);
+
+        while (position + PREFIX_SIZE <= size) {
+            prefix.clear();
+            readFully(prefix, position);
+            prefix.flip();
+
+            int length = prefix.getInt();
+            int crc = prefix.getInt();
+            if (length < PREFIX_SIZE - HEADER_SIZE + MIN_BODY_SIZE || position + HEADER_SIZE + length > size)
+                break;
+
+            // 读取整条记录并校验
+            ByteBuffer body = ByteBuffer.allocate(length - (PREFIX_SIZE - HEADER_SIZE));
+            readFully(body, position + PREFIX_SIZE);
+            if (crc != crc32(body.array(), 0, body.capacity()))
+                break;
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+            byte type = in.readByte();
+            long expiresAt = in.readLong();
+            String id;
+            try {
+                id = in.readUTF();
+            } catch (IOException e) {
+                break;
+            }
+            if (type != TYPE_SAVE && type != TYPE_REMOVE)
+                break;
+
+            int recordLength = HEADER_SIZE + length;
+            if (type == TYPE_SAVE) {
+                Record old = index.put(id, new Record(position, recordLength, expiresAt));
+                if (old != null)
+                    liveBytes -= old.length;
+                liveBytes += recordLength;
+            } else {
+                Record old = index.remove(id);
+                if (old != null)
+                    liveBytes -= old.length;
+            }
+
+            position += recordLength;
+        }
+
+        // 截断末尾不完整或者校验失败的记录
+        if (position < size) {
+            log("FileStore.open  段文件末尾的记录不完整或校验失败，已截断！ " + file + "  position：" + position);
+            channel.truncate(position);
+        }
+    }
+
+
+    /**
+     * 从段文件的指定位置读满缓冲区
+     *
+     * @param buffer 缓冲区
+     * @param position 起始位置
+     * @throws IOException 文件提前结束时抛出EOFException
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0)
+                throw new EOFException("FileStore.readFully  记录不完整！ " + file);
+            position += n;
+        }
+    }
+
+
+    /**
+     * 在段文件末尾追加数据
+     *
+     * @param bytes 要追加的数据
+     * @return 返回追加的起始位置
+     * @throws IOException
+     */
+    private long append(byte[] bytes) throws IOException {
+        long offset = channel.size();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = offset;
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+        return offset;
+    }
+
+
+    /**
+     * 关闭段文件
+     */
+    private void close() {
+        if (channel == null)
+            return;
+
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            log("FileStore.close  关闭段文件失败！ " + file, e);
+        }
+
+        channel = null;
+        index.clear();
+        liveBytes = 0L;
+    }
+
+
+    /**
+     * 取得段文件
+     * 没有设置存储目录时使用context的工作目录，都没有时使用临时目录，
+     * 此时文件名前加上容器名，避免多个context共用同一个段文件
+     *
+     * @return
+     */
+    private File file() {
+        File dir = null;
+        Container container = manager == null ? null : manager.getContainer();
+
+        if (directory != null) {
+            dir = new File(directory);
+            if (!dir.isAbsolute()) {
+                String base = System.getProperty(SystemProperty.SERVER_BASE);
+                if (base != null)
+                    dir = new File(base, directory);
+            }
+        } else {
+            if (container instanceof Context) {
+                Object workDir = ((Context) container).getServletContext().getAttribute(Globals.WORK_DIR_ATTR);
+                if (workDir instanceof File)
+                    dir = (File) workDir;
+            }
+        }
+
+        if (dir == null) {
+            dir = new File(System.getProperty("java.io.tmpdir"));
+            if (container != null) {
+                StringBuilder sb = new StringBuilder();
+                for (Container c = container; c != null; c = c.getParent())
+                    sb.insert(0, c.getName() + "_");
+                return new File(dir, sb.toString().replaceAll("[^A-Za-z0-9._-]", "_") + fileName);
+            }
+        }
+
+        return new File(dir, fileName);
+    }
+
+
+    /**
+     * 生成一条移除记录
+     *
+     * @param id session id
+     * @return 返回记录
+     * @throws IOException
+     */
+    private static byte[] removeRecord(String id) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeByte(TYPE_REMOVE);
+        dos.writeLong(0L);
+        dos.writeUTF(id);
+
+        byte[] bytes = bos.toByteArray();
+        seal(bytes);
+        return bytes;
+    }
+
+
+    /**
+     * 把记录长度和校验值写入记录开头预留的8个字节
+     *
+     * @param bytes 记录
+     */
+    private static void seal(byte[] bytes) {
+        putInt(bytes, 0, bytes.length - HEADER_SIZE);
+        putInt(bytes, HEADER_SIZE, crc32(bytes, PREFIX_SIZE, bytes.length - PREFIX_SIZE));
+    }
+
+
+    /**
+     * 校验记录
+     *
+     * @param bytes 记录
+     * @param off 校验值的起始位置
+     * @param len 校验值和被校验数据的总长度
+     * @return 校验通过返回<b>true</b>
+     */
+    private static boolean verify(byte[] bytes, int off, int len) {
+        int crc = ((bytes[off] & 0xFF) << 24) | ((bytes[off + 1] & 0xFF) << 16)
+                | ((bytes[off + 2] & 0xFF) << 8) | (bytes[off + 3] & 0xFF);
+        return crc == crc32(bytes, off + 4, len - 4);
+    }
+
+
+    /**
+     * @return 返回数据的CRC32校验值
+     */
+    private static int crc32(byte[] bytes, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, off, len);
+        return (int) crc.getValue();
+    }
+
+
+    private static void putInt(byte[] bytes, int off, int value) {
+        bytes[off] = (byte) (value >>> 24);
+        bytes[off + 1] = (byte) (value >>> 16);
+        bytes[off + 2] = (byte) (value >>> 8);
+        bytes[off + 3] = (byte) value;
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    @Override
+    public String getInfo() {
+        return INFO;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 设置存储目录，相对路径相对于服务器的基本路径
+     *
+     * @param directory
+     */
+    public synchronized void setDirectory(String directory) {
+        this.directory = directory;
+        close();
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public synchronized void setFileName(String fileName) {
+        this.fileName = fileName;
+        close();
+    }
+}
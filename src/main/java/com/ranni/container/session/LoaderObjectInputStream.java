@@ -0,0 +1,37 @@
+package com.ranni.container.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 使用指定类加载器解析类的对象输入流
+ * session属性的类通常由webapp类加载器加载，反序列化时必须用它来解析
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/18 9:30
+ */
+final class LoaderObjectInputStream extends ObjectInputStream {
+    private final ClassLoader classLoader;
+
+    LoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+        super(in);
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        if (classLoader != null) {
+            try {
+                return Class.forName(desc.getName(), false, classLoader);
+            } catch (ClassNotFoundException e) {
+                ;
+            }
+        }
+        return super.resolveClass(desc);
+    }
+}
@@ -1,12 +1,13 @@
 package com.ranni.container.session;
 
 import com.ranni.container.Container;
+import com.ranni.loader.Loader;
 import com.ranni.logger.Logger;
 
-import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Title: HttpServer
@@ -18,21 +19,19 @@ import java.util.*;
  * @Date 2022-04-19 19:08
  */
 public abstract class ManagerBase implements Manager {
-    protected static final String DEFAULT_ALGORITHM = "SHA-512"; // 默认的session算法
-    protected static final int SESSION_ID_BYTES = 16; // session id长度
+    protected static final int MAX_RECYCLED = 1024; // 回收队列的最大长度
+    protected static final long EXPIRY_TICK = 1000L; // 过期时间轮一个tick的毫秒数
 
     protected Container container; // 关联的context容器
     protected int debug = Logger.INFORMATION; // 日志级别
     protected boolean distributable; // 持久化标志
     protected int maxInactiveInterval = 60; // 最大生存时间，单位秒
     protected static String name = "ManagerBase";
-    protected Map<String, Session> sessions = new HashMap(); // session集合
-    protected String randomClass = "java.security.SecureRandom"; // session id生成器类名
-    protected Deque<Session> recycled = new LinkedList<>(); // 回收的session对象
-    protected String entropy; // 生成session id的熵
-    protected MessageDigest digest; // 生存session id所使用的算法
-    protected volatile Random random; // 随机生成器
-    protected String algorithm = DEFAULT_ALGORITHM; // 散列算法
+    protected final Map<String, Session> sessions = new ConcurrentHashMap<>(); // session集合，请求线程无锁查找
+    protected final AtomicInteger activeSessions = new AtomicInteger(); // 活动session数量
+    protected Deque<Session> recycled = new LinkedBlockingDeque<>(MAX_RECYCLED); // 回收的session对象，有界，满了就丢弃
+    protected final SessionExpiryWheel expiryWheel = new SessionExpiryWheel(EXPIRY_TICK); // session过期时间轮
+    protected SessionIdGenerator sessionIdGenerator = new SessionIdGenerator(); // session id生成器
 
 
     /**
@@ -46,12 +45,12 @@ public abstract class ManagerBase implements Manager {
 
 
     /**
-     * 添加到回收队列
+     * 添加到回收队列，队列已满时丢弃此session对象
      *
      * @param session
      */
     public void recycle(Session session) {
-        recycled.push(session);
+        recycled.offerFirst(session);
     }
 
 
@@ -109,26 +108,6 @@ public abstract class ManagerBase implements Manager {
     }
 
 
-    /**
-     * 返回使用的散列算法
-     *
-     * @return
-     */
-    public String getAlgorithm() {
-        return (this.algorithm);
-    }
-
-
-    /**
-     * 设置要使用的散列算法
-     *
-     * @param algorithm
-     */
-    public void setAlgorithm(String algorithm) {
-        this.algorithm = algorithm;
-    }
-
-
     /**
      * 返回存活时间，单位秒
      *
@@ -169,11 +148,10 @@ public abstract class ManagerBase implements Manager {
             session.setManager(this);
         } else {
             // 创建session
-            session = new StandardSession(this);
+            session = createEmptySession();
         }
 
-        // TODO 组成完整session id的应该还有router id，router id是每个服务器一个。这样做便于实现负载均衡
-        String id = getSessionId(); // 取得session id
+        String id = sessionIdGenerator.generateSessionId(); // 取得session id，设置了jvmRoute时末尾带有路由标识
 
         session.setNew(true);
         session.setValid(true);
@@ -181,10 +159,39 @@ public abstract class ManagerBase implements Manager {
         session.setMaxInactiveInterval(this.maxInactiveInterval);
         session.setId(id);
 
+        // 新建的session直接交给请求
+        if (session instanceof StandardSession)
+            ((StandardSession) session).published = true;
+
         return session;
     }
 
 
+    /**
+     * 创建一个空的session对象，子类可以返回StandardSession的子类
+     *
+     * @return
+     */
+    protected StandardSession createEmptySession() {
+        return new StandardSession(this);
+    }
+
+
+    /**
+     * 取得反序列化session属性使用的类加载器，优先使用context的webapp类加载器
+     *
+     * @return
+     */
+    protected ClassLoader getClassLoader() {
+        if (container != null) {
+            Loader loader = container.getLoader();
+            if (loader != null && loader.getClassLoader() != null)
+                return loader.getClassLoader();
+        }
+        return Thread.currentThread().getContextClassLoader();
+    }
+
+
     /**
      * 生成新的session id
      *
@@ -195,7 +202,7 @@ public abstract class ManagerBase implements Manager {
     public String rotateSessionId(Session session) {
         String newSessionId = null;
         while (true) {
-            newSessionId = getSessionId();
+            newSessionId = sessionIdGenerator.generateSessionId();
             if (findSession(newSessionId) == null) {
                 break;
             }
@@ -208,137 +215,66 @@ public abstract class ManagerBase implements Manager {
     
 
     /**
-     * 生成并返回session id
+     * 返回session id生成器
      *
      * @return
      */
-    private String getSessionId() {
-        MessageDigest messageDigest = getDigest();
-        if (messageDigest == null)
-            throw new IllegalStateException("ManagerBase.getSessionId  没有消息摘要生成器！");
-
-        byte[] bytes = new byte[SESSION_ID_BYTES];
-        getRandom().nextBytes(bytes);
-        bytes = messageDigest.digest(bytes);
-
-        // 转字符
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < bytes.length; i++) {
-            byte b1 = (byte) ((bytes[i] & 0xF0) >> 4);
-            byte b2 = (byte) (bytes[i] & 0x0F);
-
-            if (b1 < 10)
-                sb.append((char) ('0' + b1));
-            else
-                sb.append((char) ('A' + (b1 - 10)));
-
-            if (b2 < 10)
-                sb.append((char) ('0' + b2));
-            else
-                sb.append((char) ('A' + (b2 - 10)));
-        }
-
-        return sb.toString();
+    public SessionIdGenerator getSessionIdGenerator() {
+        return sessionIdGenerator;
     }
 
 
     /**
-     * 取得消息摘要生成器
+     * 设置session id生成器
      *
-     * @return
+     * @param sessionIdGenerator
      */
-    private synchronized MessageDigest getDigest() {
-        if (this.digest == null) {
-            try {
-                digest = MessageDigest.getInstance(this.algorithm);
-            } catch (NoSuchAlgorithmException e) {
-                log("没有" + this.algorithm + "这样的散列算法！");
-                try {
-                    digest = MessageDigest.getInstance(DEFAULT_ALGORITHM);
-                } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
-                    log("没有" + DEFAULT_ALGORITHM + "这样（默认散列算法）的散列算法！");
-                }
-            }
-        }
-
-        return this.digest;
-    }
-
-    /**
-     * 如果random为null，则先创建一个随机生成器对象
-     *
-     * @return
-     */
-    private Random getRandom() {
-        if (random == null) {
-            synchronized (this) {
-                if (random == null) {
-                    // 设置随机种子
-                    long seed = System.currentTimeMillis();
-                    char[] entropy = getEntropy().toCharArray();
-                    for (int i = 0; i < entropy.length; i++) {
-                        long update = ((byte) entropy[i]) << ((i % 8) * 8); // 7 * 8 = 56，ascii最大127，127 << 56 = 9151314442816847872。小于Long最大值
-                        seed ^= update;
-                    }
-
-                    try {
-                        Class<?> aClass = Class.forName(this.randomClass);
-                        random = (Random) aClass.getConstructor().newInstance();
-                        random.setSeed(seed);
-                    } catch (Exception e) {
-                        log("自定义随机生成器创建失败，采用java.util.Randoms作为生成器对象");
-                        random = new Random();
-                        random.setSeed(seed);
-                    }
-                }
-            }
-        }
-
-        return random;
+    public void setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        if (sessionIdGenerator == null)
+            throw new IllegalArgumentException("ManagerBase.setSessionIdGenerator  传入参数不能为null！");
+        this.sessionIdGenerator = sessionIdGenerator;
     }
 
 
     /**
-     * 设置自定义的随机生成器类名
+     * 设置自定义的SecureRandom子类类名
      *
      * @param randomClass
      */
     public void setRandomClass(String randomClass) {
         if (randomClass == null)
             throw new IllegalStateException("ManagerBase.setRandomClass  传入参数不能为null！");
-        this.randomClass = randomClass;
+        sessionIdGenerator.setSecureRandomClass(randomClass);
     }
 
 
     /**
-     * 返回当前的随机生成器类名
+     * 返回自定义的SecureRandom子类类名
      *
      * @return
      */
     public String getRandomClass() {
-        return this.randomClass;
+        return sessionIdGenerator.getSecureRandomClass();
     }
 
 
     /**
-     * 返回随机种子的熵
+     * 返回追加到session id末尾的路由标识
      *
      * @return
      */
-    public String getEntropy() {
-        if (entropy == null)
-            setEntropy(this.toString());
-        return entropy;
+    public String getJvmRoute() {
+        return sessionIdGenerator.getJvmRoute();
     }
 
 
     /**
-     * 设置随机种子的熵
+     * 设置追加到session id末尾的路由标识
      *
-     * @param entropy
+     * @param jvmRoute
      */
-    public void setEntropy(String entropy) {
-        this.entropy = entropy;
+    public void setJvmRoute(String jvmRoute) {
+        sessionIdGenerator.setJvmRoute(jvmRoute);
     }
 
 
@@ -351,22 +287,32 @@ public abstract class ManagerBase implements Manager {
      */
     @Override
     public Session findSession(String id) {
-        synchronized (sessions) {
-            return sessions.get(id);
-        }
+        if (id == null)
+            return null;
+        return sessions.get(id);
     }
 
 
     /**
      * 返回所有session
+     * 遍历是弱一致的，不会阻塞其它线程对session集合的修改，
+     * 返回的数组中可能不包含遍历期间新增的session
      *
      * @return
      */
     @Override
     public Session[] findSessions() {
-        synchronized (sessions) {
-            return sessions.values().toArray(new Session[sessions.size()]);
-        }
+        return sessions.values().toArray(new Session[0]);
+    }
+
+
+    /**
+     * 返回活动session数量
+     *
+     * @return
+     */
+    public int getActiveSessions() {
+        return activeSessions.get();
     }
 
 
@@ -377,9 +323,14 @@ public abstract class ManagerBase implements Manager {
      */
     @Override
     public void add(Session session) {
-        synchronized (sessions) {
-            sessions.put(session.getId(), session);
-        }
+        String id = session.getIdInternal();
+        if (id == null)
+            return;
+        
+        if (sessions.put(id, session) == null)
+            activeSessions.incrementAndGet();
+
+        expiryWheel.schedule(session);
     }
 
 
@@ -390,9 +341,58 @@ public abstract class ManagerBase implements Manager {
      */
     @Override
     public void remove(Session session) {
-        synchronized (sessions) {
-            sessions.remove(session.getId());
-        }
+        String id = session.getIdInternal();
+        if (id == null)
+            return;
+        
+        if (sessions.remove(id, session))
+            activeSessions.decrementAndGet();
+    }
+
+
+    /**
+     * session的属性在写入存储器之后第一次被修改时调用
+     * 默认什么都不做，子类可以据此把session异步写入存储器
+     *
+     * @param session
+     */
+    protected void sessionChanged(Session session) {
+    }
+
+
+    /**
+     * 请求结束时调用，session在请求中可能被修改过
+     * 默认什么都不做
+     *
+     * @param session
+     */
+    protected void endAccess(Session session) {
+    }
+
+
+    /**
+     * 判断session是否已经过期
+     *
+     * @param session
+     * @param now 当前时间
+     * @return 如果已经过期返回<b>true</b>
+     */
+    protected static boolean isExpired(Session session, long now) {
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        return maxInactiveInterval >= 0
+                && session.getThisAccessedTime() + maxInactiveInterval * 1000L <= now;
+    }
+
+
+    /**
+     * 推进过期时间轮，使到期的session失效
+     * 只处理到期槽中的session，不再遍历所有session。
+     * 只能由后台线程调用
+     *
+     * @return 返回失效的session数量
+     */
+    protected int processExpires() {
+        return expiryWheel.advance(System.currentTimeMillis(), session -> session.expire());
     }
 
 
@@ -0,0 +1,64 @@
+package com.ranni.container.session;
+
+import java.io.IOException;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 把闲置session放到堆外内存中的session管理器，适合大量长期闲置的session
+ * 1、存储器默认是OffHeapStore，闲置超过maxIdleSwap的session被换出到直接内存，
+ *    堆内只剩下存储器中的索引
+ * 2、session在被请求时才从直接内存中反序列化出来
+ * 3、内存中的session始终是最新的，只在换出时写入直接内存，请求线程不做序列化，
+ *    被修改的session也不放入写入线程的队列
+ * 4、session被换入后立即释放它在直接内存中的块，直接内存中只有被换出的session
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/18 14:10
+ */
+public class OffHeapManager extends PersistentManager {
+
+    // ==================================== 属性字段 ====================================
+
+    protected static String name = "OffHeapManager"; // 类名
+
+
+    public OffHeapManager() {
+        this.store = new OffHeapStore();
+        setMaxIdleSwap(60);
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 被修改的session在换出时才写入直接内存，不放入写入线程的队列
+     *
+     * @param session
+     */
+    @Override
+    protected void sessionChanged(Session session) {
+    }
+
+
+    /**
+     * 换入后内存中的session就是最新的，释放它在直接内存中的块，下次换出时重新写入
+     *
+     * @param session 换入的session
+     */
+    @Override
+    protected void swappedIn(Session session) {
+        try {
+            store.remove(session.getIdInternal());
+        } catch (IOException e) {
+            log("OffHeapManager.swappedIn  释放直接内存失败！ " + session.getIdInternal(), e);
+        }
+    }
+
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
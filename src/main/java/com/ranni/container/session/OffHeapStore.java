@@ -0,0 +1,540 @@
+package com.ranni.container.session;
+
+import com.ranni.lifecycle.LifecycleException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 把序列化后的session存放在堆外内存中的session存储器
+ * 堆内只保留 session id -> 句柄 的索引，session的数据全部在直接内存中，不参与GC。
+ * 索引是开放寻址的哈希表，id和句柄分别存放在String[]和long[]中，没有装箱的Long和Map.Entry
+ *
+ * 直接内存按页（默认1MB）申请，使用slab分配器管理：
+ * 1、按1.25倍递增划分出若干个块大小等级，最小128字节，最大一页
+ * 2、每页只属于一个等级，被切成该等级大小的块
+ * 3、每个等级有一个空闲块栈，释放的块入栈，分配时优先出栈，其次从该等级最新的页中切，最后申请新页
+ * 4、记录每页中正在使用的块数，页中的块全部释放后把它的块从空闲块栈中移除并释放这一页，
+ *    页号留给之后申请的页使用，页不会一直被一个等级占用
+ * 句柄的高32位是页号，低32位是块在页中的偏移
+ *
+ * 块格式：
+ * <pre>
+ * int 数据长度
+ * long 过期时间
+ * 序列化的session
+ * </pre>
+ * 超过一页的session和总内存超过上限时存入失败，session留在堆中
+ *
+ * 存储器停止时不释放直接内存，context重载后session依然可以取回，clear()时释放全部页
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/18 10:20
+ */
+public class OffHeapStore extends StoreBase {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final String INFO = "com.ranni.container.session.OffHeapStore/1.0";
+    private static final int CHUNK_HEADER_SIZE = 4 + 8; // 数据长度 + 过期时间
+    private static final int MIN_CHUNK_SIZE = 128; // 最小的块
+    private static final double GROWTH_FACTOR = 1.25; // 块大小等级的增长因子
+
+    private final HandleIndex index = new HandleIndex(); // session id -> 句柄
+    private final List<ByteBuffer> pages = new ArrayList<>(); // 已经申请的页，被释放的页为null
+    private int pageSize = 1 << 20; // 页大小
+    private long maxMemory = 256L << 20; // 直接内存上限
+    private int[] chunkSizes; // 块大小等级
+    private SizeClass[] sizeClasses; // 每个等级的分配状态
+    private int[] pageClasses = new int[16]; // 每页所属的等级
+    private int[] pageUsed = new int[16]; // 每页中正在使用的块数
+    private int[] freePages = new int[16]; // 被释放的页号
+    private int freePageCount; // 被释放的页号数量
+    private int livePages; // 正在使用的页数
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 一个块大小等级的分配状态
+     */
+    private static final class SizeClass {
+        final int chunkSize; // 块大小
+        long[] free = new long[64]; // 空闲块栈
+        int freeCount; // 空闲块数量
+        int page = -1; // 正在切分的页
+        int nextOffset; // 页中下一个没有切出的块
+
+        SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        void push(long handle) {
+            if (freeCount == free.length)
+                free = Arrays.copyOf(free, freeCount << 1);
+            free[freeCount++] = handle;
+        }
+    }
+
+
+    /**
+     * session id -> 句柄 的哈希表
+     * 线性探测，删除时把后面的条目前移，不留墓碑。不存在的句柄用-1表示
+     */
+    private static final class HandleIndex {
+        String[] keys = new String[64];
+        long[] handles = new long[64];
+        int size;
+
+        long get(String key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].equals(key))
+                    return handles[i];
+            }
+            return -1L;
+        }
+
+        long put(String key, long handle) {
+            if ((size + 1) << 1 > keys.length)
+                resize(keys.length << 1);
+
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            for (; keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].equals(key)) {
+                    long old = handles[i];
+                    handles[i] = handle;
+                    return old;
+                }
+            }
+
+            keys[i] = key;
+            handles[i] = handle;
+            size++;
+            return -1L;
+        }
+
+        long remove(String key) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            for (; keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].equals(key))
+                    break;
+            }
+            if (keys[i] == null)
+                return -1L;
+
+            long old = handles[i];
+            keys[i] = null;
+            size--;
+
+            // 把探测链上后面的条目前移，保证查找时不会提前遇到空槽
+            for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    handles[i] = handles[j];
+                    keys[j] = null;
+                    i = j;
+                }
+            }
+            return old;
+        }
+
+        String[] keys() {
+            String[] result = new String[size];
+            int n = 0;
+            for (String key : keys) {
+                if (key != null)
+                    result[n++] = key;
+            }
+            return result;
+        }
+
+        void clear() {
+            keys = new String[64];
+            handles = new long[64];
+            size = 0;
+        }
+
+        private void resize(int capacity) {
+            String[] oldKeys = keys;
+            long[] oldHandles = handles;
+            keys = new String[capacity];
+            handles = new long[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null)
+                    continue;
+                int j = slot(oldKeys[i], mask);
+                while (keys[j] != null)
+                    j = (j + 1) & mask;
+                keys[j] = oldKeys[i];
+                handles[j] = oldHandles[i];
+            }
+        }
+
+        private static int slot(String key, int mask) {
+            int h = key.hashCode() * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 启动存储器，第一次启动时划分块大小等级
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    public synchronized void start() throws LifecycleException {
+        if (started)
+            throw new LifecycleException("OffHeapStore.start  此存储器已经启动！ " + this);
+
+        lifecycle.fireLifecycleEvent(START_EVENT, null);
+        started = true;
+
+        if (sizeClasses == null)
+            initSizeClasses();
+    }
+
+
+    /**
+     * 停止存储器，保留直接内存中的数据
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    public synchronized void stop() throws LifecycleException {
+        if (!started)
+            throw new LifecycleException("OffHeapStore.stop  此存储器已经停止！ " + this);
+
+        lifecycle.fireLifecycleEvent(STOP_EVENT, null);
+        started = false;
+    }
+
+
+    @Override
+    public synchronized int getSize() {
+        return index.size;
+    }
+
+
+    @Override
+    public synchronized String[] keys() {
+        return index.keys();
+    }
+
+
+    /**
+     * 从直接内存中复制出session的数据再反序列化
+     *
+     * @param id session id
+     * @return 返回session，不存在返回null
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        if (id == null)
+            return null;
+
+        byte[] bytes;
+        synchronized (this) {
+            long handle = index.get(id);
+            if (handle < 0)
+                return null;
+
+            ByteBuffer chunk = chunk(handle);
+            bytes = new byte[chunk.getInt()];
+            chunk.getLong();
+            chunk.get(bytes);
+        }
+
+        // 反序列化不需要持有锁
+        return readSession(new ByteArrayInputStream(bytes));
+    }
+
+
+    /**
+     * 序列化session并写入直接内存，同一个id的旧块被释放
+     *
+     * @param session
+     * @throws IOException 超过一页或者直接内存已满时抛出
+     */
+    @Override
+    public void save(Session session) throws IOException {
+        String id = session.getIdInternal();
+        if (id == null)
+            return;
+
+        long expiresAt = expiresAt(session);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        writeSession(session, bos);
+        byte[] bytes = bos.toByteArray();
+
+        synchronized (this) {
+            if (sizeClasses == null)
+                initSizeClasses();
+
+            long handle = allocate(CHUNK_HEADER_SIZE + bytes.length);
+            ByteBuffer chunk = chunk(handle);
+            chunk.putInt(bytes.length);
+            chunk.putLong(expiresAt);
+            chunk.put(bytes);
+
+            long old = index.put(id, handle);
+            if (old >= 0)
+                free(old);
+        }
+    }
+
+
+    /**
+     * 移除session并释放它的块
+     *
+     * @param id session id
+     */
+    @Override
+    public synchronized void remove(String id) {
+        if (id == null)
+            return;
+
+        long handle = index.remove(id);
+        if (handle >= 0)
+            free(handle);
+    }
+
+
+    /**
+     * 清空存储器并释放所有直接内存
+     */
+    @Override
+    public synchronized void clear() {
+        index.clear();
+        pages.clear();
+        freePageCount = 0;
+        livePages = 0;
+        if (sizeClasses != null)
+            initSizeClasses();
+    }
+
+
+    /**
+     * 移除已经过期的session，过期时间直接从块头读取，不需要反序列化
+     */
+    @Override
+    public synchronized void processExpires() {
+        long now = System.currentTimeMillis();
+        List<String> expired = new ArrayList<>();
+        String[] keys = index.keys;
+        long[] handles = index.handles;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && pages.get(page(handles[i])).getLong(offset(handles[i]) + 4) <= now)
+                expired.add(keys[i]);
+        }
+
+        for (String id : expired)
+            remove(id);
+    }
+
+
+    /**
+     * 分配一个能放下size字节的块
+     *
+     * @param size 需要的字节数
+     * @return 返回句柄
+     * @throws IOException 超过一页或者直接内存已满时抛出
+     */
+    private long allocate(int size) throws IOException {
+        int cls = sizeClassOf(size);
+        if (cls < 0)
+            throw new IOException("OffHeapStore.allocate  session太大，超过了页大小！ " + size);
+
+        SizeClass sizeClass = sizeClasses[cls];
+        if (sizeClass.freeCount > 0) {
+            long handle = sizeClass.free[--sizeClass.freeCount];
+            pageUsed[page(handle)]++;
+            return handle;
+        }
+
+        if (sizeClass.page < 0 || sizeClass.nextOffset + sizeClass.chunkSize > pageSize) {
+            if ((long) (livePages + 1) * pageSize > maxMemory)
+                throw new IOException("OffHeapStore.allocate  直接内存已满！ " + maxMemory);
+
+            int page;
+            if (freePageCount > 0) {
+                page = freePages[--freePageCount];
+                pages.set(page, ByteBuffer.allocateDirect(pageSize));
+            } else {
+                page = pages.size();
+                pages.add(ByteBuffer.allocateDirect(pageSize));
+                if (page == pageClasses.length) {
+                    pageClasses = Arrays.copyOf(pageClasses, page << 1);
+                    pageUsed = Arrays.copyOf(pageUsed, page << 1);
+                }
+            }
+            pageClasses[page] = cls;
+            pageUsed[page] = 0;
+            livePages++;
+
+            sizeClass.page = page;
+            sizeClass.nextOffset = 0;
+        }
+
+        long handle = ((long) sizeClass.page << 32) | sizeClass.nextOffset;
+        sizeClass.nextOffset += sizeClass.chunkSize;
+        pageUsed[sizeClass.page]++;
+        return handle;
+    }
+
+
+    /**
+     * 释放块，放回所属等级的空闲块栈
+     * 页中的块全部释放后释放这一页
+     *
+     * @param handle 句柄
+     */
+    private void free(long handle) {
+        int page = page(handle);
+        SizeClass sizeClass = sizeClasses[pageClasses[page]];
+        if (--pageUsed[page] > 0) {
+            sizeClass.push(handle);
+            return;
+        }
+
+        // 从空闲块栈中移除这一页的块
+        int n = 0;
+        for (int i = 0; i < sizeClass.freeCount; i++) {
+            if (page(sizeClass.free[i]) != page)
+                sizeClass.free[n++] = sizeClass.free[i];
+        }
+        sizeClass.freeCount = n;
+        if (sizeClass.page == page)
+            sizeClass.page = -1;
+
+        pages.set(page, null);
+        if (freePageCount == freePages.length)
+            freePages = Arrays.copyOf(freePages, freePageCount << 1);
+        freePages[freePageCount++] = page;
+        livePages--;
+    }
+
+
+    /**
+     * 取得句柄对应的块，返回的缓冲区的位置在块的开头
+     *
+     * @param handle 句柄
+     * @return
+     */
+    private ByteBuffer chunk(long handle) {
+        ByteBuffer chunk = pages.get(page(handle)).duplicate();
+        chunk.position(offset(handle));
+        return chunk;
+    }
+
+
+    /**
+     * 取得能放下size字节的最小等级
+     *
+     * @param size
+     * @return 返回等级下标，超过一页返回-1
+     */
+    private int sizeClassOf(int size) {
+        int index = Arrays.binarySearch(chunkSizes, size);
+        if (index < 0)
+            index = -index - 1;
+        return index < chunkSizes.length ? index : -1;
+    }
+
+
+    /**
+     * 按增长因子划分块大小等级，最大的等级就是一页
+     */
+    private void initSizeClasses() {
+        List<Integer> sizes = new ArrayList<>();
+        int size = MIN_CHUNK_SIZE;
+        while (size < pageSize) {
+            sizes.add(size);
+            size = Math.max(size + 8, ((int) (size * GROWTH_FACTOR) + 7) & ~7);
+        }
+        sizes.add(pageSize);
+
+        chunkSizes = new int[sizes.size()];
+        sizeClasses = new SizeClass[sizes.size()];
+        for (int i = 0; i < chunkSizes.length; i++) {
+            chunkSizes[i] = sizes.get(i);
+            sizeClasses[i] = new SizeClass(chunkSizes[i]);
+        }
+    }
+
+
+    private static int page(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    @Override
+    public String getInfo() {
+        return INFO;
+    }
+
+
+    /**
+     * 返回已经申请的直接内存字节数
+     *
+     * @return
+     */
+    public synchronized long getAllocatedMemory() {
+        return (long) livePages * pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * 设置页大小，只能在存入session之前设置
+     *
+     * @param pageSize
+     */
+    public synchronized void setPageSize(int pageSize) {
+        if (!pages.isEmpty())
+            throw new IllegalStateException("OffHeapStore.setPageSize  已经申请了直接内存！");
+        if (pageSize < MIN_CHUNK_SIZE)
+            throw new IllegalArgumentException("OffHeapStore.setPageSize  页太小！ " + pageSize);
+        this.pageSize = pageSize;
+        this.sizeClasses = null;
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * 设置直接内存上限
+     *
+     * @param maxMemory
+     */
+    public synchronized void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+}
@@ -0,0 +1,510 @@
+package com.ranni.container.session;
+
+import com.ranni.lifecycle.LifecycleException;
+import com.ranni.logger.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 可以把session换出到存储器中的session管理器
+ * 1、活动session达到maxActiveSessions，或者闲置时间超过maxIdleSwap时，
+ *    由后台线程或写入线程把最久没有访问的session写入存储器并从内存中移除，请求线程不做换出
+ * 2、findSession()在内存中找不到时才从存储器中载入，启动时不再一次性载入所有session
+ * 3、被修改的session由写入线程按writeDelay间隔批量异步写入存储器，请求线程只入队
+ *
+ * 内存中的session始终是最新的，存储器中的副本只在换出、写入线程写入和停止时更新。
+ * 同一个session id的换入和换出用按id分段的锁互斥，不同session的换入换出互不阻塞
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/16 14:30
+ */
+public class PersistentManager extends StandardManager {
+
+    // ==================================== 属性字段 ====================================
+
+    protected static String name = "PersistentManager"; // 类名
+
+    private final LinkedBlockingQueue<Session> dirtySessions = new LinkedBlockingQueue<>(); // 等待写入的session
+    private final ConcurrentLinkedQueue<String> removedIds = new ConcurrentLinkedQueue<>(); // 等待从存储器中移除的session id
+    private static final int LOCK_STRIPES = 64; // 换入换出锁的分段数，必须是2的幂
+
+    private final Object[] swapLocks = new Object[LOCK_STRIPES]; // 按session id分段的换入换出锁
+    private final AtomicBoolean swapping = new AtomicBoolean(); // 是否有线程正在按活动session上限换出
+    private volatile boolean swapRequested; // 请求线程发现活动session达到上限时置位，由写入线程换出
+    private int maxIdleSwap = -1; // 闲置超过此时间的session被换出，单位秒，-1为不换出
+    private int minIdleSwap = 30; // 闲置不到此时间的session不会被换出，避免换出正在使用的session，单位秒
+    private long writeDelay = 1000L; // 写入线程的写入间隔，单位毫秒
+    private int batchSize = 256; // 写入线程每批写入的session数量
+    private volatile boolean writerDone = true; // 写入线程结束标志位
+    private volatile Thread writer; // 写入线程
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 写入线程，定时批量写入被修改的session
+     */
+    protected class SessionWriter implements Runnable {
+
+        @Override
+        public void run() {
+            while (!writerDone) {
+                // 不用中断唤醒，中断会关闭存储器正在使用的FileChannel
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(writeDelay));
+
+                if (swapRequested) {
+                    swapRequested = false;
+                    int max = getMaxActiveSessions();
+                    processMaxActiveSwaps(max - Math.max(1, max >> 4));
+                }
+
+                processWrites();
+            }
+        }
+    }
+
+
+    // ==================================== 构造方法 ====================================
+
+    /**
+     * 默认使用存放在context工作目录中的FileStore
+     */
+    public PersistentManager() {
+        this.store = new FileStore();
+        for (int i = 0; i < swapLocks.length; i++)
+            swapLocks[i] = new Object();
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 启动session管理器和写入线程
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    public void start() throws LifecycleException {
+        super.start();
+        writerStart();
+    }
+
+
+    /**
+     * 先停止写入线程并写完队列中的session，再停止session管理器
+     *
+     * @throws LifecycleException
+     */
+    @Override
+    public void stop() throws LifecycleException {
+        writerStop();
+        super.stop();
+    }
+
+
+    /**
+     * 启动时不载入session，只清理存储器中已经过期的session
+     * session在第一次被请求时才从存储器中载入
+     *
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    @Override
+    public void load() throws ClassNotFoundException, IOException {
+        if (store == null)
+            return;
+
+        store.processExpires();
+
+        if (debug >= Logger.DEBUG)
+            log("PersistentManager.load  存储器中的session数量：" + store.getSize());
+    }
+
+
+    /**
+     * 查找session，内存中没有时从存储器中载入
+     *
+     * @param id
+     * @return
+     */
+    @Override
+    public Session findSession(String id) {
+        Session session = super.findSession(id);
+        if (session != null || id == null || store == null || !isStarted())
+            return session;
+
+        return swapIn(id);
+    }
+
+
+    /**
+     * 创建session
+     * 活动session达到上限时唤醒写入线程换出最久没有访问的session，留出一些空位，
+     * 请求线程不等待换出，换出完成前按StandardManager的规则拒绝创建
+     *
+     * @return
+     */
+    @Override
+    public Session createSession() {
+        int max = getMaxActiveSessions();
+        if (max > 0 && store != null && activeSessions.get() >= max) {
+            swapRequested = true;
+            Thread writer = this.writer;
+            if (writer != null)
+                LockSupport.unpark(writer);
+        }
+
+        return super.createSession();
+    }
+
+
+    /**
+     * 移除session，同时在写入线程中把它从存储器中移除
+     *
+     * @param session
+     */
+    @Override
+    public void remove(Session session) {
+        String id = session.getIdInternal();
+        super.remove(session);
+
+        if (id != null && store != null && !writerDone)
+            removedIds.offer(id);
+    }
+
+
+    /**
+     * session被修改，放入写入队列
+     *
+     * @param session
+     */
+    @Override
+    protected void sessionChanged(Session session) {
+        if (store != null && !writerDone)
+            dirtySessions.offer(session);
+    }
+
+
+    /**
+     * 后台任务
+     * 1、使过期的session失效
+     * 2、换出闲置时间过长的session
+     * 3、活动session超过上限时换出最久没有访问的session
+     * 4、清理存储器中过期的session
+     */
+    @Override
+    public void backgroundProcess() {
+        super.backgroundProcess();
+
+        if (store == null || !isStarted())
+            return;
+
+        processMaxIdleSwaps();
+        processMaxActiveSwaps(getMaxActiveSessions());
+        store.processExpires();
+    }
+
+
+    /**
+     * 换出闲置时间超过maxIdleSwap的session
+     */
+    protected void processMaxIdleSwaps() {
+        if (maxIdleSwap < 0)
+            return;
+
+        long now = System.currentTimeMillis();
+        long idle = Math.max(maxIdleSwap, minIdleSwap) * 1000L;
+        for (Session session : findSessions()) {
+            if (session.isValid() && now - session.getThisAccessedTime() >= idle)
+                swapOut(session);
+        }
+    }
+
+
+    /**
+     * 活动session超过target时，按访问时间从早到晚换出session
+     * 后台线程和写入线程都会调用，同一时间只有一个线程执行，另一个直接返回
+     *
+     * @param target 换出后的活动session数量
+     */
+    protected void processMaxActiveSwaps(int target) {
+        if (target < 0 || activeSessions.get() <= target)
+            return;
+
+        if (!swapping.compareAndSet(false, true))
+            return;
+
+        try {
+            Session[] sessions = findSessions();
+            long[] accessed = new long[sessions.length];
+            Integer[] order = new Integer[sessions.length];
+            for (int i = 0; i < sessions.length; i++) {
+                accessed[i] = sessions[i].getThisAccessedTime();
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> accessed[i]));
+
+            long now = System.currentTimeMillis();
+            long minIdle = minIdleSwap * 1000L;
+            for (Integer i : order) {
+                if (activeSessions.get() <= target || now - accessed[i] < minIdle)
+                    break;
+                swapOut(sessions[i]);
+            }
+        } finally {
+            swapping.set(false);
+        }
+    }
+
+
+    /**
+     * 把session写入存储器并从内存中移除
+     * 在session id对应的锁中判断和换出，与同一个id的换入互斥。
+     * 有请求正在访问的session不换出；换出的session不回收，
+     * 在它被移除前已经取得它的请求仍可以安全地使用，请求中的修改由写入线程写入存储器
+     *
+     * @param session
+     */
+    protected void swapOut(Session session) {
+        String id = session.getIdInternal();
+        if (id == null)
+            return;
+
+        synchronized (swapLock(id)) {
+            if (!session.isValid() || isAccessed(session) || super.findSession(id) != session)
+                return;
+
+            try {
+                store.save(session);
+            } catch (IOException e) {
+                log("PersistentManager.swapOut  换出session失败！ " + id, e);
+                return;
+            }
+
+            // 存储器中的副本要保留，不能走this.remove()
+            super.remove(session);
+        }
+    }
+
+
+    /**
+     * 是否有请求正在访问session
+     *
+     * @param session
+     * @return
+     */
+    private static boolean isAccessed(Session session) {
+        return session instanceof StandardSession && ((StandardSession) session).isAccessed();
+    }
+
+
+    /**
+     * 从存储器中载入session
+     * 载入的session依然保留在存储器中，在它失效时才移除
+     *
+     * @param id session id
+     * @return 返回session，不存在或者已经过期返回null
+     */
+    protected Session swapIn(String id) {
+        synchronized (swapLock(id)) {
+            Session session = super.findSession(id);
+            if (session != null)
+                return session;
+
+            try {
+                session = store.load(id);
+            } catch (ClassNotFoundException | IOException e) {
+                log("PersistentManager.swapIn  载入session失败！ " + id, e);
+                removeFromStore(id);
+                return null;
+            }
+
+            if (session == null)
+                return null;
+
+            if (!session.isValid() || isExpired(session, System.currentTimeMillis())) {
+                removeFromStore(id);
+                return null;
+            }
+
+            session.setManager(this);
+            add(session);
+            swappedIn(session);
+
+            return session;
+        }
+    }
+
+
+    /**
+     * session被换入内存后调用，此时仍持有它的换入换出锁
+     * 默认什么都不做，存储器中的副本保留到session失效时才移除
+     *
+     * @param session 换入的session
+     */
+    protected void swappedIn(Session session) {
+    }
+
+
+    /**
+     * 批量写入被修改的session，再移除失效session在存储器中的副本
+     * 移除时如果内存中又出现了同一个id的session（如刚被换入），则不移除
+     */
+    protected void processWrites() {
+        if (store == null)
+            return;
+
+        List<Session> batch = new ArrayList<>(batchSize);
+        while (dirtySessions.drainTo(batch, batchSize) > 0) {
+            for (Session session : batch) {
+                if (!session.isValid() || session.getManager() != this)
+                    continue;
+
+                // 先清除标志位，写入期间的修改会让session重新入队
+                if (session instanceof StandardSession)
+                    ((StandardSession) session).setDirty(false);
+
+                try {
+                    store.save(session);
+                } catch (IOException e) {
+                    log("PersistentManager.processWrites  写入session失败！ " + session.getIdInternal(), e);
+                }
+            }
+            batch.clear();
+        }
+
+        String id;
+        while ((id = removedIds.poll()) != null) {
+            if (super.findSession(id) == null)
+                removeFromStore(id);
+        }
+    }
+
+
+    /**
+     * 取得session id对应的换入换出锁
+     *
+     * @param id session id
+     * @return
+     */
+    private Object swapLock(String id) {
+        int h = id.hashCode();
+        return swapLocks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+
+    /**
+     * 从存储器中移除session
+     *
+     * @param id
+     */
+    private void removeFromStore(String id) {
+        try {
+            store.remove(id);
+        } catch (IOException e) {
+            log("PersistentManager.removeFromStore  移除session失败！ " + id, e);
+        }
+    }
+
+
+    /**
+     * 启动写入线程
+     */
+    private void writerStart() {
+        if (store == null || writer != null)
+            return;
+
+        writerDone = false;
+        writer = new Thread(new SessionWriter());
+        writer.setName("PersistentManagerWriter[" + (container == null ? null : container.getName()) + "]");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+
+    /**
+     * 停止写入线程，并写完队列中剩余的session
+     */
+    private void writerStop() {
+        if (writer == null)
+            return;
+
+        writerDone = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+
+        processWrites();
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    public int getMaxIdleSwap() {
+        return maxIdleSwap;
+    }
+
+    /**
+     * 设置闲置多久的session被换出，单位秒，-1为不换出
+     *
+     * @param maxIdleSwap
+     */
+    public void setMaxIdleSwap(int maxIdleSwap) {
+        this.maxIdleSwap = maxIdleSwap;
+    }
+
+    public int getMinIdleSwap() {
+        return minIdleSwap;
+    }
+
+    /**
+     * 设置闲置不到多久的session不会被换出，单位秒
+     *
+     * @param minIdleSwap
+     */
+    public void setMinIdleSwap(int minIdleSwap) {
+        this.minIdleSwap = minIdleSwap;
+    }
+
+    public long getWriteDelay() {
+        return writeDelay;
+    }
+
+    /**
+     * 设置写入线程的写入间隔，单位毫秒
+     *
+     * @param writeDelay
+     */
+    public void setWriteDelay(long writeDelay) {
+        this.writeDelay = writeDelay;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
@@ -90,6 +90,14 @@ public interface Session {
     long getLastAccessedTime();
 
 
+    /**
+     * 返回此session当前被请求的时间
+     *
+     * @return
+     */
+    long getThisAccessedTime();
+
+
     /**
      * 取得此session的管理器
      *
@@ -0,0 +1,263 @@
+package com.ranni.container.session;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * session过期的分层时间轮<br>
+ * 共4层，每层64个槽，第0层每个槽是一个tick，第n层每个槽是64^n个tick。
+ * session按 thisAccessedTime + maxInactiveInterval 放入对应层的槽中，
+ * 后台线程推进时间轮时只处理到期的槽，不再扫描所有session。
+ *
+ * session被访问时只更新访问时间，不需要在请求线程中移动它在时间轮中的位置，
+ * 槽到期时重新计算过期时间，还没过期的session按新的过期时间放回时间轮，
+ * 即每个session只在原来的过期时间到达时被处理一次
+ *
+ * 请求线程只通过{@link #schedule(Session)}往无锁队列中添加新session，
+ * 其余方法只能由后台线程调用
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/15 10:12
+ */
+public final class SessionExpiryWheel {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS; // 每层的槽数
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4; // 层数
+    private static final long MAX_SPAN = 1L << (WHEEL_BITS * LEVELS); // 时间轮能表示的最大tick数
+
+    private final long tickMillis; // 一个tick的毫秒数
+    private final Entry[][] wheels = new Entry[LEVELS][WHEEL_SIZE]; // 每个槽是一个单向链表
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>(); // 还没放入时间轮的session
+    private long currentTick; // 下一个要处理的tick
+    private int size; // 时间轮中的条目数
+
+
+    /**
+     * @param tickMillis 一个tick的毫秒数
+     */
+    public SessionExpiryWheel(long tickMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 时间轮中的条目
+     * 记录放入时的session id，session id变化（轮换、回收后复用）后此条目作废
+     */
+    private static final class Entry {
+        final Session session;
+        final String id;
+        Entry next;
+
+        Entry(Session session, String id) {
+            this.session = session;
+            this.id = id;
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 添加session，线程安全
+     *
+     * @param session 要添加的session
+     */
+    public void schedule(Session session) {
+        String id = session.getIdInternal();
+        if (id != null)
+            pending.offer(new Entry(session, id));
+    }
+
+
+    /**
+     * 推进时间轮到当前时间，把过期的session交给expirer处理
+     *
+     * @param now 当前时间
+     * @param expirer 过期session的处理
+     * @return 返回过期的session数量
+     */
+    public int advance(long now, Consumer<Session> expirer) {
+        long targetTick = now / tickMillis;
+        int expired = 0;
+
+        // 太久没有推进时，直接按当前时间重建时间轮，避免逐个tick空转
+        if (targetTick - currentTick > WHEEL_SIZE * WHEEL_SIZE)
+            rebuild(targetTick);
+
+        Entry entry;
+        while ((entry = pending.poll()) != null)
+            place(entry);
+
+        while (currentTick <= targetTick) {
+            cascade();
+
+            int slot = (int) (currentTick & WHEEL_MASK);
+            Entry head = wheels[0][slot];
+            wheels[0][slot] = null;
+
+            while (head != null) {
+                entry = head;
+                head = head.next;
+                entry.next = null;
+                size--;
+
+                if (isStale(entry))
+                    continue;
+
+                if (deadlineTick(entry.session) <= currentTick) {
+                    try {
+                        expirer.accept(entry.session);
+                        expired++;
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                } else {
+                    place(entry);
+                }
+            }
+
+            currentTick++;
+        }
+
+        return expired;
+    }
+
+
+    /**
+     * @return 返回时间轮中的条目数（包括已经作废还没清理的）
+     */
+    public int size() {
+        return size + pending.size();
+    }
+
+
+    /**
+     * 清空时间轮
+     */
+    public void clear() {
+        pending.clear();
+        for (Entry[] wheel : wheels) {
+            for (int i = 0; i < wheel.length; i++)
+                wheel[i] = null;
+        }
+        size = 0;
+    }
+
+
+    /**
+     * 当前tick是第0层一圈的开始时，把上一层对应槽中的条目重新放入时间轮，逐层向上
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = WHEEL_BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0)
+                return;
+
+            int slot = (int) ((currentTick >>> shift) & WHEEL_MASK);
+            Entry head = wheels[level][slot];
+            wheels[level][slot] = null;
+
+            while (head != null) {
+                Entry entry = head;
+                head = head.next;
+                entry.next = null;
+                size--;
+
+                if (!isStale(entry))
+                    place(entry);
+            }
+        }
+    }
+
+
+    /**
+     * 按session的过期时间把条目放入对应层的槽中
+     *
+     * @param entry 条目
+     */
+    private void place(Entry entry) {
+        long deadline = Math.max(deadlineTick(entry.session), currentTick);
+        long delta = deadline - currentTick;
+        if (delta >= MAX_SPAN) {
+            deadline = currentTick + MAX_SPAN - 1;
+            delta = MAX_SPAN - 1;
+        }
+
+        int level = 0;
+        while (delta >= (1L << (WHEEL_BITS * (level + 1))))
+            level++;
+
+        int slot = (int) ((deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        entry.next = wheels[level][slot];
+        wheels[level][slot] = entry;
+        size++;
+    }
+
+
+    /**
+     * 以新的当前tick重新放入所有条目
+     *
+     * @param tick 新的当前tick
+     */
+    private void rebuild(long tick) {
+        Entry all = null;
+        for (Entry[] wheel : wheels) {
+            for (int i = 0; i < wheel.length; i++) {
+                Entry head = wheel[i];
+                wheel[i] = null;
+                while (head != null) {
+                    Entry entry = head;
+                    head = head.next;
+                    entry.next = all;
+                    all = entry;
+                }
+            }
+        }
+
+        size = 0;
+        currentTick = tick;
+        while (all != null) {
+            Entry entry = all;
+            all = all.next;
+            entry.next = null;
+            if (!isStale(entry))
+                place(entry);
+        }
+    }
+
+
+    /**
+     * @return 如果session已经失效或者id已经改变，返回<b>true</b>
+     */
+    private boolean isStale(Entry entry) {
+        Session session = entry.session;
+        return !session.isValid() || session.getIdInternal() != entry.id;
+    }
+
+
+    /**
+     * 计算session的过期tick，永不过期的session放到时间轮能表示的最远处，到时再重新检查
+     *
+     * @param session session
+     * @return 返回过期tick
+     */
+    private long deadlineTick(Session session) {
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if (maxInactiveInterval < 0)
+            return currentTick + MAX_SPAN - 1;
+
+        long deadline = session.getThisAccessedTime() + maxInactiveInterval * 1000L;
+        return (deadline + tickMillis - 1) / tickMillis;
+    }
+}
@@ -0,0 +1,175 @@
+package com.ranni.container.session;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * session id生成器
+ * SecureRandom产生的随机字节已经是均匀分布的，不需要再做一次散列，直接编码成十六进制即可。
+ * SecureRandom对象放在一个池中，每次生成时取出一个，用完放回，池空时才新建，
+ * 并发生成session id的线程各自使用不同的SecureRandom，不会在同一把锁上排队
+ *
+ * 设置了jvmRoute时，session id的末尾会追加 ".jvmRoute"，
+ * 负载均衡器可以据此把请求转发到创建session的服务器上
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/17 10:05
+ */
+public class SessionIdGenerator {
+
+    // ==================================== 属性字段 ====================================
+
+    /**
+     * 默认的随机字节数
+     */
+    public static final int DEFAULT_SESSION_ID_LENGTH = 16;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final Queue<SecureRandom> randoms = new ConcurrentLinkedQueue<>(); // SecureRandom池
+    private final ThreadLocal<char[]> buffers = new ThreadLocal<>(); // 每个线程复用的编码缓冲区
+    private volatile String jvmRoute; // 路由标识，追加到session id末尾
+    private int sessionIdLength = DEFAULT_SESSION_ID_LENGTH; // 随机字节数
+    private String secureRandomClass; // 自定义的SecureRandom子类类名
+    private String secureRandomAlgorithm; // SecureRandom算法，为null则使用平台默认算法
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 生成新的session id
+     *
+     * @return 返回session id
+     */
+    public String generateSessionId() {
+        byte[] bytes = new byte[sessionIdLength];
+
+        SecureRandom random = randoms.poll();
+        if (random == null)
+            random = createSecureRandom();
+        random.nextBytes(bytes);
+        randoms.offer(random);
+
+        String route = jvmRoute;
+        int length = bytes.length << 1;
+        int total = route == null ? length : length + 1 + route.length();
+
+        char[] buffer = buffers.get();
+        if (buffer == null || buffer.length < total) {
+            buffer = new char[total];
+            buffers.set(buffer);
+        }
+
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            buffer[j++] = HEX[(bytes[i] & 0xF0) >>> 4];
+            buffer[j++] = HEX[bytes[i] & 0x0F];
+        }
+
+        if (route != null) {
+            buffer[length] = '.';
+            route.getChars(0, route.length(), buffer, length + 1);
+        }
+
+        return new String(buffer, 0, total);
+    }
+
+
+    /**
+     * 创建SecureRandom
+     * 优先使用自定义的类，其次使用指定的算法，都失败时使用平台默认的实现
+     *
+     * @return
+     */
+    private SecureRandom createSecureRandom() {
+        SecureRandom result = null;
+
+        if (secureRandomClass != null) {
+            try {
+                Class<?> clazz = Class.forName(secureRandomClass);
+                result = (SecureRandom) clazz.getConstructor().newInstance();
+            } catch (Exception e) {
+                System.out.println("SessionIdGenerator.createSecureRandom  创建自定义的SecureRandom失败！ " + secureRandomClass);
+            }
+        }
+
+        if (result == null && secureRandomAlgorithm != null) {
+            try {
+                result = SecureRandom.getInstance(secureRandomAlgorithm);
+            } catch (NoSuchAlgorithmException e) {
+                System.out.println("SessionIdGenerator.createSecureRandom  没有" + secureRandomAlgorithm + "这样的算法！");
+            }
+        }
+
+        if (result == null)
+            result = new SecureRandom();
+
+        // 先取一次随机数，让SecureRandom完成自我播种，不把这个开销留给请求线程
+        result.nextInt();
+
+        return result;
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    public String getJvmRoute() {
+        return jvmRoute;
+    }
+
+    /**
+     * 设置路由标识，为null或空串则不追加
+     *
+     * @param jvmRoute
+     */
+    public void setJvmRoute(String jvmRoute) {
+        this.jvmRoute = jvmRoute == null || jvmRoute.isEmpty() ? null : jvmRoute;
+    }
+
+    public int getSessionIdLength() {
+        return sessionIdLength;
+    }
+
+    /**
+     * 设置随机字节数，session id的长度是它的两倍
+     *
+     * @param sessionIdLength
+     */
+    public void setSessionIdLength(int sessionIdLength) {
+        if (sessionIdLength <= 0)
+            throw new IllegalArgumentException("SessionIdGenerator.setSessionIdLength  长度必须大于0！ " + sessionIdLength);
+        this.sessionIdLength = sessionIdLength;
+    }
+
+    public String getSecureRandomClass() {
+        return secureRandomClass;
+    }
+
+    /**
+     * 设置自定义的SecureRandom子类类名，已经创建的SecureRandom会被丢弃
+     *
+     * @param secureRandomClass
+     */
+    public void setSecureRandomClass(String secureRandomClass) {
+        this.secureRandomClass = secureRandomClass;
+        randoms.clear();
+    }
+
+    public String getSecureRandomAlgorithm() {
+        return secureRandomAlgorithm;
+    }
+
+    /**
+     * 设置SecureRandom算法，已经创建的SecureRandom会被丢弃
+     *
+     * @param secureRandomAlgorithm
+     */
+    public void setSecureRandomAlgorithm(String secureRandomAlgorithm) {
+        this.secureRandomAlgorithm = secureRandomAlgorithm;
+        randoms.clear();
+    }
+}
@@ -2,12 +2,16 @@ package com.ranni.container.session;
 
 import com.ranni.container.Container;
 import com.ranni.container.Context;
+import com.ranni.container.Engine;
 import com.ranni.lifecycle.Lifecycle;
 import com.ranni.lifecycle.LifecycleException;
 import com.ranni.lifecycle.LifecycleListener;
+import com.ranni.logger.Logger;
 import com.ranni.util.LifecycleSupport;
 
 import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Title: HttpServer
@@ -23,11 +27,14 @@ public class StandardManager extends ManagerBase implements Lifecycle {
 
     protected LifecycleSupport lifecycle = new LifecycleSupport(this); // 生命周期管理工具
 
-    private boolean sessionRecycle; // Session回收标志位
-    private boolean started; // 启动标志位
+    private boolean sessionRecycle = true; // Session回收标志位
+    private volatile boolean started; // 启动标志位
     private int checkInterval = 60; // 会话检查间隔时间，单位秒
     private int maxActiveSessions = -1; // 允许的活动session最大数量，-1为不限制
 
+    protected Store store = new FileStore(); // session存储器，默认存放在context工作目录中，为null则停止时不保存session
+    private final Set<String> restoredIds = ConcurrentHashMap.newKeySet(); // 从存储器中载入、存储器中仍保留着副本的session id
+
 
     /**
      * 添加监听器
@@ -64,10 +71,11 @@ public class StandardManager extends ManagerBase implements Lifecycle {
 
     /**
      * 启动session管理器
-     * 主要做三件事：
-     * 1、触发启动事件
-     * 2、从存储器中载入session到内存中
-     * 3、启动失效session回收线程
+     * 主要做四件事：
+     * 1、触发启动事件，没有设置jvmRoute时使用engine的jvmRoute
+     * 2、启动存储器
+     * 3、从存储器中载入session到内存中
+     * 4、启动失效session回收线程
      *
      * @throws Exception
      */
@@ -80,6 +88,18 @@ public class StandardManager extends ManagerBase implements Lifecycle {
         lifecycle.fireLifecycleEvent(START_EVENT, null);
         started = true;
 
+        if (getJvmRoute() == null) {
+            Engine engine = getEngine();
+            if (engine != null)
+                setJvmRoute(engine.getJvmRoute());
+        }
+
+        if (store != null) {
+            store.setManager(this);
+            if (store instanceof Lifecycle)
+                ((Lifecycle) store).start();
+        }
+
         try {
             load();
         } catch (Throwable e) {
@@ -98,7 +118,7 @@ public class StandardManager extends ManagerBase implements Lifecycle {
      * 2、将session从内存持久化到存储器中
      * 3、停止失效session回收线程
      * 4、销毁所有session（并不删除session对象，而是将session初始化后放入到session管理器的空闲session队列中）
-     * 5、置空随机生成器
+     * 5、停止存储器
      *
      * @throws Exception
      */
@@ -127,7 +147,10 @@ public class StandardManager extends ManagerBase implements Lifecycle {
             session.recycle();
         }
 
-        this.random = null;
+        expiryWheel.clear();
+
+        if (store instanceof Lifecycle)
+            ((Lifecycle) store).stop();
     }
 
 
@@ -146,25 +169,94 @@ public class StandardManager extends ManagerBase implements Lifecycle {
     
 
     /**
-     * TODO 从存储器载入到内存中
+     * 从存储器载入所有session到内存中
+     * 载入的session在存储器中的副本保留到它失效（此时移除）或者停止时被重新保存（此时覆盖），
+     * 载入后到停止之间进程崩溃也不会丢失session。
+     * 已经过期的session从存储器中移除，载入失败的session（如类已经改变）保留在存储器中
      *
      * @throws ClassNotFoundException
      * @throws IOException
      */
     @Override
     public void load() throws ClassNotFoundException, IOException {
+        if (store == null)
+            return;
+
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (String id : store.keys()) {
+            Session session;
+            try {
+                session = store.load(id);
+            } catch (ClassNotFoundException | IOException e) {
+                log("StandardManager.load  载入session失败，保留在存储器中！ " + id, e);
+                continue;
+            }
+
+            if (session == null)
+                continue;
+
+            if (!session.isValid() || isExpired(session, now)) {
+                store.remove(id);
+                continue;
+            }
+
+            session.setManager(this);
+            add(session);
+            restoredIds.add(id);
+            count++;
+        }
+
+        if (debug >= Logger.DEBUG)
+            log("StandardManager.load  载入session数量：" + count);
+    }
+
+
+    /**
+     * 移除session
+     * 从存储器中载入的session失效时同时移除存储器中的副本，避免重启后被重新载入
+     *
+     * @param session
+     */
+    @Override
+    public void remove(Session session) {
+        String id = session.getIdInternal();
+        super.remove(session);
+
+        if (id == null || store == null || !restoredIds.remove(id))
+            return;
 
+        try {
+            store.remove(id);
+        } catch (IOException e) {
+            log("StandardManager.remove  从存储器中移除session失败！ " + id, e);
+        }
     }
 
 
     /**
-     * TODO 存储到存储器中
+     * 把所有有效的session存储到存储器中
+     * 单个session保存失败（如属性不能序列化）不影响其它session
      *
      * @throws IOException
      */
     @Override
     public void unload() throws IOException {
+        if (store == null)
+            return;
+
+        for (Session session : findSessions()) {
+            if (!session.isValid())
+                continue;
 
+            try {
+                store.save(session);
+            } catch (IOException e) {
+                log("StandardManager.unload  保存session失败！ " + session.getIdInternal(), e);
+            }
+        }
+
+        restoredIds.clear();
     }
 
     
@@ -173,10 +265,12 @@ public class StandardManager extends ManagerBase implements Lifecycle {
      */
     @Override
     public void backgroundProcess() {
-        if (!sessionRecycle)
+        if (!sessionRecycle || !started)
             return;
-        
-        // TODO 进行Session回收任务处理
+
+        int expired = processExpires();
+        if (expired > 0 && debug >= Logger.DEBUG)
+            log("StandardManager.backgroundProcess  失效session数量：" + expired);
     }
     
 
@@ -219,16 +313,100 @@ public class StandardManager extends ManagerBase implements Lifecycle {
 
     /**
      * 创建session
+     * 限制了最大活动session数量时，先用CAS在活动session计数上预占一个名额，
+     * session加入集合时计数会再加1，创建完成后归还预占的名额。
+     * 并发创建时计数可能短暂偏大，但活动session数量不会超过上限
      *
      * @return
      */
     @Override
     public Session createSession() {
-        if (maxActiveSessions >= 0
-            && sessions.size() >= maxActiveSessions)
-            throw new IllegalStateException("StandardManager.createSession  超过最大活动session数量！");
+        int max = maxActiveSessions;
+        if (max < 0)
+            return super.createSession();
+
+        int count;
+        do {
+            count = activeSessions.get();
+            if (count >= max)
+                throw new IllegalStateException("StandardManager.createSession  超过最大活动session数量！");
+        } while (!activeSessions.compareAndSet(count, count + 1));
+
+        try {
+            return super.createSession();
+        } finally {
+            activeSessions.decrementAndGet();
+        }
+    }
 
-        return super.createSession();
+
+    /**
+     * 取得关联的context所属的engine
+     *
+     * @return 返回engine，没有返回null
+     */
+    private Engine getEngine() {
+        Container parent = container;
+        while (parent != null) {
+            if (parent instanceof Engine)
+                return (Engine) parent;
+            parent = parent.getParent();
+        }
+        return null;
+    }
+
+
+    /**
+     * 返回是否已经启动
+     *
+     * @return
+     */
+    protected boolean isStarted() {
+        return started;
+    }
+
+
+    /**
+     * 返回session存储器
+     *
+     * @return
+     */
+    public Store getStore() {
+        return store;
+    }
+
+
+    /**
+     * 设置session存储器，为null则停止时不保存session
+     *
+     * @param store
+     */
+    public void setStore(Store store) {
+        if (started)
+            throw new IllegalStateException("StandardManager.setStore  session管理器已经启动！ " + this);
+        this.store = store;
+        if (store != null)
+            store.setManager(this);
+    }
+
+
+    /**
+     * 返回允许的活动session最大数量
+     *
+     * @return
+     */
+    public int getMaxActiveSessions() {
+        return maxActiveSessions;
+    }
+
+
+    /**
+     * 设置允许的活动session最大数量，-1为不限制
+     *
+     * @param maxActiveSessions
+     */
+    public void setMaxActiveSessions(int maxActiveSessions) {
+        this.maxActiveSessions = maxActiveSessions;
     }
 
 
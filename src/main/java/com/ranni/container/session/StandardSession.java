@@ -7,11 +7,18 @@ import com.ranni.util.Enumerator;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionContext;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Title: HttpServer
@@ -24,21 +31,26 @@ import java.util.Map;
  */
 public class StandardSession implements Session, HttpSession, Serializable {
     private static HttpSessionContext sessionContext; // 与此session关联的HttpSessionContext
+    private static final AtomicIntegerFieldUpdater<StandardSession> ACCESS_COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(StandardSession.class, "accessCount"); // 正在访问此session的请求数的更新器
 
     private transient String authType; // 认证类型
     private transient boolean expiring; // 是否正在销毁此session
     private transient HttpSession facade; // 外观对象引用
-    private transient Map<String, Object> notes = new HashMap<>(); // 此session的内部注释
+    private transient Map<String, Object> notes = new ConcurrentHashMap<>(); // 此session的内部注释
+    private transient volatile boolean dirty; // 属性是否有还没写入存储器的修改
+    private transient volatile int accessCount; // 正在访问此session的请求数
+    transient volatile boolean published; // 是否已经交给过请求，交给过请求的session可能仍被应用持有，不能回收复用
 
-    private Map<String, Object> attributes = new HashMap<>(); // 存入的参数
+    private Map<String, Object> attributes = new ConcurrentHashMap<>(); // 存入的参数，并发访问不加锁
     private long creationTime; // 创建时间
-    private Manager manager; // session管理器
-    private long lastAccessedTime; // 上次访问session的时间
+    private transient Manager manager; // session管理器
+    private volatile long lastAccessedTime; // 上次访问session的时间
     private boolean isNew; // 此session是否未被访问过
-    private boolean isValid; // 是否可用
-    private long thisAccessedTime; // 此session当前访问时间
+    private volatile boolean isValid; // 是否可用
+    private volatile long thisAccessedTime; // 此session当前访问时间，后台线程据此判断是否过期
     private int maxInactiveInterval = -1; // 最大生存时间，单位秒，-1为永久存活
-    private String id; // 此session id
+    private volatile String id; // 此session id
     private int debug = Logger.INFORMATION; // debug级别
 
 
@@ -170,6 +182,17 @@ public class StandardSession implements Session, HttpSession, Serializable {
     }
 
 
+    /**
+     * 返回此session当前访问的时间
+     *
+     * @return
+     */
+    @Override
+    public long getThisAccessedTime() {
+        return this.thisAccessedTime;
+    }
+
+
     /**
      * 取得关联的servlet全局作用域
      *
@@ -245,9 +268,9 @@ public class StandardSession implements Session, HttpSession, Serializable {
     public Object getAttribute(String name) {
         if (!isValid)
             throw new IllegalStateException("StandardSession.getAttribute:  此session还不可用！");
-        synchronized (attributes) {
-            return attributes.get(name);
-        }
+        if (name == null)
+            return null;
+        return attributes.get(name);
     }
 
 
@@ -272,9 +295,7 @@ public class StandardSession implements Session, HttpSession, Serializable {
     public Enumeration getAttributeNames() {
         if (!isValid)
             throw new IllegalStateException("StandardSession.getAttributeNames:  此session还不可用！");
-        synchronized (attributes) {
-            return new Enumerator(attributes.keySet());
-        }
+        return new Enumerator(attributes.keySet());
     }
 
 
@@ -297,9 +318,7 @@ public class StandardSession implements Session, HttpSession, Serializable {
      * @return
      */
     private String[] keys() {
-        synchronized (attributes) {
-            return attributes.keySet().toArray(new String[attributes.size()]);
-        }
+        return attributes.keySet().toArray(new String[0]);
     }
 
 
@@ -326,9 +345,8 @@ public class StandardSession implements Session, HttpSession, Serializable {
             throw new IllegalArgumentException("StandardSession.setAttribute:  value不支持序列化！");
 
         // 存入
-        synchronized (attributes) {
-            attributes.put(name, value);
-        }
+        attributes.put(name, value);
+        changed();
 
         // TODO 通知监听器session属性发生变化
     }
@@ -421,6 +439,7 @@ public class StandardSession implements Session, HttpSession, Serializable {
      */
     @Override
     public HttpSession getSession() {
+        published = true;
         if (this.facade == null)
             this.facade = new StandardSessionFacade(this);
         return this.facade;
@@ -454,6 +473,8 @@ public class StandardSession implements Session, HttpSession, Serializable {
      */
     @Override
     public void access() {
+        published = true;
+        ACCESS_COUNT.incrementAndGet(this);
         this.isNew = false;
         this.lastAccessedTime = this.thisAccessedTime;
         this.thisAccessedTime = System.currentTimeMillis();
@@ -507,9 +528,8 @@ public class StandardSession implements Session, HttpSession, Serializable {
         if (!expiring && !isValid)
             throw new IllegalStateException("StandardSession.setAttribute:  此session还不可用！");
 
-        synchronized (attributes) {
-            attributes.remove(name);
-        }
+        if (name != null && attributes.remove(name) != null)
+            changed();
 
         // TODO 通知相关的监听器
     }
@@ -528,6 +548,8 @@ public class StandardSession implements Session, HttpSession, Serializable {
 
     /**
      * 初始化属性
+     * 只有从没交给过请求的session（如从其它节点复制来、还没被访问过的session）才放回管理器的回收队列，
+     * 交给过请求的session可能仍被请求或应用持有，复用会把它变成别人的session，因此只清空属性后丢弃
      */
     @Override
     public void recycle() {
@@ -537,14 +559,18 @@ public class StandardSession implements Session, HttpSession, Serializable {
         expiring = false;
         id = null;
         lastAccessedTime = 0L;
+        thisAccessedTime = 0L;
         maxInactiveInterval = -1;
         notes.clear();
         isNew = false;
         isValid = false;
+        dirty = false;
+        accessCount = 0;
+        boolean published = this.published;
         Manager savedManager = manager;
         manager = null;
 
-        if ((savedManager != null) && (savedManager instanceof ManagerBase))
+        if (!published && savedManager instanceof ManagerBase)
             ((ManagerBase) savedManager).recycle(this);
     }
 
@@ -558,15 +584,143 @@ public class StandardSession implements Session, HttpSession, Serializable {
 
     }
 
+    /**
+     * 结束本次请求对此session的访问，通知session管理器
+     */
     @Override
     public void endAccess() {
-        
+        ACCESS_COUNT.decrementAndGet(this);
+        if (manager instanceof ManagerBase)
+            ((ManagerBase) manager).endAccess(this);
     }
 
+    /**
+     * 是否有请求正在访问此session
+     *
+     * @return 有请求调用了access()而还没有调用endAccess()时返回<b>true</b>
+     */
+    public boolean isAccessed() {
+        return accessCount > 0;
+    }
+
+
     @Override
     public String getIdInternal() {
         return this.id;
     }
+
+
+    /**
+     * 设置访问时间，只用于从其它节点恢复session
+     *
+     * @param lastAccessedTime 上次访问时间
+     * @param thisAccessedTime 当前访问时间
+     */
+    void restoreAccessTime(long lastAccessedTime, long thisAccessedTime) {
+        this.lastAccessedTime = lastAccessedTime;
+        this.thisAccessedTime = thisAccessedTime;
+    }
+
+
+    /**
+     * 返回是否有还没写入存储器的修改
+     *
+     * @return
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+
+    /**
+     * 设置是否有还没写入存储器的修改
+     *
+     * @param dirty
+     */
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+
+    /**
+     * 属性发生了修改，第一次修改时通知session管理器
+     */
+    private void changed() {
+        if (dirty)
+            return;
+
+        dirty = true;
+        if (manager instanceof ManagerBase)
+            ((ManagerBase) manager).sessionChanged(this);
+    }
+
+
+    /**
+     * 把此session写入对象输出流
+     * 没有实现Serializable接口的属性会被跳过
+     *
+     * @param stream 对象输出流
+     * @throws IOException 属性值内部引用了不能序列化的对象时抛出NotSerializableException
+     */
+    public void writeObjectData(ObjectOutputStream stream) throws IOException {
+        stream.writeLong(creationTime);
+        stream.writeLong(lastAccessedTime);
+        stream.writeLong(thisAccessedTime);
+        stream.writeInt(maxInactiveInterval);
+        stream.writeBoolean(isNew);
+        stream.writeBoolean(isValid);
+        stream.writeUTF(id);
+
+        List<String> names = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            if (entry.getValue() instanceof Serializable) {
+                names.add(entry.getKey());
+                values.add(entry.getValue());
+            }
+        }
+
+        stream.writeInt(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            stream.writeUTF(names.get(i));
+            stream.writeObject(values.get(i));
+        }
+    }
+
+
+    /**
+     * 从对象输入流中读取此session
+     * 不会关联session管理器，也不会加入session集合
+     *
+     * @param stream 对象输入流
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    public void readObjectData(ObjectInputStream stream) throws ClassNotFoundException, IOException {
+        creationTime = stream.readLong();
+        lastAccessedTime = stream.readLong();
+        thisAccessedTime = stream.readLong();
+        maxInactiveInterval = stream.readInt();
+        isNew = stream.readBoolean();
+        isValid = stream.readBoolean();
+        id = stream.readUTF();
+
+        if (attributes == null)
+            attributes = new ConcurrentHashMap<>();
+        if (notes == null)
+            notes = new ConcurrentHashMap<>();
+
+        int count = stream.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = stream.readUTF();
+            Object value = stream.readObject();
+            if (value != null)
+                attributes.put(name, value);
+        }
+
+        expiring = false;
+        dirty = false;
+    }
 }
 
 
@@ -0,0 +1,101 @@
+package com.ranni.container.session;
+
+import java.io.IOException;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * session存储器接口
+ * session管理器停止时把session存入存储器，启动时再从存储器中取回，
+ * PersistentManager还会把闲置的session换出到存储器中
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/16 9:20
+ */
+public interface Store {
+
+    /**
+     * 返回实现类的信息
+     *
+     * @return
+     */
+    String getInfo();
+
+
+    /**
+     * 返回关联的session管理器
+     *
+     * @return
+     */
+    Manager getManager();
+
+
+    /**
+     * 设置关联的session管理器
+     *
+     * @param manager
+     */
+    void setManager(Manager manager);
+
+
+    /**
+     * 返回存储器中的session数量
+     *
+     * @return
+     * @throws IOException
+     */
+    int getSize() throws IOException;
+
+
+    /**
+     * 返回存储器中所有的session id
+     *
+     * @return
+     * @throws IOException
+     */
+    String[] keys() throws IOException;
+
+
+    /**
+     * 从存储器中载入session，载入的session还没有关联session管理器
+     *
+     * @param id session id
+     * @return 返回session，不存在返回null
+     * @throws ClassNotFoundException 反序列化session属性时找不到类
+     * @throws IOException
+     */
+    Session load(String id) throws ClassNotFoundException, IOException;
+
+
+    /**
+     * 把session存入存储器，同一个id的旧数据会被覆盖
+     *
+     * @param session
+     * @throws IOException
+     */
+    void save(Session session) throws IOException;
+
+
+    /**
+     * 从存储器中移除session
+     *
+     * @param id session id
+     * @throws IOException
+     */
+    void remove(String id) throws IOException;
+
+
+    /**
+     * 清空存储器
+     *
+     * @throws IOException
+     */
+    void clear() throws IOException;
+
+
+    /**
+     * 移除存储器中已经过期的session
+     */
+    void processExpires();
+}
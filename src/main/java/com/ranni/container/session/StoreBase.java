@@ -0,0 +1,147 @@
+package com.ranni.container.session;
+
+import com.ranni.lifecycle.Lifecycle;
+import com.ranni.lifecycle.LifecycleListener;
+import com.ranni.util.LifecycleSupport;
+
+import java.io.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * session存储器的基类
+ * 提供session的序列化和反序列化，反序列化时使用webapp的类加载器解析session属性的类
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/18 9:30
+ */
+public abstract class StoreBase implements Store, Lifecycle {
+
+    // ==================================== 属性字段 ====================================
+
+    protected LifecycleSupport lifecycle = new LifecycleSupport(this); // 生命周期管理工具
+    protected Manager manager; // 关联的session管理器
+    protected boolean started; // 启动标志位
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 把session序列化写入输出流
+     *
+     * @param session 只支持StandardSession
+     * @param out 输出流
+     * @throws IOException
+     */
+    protected void writeSession(Session session, OutputStream out) throws IOException {
+        if (!(session instanceof StandardSession))
+            throw new IllegalArgumentException(getClass().getSimpleName() + "  只能存储StandardSession！ " + session);
+
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+    }
+
+
+    /**
+     * 从输入流中反序列化session，返回的session还没有关联session管理器
+     *
+     * @param in 输入流
+     * @return 返回session
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    protected Session readSession(InputStream in) throws ClassNotFoundException, IOException {
+        StandardSession session = manager instanceof ManagerBase
+                ? ((ManagerBase) manager).createEmptySession()
+                : new StandardSession(null);
+        try (ObjectInputStream ois = new LoaderObjectInputStream(in, getClassLoader())) {
+            session.readObjectData(ois);
+        }
+        return session;
+    }
+
+
+    /**
+     * 计算session的过期时间
+     *
+     * @param session
+     * @return 返回过期时间，永不过期返回Long.MAX_VALUE
+     */
+    protected static long expiresAt(Session session) {
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if (maxInactiveInterval < 0)
+            return Long.MAX_VALUE;
+        return session.getThisAccessedTime() + maxInactiveInterval * 1000L;
+    }
+
+
+    /**
+     * 取得反序列化session属性使用的类加载器
+     *
+     * @return
+     */
+    protected ClassLoader getClassLoader() {
+        if (manager instanceof ManagerBase)
+            return ((ManagerBase) manager).getClassLoader();
+        return Thread.currentThread().getContextClassLoader();
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    @Override
+    public Manager getManager() {
+        return manager;
+    }
+
+    @Override
+    public void setManager(Manager manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public void addLifecycleListener(LifecycleListener listener) {
+        lifecycle.addLifecycleListener(listener);
+    }
+
+    @Override
+    public LifecycleListener[] findLifecycleListeners() {
+        return lifecycle.findLifecycleListeners();
+    }
+
+    @Override
+    public void removeLifecycleListener(LifecycleListener listener) {
+        lifecycle.removeLifecycleListener(listener);
+    }
+
+
+    /**
+     * 日志记录
+     *
+     * @param message
+     */
+    protected void log(String message) {
+        if (manager instanceof ManagerBase)
+            ((ManagerBase) manager).log(message);
+        else
+            System.out.println(getClass().getSimpleName() + ": " + message);
+    }
+
+
+    /**
+     * 日志记录
+     *
+     * @param message
+     * @param throwable
+     */
+    protected void log(String message, Throwable throwable) {
+        if (manager instanceof ManagerBase) {
+            ((ManagerBase) manager).log(message, throwable);
+        } else {
+            System.out.println(getClass().getSimpleName() + ": " + message);
+            throwable.printStackTrace(System.out);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.ranni.container.session.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 同一个JVM中的传输层
+ * 同一组名的实例互为成员，消息直接投递到接收者的单线程执行器中，
+ * 保证和TCP传输层一样是异步、按发送顺序到达的。
+ * 用于在一个JVM中启动多个服务器实例，或者在测试中验证复制逻辑
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/19 10:30
+ */
+public class InMemoryTransport implements ReplicationTransport {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final Map<String, List<InMemoryTransport>> groups = new HashMap<>(); // 组名 -> 成员
+    private static final AtomicInteger sequence = new AtomicInteger(); // 成员编号
+
+    private final String group; // 组名
+    private final String localMember; // 本地成员名
+    private ReplicationListener listener; // 监听器
+    private volatile ExecutorService executor; // 投递消息的单线程执行器
+
+
+    /**
+     * @param group 组名
+     */
+    public InMemoryTransport(String group) {
+        this.group = group;
+        this.localMember = group + "#" + sequence.incrementAndGet();
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 加入组，互相通知成员加入
+     */
+    @Override
+    public void start() {
+        if (executor != null)
+            throw new IllegalStateException("InMemoryTransport.start  已经启动！ " + localMember);
+
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "InMemoryTransport[" + localMember + "]");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        synchronized (groups) {
+            List<InMemoryTransport> members = groups.computeIfAbsent(group, k -> new ArrayList<>());
+            for (InMemoryTransport member : members) {
+                member.memberAdded(localMember);
+                memberAdded(member.localMember);
+            }
+            members.add(this);
+        }
+    }
+
+
+    /**
+     * 离开组，通知其它成员
+     */
+    @Override
+    public void stop() {
+        if (executor == null)
+            return;
+
+        synchronized (groups) {
+            List<InMemoryTransport> members = groups.get(group);
+            if (members != null) {
+                members.remove(this);
+                for (InMemoryTransport member : members)
+                    member.memberDisappeared(localMember);
+                if (members.isEmpty())
+                    groups.remove(group);
+            }
+        }
+
+        executor.shutdown();
+        executor = null;
+    }
+
+
+    @Override
+    public void send(byte[] data) {
+        for (InMemoryTransport member : members()) {
+            if (member != this)
+                member.deliver(localMember, data);
+        }
+    }
+
+
+    @Override
+    public void send(String member, byte[] data) {
+        for (InMemoryTransport transport : members()) {
+            if (transport.localMember.equals(member)) {
+                transport.deliver(localMember, data);
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * 进程内没有连接的区别，直接发送给指定成员
+     *
+     * @param member 成员名
+     * @param data 消息内容
+     */
+    @Override
+    public void reply(String member, byte[] data) {
+        send(member, data);
+    }
+
+
+    @Override
+    public String[] getMembers() {
+        List<String> names = new ArrayList<>();
+        for (InMemoryTransport member : members()) {
+            if (member != this)
+                names.add(member.localMember);
+        }
+        return names.toArray(new String[0]);
+    }
+
+
+    /**
+     * @return 返回组内所有成员的快照
+     */
+    private List<InMemoryTransport> members() {
+        synchronized (groups) {
+            List<InMemoryTransport> members = groups.get(group);
+            return members == null ? new ArrayList<>() : new ArrayList<>(members);
+        }
+    }
+
+
+    private void deliver(String sender, byte[] data) {
+        execute(() -> listener.messageReceived(sender, data));
+    }
+
+    private void memberAdded(String member) {
+        execute(() -> listener.memberAdded(member));
+    }
+
+    private void memberDisappeared(String member) {
+        execute(() -> listener.memberDisappeared(member));
+    }
+
+
+    /**
+     * 在单线程执行器中回调监听器，已经停止时丢弃
+     *
+     * @param task
+     */
+    private void execute(Runnable task) {
+        ExecutorService executor = this.executor;
+        if (executor == null || listener == null)
+            return;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ;
+        }
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    @Override
+    public void setListener(ReplicationListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String getLocalMember() {
+        return localMember;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+}
@@ -0,0 +1,847 @@
+package com.ranni.container.session.cluster;
+
+import com.ranni.logger.Logger;
+import com.ranni.util.buf.ByteBufferUtils;
+import com.ranni.util.collections.ConcurrentBoundedSet;
+import com.ranni.util.net.Nio2Channel;
+import com.ranni.util.net.SocketBufferHandler;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 基于Nio2Channel的TCP传输层
+ * 每个节点监听一个端口，并向其它成员各建立一条出站连接用于发送，
+ * 入站连接主要用于接收，只有回复（{@link #reply(String, byte[])}）通过入站连接发回。
+ * 成员名就是节点的监听地址 host:port
+ *
+ * 帧格式：int 长度 + 内容。出站连接建立后的第一帧是握手：
+ * <pre>
+ * UTF 本地成员名
+ * long 时间戳
+ * byte[16] 随机数
+ * byte[32] 以上内容的HMAC-SHA256（设置了共享密钥时才有）
+ * </pre>
+ * 成员认证：
+ * 1、设置了共享密钥时，握手的HMAC必须正确，时间戳与本地时间相差不超过maxClockSkew，随机数没有出现过（防重放）。
+ *    之后每一帧的末尾都带有 HMAC(连接密钥, 方向 + 序号 + 内容)，连接密钥由共享密钥和握手的随机数导出，
+ *    序号从0开始递增，伪造、篡改、重放和反射的帧都会让连接被关闭
+ * 2、没有设置共享密钥时，握手中的成员名必须是配置的节点之一，并且连接的来源地址必须是这个节点的地址
+ * 认证通过的入站成员即使不在配置的节点中，也会收到{@link #send(byte[])}发送的消息
+ *
+ * 出站连接断开时通知成员离开，之后发送时按reconnectInterval间隔尝试重连，
+ * 连接成功后再次通知成员加入
+ *
+ * 监听器的回调都在一个单独的分发线程中按顺序执行，回调中阻塞的连接和写入不会占用AIO的完成线程
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/19 11:20
+ */
+public class Nio2Transport implements ReplicationTransport {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final int MAX_FRAME_SIZE = 64 << 20; // 最大帧长度
+    private static final String HMAC = "HmacSHA256";
+    private static final int MAC_SIZE = 32; // HMAC-SHA256的长度
+    private static final int NONCE_SIZE = 16; // 握手随机数的长度
+    private static final byte FROM_CONNECTOR = 1; // 出站方发出的帧
+    private static final byte FROM_ACCEPTOR = 2; // 入站方发出的帧（回复）
+
+    private final String host; // 监听地址
+    private final int port; // 监听端口
+    private final String localMember; // 本地成员名
+    private final String[] peers; // 其它节点的地址
+    private final Map<String, Link> connections = new ConcurrentHashMap<>(); // 出站连接
+    private final Map<String, Link> inbound = new ConcurrentHashMap<>(); // 认证通过的入站连接，用于回复
+    private final Map<String, Long> lastAttempts = new ConcurrentHashMap<>(); // 上次尝试连接的时间
+    private final Set<String> members = ConcurrentHashMap.newKeySet(); // 已经连上的成员
+    private final ConcurrentBoundedSet<String> nonces = new ConcurrentBoundedSet<>(8192); // 最近握手用过的随机数
+    private final SecureRandom random = new SecureRandom();
+    private Map<String, InetAddress[]> peerAddresses = new ConcurrentHashMap<>(); // 配置的节点解析出的地址
+    private byte[] secret; // 共享密钥，为null时按配置的节点和来源地址认证
+    private long maxClockSkew = 60000L; // 握手时间戳允许的最大偏差，单位毫秒
+    private ReplicationListener listener; // 监听器
+    private Logger logger; // 日志记录器
+    private AsynchronousServerSocketChannel server; // 监听套接字
+    private volatile ExecutorService dispatcher; // 执行监听器回调的单线程
+    private volatile boolean started; // 启动标志位
+    private int bufferSize = 8192; // 读缓冲区初始大小
+    private long connectTimeout = 3000L; // 连接超时时间，单位毫秒
+    private long writeTimeout = 5000L; // 写超时时间，单位毫秒
+    private long reconnectInterval = 5000L; // 重连间隔，单位毫秒
+
+
+    /**
+     * @param host 监听地址
+     * @param port 监听端口
+     * @param peers 其它节点的地址，格式为host:port
+     */
+    public Nio2Transport(String host, int port, String... peers) {
+        this.host = host;
+        this.port = port;
+        this.localMember = host + ":" + port;
+        this.peers = peers == null ? new String[0] : peers.clone();
+    }
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 一条连接的发送端
+     */
+    private static final class Link {
+        final Nio2Channel channel;
+        final Mac mac; // 连接密钥的HMAC，没有共享密钥时为null
+        final byte direction; // 本端发出的帧的方向
+        long sequence; // 下一帧的序号
+
+        Link(Nio2Channel channel, Mac mac, byte direction) {
+            this.channel = channel;
+            this.mac = mac;
+            this.direction = direction;
+        }
+    }
+
+
+    /**
+     * 连接的读取器，循环异步读取帧
+     * 入站连接的第一帧是握手，出站连接上读取的是对方的回复
+     */
+    private final class Receiver implements CompletionHandler<Integer, Void> {
+        private final Nio2Channel channel;
+        private final boolean accepted; // 是否是入站连接
+        private ByteBuffer buffer; // 写模式
+        private String sender; // 入站连接握手之后才有
+        private Mac mac; // 校验对方帧的HMAC
+        private Link link; // 入站连接用于回复的发送端
+        private long sequence; // 对方下一帧的序号
+
+        /**
+         * 入站连接
+         */
+        Receiver(Nio2Channel channel) {
+            this.channel = channel;
+            this.accepted = true;
+            this.buffer = channel.getBufferHandler().getReadBuffer();
+        }
+
+        /**
+         * 出站连接，读取对方的回复
+         */
+        Receiver(Link link, String member, Mac mac) {
+            this.channel = link.channel;
+            this.accepted = false;
+            this.buffer = channel.getBufferHandler().getReadBuffer();
+            this.sender = member;
+            this.mac = mac;
+            this.link = link;
+        }
+
+        void read() {
+            channel.read(buffer, null, this);
+        }
+
+        @Override
+        public void completed(Integer n, Void attachment) {
+            if (n < 0) {
+                close();
+                return;
+            }
+
+            buffer.flip();
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt(buffer.position());
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    close();
+                    return;
+                }
+                if (buffer.remaining() < 4 + length)
+                    break;
+
+                buffer.getInt();
+                byte[] frame = new byte[length];
+                buffer.get(frame);
+                if (!frameReceived(frame)) {
+                    close();
+                    return;
+                }
+            }
+            buffer.compact();
+
+            // 放不下一个完整的帧时扩容
+            if (!buffer.hasRemaining() || (buffer.position() >= 4 && buffer.getInt(0) + 4 > buffer.capacity()))
+                buffer = ByteBufferUtils.expand(buffer, Math.max(buffer.capacity() << 1, buffer.getInt(0) + 4));
+
+            if (started)
+                read();
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            close();
+        }
+
+        /**
+         * @return 帧合法返回<b>true</b>，返回<b>false</b>时关闭连接
+         */
+        private boolean frameReceived(byte[] frame) {
+            if (sender == null)
+                return handshake(frame);
+
+            byte[] data = frame;
+            if (mac != null) {
+                data = verify(mac, accepted ? FROM_CONNECTOR : FROM_ACCEPTOR, sequence++, frame);
+                if (data == null) {
+                    log("Nio2Transport.receive  帧校验失败，关闭连接！ " + sender, null);
+                    return false;
+                }
+            }
+
+            String sender = this.sender;
+            byte[] message = data;
+            dispatch(() -> listener.messageReceived(sender, message));
+            return true;
+        }
+
+        /**
+         * 认证入站连接的握手
+         */
+        private boolean handshake(byte[] frame) {
+            String member;
+            byte[] nonce = new byte[NONCE_SIZE];
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+                member = in.readUTF();
+                long timestamp = in.readLong();
+                in.readFully(nonce);
+                int signed = frame.length - in.available();
+
+                if (secret != null) {
+                    byte[] expected = hmac(secret).doFinal(Arrays.copyOf(frame, signed));
+                    byte[] actual = new byte[MAC_SIZE];
+                    in.readFully(actual);
+                    if (!MessageDigest.isEqual(expected, actual))
+                        throw new IOException("HMAC错误");
+                    if (Math.abs(System.currentTimeMillis() - timestamp) > maxClockSkew)
+                        throw new IOException("时间戳超出允许的偏差");
+                    String key = Base64.getEncoder().encodeToString(nonce);
+                    if (nonces.contains(key))
+                        throw new IOException("握手被重放");
+                    nonces.add(key);
+                } else if (!isPeerAddress(member, channel)) {
+                    throw new IOException("不是配置的节点");
+                }
+            } catch (IOException e) {
+                log("Nio2Transport.handshake  成员认证失败，关闭连接！ " + remoteAddress(channel) + "  " + e.getMessage(), null);
+                return false;
+            }
+
+            if (member.equals(localMember))
+                return false;
+
+            sender = member;
+            if (secret != null)
+                mac = linkMac(nonce);
+            link = new Link(channel, secret == null ? null : linkMac(nonce), FROM_ACCEPTOR);
+            Link old = inbound.put(member, link);
+            if (old != null && old.channel != channel)
+                closeQuietly(old.channel);
+
+            // 对方刚刚启动，不必等到重连间隔之后才连接它
+            lastAttempts.remove(member);
+            if (members.add(member))
+                dispatch(() -> listener.memberAdded(member));
+            return true;
+        }
+
+        private void close() {
+            closeQuietly(channel);
+            if (link == null)
+                return;
+
+            if (accepted)
+                inbound.remove(sender, link);
+            else
+                disconnect(sender, link);
+        }
+    }
+
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 开始监听，并尝试连接所有配置的节点
+     *
+     * @throws IOException 监听失败时抛出
+     */
+    @Override
+    public synchronized void start() throws IOException {
+        if (started)
+            throw new IllegalStateException("Nio2Transport.start  已经启动！ " + localMember);
+
+        resolvePeers();
+        server = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress(host, port));
+        dispatcher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Nio2Transport-" + localMember);
+            thread.setDaemon(true);
+            return thread;
+        });
+        started = true;
+
+        server.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            @Override
+            public void completed(AsynchronousSocketChannel socket, Void attachment) {
+                if (!started) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        ;
+                    }
+                    return;
+                }
+                server.accept(null, this);
+                new Receiver(wrap(socket)).read();
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                if (started)
+                    log("Nio2Transport.accept  接收连接失败！", exc);
+            }
+        });
+
+        for (String peer : peers) {
+            try {
+                connect(peer);
+            } catch (IOException e) {
+                ;
+            }
+        }
+    }
+
+
+    /**
+     * 关闭监听和所有连接
+     */
+    @Override
+    public synchronized void stop() {
+        if (!started)
+            return;
+
+        started = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            ;
+        }
+        dispatcher.shutdown();
+
+        for (Link link : connections.values())
+            closeQuietly(link.channel);
+        for (Link link : inbound.values())
+            closeQuietly(link.channel);
+        connections.clear();
+        inbound.clear();
+        members.clear();
+    }
+
+
+    /**
+     * 发送给所有配置的节点和认证通过的成员，没有连上的按重连间隔尝试重连，连不上的跳过
+     *
+     * @param data 消息内容
+     */
+    @Override
+    public void send(byte[] data) {
+        Set<String> targets = new LinkedHashSet<>(Arrays.asList(peers));
+        targets.addAll(members);
+        targets.remove(localMember);
+
+        for (String member : targets) {
+            try {
+                send(member, data);
+            } catch (IOException e) {
+                ;
+            }
+        }
+    }
+
+
+    /**
+     * 发送给指定的节点
+     *
+     * @param member 成员名
+     * @param data 消息内容
+     * @throws IOException 连接或写入失败时抛出
+     */
+    @Override
+    public void send(String member, byte[] data) throws IOException {
+        Link link = connections.get(member);
+        if (link == null) {
+            Long last = lastAttempts.get(member);
+            if (last != null && System.currentTimeMillis() - last < reconnectInterval)
+                throw new IOException("Nio2Transport.send  节点不可用！ " + member);
+            link = connect(member);
+        }
+
+        try {
+            writeFrame(link, data);
+        } catch (IOException e) {
+            disconnect(member, link);
+            throw e;
+        }
+    }
+
+
+    /**
+     * 通过指定成员连进来的入站连接回复，对方在它的出站连接上读取
+     *
+     * @param member 成员名
+     * @param data 消息内容
+     * @throws IOException 没有这个成员的入站连接或者写入失败时抛出
+     */
+    @Override
+    public void reply(String member, byte[] data) throws IOException {
+        Link link = inbound.get(member);
+        if (link == null)
+            throw new IOException("Nio2Transport.reply  没有此成员的入站连接！ " + member);
+
+        try {
+            writeFrame(link, data);
+        } catch (IOException e) {
+            inbound.remove(member, link);
+            closeQuietly(link.channel);
+            throw e;
+        }
+    }
+
+
+    /**
+     * 建立出站连接并发送握手帧
+     *
+     * @param member 节点地址
+     * @return 返回连接
+     * @throws IOException 连接失败时抛出
+     */
+    private Link connect(String member) throws IOException {
+        Link link;
+        synchronized (connections) {
+            link = connections.get(member);
+            if (link != null)
+                return link;
+
+            lastAttempts.put(member, System.currentTimeMillis());
+
+            int colon = member.lastIndexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("Nio2Transport.connect  节点地址格式错误！ " + member);
+
+            byte[] nonce = new byte[NONCE_SIZE];
+            random.nextBytes(nonce);
+            AsynchronousSocketChannel socket = AsynchronousSocketChannel.open();
+            Nio2Channel channel = wrap(socket);
+            link = new Link(channel, secret == null ? null : linkMac(nonce), FROM_CONNECTOR);
+            try {
+                socket.connect(new InetSocketAddress(member.substring(0, colon),
+                        Integer.parseInt(member.substring(colon + 1))))
+                        .get(connectTimeout, TimeUnit.MILLISECONDS);
+                writeRaw(channel, handshake(nonce));
+            } catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    ;
+                }
+                throw e instanceof IOException ? (IOException) e
+                        : new IOException("Nio2Transport.connect  连接失败！ " + member, e);
+            }
+
+            connections.put(member, link);
+            new Receiver(link, member, secret == null ? null : linkMac(nonce)).read();
+        }
+
+        if (members.add(member) && listener != null)
+            dispatch(() -> listener.memberAdded(member));
+
+        return link;
+    }
+
+
+    /**
+     * 生成握手帧
+     *
+     * @param nonce 本次连接的随机数
+     * @return
+     */
+    private byte[] handshake(byte[] nonce) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(localMember);
+            out.writeLong(System.currentTimeMillis());
+            out.write(nonce);
+            if (secret != null)
+                out.write(hmac(secret).doFinal(bytes.toByteArray()));
+        } catch (IOException e) {
+            ; // 不会发生
+        }
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * 关闭出站连接，通知成员离开
+     *
+     * @param member
+     * @param link
+     */
+    private void disconnect(String member, Link link) {
+        if (!connections.remove(member, link))
+            return;
+        closeQuietly(link.channel);
+
+        if (members.remove(member) && listener != null)
+            dispatch(() -> listener.memberDisappeared(member));
+    }
+
+
+    /**
+     * 在分发线程中执行监听器回调
+     * 回调中可能会阻塞地连接或者写入，不能在AIO的完成线程中执行
+     *
+     * @param task 回调
+     */
+    private void dispatch(Runnable task) {
+        ExecutorService dispatcher = this.dispatcher;
+        if (dispatcher == null)
+            return;
+
+        try {
+            dispatcher.execute(() -> {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    log("Nio2Transport.dispatch  监听器回调异常！", t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ; // 已经停止
+        }
+    }
+
+
+    /**
+     * 写入一帧，设置了共享密钥时末尾带上HMAC，同一个连接上的写入串行进行
+     *
+     * @param link 连接
+     * @param data 帧内容
+     * @throws IOException 写入失败或超时时抛出
+     */
+    private void writeFrame(Link link, byte[] data) throws IOException {
+        synchronized (link) {
+            byte[] frame = data;
+            if (link.mac != null) {
+                frame = Arrays.copyOf(data, data.length + MAC_SIZE);
+                System.arraycopy(sign(link.mac, link.direction, link.sequence++, data), 0,
+                        frame, data.length, MAC_SIZE);
+            }
+            writeRaw(link.channel, frame);
+        }
+    }
+
+
+    /**
+     * 写入一帧，不签名
+     *
+     * @param channel 连接
+     * @param data 帧内容
+     * @throws IOException 写入失败或超时时抛出
+     */
+    private void writeRaw(Nio2Channel channel, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + data.length);
+        buffer.putInt(data.length).put(data).flip();
+
+        synchronized (channel) {
+            try {
+                while (buffer.hasRemaining())
+                    channel.write(buffer).get(writeTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Nio2Transport.writeFrame  写入被中断！", e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IOException("Nio2Transport.writeFrame  写入失败！", e);
+            }
+        }
+    }
+
+
+    /**
+     * 把套接字包装成Nio2Channel
+     *
+     * @param socket
+     * @return
+     */
+    private Nio2Channel wrap(AsynchronousSocketChannel socket) {
+        Nio2Channel channel = new Nio2Channel(new SocketBufferHandler(bufferSize, 0, false));
+        channel.reset(socket, null);
+        return channel;
+    }
+
+
+    /**
+     * 计算 HMAC(连接密钥, 方向 + 序号 + 内容)
+     *
+     * @param mac 连接密钥的HMAC
+     * @param direction 方向
+     * @param sequence 序号
+     * @param data 内容
+     * @return
+     */
+    private static byte[] sign(Mac mac, byte direction, long sequence, byte[] data) {
+        return sign(mac, direction, sequence, data, data.length);
+    }
+
+    private static byte[] sign(Mac mac, byte direction, long sequence, byte[] data, int length) {
+        mac.update(direction);
+        for (int i = 56; i >= 0; i -= 8)
+            mac.update((byte) (sequence >>> i));
+        mac.update(data, 0, length);
+        return mac.doFinal();
+    }
+
+
+    /**
+     * 校验帧末尾的HMAC
+     *
+     * @param mac 连接密钥的HMAC
+     * @param direction 对方的方向
+     * @param sequence 期望的序号
+     * @param frame 帧
+     * @return 校验通过返回去掉HMAC的内容，否则返回<b>null</b>
+     */
+    private static byte[] verify(Mac mac, byte direction, long sequence, byte[] frame) {
+        int length = frame.length - MAC_SIZE;
+        if (length < 0)
+            return null;
+
+        byte[] expected = sign(mac, direction, sequence, frame, length);
+        byte[] actual = Arrays.copyOfRange(frame, length, frame.length);
+        return MessageDigest.isEqual(expected, actual) ? Arrays.copyOf(frame, length) : null;
+    }
+
+
+    /**
+     * 由共享密钥和握手的随机数导出连接密钥
+     *
+     * @param nonce 握手的随机数
+     * @return 返回用连接密钥初始化的HMAC
+     */
+    private Mac linkMac(byte[] nonce) {
+        return hmac(hmac(secret).doFinal(nonce));
+    }
+
+
+    /**
+     * @param key 密钥
+     * @return 返回用此密钥初始化的HMAC-SHA256
+     */
+    private static Mac hmac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(key, HMAC));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Nio2Transport.hmac  不支持" + HMAC + "！", e);
+        }
+    }
+
+
+    /**
+     * 解析配置的节点地址，没有共享密钥时用来核对入站连接的来源
+     */
+    private void resolvePeers() {
+        Map<String, InetAddress[]> addresses = new ConcurrentHashMap<>();
+        for (String peer : peers) {
+            int colon = peer.lastIndexOf(':');
+            if (colon < 0)
+                continue;
+            try {
+                addresses.put(peer, InetAddress.getAllByName(peer.substring(0, colon)));
+            } catch (UnknownHostException e) {
+                log("Nio2Transport.resolvePeers  无法解析节点地址！ " + peer, null);
+            }
+        }
+        peerAddresses = addresses;
+    }
+
+
+    /**
+     * 成员是否是配置的节点，并且连接来自这个节点的地址
+     *
+     * @param member 握手中的成员名
+     * @param channel 入站连接
+     * @return
+     */
+    private boolean isPeerAddress(String member, Nio2Channel channel) {
+        InetAddress[] addresses = peerAddresses.get(member);
+        SocketAddress remote = remoteAddress(channel);
+        if (addresses == null || !(remote instanceof InetSocketAddress))
+            return false;
+
+        InetAddress address = ((InetSocketAddress) remote).getAddress();
+        for (InetAddress candidate : addresses) {
+            if (candidate.equals(address))
+                return true;
+        }
+        return false;
+    }
+
+
+    private static SocketAddress remoteAddress(Nio2Channel channel) {
+        try {
+            return channel.getIOChannel().getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+
+    private static void closeQuietly(Nio2Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ;
+        }
+    }
+
+
+    /**
+     * 日志记录，没有设置日志记录器时输出到标准输出
+     *
+     * @param message
+     * @param throwable 可以为null
+     */
+    private void log(String message, Throwable throwable) {
+        Logger logger = this.logger;
+        if (logger != null) {
+            if (throwable != null)
+                logger.log(message, throwable);
+            else
+                logger.log(message);
+        } else {
+            System.out.println(message);
+            if (throwable != null)
+                throwable.printStackTrace(System.out);
+        }
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * 设置共享密钥，必须在启动之前设置，集群中所有节点的密钥必须相同
+     *
+     * @param secret 为null时不使用共享密钥，按配置的节点和来源地址认证
+     */
+    public void setSecret(String secret) {
+        if (started)
+            throw new IllegalStateException("Nio2Transport.setSecret  已经启动！ " + localMember);
+        this.secret = secret == null || secret.isEmpty() ? null : secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public long getMaxClockSkew() {
+        return maxClockSkew;
+    }
+
+    public void setMaxClockSkew(long maxClockSkew) {
+        this.maxClockSkew = maxClockSkew;
+    }
+
+    @Override
+    public void setListener(ReplicationListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String getLocalMember() {
+        return localMember;
+    }
+
+    @Override
+    public String[] getMembers() {
+        return members.toArray(new String[0]);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(long connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public void setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    public long getReconnectInterval() {
+        return reconnectInterval;
+    }
+
+    public void setReconnectInterval(long reconnectInterval) {
+        this.reconnectInterval = reconnectInterval;
+    }
+}
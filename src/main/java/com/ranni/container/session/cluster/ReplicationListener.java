@@ -0,0 +1,38 @@
+package com.ranni.container.session.cluster;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 复制消息和成员变化的监听器
+ * 回调在传输层的线程中执行，同一个成员发来的消息按发送顺序回调
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/19 10:00
+ */
+public interface ReplicationListener {
+
+    /**
+     * 收到其它成员发来的消息
+     *
+     * @param sender 发送者
+     * @param data 消息内容
+     */
+    void messageReceived(String sender, byte[] data);
+
+
+    /**
+     * 有成员加入
+     *
+     * @param member 成员名
+     */
+    void memberAdded(String member);
+
+
+    /**
+     * 有成员离开
+     *
+     * @param member 成员名
+     */
+    void memberDisappeared(String member);
+}
@@ -0,0 +1,82 @@
+package com.ranni.container.session.cluster;
+
+import java.io.IOException;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * session复制的传输层
+ * 只负责在成员之间传递字节数组，消息的格式由使用者决定
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/19 10:00
+ */
+public interface ReplicationTransport {
+
+    /**
+     * 设置监听器，必须在start()之前设置
+     *
+     * @param listener
+     */
+    void setListener(ReplicationListener listener);
+
+
+    /**
+     * 启动传输层，已经存在的成员会通过{@link ReplicationListener#memberAdded(String)}通知
+     *
+     * @throws IOException
+     */
+    void start() throws IOException;
+
+
+    /**
+     * 停止传输层
+     */
+    void stop();
+
+
+    /**
+     * 返回本地成员名
+     *
+     * @return
+     */
+    String getLocalMember();
+
+
+    /**
+     * 返回当前所有的远程成员
+     *
+     * @return
+     */
+    String[] getMembers();
+
+
+    /**
+     * 发送给所有远程成员
+     *
+     * @param data 消息内容
+     * @throws IOException
+     */
+    void send(byte[] data) throws IOException;
+
+
+    /**
+     * 发送给指定的远程成员
+     *
+     * @param member 成员名
+     * @param data 消息内容
+     * @throws IOException
+     */
+    void send(String member, byte[] data) throws IOException;
+
+
+    /**
+     * 回复指定的远程成员，通过它发来消息的那条连接发回
+     *
+     * @param member 成员名
+     * @param data 消息内容
+     * @throws IOException
+     */
+    void reply(String member, byte[] data) throws IOException;
+}
@@ -0,0 +1,824 @@
+package com.ranni.container.wrapper;
+
+import com.ranni.common.Globals;
+import com.ranni.container.ContainerServlet;
+import com.ranni.container.Wrapper;
+import com.ranni.naming.FileDirContext;
+import com.ranni.naming.Resource;
+import com.ranni.naming.ResourceAttributes;
+import com.ranni.util.HexUtils;
+import com.ranni.util.http.FastHttpDateFormat;
+import com.ranni.util.http.parse.AcceptEncoding;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.UnavailableException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 默认的静态资源servlet，挂在Context的"/"路径上，所有没有被Controller匹配上的
+ * 请求都由它处理。
+ * 支持：
+ * 1、ETag/Last-Modified条件请求（304、412）
+ * 2、Range请求（206、416、multipart/byteranges）
+ * 3、预压缩资源（xxx.br、xxx.gz），根据Accept-Encoding选择
+ * 4、小文件直接使用ProxyDirContext缓存的字节数组，大文件交给连接器的sendfile零拷贝发送
+ *
+ * 可用的初始化参数：
+ * sendfileSize    大于等于此大小（KB）的文件使用sendfile，小于0表示不使用sendfile，默认48
+ * useAcceptRanges 是否支持Range请求，默认true
+ * precompressed   是否查找预压缩资源，默认true
+ * useStrongETags  是否使用根据内容生成的强ETag，默认false
+ * maxRanges       一个请求最多允许的区间数（合并重叠区间之后），超出时返回整个资源，默认16
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2022-07-20 10:30
+ * @Ref org.apache.catalina.servlets.DefaultServlet
+ */
+public class DefaultServlet extends HttpServlet implements ContainerServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    // ==================================== 属性字段 ====================================
+
+    /**
+     * multipart/byteranges的分隔符
+     */
+    protected static final String MIME_SEPARATION = "RANNI_MIME_BOUNDARY";
+
+    /**
+     * 完整的资源，不需要Range处理
+     */
+    protected static final List<Range> FULL = new ArrayList<>(0);
+
+    /**
+     * 按优先级排列的预压缩格式，[编码, 文件后缀]
+     */
+    protected static final String[][] PRECOMPRESSED_FORMATS = {
+            { "br", ".br" },
+            { "gzip", ".gz" }
+    };
+
+    private static final int BUFFER_SIZE = 8192; // 流拷贝缓冲区大小
+    private static final int ETAG_CACHE_SIZE = 1024; // 强ETag缓存的最大条目数
+
+    private String info = "DefaultServlet/1.0"; // 实现信息
+    private Wrapper wrapper; // wrapper
+    protected DirContext resources; // 资源
+    protected int sendfileSize = 48 * 1024; // 使用sendfile的最小文件大小
+    protected boolean useAcceptRanges = true; // 是否支持Range请求
+    protected boolean precompressed = true; // 是否查找预压缩资源
+    protected boolean useStrongETags = false; // 是否使用强ETag
+    protected int maxRanges = 16; // 一个请求最多允许的区间数
+    private transient Map<String, StrongETag> strongETags = new ConcurrentHashMap<>(); // 资源路径 -> 强ETag
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 请求的一段字节区间，[start, end]两端都包含
+     */
+    protected static final class Range {
+        public long start;
+        public long end;
+        public long length; // 资源的总长度
+
+        public boolean validate() {
+            if (end >= length)
+                end = length - 1;
+            return start >= 0 && end >= 0 && start <= end && length > 0;
+        }
+    }
+
+
+    /**
+     * 缓存的强ETag，资源的修改时间或长度变化后作废
+     */
+    private static final class StrongETag {
+        final long lastModified;
+        final long contentLength;
+        final String eTag;
+
+        StrongETag(long lastModified, long contentLength, String eTag) {
+            this.lastModified = lastModified;
+            this.contentLength = contentLength;
+            this.eTag = eTag;
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 初始化，读取初始化参数并取得Context的资源
+     *
+     * @throws ServletException 没有资源时抛出
+     */
+    @Override
+    public void init() throws ServletException {
+        String value = getServletConfig().getInitParameter("sendfileSize");
+        if (value != null)
+            sendfileSize = Integer.parseInt(value) * 1024;
+
+        value = getServletConfig().getInitParameter("useAcceptRanges");
+        if (value != null)
+            useAcceptRanges = Boolean.parseBoolean(value);
+
+        value = getServletConfig().getInitParameter("precompressed");
+        if (value != null)
+            precompressed = Boolean.parseBoolean(value);
+
+        value = getServletConfig().getInitParameter("useStrongETags");
+        if (value != null)
+            useStrongETags = Boolean.parseBoolean(value);
+
+        value = getServletConfig().getInitParameter("maxRanges");
+        if (value != null)
+            maxRanges = Integer.parseInt(value);
+
+        resources = (DirContext) getServletContext().getAttribute(Globals.RESOURCES_ATTR);
+        if (resources == null)
+            throw new UnavailableException("DefaultServlet  没有可用的资源！");
+    }
+
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        serveResource(req, resp, true);
+    }
+
+
+    /**
+     * HEAD请求只返回响应头，不能交给父类的实现，
+     * 否则可能会设置sendfile属性导致连接器发送文件内容
+     */
+    @Override
+    protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        serveResource(req, resp, false);
+    }
+
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        doGet(req, resp);
+    }
+
+
+    /**
+     * 处理静态资源请求
+     *
+     * @param request 请求
+     * @param response 响应
+     * @param content 是否需要输出响应体
+     * @throws IOException 可能抛出I/O异常
+     */
+    protected void serveResource(HttpServletRequest request, HttpServletResponse response,
+                                 boolean content) throws IOException {
+
+        String path = getRelativePath(request);
+
+        if (isForbidden(path)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, request.getRequestURI());
+            return;
+        }
+
+        ResourceAttributes attributes = getResourceAttributes(path);
+        if (attributes != null && attributes.isCollection()) {
+            // 目录，尝试欢迎文件
+            path = path.endsWith("/") ? path + "index.html" : path + "/index.html";
+            attributes = getResourceAttributes(path);
+            if (attributes != null && attributes.isCollection())
+                attributes = null;
+        }
+
+        if (attributes == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, request.getRequestURI());
+            return;
+        }
+
+        String contentType = getServletContext().getMimeType(path);
+
+        // 选择预压缩的资源
+        String servedPath = path;
+        if (precompressed) {
+            String[] format = selectPrecompressed(request, response, path);
+            if (format != null) {
+                ResourceAttributes compressed = getResourceAttributes(path + format[1]);
+                if (compressed != null && !compressed.isCollection()) {
+                    servedPath = path + format[1];
+                    attributes = compressed;
+                    response.setHeader("Content-Encoding", format[0]);
+                }
+            }
+        }
+
+        Resource resource = lookupResource(servedPath);
+        if (resource == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, request.getRequestURI());
+            return;
+        }
+
+        String eTag = getETag(servedPath, attributes, resource);
+        long lastModified = attributes.getLastModified();
+
+        // 条件请求
+        if (!checkIfHeaders(request, response, eTag, lastModified))
+            return;
+
+        if (eTag != null)
+            response.setHeader("ETag", eTag);
+        if (lastModified >= 0)
+            response.setHeader("Last-Modified", FastHttpDateFormat.formatDate(lastModified));
+        if (useAcceptRanges)
+            response.setHeader("Accept-Ranges", "bytes");
+
+        long contentLength = attributes.getContentLength();
+        List<Range> ranges = FULL;
+        if (useAcceptRanges && contentLength > 0) {
+            ranges = parseRange(request, response, eTag, lastModified, contentLength);
+            if (ranges == null)
+                return; // 已经响应了416
+        }
+
+        if (ranges == FULL) {
+            if (contentType != null)
+                response.setContentType(contentType);
+            if (contentLength >= 0)
+                response.setContentLengthLong(contentLength);
+
+            if (content && contentLength != 0
+                    && !checkSendfile(request, resource, contentLength, 0, contentLength)) {
+                copy(resource, response.getOutputStream(), 0, contentLength);
+            }
+
+        } else if (ranges.size() == 1) {
+            Range range = ranges.get(0);
+            long length = range.end - range.start + 1;
+
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range.start + "-" + range.end + "/" + range.length);
+            if (contentType != null)
+                response.setContentType(contentType);
+            response.setContentLengthLong(length);
+
+            if (content && !checkSendfile(request, resource, contentLength, range.start, range.end + 1)) {
+                copy(resource, response.getOutputStream(), range.start, length);
+            }
+
+        } else {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType("multipart/byteranges; boundary=" + MIME_SEPARATION);
+
+            if (content) {
+                ServletOutputStream ostream = response.getOutputStream();
+                for (Range range : ranges) {
+                    StringBuilder sb = new StringBuilder(96);
+                    sb.append("\r\n--").append(MIME_SEPARATION).append("\r\n");
+                    if (contentType != null)
+                        sb.append("Content-Type: ").append(contentType).append("\r\n");
+                    sb.append("Content-Range: bytes ").append(range.start).append('-')
+                            .append(range.end).append('/').append(range.length).append("\r\n\r\n");
+                    ostream.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+                    copy(resource, ostream, range.start, range.end - range.start + 1);
+                }
+                ostream.write(("\r\n--" + MIME_SEPARATION + "--").getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+
+    /**
+     * 取得请求的资源相对于Context的路径
+     *
+     * @param request 请求
+     * @return 返回资源路径
+     */
+    protected String getRelativePath(HttpServletRequest request) {
+        String servletPath = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        StringBuilder sb = new StringBuilder();
+
+        if (servletPath != null)
+            sb.append(servletPath);
+        if (pathInfo != null)
+            sb.append(pathInfo);
+        if (sb.length() == 0 || sb.charAt(0) != '/')
+            sb.insert(0, '/');
+
+        return sb.toString();
+    }
+
+
+    /**
+     * WEB-INF、META-INF下的资源以及越界路径不允许被访问
+     *
+     * @param path 资源路径
+     * @return 禁止访问返回true
+     */
+    protected boolean isForbidden(String path) {
+        // 不能用toUpperCase()，土耳其语等区域设置下i会被转换成İ
+        return path.regionMatches(true, 0, "/WEB-INF", 0, 8) || path.regionMatches(true, 0, "/META-INF", 0, 9)
+                || path.contains("/../") || path.endsWith("/..");
+    }
+
+
+    /**
+     * 取得资源属性
+     *
+     * @param path 资源路径
+     * @return 返回资源属性，资源不存在返回null
+     */
+    protected ResourceAttributes getResourceAttributes(String path) {
+        try {
+            Attributes attrs = resources.getAttributes(path);
+            if (attrs instanceof ResourceAttributes)
+                return (ResourceAttributes) attrs;
+            return new ResourceAttributes(attrs);
+        } catch (NamingException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * 取得资源
+     *
+     * @param path 资源路径
+     * @return 返回资源，资源不存在或是目录返回null
+     */
+    protected Resource lookupResource(String path) {
+        try {
+            Object o = resources.lookup(path);
+            if (o instanceof Resource)
+                return (Resource) o;
+        } catch (NamingException e) {
+            ;
+        }
+        return null;
+    }
+
+
+    /**
+     * 根据Accept-Encoding选出客户端接受的、优先级最高的预压缩格式，
+     * 只要存在预压缩资源就需要设置Vary响应头
+     *
+     * @param request 请求
+     * @param response 响应
+     * @param path 原始资源路径
+     * @return 返回[编码, 文件后缀]，没有合适的预压缩资源返回null
+     */
+    protected String[] selectPrecompressed(HttpServletRequest request, HttpServletResponse response, String path) {
+        List<String[]> available = null;
+        for (String[] format : PRECOMPRESSED_FORMATS) {
+            if (getResourceAttributes(path + format[1]) != null) {
+                if (available == null)
+                    available = new ArrayList<>(PRECOMPRESSED_FORMATS.length);
+                available.add(format);
+            }
+        }
+
+        if (available == null)
+            return null;
+
+        response.addHeader("Vary", "accept-encoding");
+
+        String header = request.getHeader("Accept-Encoding");
+        if (header == null)
+            return null;
+
+        List<AcceptEncoding> acceptEncodings;
+        try {
+            acceptEncodings = AcceptEncoding.parse(new StringReader(header));
+        } catch (IOException e) {
+            return null;
+        }
+
+        String[] best = null;
+        double bestQuality = 0;
+        for (String[] format : available) {
+            for (AcceptEncoding acceptEncoding : acceptEncodings) {
+                String encoding = acceptEncoding.getEncoding();
+                if ((encoding.equalsIgnoreCase(format[0]) || "*".equals(encoding))
+                        && acceptEncoding.getQuality() > bestQuality) {
+                    best = format;
+                    bestQuality = acceptEncoding.getQuality();
+                }
+            }
+        }
+
+        return best;
+    }
+
+
+    /**
+     * 取得资源的ETag
+     * 需要强ETag时，根据资源内容计算SHA-1摘要，按资源路径缓存，
+     * 资源的修改时间和长度都没有变化时直接使用缓存的ETag，不再读取资源内容
+     *
+     * @param path 资源路径
+     * @param attributes 资源属性
+     * @param resource 资源
+     * @return 返回ETag
+     */
+    protected String getETag(String path, ResourceAttributes attributes, Resource resource) {
+        String eTag = attributes.getETag();
+        if (!useStrongETags || (eTag != null && !eTag.startsWith("W/")))
+            return eTag;
+
+        long lastModified = attributes.getLastModified();
+        long contentLength = attributes.getContentLength();
+        StrongETag cached = strongETags.get(path);
+        if (cached != null && cached.lastModified == lastModified && cached.contentLength == contentLength)
+            return cached.eTag;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = resource.getContext();
+            if (bytes != null) {
+                digest.update(bytes);
+            } else {
+                try (InputStream is = resource.streamContent()) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int len;
+                    while ((len = is.read(buffer)) >= 0)
+                        digest.update(buffer, 0, len);
+                }
+            }
+            eTag = "\"" + HexUtils.toHexString(digest.digest()) + "\"";
+            attributes.setETag(eTag);
+
+            // 超出容量时整体清空，之后按访问重新计算
+            if (strongETags.size() >= ETAG_CACHE_SIZE)
+                strongETags.clear();
+            strongETags.put(path, new StrongETag(lastModified, contentLength, eTag));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            ;
+        }
+
+        return eTag;
+    }
+
+
+    /**
+     * 检查条件请求头
+     *
+     * @param request 请求
+     * @param response 响应
+     * @param eTag 资源的ETag
+     * @param lastModified 资源最后修改时间
+     * @return 如果需要继续处理请求返回true，已经响应了304或412则返回false
+     */
+    protected boolean checkIfHeaders(HttpServletRequest request, HttpServletResponse response,
+                                     String eTag, long lastModified) throws IOException {
+
+        // If-Match
+        String headerValue = request.getHeader("If-Match");
+        if (headerValue != null) {
+            if (!"*".equals(headerValue.trim()) && !matchETag(headerValue, eTag, false)) {
+                response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+                return false;
+            }
+        } else {
+            // If-Unmodified-Since
+            long date = parseDateHeader(request, "If-Unmodified-Since");
+            if (date != -1 && lastModified >= date + 1000) {
+                response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+                return false;
+            }
+        }
+
+        // If-None-Match
+        headerValue = request.getHeader("If-None-Match");
+        if (headerValue != null) {
+            if ("*".equals(headerValue.trim()) || matchETag(headerValue, eTag, true)) {
+                String method = request.getMethod();
+                if ("GET".equals(method) || "HEAD".equals(method)) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    if (eTag != null)
+                        response.setHeader("ETag", eTag);
+                } else {
+                    response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+                }
+                return false;
+            }
+        } else {
+            // If-Modified-Since，只对GET和HEAD有效
+            String method = request.getMethod();
+            long date = parseDateHeader(request, "If-Modified-Since");
+            if (date != -1 && lastModified >= 0 && lastModified < date + 1000
+                    && ("GET".equals(method) || "HEAD".equals(method))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                if (eTag != null)
+                    response.setHeader("ETag", eTag);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * 判断请求头中的ETag列表是否包含资源的ETag
+     *
+     * @param headerValue 请求头的值，逗号分隔
+     * @param eTag 资源的ETag
+     * @param weak 是否使用弱比较
+     * @return 匹配上返回true
+     */
+    protected boolean matchETag(String headerValue, String eTag, boolean weak) {
+        if (eTag == null)
+            return false;
+
+        if (!weak && eTag.startsWith("W/"))
+            return false;
+
+        String target = weak && eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        int start = 0;
+        int len = headerValue.length();
+        while (start < len) {
+            int end = headerValue.indexOf(',', start);
+            if (end < 0)
+                end = len;
+            String candidate = headerValue.substring(start, end).trim();
+            if (candidate.startsWith("W/")) {
+                if (weak && candidate.regionMatches(2, target, 0, target.length())
+                        && candidate.length() - 2 == target.length())
+                    return true;
+            } else if (candidate.equals(target)) {
+                return true;
+            }
+            start = end + 1;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * 解析日期请求头
+     *
+     * @param request 请求
+     * @param name 请求头名
+     * @return 返回时间戳，不存在或无法解析返回-1
+     */
+    protected long parseDateHeader(HttpServletRequest request, String name) {
+        String value = request.getHeader(name);
+        if (value == null)
+            return -1;
+        return FastHttpDateFormat.parseDate(value);
+    }
+
+
+    /**
+     * 解析Range请求头
+     *
+     * @param request 请求
+     * @param response 响应
+     * @param eTag 资源的ETag
+     * @param lastModified 资源最后修改时间
+     * @param fileLength 资源长度
+     * @return 返回FULL表示输出整个资源；返回null表示区间不合法，已经响应了416
+     * @throws IOException 可能抛出I/O异常
+     */
+    protected List<Range> parseRange(HttpServletRequest request, HttpServletResponse response,
+                                     String eTag, long lastModified, long fileLength) throws IOException {
+
+        String rangeHeader = request.getHeader("Range");
+        if (rangeHeader == null || !"GET".equals(request.getMethod()))
+            return FULL;
+
+        // If-Range，不匹配就返回整个资源
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                if (!matchETag(ifRange, eTag, false))
+                    return FULL;
+            } else {
+                long date = FastHttpDateFormat.parseDate(ifRange);
+                if (date == -1 || lastModified < 0 || lastModified / 1000 != date / 1000)
+                    return FULL;
+            }
+        }
+
+        List<Range> result = parseRanges(rangeHeader, fileLength);
+        if (result == null) {
+            response.setHeader("Content-Range", "bytes */" + fileLength);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return null;
+        }
+
+        // 合并后区间仍然过多，忽略Range请求头，返回整个资源
+        if (maxRanges >= 0 && result.size() > maxRanges)
+            return FULL;
+
+        return result;
+    }
+
+
+    /**
+     * 解析Range请求头的值，并按开始位置排序、合并重叠或相邻的区间
+     *
+     * @param rangeHeader Range请求头的值
+     * @param fileLength 资源长度
+     * @return 返回合并后的区间，区间不合法返回null
+     */
+    protected static List<Range> parseRanges(String rangeHeader, long fileLength) {
+        if (!rangeHeader.startsWith("bytes="))
+            return null;
+
+        List<Range> result = new ArrayList<>(1);
+        int pos = 6;
+        int len = rangeHeader.length();
+        while (pos < len) {
+            int end = rangeHeader.indexOf(',', pos);
+            if (end < 0)
+                end = len;
+
+            String spec = rangeHeader.substring(pos, end).trim();
+            pos = end + 1;
+            if (spec.isEmpty())
+                continue;
+
+            int dash = spec.indexOf('-');
+            Range range = new Range();
+            range.length = fileLength;
+            try {
+                if (dash == 0) {
+                    // 后缀区间，bytes=-n
+                    long suffix = Long.parseLong(spec.substring(1));
+                    range.start = Math.max(fileLength - suffix, 0);
+                    range.end = fileLength - 1;
+                    if (suffix <= 0)
+                        range.start = -1;
+                } else if (dash > 0) {
+                    range.start = Long.parseLong(spec.substring(0, dash));
+                    range.end = dash < spec.length() - 1
+                            ? Long.parseLong(spec.substring(dash + 1))
+                            : fileLength - 1;
+                } else {
+                    range.start = -1;
+                }
+            } catch (NumberFormatException e) {
+                range.start = -1;
+            }
+
+            if (!range.validate())
+                return null;
+
+            result.add(range);
+        }
+
+        if (result.isEmpty())
+            return null;
+
+        return coalesce(result);
+    }
+
+
+    /**
+     * 按开始位置排序，合并重叠或相邻的区间
+     * 避免一个请求用大量重叠的区间放大响应
+     *
+     * @param ranges 合法的区间
+     * @return 返回合并后的区间
+     */
+    protected static List<Range> coalesce(List<Range> ranges) {
+        if (ranges.size() < 2)
+            return ranges;
+
+        ranges.sort((r1, r2) -> Long.compare(r1.start, r2.start));
+        List<Range> merged = new ArrayList<>(ranges.size());
+        Range last = null;
+        for (Range range : ranges) {
+            if (last != null && range.start <= last.end + 1) {
+                last.end = Math.max(last.end, range.end);
+            } else {
+                merged.add(range);
+                last = range;
+            }
+        }
+
+        return merged;
+    }
+
+
+    /**
+     * 检查是否能使用sendfile发送资源，能则设置sendfile相关的请求属性，
+     * 由连接器在响应头发送完毕后直接把文件写入socket
+     *
+     * @param request 请求
+     * @param resource 资源
+     * @param length 资源长度
+     * @param start 开始位置
+     * @param end 结束位置（不包含）
+     * @return 使用sendfile返回true
+     */
+    protected boolean checkSendfile(HttpServletRequest request, Resource resource,
+                                    long length, long start, long end) {
+
+        if (sendfileSize < 0 || length < sendfileSize
+                || resource.getContext() != null
+                || !(resource instanceof FileDirContext.FileResource)
+                || !Boolean.TRUE.equals(request.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR))) {
+            return false;
+        }
+
+        String canonicalPath;
+        try {
+            canonicalPath = ((FileDirContext.FileResource) resource).getFile().getCanonicalPath();
+        } catch (IOException e) {
+            return false;
+        }
+
+        request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, canonicalPath);
+        request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, Long.valueOf(start));
+        request.setAttribute(Globals.SENDFILE_FILE_END_ATTR, Long.valueOf(end));
+
+        return true;
+    }
+
+
+    /**
+     * 把资源的一段内容写入输出流
+     * 如果资源内容已被缓存则直接写缓存的字节数组，否则从资源的输入流中拷贝
+     *
+     * @param resource 资源
+     * @param ostream 输出流
+     * @param start 开始位置
+     * @param length 长度，小于0表示一直拷贝到资源末尾
+     * @throws IOException 可能抛出I/O异常
+     */
+    protected void copy(Resource resource, ServletOutputStream ostream, long start, long length) throws IOException {
+        byte[] bytes = resource.getContext();
+        if (bytes != null) {
+            if (start < bytes.length)
+                ostream.write(bytes, (int) start, (int) (length < 0 ? bytes.length - start : Math.min(length, bytes.length - start)));
+            return;
+        }
+
+        try (InputStream is = resource.streamContent()) {
+            if (is == null)
+                return;
+
+            long skip = start;
+            while (skip > 0) {
+                long skipped = is.skip(skip);
+                if (skipped <= 0)
+                    throw new IOException("DefaultServlet  资源长度不足！");
+                skip -= skipped;
+            }
+
+            byte[] buffer = new byte[length < 0 ? BUFFER_SIZE : (int) Math.min(BUFFER_SIZE, length)];
+            long remaining = length < 0 ? Long.MAX_VALUE : length;
+            while (remaining > 0) {
+                int len = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (len < 0)
+                    break;
+                ostream.write(buffer, 0, len);
+                remaining -= len;
+            }
+        }
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    @Override
+    public Wrapper getWrapper() {
+        return this.wrapper;
+    }
+
+
+    @Override
+    public void setWrapper(Wrapper wrapper) {
+        this.wrapper = wrapper;
+    }
+
+
+    /**
+     * @return 返回实现信息
+     */
+    public String getInfo() {
+        return info;
+    }
+}
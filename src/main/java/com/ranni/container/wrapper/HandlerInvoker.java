@@ -0,0 +1,165 @@
+package com.ranni.container.wrapper;
+
+import java.lang.invoke.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * controller处理方法的调用器。
+ * 形参不超过MAX_ARITY个的实例方法由LambdaMetafactory生成对应元数的函数式接口实现，
+ * 生成的类直接调用处理方法，实参的拆箱和类型转换也由生成的类完成，不经过MethodHandle的参数展开和类型适配。
+ * 静态方法、形参过多或无法取得私有访问权限的方法退回到MethodHandle调用
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/24 10:00
+ */
+@FunctionalInterface
+public interface HandlerInvoker {
+
+    int MAX_ARITY = 5; // 由LambdaMetafactory生成实现的最大形参个数
+    Class<?>[] TYPES = { F0.class, F1.class, F2.class, F3.class, F4.class, F5.class }; // 有返回值的函数式接口，下标为形参个数
+    Class<?>[] VOID_TYPES = { V0.class, V1.class, V2.class, V3.class, V4.class, V5.class }; // 没有返回值的函数式接口，下标为形参个数
+
+
+    /**
+     * 调用处理方法
+     *
+     * @param controller controller实例
+     * @param args 实参
+     * @return 返回处理方法的返回值，void方法返回null
+     * @throws Exception 处理方法抛出的异常原样抛出
+     */
+    Object invoke(Object controller, Object[] args) throws Exception;
+
+
+    // ==================================== 内部类 ====================================
+
+    // 有返回值的处理方法，数字为形参个数
+    interface F0 { Object invoke(Object c); }
+    interface F1 { Object invoke(Object c, Object a); }
+    interface F2 { Object invoke(Object c, Object a, Object b); }
+    interface F3 { Object invoke(Object c, Object a, Object b, Object d); }
+    interface F4 { Object invoke(Object c, Object a, Object b, Object d, Object e); }
+    interface F5 { Object invoke(Object c, Object a, Object b, Object d, Object e, Object f); }
+
+    // 没有返回值的处理方法，数字为形参个数
+    interface V0 { void invoke(Object c); }
+    interface V1 { void invoke(Object c, Object a); }
+    interface V2 { void invoke(Object c, Object a, Object b); }
+    interface V3 { void invoke(Object c, Object a, Object b, Object d); }
+    interface V4 { void invoke(Object c, Object a, Object b, Object d, Object e); }
+    interface V5 { void invoke(Object c, Object a, Object b, Object d, Object e, Object f); }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 生成处理方法的调用器
+     *
+     * @param method 处理方法
+     * @return 返回调用器
+     * @throws IllegalArgumentException 没有方法执行权限时抛出
+     */
+    static HandlerInvoker create(Method method) {
+        int arity = method.getParameterCount();
+        if (!Modifier.isStatic(method.getModifiers()) && arity <= MAX_ARITY) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+                return spin(lookup, lookup.unreflect(method), arity, method.getReturnType() == void.class);
+            } catch (Throwable t) {
+                ; // 退回到MethodHandle调用
+            }
+        }
+
+        return fallback(method);
+    }
+
+
+    /**
+     * 用LambdaMetafactory生成调用器
+     *
+     * @param lookup 对controller类有私有访问权限的lookup
+     * @param handle 处理方法的MethodHandle
+     * @param arity 形参个数
+     * @param isVoid 是否没有返回值
+     * @return 返回调用器
+     * @throws Throwable 生成失败时抛出
+     */
+    private static HandlerInvoker spin(MethodHandles.Lookup lookup, MethodHandle handle,
+                                       int arity, boolean isVoid) throws Throwable {
+
+        Class<?> type = (isVoid ? VOID_TYPES : TYPES)[arity];
+        MethodType instantiated = handle.type().wrap();
+        instantiated = instantiated.changeReturnType(isVoid ? void.class : instantiated.returnType());
+        MethodType erased = MethodType.genericMethodType(arity + 1);
+        if (isVoid)
+            erased = erased.changeReturnType(void.class);
+
+        CallSite site = LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(type),
+                erased, handle, instantiated);
+        Object f = site.getTarget().invoke();
+
+        if (isVoid) {
+            switch (arity) {
+                case 0: { V0 v = (V0) f; return (c, a) -> { v.invoke(c); return null; }; }
+                case 1: { V1 v = (V1) f; return (c, a) -> { v.invoke(c, a[0]); return null; }; }
+                case 2: { V2 v = (V2) f; return (c, a) -> { v.invoke(c, a[0], a[1]); return null; }; }
+                case 3: { V3 v = (V3) f; return (c, a) -> { v.invoke(c, a[0], a[1], a[2]); return null; }; }
+                case 4: { V4 v = (V4) f; return (c, a) -> { v.invoke(c, a[0], a[1], a[2], a[3]); return null; }; }
+                default: { V5 v = (V5) f; return (c, a) -> { v.invoke(c, a[0], a[1], a[2], a[3], a[4]); return null; }; }
+            }
+        }
+
+        switch (arity) {
+            case 0: { F0 v = (F0) f; return (c, a) -> v.invoke(c); }
+            case 1: { F1 v = (F1) f; return (c, a) -> v.invoke(c, a[0]); }
+            case 2: { F2 v = (F2) f; return (c, a) -> v.invoke(c, a[0], a[1]); }
+            case 3: { F3 v = (F3) f; return (c, a) -> v.invoke(c, a[0], a[1], a[2]); }
+            case 4: { F4 v = (F4) f; return (c, a) -> v.invoke(c, a[0], a[1], a[2], a[3]); }
+            default: { F5 v = (F5) f; return (c, a) -> v.invoke(c, a[0], a[1], a[2], a[3], a[4]); }
+        }
+    }
+
+
+    /**
+     * 生成基于MethodHandle的调用器，类型统一为 (Object, Object[])Object
+     *
+     * @param method 处理方法
+     * @return 返回调用器
+     * @throws IllegalArgumentException 没有方法执行权限时抛出
+     */
+    private static HandlerInvoker fallback(Method method) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            try {
+                method.setAccessible(true);
+                handle = MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException | RuntimeException ex) {
+                throw new IllegalArgumentException("无方法执行权限！ " + method, ex);
+            }
+        }
+
+        if (Modifier.isStatic(method.getModifiers()))
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+
+        MethodHandle invoker = handle.asType(handle.type().generic())
+                .asSpreader(Object[].class, method.getParameterCount())
+                .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+
+        return (c, a) -> {
+            try {
+                return (Object) invoker.invokeExact(c, a);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        };
+    }
+}
@@ -0,0 +1,376 @@
+package com.ranni.container.wrapper;
+
+import com.ranni.annotation.core.*;
+import com.ranni.util.RequestUtil;
+
+import javax.annotation.processing.Generated;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+import java.lang.annotation.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * controller中被@RequestMapping标识的处理方法。
+ * 在StandardServlet初始化时就把注解中的信息解析好，并编译出：
+ * 1、形参绑定计划，每个形参对应一个ParameterBinder
+ * 2、由LambdaMetafactory生成的调用器，直接调用处理方法
+ * 处理请求时不再需要反射读取注解，也不再走Method.invoke
+ *
+ * @see HandlerInvoker
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/6 10:30
+ */
+public final class HandlerMethod {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final Part[] EMPTY_PARTS = new Part[0];
+
+    private final Method method; // 处理方法
+    private final String pattern; // 路径模板，如 /user/{id}
+    private final String httpMethod; // 请求方法，空串表示不限制
+    private final ContentType contentType; // 返回的类型
+    private final Charset charset; // 编码方式
+    private final String[] variableNames; // 路径模板中的变量名，按出现的顺序排列
+    private final ParameterBinder[] binders; // 形参绑定器
+    private final int bodyIndex; // @RequestBody形参的下标，没有为-1
+    private final HandlerInvoker invoker; // 调用器
+
+
+    /**
+     * 编译处理方法
+     * 
+     * @param method 处理方法
+     * @param requestMapping 处理方法上的注解
+     * @param variableNames 路径模板中的变量名
+     * @throws IllegalArgumentException 形参绑定或调用器编译失败时抛出
+     */
+    public HandlerMethod(Method method, RequestMapping requestMapping, String[] variableNames) {
+        this.method = method;
+        this.pattern = requestMapping.value();
+        this.httpMethod = requestMapping.method().toUpperCase();
+        this.contentType = requestMapping.contentType();
+        this.charset = requestMapping.charset();
+        this.variableNames = variableNames;
+        this.binders = compileBinders();
+        this.bodyIndex = indexOfBodyBinder(binders);
+        this.invoker = HandlerInvoker.create(method);
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 按绑定计划取得所有实参
+     *
+     * @param request 请求
+     * @param response 响应
+     * @param uri 请求URI
+     * @param offsets 路径变量在URI中的起止下标
+     * @return 返回实参数组
+     * @throws Exception 绑定失败时抛出
+     */
+    public Object[] bindArguments(HttpServletRequest request, HttpServletResponse response,
+                                  String uri, int[] offsets) throws Exception {
+        
+        ParameterBinder[] binders = this.binders;
+        Object[] args = new Object[binders.length];
+
+        // 请求体必须在其它形参取请求参数之前从输入流读取，
+        // 否则Request.parseParameters()会先把请求体读进postData
+        if (bodyIndex >= 0)
+            args[bodyIndex] = bind(bodyIndex, request, response, uri, offsets);
+
+        for (int i = 0; i < binders.length; i++) {
+            if (i != bodyIndex)
+                args[i] = bind(i, request, response, uri, offsets);
+        }
+
+        return args;
+    }
+
+
+    /**
+     * 绑定一个形参<br>
+     * 类型转换、枚举、JSON解析等运行时异常都是请求内容的问题，统一包装为ParameterBindingException。
+     * IllegalStateException（包括RequestBodyTooLargeException）表示请求体超出大小限制，原样抛出
+     *
+     * @param index 形参下标
+     * @return 返回实参
+     * @throws Exception 绑定失败时抛出
+     */
+    private Object bind(int index, HttpServletRequest request, HttpServletResponse response,
+                        String uri, int[] offsets) throws Exception {
+        try {
+            return binders[index].bind(request, response, uri, offsets);
+        } catch (IllegalStateException | ParameterBindingException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new ParameterBindingException("参数格式错误！ 第" + (index + 1) + "个参数：" + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * 调用处理方法
+     *
+     * @param controller controller实例
+     * @param args 实参
+     * @return 返回处理方法的返回值，void方法返回null
+     * @throws Exception 处理方法抛出的异常原样抛出
+     */
+    public Object invoke(Object controller, Object[] args) throws Exception {
+        return invoker.invoke(controller, args);
+    }
+
+
+    /**
+     * 取得路径变量在模板中的下标
+     *
+     * @param name 路径变量名
+     * @return 返回下标，不存在返回-1
+     */
+    public int indexOfVariable(String name) {
+        for (int i = 0; i < variableNames.length; i++) {
+            if (variableNames[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+
+    /**
+     * 生成每个形参的绑定器
+     * 
+     * @return 返回绑定器数组
+     */
+    private ParameterBinder[] compileBinders() {
+        Parameter[] parameters = method.getParameters();
+        ParameterBinder[] binders = new ParameterBinder[parameters.length];
+
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+            Class<?> type = parameter.getType();
+            
+            if (type == HttpServletRequest.class) {
+                binders[i] = (req, resp, uri, offsets) -> req;
+                continue;
+            } else if (type == HttpServletResponse.class) {
+                binders[i] = (req, resp, uri, offsets) -> resp;
+                continue;
+            }
+
+            ValueConverter converter = ValueConverter.forType(type);
+            Object defaultValue = ValueConverter.defaultValue(type);
+            
+            PathVariable pathVariable = parameter.getDeclaredAnnotation(PathVariable.class);
+            if (pathVariable != null) {
+                String name = pathVariable.value().isEmpty() ? parameter.getName() : pathVariable.value();
+                int index = indexOfVariable(name);
+                if (index < 0)
+                    throw new IllegalArgumentException("路径模板中不存在此变量！ " + name + "  " + this);
+                
+                int start = index << 1;
+                binders[i] = (req, resp, uri, offsets) -> {
+                    String value = uri.substring(offsets[start], offsets[start + 1]);
+                    if (value.indexOf('%') >= 0)
+                        value = RequestUtil.URLDecode(value, "UTF-8");
+                    return converter.convert(value);
+                };
+                continue;
+            }
+            
+            RequestBody requestBody = parameter.getDeclaredAnnotation(RequestBody.class);
+            if (requestBody != null) {
+                String name = requestBody.value().isEmpty() ? parameter.getName() : requestBody.value();
+                binders[i] = new RequestBodyBinder(parameter.getParameterizedType(), type, name);
+                continue;
+            }
+
+            String paramName = paramName(parameter);
+
+            if (type == Part.class || type == Part[].class) {
+                // 上传的文件，没有注解时按形参名取
+                String name = paramName == null ? parameter.getName() : paramName;
+                binders[i] = type == Part.class
+                        ? (req, resp, uri, offsets) -> isMultipart(req) ? req.getPart(name) : null
+                        : (req, resp, uri, offsets) -> getParts(req, name);
+                continue;
+            }
+            
+            if (paramName == null) {
+                // 没有注解标识的形参不做填充
+                binders[i] = (req, resp, uri, offsets) -> defaultValue;
+                continue;
+            }
+
+            String name = paramName;
+            binders[i] = (req, resp, uri, offsets) -> {
+                String value = req.getParameter(name);
+                return value == null ? defaultValue : converter.convert(value);
+            };
+        }
+        
+        return binders;
+    }
+
+
+    /**
+     * 取得被参数注解标识的形参的参数名
+     *
+     * @param parameter 形参
+     * @return 返回参数名，没有被参数注解标识返回null
+     */
+    private static String paramName(Parameter parameter) {
+        for (Annotation annotation : parameter.getDeclaredAnnotations()) {
+            if (isParamAnnotation(annotation.annotationType())) {
+                String paramName = annotationValue(annotation);
+                if (paramName == null || paramName.isEmpty())
+                    paramName = parameter.getName();
+                return paramName;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * @return 如果请求体是multipart/form-data返回<b>true</b>
+     */
+    private static boolean isMultipart(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null
+                && contentType.regionMatches(true, 0, "multipart/form-data", 0, "multipart/form-data".length());
+    }
+
+
+    /**
+     * 取得同名的所有part
+     *
+     * @param request 请求
+     * @param name 表单字段名
+     * @return 返回part数组，不是multipart请求返回空数组
+     * @throws Exception 解析multipart请求体失败时抛出
+     */
+    private static Part[] getParts(HttpServletRequest request, String name) throws Exception {
+        if (!isMultipart(request))
+            return EMPTY_PARTS;
+
+        List<Part> parts = new ArrayList<>();
+        for (Part part : request.getParts()) {
+            if (name.equals(part.getName()))
+                parts.add(part);
+        }
+        return parts.toArray(EMPTY_PARTS);
+    }
+
+
+    /**
+     * 取得@RequestBody形参的下标，一个处理方法只允许有一个从请求体读取的形参
+     *
+     * @param binders 绑定器数组
+     * @return 返回下标，没有返回-1
+     * @throws IllegalArgumentException 有多个@RequestBody形参时抛出
+     */
+    private int indexOfBodyBinder(ParameterBinder[] binders) {
+        int index = -1;
+        for (int i = 0; i < binders.length; i++) {
+            if (binders[i] instanceof RequestBodyBinder) {
+                if (index >= 0)
+                    throw new IllegalArgumentException("只能有一个@RequestBody形参！ " + this);
+                index = i;
+            }
+        }
+        return index;
+    }
+
+
+    /**
+     * 判断注解是否被@Param标识（直接或间接）
+     * 
+     * @param clazz 注解类型
+     * @return 返回<b>true</b>表示是参数注解
+     */
+    private static boolean isParamAnnotation(Class<? extends Annotation> clazz) {
+        return isParamAnnotation(clazz, 0);
+    }
+    
+    private static boolean isParamAnnotation(Class<? extends Annotation> clazz, int depth) {
+        if (clazz == Param.class)
+            return true;
+        if (depth > 4)
+            return false;
+        
+        for (Annotation annotation : clazz.getAnnotations()) {
+            Class<? extends Annotation> type = annotation.annotationType();
+            if (type == Deprecated.class || type == SuppressWarnings.class || type == Override.class
+                    || type == Generated.class || type == Target.class || type == Retention.class
+                    || type == Documented.class || type == Inherited.class) {
+                continue;
+            }
+            if (isParamAnnotation(type, depth + 1))
+                return true;
+        }
+        
+        return false;
+    }
+
+
+    /**
+     * 取得参数注解上的别名
+     * 
+     * @param annotation 参数注解
+     * @return 返回别名，没有返回null
+     */
+    private static String annotationValue(Annotation annotation) {
+        if (annotation instanceof RequestParam)
+            return ((RequestParam) annotation).value();
+        if (annotation instanceof RequestBody)
+            return ((RequestBody) annotation).value();
+        
+        try {
+            Object value = annotation.annotationType().getMethod("value").invoke(annotation);
+            return value instanceof String ? (String) value : null;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    public ContentType getContentType() {
+        return contentType;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public String[] getVariableNames() {
+        return variableNames;
+    }
+
+    @Override
+    public String toString() {
+        return "HandlerMethod[" + httpMethod + " " + pattern + " -> " + method.getName() + "]";
+    }
+}
@@ -0,0 +1,83 @@
+package com.ranni.container.wrapper;
+
+import com.ranni.util.metrics.MetricsRegistry;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 以Prometheus文本格式输出所有连接器、Host和Context的请求统计
+ * 需要在webapp中自行映射，例如映射到 /metrics
+ *
+ * 统计中包含所有Host和Context的名称，默认只允许本机访问，其它请求返回403。初始化参数：
+ * allow 允许访问的客户端IP，正则表达式，默认只有回环地址
+ * role 允许访问的角色，设置后属于此角色的已认证用户也可以访问
+ *
+ * @see MetricsRegistry#writeText(Appendable)
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/21 11:00
+ */
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final String LOOPBACK = "127\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}|::1|0:0:0:0:0:0:0:1";
+
+    private Pattern allow = Pattern.compile(LOOPBACK); // 允许访问的客户端IP
+    private String role; // 允许访问的角色
+
+
+    /**
+     * 读取初始化参数
+     *
+     * @throws ServletException
+     */
+    @Override
+    public void init() throws ServletException {
+        String value = getServletConfig().getInitParameter("allow");
+        if (value != null)
+            allow = Pattern.compile(value);
+
+        value = getServletConfig().getInitParameter("role");
+        if (value != null && !value.isEmpty())
+            role = value;
+    }
+
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if (!isAllowed(req)) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(4096);
+        MetricsRegistry.getInstance().writeText(sb);
+
+        resp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.getWriter().write(sb.toString());
+    }
+
+
+    /**
+     * 客户端IP匹配allow，或者用户属于配置的角色时允许访问
+     *
+     * @param req
+     * @return
+     */
+    protected boolean isAllowed(HttpServletRequest req) {
+        String addr = req.getRemoteAddr();
+        if (addr != null && allow.matcher(addr).matches())
+            return true;
+
+        return role != null && req.isUserInRole(role);
+    }
+}
@@ -0,0 +1,31 @@
+package com.ranni.container.wrapper;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * controller方法形参的绑定器，一个形参对应一个绑定器。
+ * 在StandardServlet初始化时根据形参的类型和注解生成，处理请求时按顺序调用即可得到实参
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/8 14:20
+ */
+@FunctionalInterface
+public interface ParameterBinder {
+
+    /**
+     * 取得形参对应的实参
+     *
+     * @param request 请求
+     * @param response 响应
+     * @param uri 请求URI
+     * @param offsets 路径变量在URI中的起止下标
+     * @return 返回实参
+     * @throws Exception 绑定失败时抛出
+     */
+    Object bind(HttpServletRequest request, HttpServletResponse response,
+                String uri, int[] offsets) throws Exception;
+}
@@ -0,0 +1,24 @@
+package com.ranni.container.wrapper;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * controller方法形参绑定失败时抛出，表示请求中的路径变量、请求参数或请求体不合法，
+ * 由StandardServlet转为400 Bad Request
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/26 11:05
+ */
+public class ParameterBindingException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ParameterBindingException(String s) {
+        super(s);
+    }
+
+    public ParameterBindingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
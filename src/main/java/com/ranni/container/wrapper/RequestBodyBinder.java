@@ -0,0 +1,174 @@
+package com.ranni.container.wrapper;
+
+import com.alibaba.fastjson2.JSON;
+import com.ranni.common.Globals;
+import com.ranni.util.http.fileupload.LimitedInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * @RequestBody形参的绑定器<br>
+ * JSON请求体从请求的输入流（CoyoteInputStream → InputBuffer）中读出后直接按字节解析为形参类型，
+ * 不再经过Request.parseParameters()把整个请求体读入postData再转成字符串。
+ * 已知长度的请求体读入大小正好为Content-Length的数组，只复制一次；
+ * 分块传输的请求体由InputStream.readAllBytes()分段读取后合并。
+ * 请求体大小受连接器的maxPostSize限制，已知长度的请求体提前检查，
+ * 分块传输的请求体在读取过程中计数检查。请求的输入流由连接器管理，不会被关闭
+ *
+ * 表单类型（application/x-www-form-urlencoded、multipart/form-data）的请求
+ * 仍然按参数名从请求参数中取值
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/10 16:20
+ */
+public final class RequestBodyBinder implements ParameterBinder {
+
+    // ==================================== 属性字段 ====================================
+
+    private final Type genericType; // 形参的泛型类型
+    private final Class<?> type; // 形参类型
+    private final String paramName; // 表单请求时使用的参数名
+    private final ValueConverter converter; // 表单请求时使用的转换器
+    private final Object defaultValue; // 没有请求体时的默认值
+
+
+    public RequestBodyBinder(Type genericType, Class<?> type, String paramName) {
+        this.genericType = genericType;
+        this.type = type;
+        this.paramName = paramName;
+        this.converter = ValueConverter.forType(type);
+        this.defaultValue = ValueConverter.defaultValue(type);
+    }
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 限制读取字节数的输入流，超出限制时抛出RequestBodyTooLargeException
+     */
+    private static final class PostSizeLimitedInputStream extends LimitedInputStream {
+
+        PostSizeLimitedInputStream(InputStream in, long limit) {
+            super(in, limit);
+        }
+
+        @Override
+        protected void limitExceeded(long limit) {
+            throw new RequestBodyTooLargeException("请求体超出最大限制！ maxPostSize：" + limit);
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    @Override
+    public Object bind(HttpServletRequest request, HttpServletResponse response,
+                       String uri, int[] offsets) throws Exception {
+
+        if (isFormContentType(request.getContentType())) {
+            String value = request.getParameter(paramName);
+            return value == null ? defaultValue : converter.convert(value);
+        }
+
+        long length = request.getContentLengthLong();
+        if (length == 0)
+            return defaultValue;
+
+        long maxPostSize = getMaxPostSize(request);
+        if (maxPostSize >= 0 && length > maxPostSize)
+            throw new RequestBodyTooLargeException("请求体超出最大限制！ maxPostSize：" + maxPostSize);
+
+        InputStream in = new PostSizeLimitedInputStream(request.getInputStream(), maxPostSize < 0 ? Long.MAX_VALUE : maxPostSize);
+        byte[] body = readAll(in, length);
+
+        if (type == byte[].class)
+            return body;
+
+        Charset charset = getCharset(request);
+        if (type == String.class)
+            return new String(body, charset);
+        if (body.length == 0)
+            return defaultValue;
+
+        Object value = JSON.parseObject(body, 0, body.length, charset, genericType);
+        return value == null ? defaultValue : value;
+    }
+
+
+    /**
+     * @return 如果是表单类型返回<b>true</b>
+     */
+    private boolean isFormContentType(String contentType) {
+        if (contentType == null)
+            return false;
+
+        String lower = contentType.toLowerCase(Locale.ENGLISH);
+        return lower.startsWith("application/x-www-form-urlencoded")
+                || lower.startsWith("multipart/form-data");
+    }
+
+
+    /**
+     * @return 返回连接器允许的最大请求体大小，小于0表示不限制
+     */
+    private long getMaxPostSize(HttpServletRequest request) {
+        Object maxPostSize = request.getAttribute(Globals.MAX_POST_SIZE_ATTR);
+        if (maxPostSize instanceof Integer)
+            return ((Integer) maxPostSize).longValue();
+        return -1L;
+    }
+
+
+    /**
+     * @return 返回请求体的编码，默认UTF-8
+     */
+    private Charset getCharset(HttpServletRequest request) {
+        String encoding = request.getCharacterEncoding();
+        if (encoding == null)
+            return StandardCharsets.UTF_8;
+
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+
+    /**
+     * 读取整个请求体
+     *
+     * @param in 输入流
+     * @param length 请求体长度，未知为-1
+     * @return 返回请求体
+     * @throws IOException 可能抛出I/O异常
+     */
+    private byte[] readAll(InputStream in, long length) throws IOException {
+        if (length > Integer.MAX_VALUE - 8)
+            throw new RequestBodyTooLargeException("请求体超出最大限制！ Content-Length：" + length);
+
+        if (length > 0) {
+            byte[] bytes = new byte[(int) length];
+            int pos = 0;
+            while (pos < bytes.length) {
+                int n = in.read(bytes, pos, bytes.length - pos);
+                if (n < 0)
+                    throw new IOException("请求体不完整！ " + pos + "/" + length);
+                pos += n;
+            }
+            return bytes;
+        }
+
+        return in.readAllBytes();
+    }
+}
@@ -0,0 +1,27 @@
+package com.ranni.container.wrapper;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 请求体超出连接器允许的最大大小（maxPostSize）时抛出
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/10 16:12
+ */
+public class RequestBodyTooLargeException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RequestBodyTooLargeException() {
+        super();
+    }
+
+    public RequestBodyTooLargeException(String s) {
+        super(s);
+    }
+
+    public RequestBodyTooLargeException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
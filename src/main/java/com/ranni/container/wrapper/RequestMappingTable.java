@@ -0,0 +1,297 @@
+package com.ranni.container.wrapper;
+
+import com.ranni.annotation.core.RequestMapping;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * controller内的请求映射表。
+ * 每种请求方法各有一棵以路径段为节点的树，没有限制请求方法的处理方法挂在单独的一棵树上。
+ * 路径模板（如 /user/{id}/orders/{oid}）在StandardServlet初始化时编译成树，
+ * 匹配时直接在请求URI上按段比较，路径变量只记录其在URI中的起止下标，
+ * 不使用正则，也不截取子串
+ *
+ * 匹配优先级：
+ * 1、限制了请求方法的处理方法优先于没有限制请求方法的
+ * 2、同一层中，字面量路径段优先于路径变量
+ * 3、HEAD请求没有专门的处理方法时使用GET的处理方法，响应体由连接器丢弃
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/6 10:42
+ */
+public final class RequestMappingTable {
+
+    // ==================================== 属性字段 ====================================
+
+    private final Map<String, SegmentNode> methodTables = new HashMap<>(); // 以请求方法为key的映射树
+    private final SegmentNode anyMethodTable = new SegmentNode(null); // 不限制请求方法的映射树
+    private int maxVariables; // 所有模板中路径变量数量的最大值
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 映射树的节点，一个节点对应模板中的一个路径段
+     */
+    private static final class SegmentNode {
+        private static final SegmentNode[] EMPTY = new SegmentNode[0];
+
+        final String literal; // 字面量路径段，为null表示是路径变量
+        SegmentNode[] literalChildren = EMPTY; // 字面量子节点
+        SegmentNode variableChild; // 路径变量子节点
+        HandlerMethod handler; // 模板在此节点结束时对应的处理方法
+
+
+        SegmentNode(String literal) {
+            this.literal = literal;
+        }
+
+
+        /**
+         * 取得或创建子节点
+         *
+         * @param segment 路径段，为null表示路径变量
+         * @return 返回子节点
+         */
+        SegmentNode child(String segment) {
+            if (segment == null) {
+                if (variableChild == null)
+                    variableChild = new SegmentNode(null);
+                return variableChild;
+            }
+
+            for (SegmentNode child : literalChildren) {
+                if (child.literal.equals(segment))
+                    return child;
+            }
+
+            SegmentNode child = new SegmentNode(segment);
+            SegmentNode[] children = new SegmentNode[literalChildren.length + 1];
+            System.arraycopy(literalChildren, 0, children, 0, literalChildren.length);
+            children[literalChildren.length] = child;
+            literalChildren = children;
+
+            return child;
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 编译路径模板并添加处理方法
+     *
+     * @param method 处理方法
+     * @param requestMapping 处理方法上的注解
+     * @return 返回添加的处理方法
+     * @throws IllegalArgumentException 模板格式错误或映射冲突时抛出
+     */
+    public HandlerMethod addHandler(Method method, RequestMapping requestMapping) {
+        String pattern = requestMapping.value();
+        List<String> segments = new ArrayList<>();
+        List<String> variableNames = new ArrayList<>();
+        parsePattern(pattern, segments, variableNames);
+
+        HandlerMethod handler = new HandlerMethod(method, requestMapping, variableNames.toArray(new String[0]));
+
+        SegmentNode node;
+        if (handler.getHttpMethod().isEmpty()) {
+            node = anyMethodTable;
+        } else {
+            node = methodTables.computeIfAbsent(handler.getHttpMethod(), k -> new SegmentNode(null));
+        }
+
+        for (String segment : segments)
+            node = node.child(segment);
+
+        if (node.handler != null)
+            throw new IllegalArgumentException("RequestMappingTable  映射冲突！ " + node.handler + " 和 " + handler);
+
+        node.handler = handler;
+        maxVariables = Math.max(maxVariables, variableNames.size());
+
+        return handler;
+    }
+
+
+    /**
+     * 匹配处理方法
+     *
+     * @param httpMethod 请求方法
+     * @param uri 请求URI
+     * @param offset 方法路径在URI中的起始位置
+     * @param offsets 存放路径变量起止下标的数组，长度至少为 2 * getMaxVariables()，
+     *                第i个路径变量为 uri[offsets[2i], offsets[2i + 1])
+     * @return 返回匹配上的处理方法，没有则返回null
+     */
+    public HandlerMethod match(String httpMethod, String uri, int offset, int[] offsets) {
+        SegmentNode root = methodTables.get(httpMethod);
+        HandlerMethod handler = null;
+
+        if (root != null)
+            handler = match(root, uri, offset, uri.length(), offsets, 0);
+        if (handler == null && "HEAD".equals(httpMethod) && (root = methodTables.get("GET")) != null)
+            handler = match(root, uri, offset, uri.length(), offsets, 0);
+        if (handler == null)
+            handler = match(anyMethodTable, uri, offset, uri.length(), offsets, 0);
+
+        return handler;
+    }
+
+
+    /**
+     * 取得能处理此URI的所有请求方法，用于响应405时设置Allow响应头
+     *
+     * @param uri 请求URI
+     * @param offset 方法路径在URI中的起始位置
+     * @return 返回逗号分隔的请求方法，没有任何方法能处理返回null
+     */
+    public String getAllowedMethods(String uri, int offset) {
+        int[] offsets = newOffsets();
+
+        if (match(anyMethodTable, uri, offset, uri.length(), offsets, 0) != null)
+            return "OPTIONS, GET, HEAD, POST, PUT, DELETE, PATCH";
+
+        StringBuilder sb = null;
+        boolean get = false;
+        boolean head = false;
+        for (Map.Entry<String, SegmentNode> entry : methodTables.entrySet()) {
+            if (match(entry.getValue(), uri, offset, uri.length(), offsets, 0) != null) {
+                if (sb == null)
+                    sb = new StringBuilder("OPTIONS");
+                sb.append(", ").append(entry.getKey());
+                get |= "GET".equals(entry.getKey());
+                head |= "HEAD".equals(entry.getKey());
+            }
+        }
+
+        // HEAD请求会使用GET的处理方法
+        if (get && !head)
+            sb.append(", HEAD");
+
+        return sb == null ? null : sb.toString();
+    }
+
+
+    /**
+     * @return 返回一个足够存放路径变量起止下标的数组
+     */
+    public int[] newOffsets() {
+        return new int[maxVariables << 1];
+    }
+
+
+    /**
+     * @return 返回所有模板中路径变量数量的最大值
+     */
+    public int getMaxVariables() {
+        return maxVariables;
+    }
+
+
+    /**
+     * 清空映射表
+     */
+    public void clear() {
+        methodTables.clear();
+        anyMethodTable.literalChildren = SegmentNode.EMPTY;
+        anyMethodTable.variableChild = null;
+        anyMethodTable.handler = null;
+        maxVariables = 0;
+    }
+
+
+    /**
+     * 从节点开始匹配URI剩下的部分，字面量优先，匹配失败会回溯尝试路径变量
+     *
+     * @param node 当前节点
+     * @param uri 请求URI
+     * @param pos 当前位置，指向路径段前的'/'或URI末尾
+     * @param end URI结束位置
+     * @param offsets 路径变量起止下标
+     * @param varIndex 下一个路径变量的序号
+     * @return 返回匹配上的处理方法，没有则返回null
+     */
+    private HandlerMethod match(SegmentNode node, String uri, int pos, int end,
+                                int[] offsets, int varIndex) {
+
+        // 末尾多出来的'/'忽略掉
+        if (pos == end || (pos == end - 1 && uri.charAt(pos) == '/'))
+            return node.handler;
+
+        if (uri.charAt(pos) != '/')
+            return null;
+
+        int segStart = pos + 1;
+        int segEnd = uri.indexOf('/', segStart);
+        if (segEnd < 0 || segEnd > end)
+            segEnd = end;
+        int segLen = segEnd - segStart;
+
+        for (SegmentNode child : node.literalChildren) {
+            String literal = child.literal;
+            if (literal.length() == segLen && uri.regionMatches(segStart, literal, 0, segLen)) {
+                HandlerMethod handler = match(child, uri, segEnd, end, offsets, varIndex);
+                if (handler != null)
+                    return handler;
+            }
+        }
+
+        if (node.variableChild != null && segLen > 0) {
+            offsets[varIndex << 1] = segStart;
+            offsets[(varIndex << 1) + 1] = segEnd;
+            return match(node.variableChild, uri, segEnd, end, offsets, varIndex + 1);
+        }
+
+        return null;
+    }
+
+
+    /**
+     * 解析路径模板
+     *
+     * @param pattern 路径模板
+     * @param segments 解析出的路径段，路径变量用null表示
+     * @param variableNames 解析出的路径变量名
+     * @throws IllegalArgumentException 模板格式错误时抛出
+     */
+    private static void parsePattern(String pattern, List<String> segments, List<String> variableNames) {
+        if (pattern == null)
+            pattern = "";
+
+        int pos = 0;
+        int len = pattern.length();
+        while (pos < len) {
+            if (pattern.charAt(pos) == '/') {
+                pos++;
+                continue;
+            }
+
+            int end = pattern.indexOf('/', pos);
+            if (end < 0)
+                end = len;
+
+            String segment = pattern.substring(pos, end);
+            if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (variableNames.contains(name))
+                    throw new IllegalArgumentException("RequestMappingTable  路径变量重复！ " + pattern);
+                segments.add(null);
+                variableNames.add(name);
+            } else if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0) {
+                throw new IllegalArgumentException("RequestMappingTable  路径变量必须占据整个路径段！ " + pattern);
+            } else {
+                segments.add(segment);
+            }
+
+            pos = end;
+        }
+    }
+}
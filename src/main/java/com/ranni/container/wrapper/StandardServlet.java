@@ -1,29 +1,30 @@
 package com.ranni.container.wrapper;
 
 import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.JSONObject;
 import com.ranni.annotation.core.*;
 import com.ranni.common.Globals;
+import com.ranni.connector.CoyoteOutputStream;
 import com.ranni.container.ContainerServlet;
 import com.ranni.container.Context;
 import com.ranni.container.Wrapper;
 
-import javax.annotation.processing.Generated;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.sql.rowset.serial.SerialException;
+import javax.servlet.http.Part;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
-import java.lang.annotation.*;
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -41,7 +42,9 @@ public final class StandardServlet extends HttpServlet implements ContainerServl
     private Class clazz; // controller类
     private String baseUri; // 基本路径
     private int prefixLen; // 前缀长度
-    private Map<String, Method> methodMap = new HashMap<>(); // 方法映射
+    private RequestMappingTable mappingTable = new RequestMappingTable(); // 请求映射表
+    private static final int[] EMPTY_OFFSETS = new int[0]; // 没有路径变量时共用的空数组
+    private static final byte[] CRLF = { '\r', '\n' }; // multipart响应中part数据后的换行
     private String info = "StandardServlet/1.0"; // 实现信息
     private Wrapper wrapper; // wrapper
     private ServletConfig servletConfig; // servlet配置
@@ -76,8 +79,10 @@ public final class StandardServlet extends HttpServlet implements ContainerServl
 
         this.baseUri = ((Controller) clazz.getDeclaredAnnotation(Controller.class)).value();
         this.prefixLen = ((Context) wrapper.getParent()).getPath().length() + baseUri.length();
+        if (baseUri.endsWith("/"))
+            this.prefixLen--; // 方法路径以'/'开头，不能把controller路径末尾的'/'算进去
         
-        // 扫描所有Mapping注解标识的method
+        // 扫描所有Mapping注解标识的method，编译成请求映射表
         Method[] methods = clazz.getMethods();
         for (Method method : methods) {
             RequestMapping annotation = method.getDeclaredAnnotation(RequestMapping.class);
@@ -85,8 +90,11 @@ public final class StandardServlet extends HttpServlet implements ContainerServl
                 continue;
             }
 
-            String path = annotation.value();
-            methodMap.put(path, method);
+            try {
+                mappingTable.addHandler(method, annotation);
+            } catch (IllegalArgumentException e) {
+                throw new ServletException(e);
+            }
         }
     }
 
@@ -113,38 +121,52 @@ public final class StandardServlet extends HttpServlet implements ContainerServl
      */
     @Override
     public void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        String uri = req.getRequestURI().substring(prefixLen);
-        if (!methodMap.containsKey(uri)) {
-            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "请求未找到！ requestURI：" + req.getRequestURI());
-            return;
+        String uri = req.getRequestURI();
+        String httpMethod = req.getMethod();
+        int[] offsets = mappingTable.getMaxVariables() > 0 ? mappingTable.newOffsets() : EMPTY_OFFSETS;
+        HandlerMethod handler = uri.length() >= prefixLen 
+                ? mappingTable.match(httpMethod, uri, prefixLen, offsets) 
+                : null;
+        
+        String allow = null;
+        if (handler == null) {
+            allow = uri.length() >= prefixLen ? mappingTable.getAllowedMethods(uri, prefixLen) : null;
+            if (allow == null) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND, "请求未找到！ requestURI：" + uri);
+                return;
+            }
         }
         
         resp.setHeader("Access-Control-Allow-Credentials", "true");
         resp.setHeader("Access-Control-Allow-Origin", "http://localhost:5173");
-        resp.setHeader("Allow", "OPTIONS, GET, HEAD, POST");
+        resp.setHeader("Allow", allow != null ? allow : "OPTIONS, GET, HEAD, POST");
         resp.setHeader("Access-Control-Allow-Headers", "Content-Type,XFILENAME,XFILECATEGORY,XFILESIZE,X-TOKEN");
-        if ("OPTIONS".equalsIgnoreCase(req.getMethod())) {            
+        if ("OPTIONS".equalsIgnoreCase(httpMethod)) {            
             return;
         }
         
-        Method method = methodMap.get(uri);
-        RequestMapping requestMapping = method.getDeclaredAnnotation(RequestMapping.class);
-        
-        // 请求方法不对
-        if (!("".equals(requestMapping.method())) && !requestMapping.method().equals(req.getMethod())) {
-            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "请求方法错误！  method：" + req.getMethod());
+        // 有能处理此路径的方法，但请求方法不对
+        if (handler == null) {
+            resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "请求方法错误！  method：" + httpMethod);
             return;
         }
         
         // 调用处理方法
         try {
             req.setCharacterEncoding("UTF-8");
-            Object[] args = parseParams(req, resp, method); // 自动值填充
-            Object res = method.invoke(controller, args); // 执行controller对应的方法并返回值
+            Object[] args;
+            try {
+                args = handler.bindArguments(req, resp, uri, offsets); // 按绑定计划自动值填充
+            } catch (ParameterBindingException e) {
+                // 只有实参绑定失败才是请求的问题，controller中抛出的运行时异常按其它异常处理
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+            Object res = handler.invoke(controller, args); // 执行controller对应的方法并返回值
             
             if ((res == null || res instanceof Void)) return;
 
-            ContentType contentType = requestMapping.contentType();
+            ContentType contentType = handler.getContentType();
             if (contentType == null) return;
             
             resp.setContentType(contentType.getValue());
@@ -154,8 +176,8 @@ public final class StandardServlet extends HttpServlet implements ContainerServl
             if (resp.getCharacterEncoding() == null) {
                 resp.setCharacterEncoding("utf-8");
             }
-            if (requestMapping.charset() != Charset.NULL) {
-                resp.setCharacterEncoding(requestMapping.charset().getValue());
+            if (handler.getCharset() != Charset.NULL) {
+                resp.setCharacterEncoding(handler.getCharset().getValue());
             }
             
             // XXX - 应该做更灵活的处理
@@ -165,33 +187,232 @@ public final class StandardServlet extends HttpServlet implements ContainerServl
                     writer.print(res);
                     break;
                 } case JSON: {
-                    PrintWriter writer = resp.getWriter();
-                    writer.print(JSON.toJSONString(res));                        
+                    writeJson(resp, res);
                     break;
                 } case OCTET_STREAM: {
-                    if (!(res instanceof Serializable)) {
-                        throw new SerialException("对象不能序列化 " + res);
-                    }
-                    ServletOutputStream outputStream = resp.getOutputStream();
-                    ObjectOutputStream oos = new ObjectOutputStream(outputStream);
-                    oos.writeObject(res);
+                    writeOctetStream(resp, res);
+                    break;
+                } case JAVA_SERIALIZED_OBJECT: {
+                    writeSerializedObject(resp, res);
                     break;
                 } case FORM_DATA: {
-                    // XXX - multipart/form-data类型。很重要，需要尽早实现  
+                    writeFormData(resp, res);
+                    break;
                 } default: {
                     throw new IllegalArgumentException("未知响应类型！");
                 }
             }            
             
-        } catch (IllegalAccessException e) {
-            resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "无方法执行权限！ " + method.getName());
-            e.printStackTrace(System.err);
+        } catch (RequestBodyTooLargeException e) {
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
         } catch (Exception e) {
             resp.sendError(HttpServletResponse.SC_EXPECTATION_FAILED, e.toString());
             e.printStackTrace(System.err);
         }
     }
 
+    /**
+     * 把返回值序列化为JSON写入响应<br>
+     * 整个JSON先序列化到fastjson2的JSONWriter中线程缓存复用的字节数组里，再一次写入连接器的OutputBuffer，
+     * 不会生成JSON字符串，也不经过CoyoteWriter做字符到字节的转换，但不是边序列化边发送
+     * 
+     * @param resp 响应
+     * @param res 返回值
+     * @throws IOException 可能抛出I/O异常
+     */
+    private void writeJson(HttpServletResponse resp, Object res) throws IOException {
+        if (isUTF8Response(resp)) {
+            JSON.writeTo(resp.getOutputStream(), res);
+        } else {
+            // 非UTF-8编码的响应还是交给CoyoteWriter转换
+            resp.getWriter().print(JSON.toJSONString(res));
+        }
+    }
+
+
+    /**
+     * @return 如果响应使用UTF-8编码，返回<b>true</b>
+     */
+    private boolean isUTF8Response(HttpServletResponse resp) {
+        String encoding = resp.getCharacterEncoding();
+        return encoding == null || "UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding);
+    }
+
+
+    /**
+     * 把返回值以二进制数据写入响应<br>
+     * 只支持byte[]、ByteBuffer和InputStream，直接写入连接器的OutputBuffer，
+     * 要使用Java序列化须指定 {@link ContentType#JAVA_SERIALIZED_OBJECT}
+     * 
+     * @param resp 响应
+     * @param res 返回值
+     * @throws IOException 可能抛出I/O异常
+     */
+    private void writeOctetStream(HttpServletResponse resp, Object res) throws IOException {
+        if (res instanceof byte[]) {
+            byte[] bytes = (byte[]) res;
+            resp.setContentLength(bytes.length);
+            resp.getOutputStream().write(bytes);
+        } else if (res instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) res;
+            ServletOutputStream outputStream = resp.getOutputStream();
+            resp.setContentLength(buffer.remaining());
+            if (outputStream instanceof CoyoteOutputStream) {
+                ((CoyoteOutputStream) outputStream).write(buffer);
+            } else if (buffer.hasArray()) {
+                outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                outputStream.write(bytes);
+            }
+        } else if (res instanceof InputStream) {
+            ServletOutputStream outputStream = resp.getOutputStream();
+            try (InputStream is = (InputStream) res) {
+                is.transferTo(outputStream);
+            }
+        } else {
+            throw new IllegalArgumentException("二进制响应的返回值只能是byte[]、ByteBuffer或InputStream！ " + res.getClass());
+        }
+    }
+
+
+    /**
+     * 把返回值以Java序列化写入响应
+     *
+     * @param resp 响应
+     * @param res 返回值
+     * @throws IOException 可能抛出I/O异常
+     */
+    private void writeSerializedObject(HttpServletResponse resp, Object res) throws IOException {
+        if (!(res instanceof Serializable))
+            throw new NotSerializableException("对象不能序列化 " + res);
+
+        ObjectOutputStream oos = new ObjectOutputStream(resp.getOutputStream());
+        oos.writeObject(res);
+        oos.flush();
+    }
+
+
+    /**
+     * 把返回值以multipart/form-data写入响应<br>
+     * 返回值可以是Map（key为字段名）、Part或Part的集合。
+     * Part、byte[]和InputStream按二进制写入，CharSequence、数字和布尔值按文本写入，
+     * 其它对象序列化为JSON
+     *
+     * @param resp 响应
+     * @param res 返回值
+     * @throws IOException 可能抛出I/O异常
+     */
+    private void writeFormData(HttpServletResponse resp, Object res) throws IOException {
+        String boundary = "----RanniFormBoundary" + Long.toHexString(System.nanoTime())
+                + Integer.toHexString(System.identityHashCode(res));
+        resp.setContentType("multipart/form-data; boundary=" + boundary);
+
+        ServletOutputStream out = resp.getOutputStream();
+        byte[] delimiter = ("--" + boundary + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        if (res instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) res).entrySet()) {
+                String name = String.valueOf(entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof Collection) {
+                    for (Object item : (Collection<?>) value) {
+                        out.write(delimiter);
+                        writeFormDataPart(out, name, item);
+                    }
+                } else {
+                    out.write(delimiter);
+                    writeFormDataPart(out, name, value);
+                }
+            }
+        } else if (res instanceof Part) {
+            out.write(delimiter);
+            writeFormDataPart(out, ((Part) res).getName(), res);
+        } else if (res instanceof Collection) {
+            for (Object item : (Collection<?>) res) {
+                if (!(item instanceof Part))
+                    throw new IllegalArgumentException("multipart/form-data的返回值集合中只能是Part！ " + item);
+                out.write(delimiter);
+                writeFormDataPart(out, ((Part) item).getName(), item);
+            }
+        } else {
+            throw new IllegalArgumentException("不能作为multipart/form-data响应的返回值！ " + res.getClass());
+        }
+
+        out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+
+    /**
+     * 写入一个part，包括头部和数据
+     *
+     * @param out 输出流
+     * @param name 字段名
+     * @param value 字段值
+     * @throws IOException 可能抛出I/O异常
+     */
+    private void writeFormDataPart(ServletOutputStream out, String name, Object value) throws IOException {
+        StringBuilder headers = new StringBuilder(128);
+        headers.append("Content-Disposition: form-data; name=\"").append(quote(name)).append('"');
+
+        if (value instanceof Part) {
+            Part part = (Part) value;
+            if (part.getSubmittedFileName() != null)
+                headers.append("; filename=\"").append(quote(part.getSubmittedFileName())).append('"');
+            String contentType = part.getContentType();
+            headers.append("\r\nContent-Type: ").append(contentType == null ? ContentType.OCTET_STREAM.getValue() : contentType);
+        } else if (value instanceof byte[] || value instanceof InputStream) {
+            headers.append("\r\nContent-Type: ").append(ContentType.OCTET_STREAM.getValue());
+        } else if (value == null || value instanceof CharSequence || value instanceof Number
+                || value instanceof Boolean || value instanceof Character) {
+            headers.append("\r\nContent-Type: text/plain; charset=UTF-8");
+        } else {
+            headers.append("\r\nContent-Type: ").append(ContentType.JSON.getValue()).append("; charset=UTF-8");
+        }
+        headers.append("\r\n\r\n");
+        out.write(headers.toString().getBytes(StandardCharsets.UTF_8));
+
+        if (value instanceof Part) {
+            copy(((Part) value).getInputStream(), out);
+        } else if (value instanceof byte[]) {
+            out.write((byte[]) value);
+        } else if (value instanceof InputStream) {
+            copy((InputStream) value, out);
+        } else if (value == null || value instanceof CharSequence || value instanceof Number
+                || value instanceof Boolean || value instanceof Character) {
+            out.write(String.valueOf(value == null ? "" : value).getBytes(StandardCharsets.UTF_8));
+        } else {
+            JSON.writeTo(out, value);
+        }
+
+        out.write(CRLF);
+    }
+
+
+    /**
+     * 把输入流的数据全部写入输出流，写完关闭输入流
+     */
+    private void copy(InputStream in, ServletOutputStream out) throws IOException {
+        try (InputStream is = in) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) >= 0) {
+                out.write(buffer, 0, len);
+            }
+        }
+    }
+
+
+    /**
+     * 转义头部参数中的双引号
+     */
+    private String quote(String value) {
+        return value.indexOf('"') < 0 ? value : value.replace("\"", "\\\"");
+    }
+
+
     @Override
     public String getServletInfo() {
         return this.info;
@@ -209,7 +430,7 @@ public final class StandardServlet extends HttpServlet implements ContainerServl
         if (attribute != null)
             attribute.remove(wrapper.getName());
         
-        methodMap.clear();
+        mappingTable.clear();
         wrapper = null;
         servletConfig = null;
         clazz = null;
@@ -220,73 +441,6 @@ public final class StandardServlet extends HttpServlet implements ContainerServl
     }
 
 
-    /**
-     * 解析请求参数
-     * FIXME - 存在编码问题
-     * 
-     * @param hsr
-     * @param resp
-     * @param method
-     */
-    private Object[] parseParams(HttpServletRequest hsr, HttpServletResponse resp, Method method) {
-        Parameter[] parameters = method.getParameters(); // 所有形参
-        Object[] res = new Object[parameters.length];
-        
-        for (int i = 0; i < parameters.length; i++) {
-            if (parameters[i].getType().equals(HttpServletRequest.class)) {
-                res[i] = hsr;
-                continue;
-            } else if (parameters[i].getType().equals(HttpServletResponse.class)) {
-                res[i] = resp;
-                continue;
-            }
-            
-//            if (parameters[i].getDeclaredAnnotations().length == 0) {
-//                // 尝试构造json字符串
-//                res[i] = JSONObject.parseObject(constructorJsonString(parameters[i], hsr), parameters[i].getType());
-//                continue;
-//            }
-            
-            for (Annotation annotation : parameters[i].getDeclaredAnnotations()) {
-                Annotation param = getParam(annotation.annotationType());
-                if (param == null) continue;
-                    
-                String paramName = ((Param) param).value();
-                if (paramName == null || "".equals(paramName))
-                    paramName = parameters[i].getName();
-                Class<?> type = parameters[i].getType();
-                res[i] = JSONObject.parseObject(hsr.getParameter(paramName), type);
-                break;
-            }            
-        }
-        
-        return res;
-    }
-    
-    private Annotation getParam(Class<?> clazz) {
-        Annotation[] annotations = clazz.getAnnotations();
-        for (Annotation annotation : annotations) {
-            if (annotation.annotationType() != Deprecated.class &&
-                    annotation.annotationType() != SuppressWarnings.class &&
-                    annotation.annotationType() != Override.class &&
-                    annotation.annotationType() != Generated.class &&
-                    annotation.annotationType() != Target.class &&
-                    annotation.annotationType() != Retention.class &&
-                    annotation.annotationType() != Documented.class &&
-                    annotation.annotationType() != Inherited.class
-            ) {
-                if (annotation.annotationType() == Param.class) {
-                    return annotation;
-                } else {
-                    getParam(annotation.annotationType());
-                }
-            }
-        }
-        
-        return null;
-    }
-    
-
     /**
      * 返回与此内部servlet关联的wrapper
      * 
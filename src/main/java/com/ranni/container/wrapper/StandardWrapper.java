@@ -46,13 +46,18 @@ public class StandardWrapper extends ContainerBase implements ServletConfig, Wra
     private boolean unavailable; // 此wrapper是否不可用
     private long available; // 此wrapper什么时候可用，为0L则表示永久可用，为Long.MAX_VALUE则表示永久不可用)
     private String path; // 请求路径
+    private MultipartConfigElement multipartConfigElement; // Multipart配置，为null表示不解析multipart/form-data请求体
 
     protected String servletClass; // servlet类全限定类名
     protected InstanceSupport instanceSupport = new InstanceSupport(this); // 实例监听器工具实例
 
 
     public StandardWrapper() {
-        pipeline.setBasic(new StandardWrapperValve(this));
+        try {
+            pipeline.setBasic(new StandardWrapperValve(this));
+        } catch (LifecycleException e) {
+            ; // 管道还没有启动，不会启动基础阀
+        }
     }
 
 
@@ -572,7 +577,13 @@ public class StandardWrapper extends ContainerBase implements ServletConfig, Wra
 
     @Override
     public MultipartConfigElement getMultipartConfigElement() {
-        return null;
+        return multipartConfigElement;
+    }
+
+
+    @Override
+    public void setMultipartConfigElement(MultipartConfigElement multipartConfigElement) {
+        this.multipartConfigElement = multipartConfigElement;
     }
 
 
@@ -12,11 +12,14 @@ import com.ranni.container.pip.ValveContext;
 import com.ranni.core.ApplicationFilterChain;
 import com.ranni.core.ApplicationFilterConfig;
 import com.ranni.deploy.FilterMap;
+import com.ranni.util.ConcurrentCache;
 
 import javax.servlet.*;
-import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Title: HttpServer
@@ -32,6 +35,130 @@ import java.io.IOException;
  * @Date 2022-03-27 21:47
  */
 public class StandardWrapperValve extends ValveBase {
+    private static final ApplicationFilterConfig[] EMPTY_FILTERS = new ApplicationFilterConfig[0];
+    private static final int FILTER_CACHE_SIZE = 256; // 每个wrapper缓存的过滤器组合数量
+    
+    private volatile FilterCache filterCache; // 过滤器缓存
+    
+    
+    /**
+     * 某一版本过滤器映射下，此wrapper的过滤器缓存
+     * 需要按请求路径匹配的过滤器映射最多64个，请求路径匹配上哪些映射记录为一个位掩码，
+     * 过滤器数组以位掩码为key缓存。不同的请求路径（例如 /users/{id} 的每个id）只要匹配上的
+     * 过滤器映射相同就共用同一个数组，缓存的数量与过滤器映射的组合数有关，与请求路径的数量无关
+     */
+    private static final class FilterCache {
+        final int version; // 过滤器映射的版本号
+        final ApplicationFilterConfig[] servletFilters; // 按servlet名匹配的过滤器
+        final String[] urlPatterns; // 需要按请求路径匹配的URL模式，为null表示匹配结果与路径无关
+        final ApplicationFilterConfig[] urlFilters; // 与urlPatterns一一对应的过滤器
+        final ApplicationFilterConfig[] filters; // 与路径无关时的完整过滤器数组
+        final ConcurrentCache<Long, ApplicationFilterConfig[]> byMask; // 以匹配位掩码为key的过滤器数组
+
+        FilterCache(int version, StandardContext context, String servletName) {
+            this.version = version;
+            
+            FilterMap[] filterMaps = context.findFilterMaps();
+            List<String> urlPatterns = new ArrayList<>();
+            List<ApplicationFilterConfig> urlFilters = new ArrayList<>();
+            List<ApplicationFilterConfig> servletFilters = new ArrayList<>();
+            boolean pathIndependent = true;
+            
+            for (FilterMap filterMap : filterMaps) {
+                String urlPattern = filterMap.getUrlPattern();
+                if (urlPattern == null)
+                    continue;
+                
+                ApplicationFilterConfig filterConfig = (ApplicationFilterConfig) context.findFilterConfig(filterMap.getFilterName());
+                if (filterConfig == null)
+                    continue;
+                
+                urlPatterns.add(urlPattern);
+                urlFilters.add(filterConfig);
+                if (!"/*".equals(urlPattern))
+                    pathIndependent = false;
+            }
+            
+            for (FilterMap filterMap : filterMaps) {
+                if (!matchFiltersServlet(filterMap, servletName))
+                    continue;
+                
+                ApplicationFilterConfig filterConfig = (ApplicationFilterConfig) context.findFilterConfig(filterMap.getFilterName());
+                if (filterConfig != null)
+                    servletFilters.add(filterConfig);
+            }
+            
+            this.servletFilters = servletFilters.toArray(EMPTY_FILTERS);
+            
+            if (pathIndependent) {
+                urlFilters.addAll(servletFilters);
+                this.filters = urlFilters.toArray(EMPTY_FILTERS);
+                this.urlPatterns = null;
+                this.urlFilters = null;
+                this.byMask = null;
+            } else {
+                this.filters = EMPTY_FILTERS;
+                this.urlPatterns = urlPatterns.toArray(new String[0]);
+                this.urlFilters = urlFilters.toArray(EMPTY_FILTERS);
+                this.byMask = this.urlPatterns.length <= 64 ? new ConcurrentCache<>(FILTER_CACHE_SIZE) : null;
+            }
+        }
+
+
+        /**
+         * 取得与请求路径匹配的过滤器，先按URL匹配，再按servlet名匹配
+         *
+         * @param uri 请求URI
+         * @param start 请求路径在URI中的起始位置，小于0表示没有请求路径
+         * @return
+         */
+        ApplicationFilterConfig[] match(String uri, int start) {
+            if (byMask == null)
+                return build(uri, start, -1L);
+            
+            long mask = 0L;
+            if (start >= 0) {
+                for (int i = 0; i < urlPatterns.length; i++) {
+                    if (matchFiltersURL(urlPatterns[i], uri, start))
+                        mask |= 1L << i;
+                }
+            }
+            
+            ApplicationFilterConfig[] filters = byMask.get(mask);
+            if (filters == null) {
+                filters = build(uri, start, mask);
+                byMask.put(mask, filters);
+            }
+            return filters;
+        }
+
+
+        /**
+         * 生成过滤器数组
+         *
+         * @param uri 请求URI
+         * @param start 请求路径在URI中的起始位置，小于0表示没有请求路径
+         * @param mask 匹配位掩码，为-1时逐个重新匹配
+         * @return
+         */
+        private ApplicationFilterConfig[] build(String uri, int start, long mask) {
+            List<ApplicationFilterConfig> filters = new ArrayList<>(urlFilters.length + servletFilters.length);
+            
+            for (int i = 0; i < urlPatterns.length; i++) {
+                boolean matched = mask == -1L
+                        ? start >= 0 && matchFiltersURL(urlPatterns[i], uri, start)
+                        : (mask & (1L << i)) != 0;
+                if (matched)
+                    filters.add(urlFilters[i]);
+            }
+            
+            Collections.addAll(filters, servletFilters);
+            
+            return filters.toArray(EMPTY_FILTERS);
+        }
+    }
+    
+    
     public StandardWrapperValve(Container container) {
         setContainer(container);
     }
@@ -177,8 +304,9 @@ public class StandardWrapperValve extends ValveBase {
 
     /**
      * 创建过滤链
-     * 此处不对过滤器进行实例化，仅仅创建过滤链，
-     * 然后将匹配的过滤器关联对象加入到过滤链的集合中
+     * 此处不对过滤器进行实例化，仅仅取得过滤链对象，
+     * 然后把预先计算好的过滤器数组交给过滤链。
+     * 过滤链对象随Request对象复用，只有在它正被使用时（请求被转发到另一个wrapper）才新建
      *
      * @param request
      * @param servlet
@@ -188,63 +316,55 @@ public class StandardWrapperValve extends ValveBase {
         if (servlet == null)
             return null;
         
-        // 创建并初始化过滤器链对象
-        ApplicationFilterChain filterChain = new ApplicationFilterChain();
-        filterChain.setServlet(servlet);
+        ApplicationFilterChain filterChain = null;
+        FilterChain pooled = request.getFilterChain();
+        if (pooled instanceof ApplicationFilterChain && !((ApplicationFilterChain) pooled).isInUse()) {
+            filterChain = (ApplicationFilterChain) pooled;
+        } else {
+            filterChain = new ApplicationFilterChain();
+            if (pooled == null)
+                request.setFilterChain(filterChain);
+        }
+        
         StandardWrapper wrapper = (StandardWrapper) getContainer();
+        filterChain.setServlet(servlet);
         filterChain.setSupport(wrapper.getInstanceSupport());
+        filterChain.setFilters(findFilters(request, wrapper));
+
+        return filterChain;
+    }
 
-        // 取得过滤器的映射集
+
+    /**
+     * 取得与此请求匹配的过滤器
+     * 过滤器映射或过滤器配置变更后缓存失效，下一次请求时重新计算
+     *
+     * @param request
+     * @param wrapper
+     * @return
+     */
+    private ApplicationFilterConfig[] findFilters(Request request, StandardWrapper wrapper) {
         StandardContext context = (StandardContext) wrapper.getParent();
-        FilterMap[] filterMaps = context.findFilterMaps();
-        
-        if (filterMaps == null || filterMaps.length == 0)
-            return filterChain;
+        int version = context.getFilterMapsVersion();
         
-        // 实例化所有过滤器
-        String requestPath = null;
-        HttpServletRequest hreq = request.getRequest();
-        String contextPath = hreq.getContextPath();
-        if (contextPath == null) {
-            contextPath = "";
+        FilterCache cache = filterCache;
+        if (cache == null || cache.version != version) {
+            cache = new FilterCache(version, context, wrapper.getName());
+            filterCache = cache;
         }
-
+        
+        if (cache.urlPatterns == null)
+            return cache.filters;
+        
+        // 直接在请求URI上匹配，Context路径是固定的，不需要截取请求路径
         String requestURI = request.getRequestURI();
-        if (requestURI.length() >= contextPath.length())
-            requestPath = requestURI.substring(contextPath.length());
-
-        String servletName = wrapper.getName();
-        int count = 0;
-
-        // 将符合条件的过滤器关联实例添加进过滤器链的集合中（按URL匹配）
-        for (int i = 0; i < filterMaps.length; i++) {
-            // 与此请求路径匹配的过滤器配置
-            if (!matchFiltersURL(filterMaps[i], requestPath)) 
-                continue;
-            
-            ApplicationFilterConfig filterConfig = (ApplicationFilterConfig) context.findFilterConfig(filterMaps[i].getFilterName());
-            
-            if (filterConfig != null) {
-                filterChain.addFilter(filterConfig);
-                count++;
-            }
-        }
-
-        // 将符合条件的过滤器关联实例添加进过滤器链的集合中（按Servlet匹配）
-        for (int i = 0; i < filterMaps.length; i++) {
-            if (!matchFiltersServlet(filterMaps[i], servletName))
-                continue;
-            
-            ApplicationFilterConfig filterConfig = (ApplicationFilterConfig) context.findFilterConfig(filterMaps[i].getFilterName());
-
-            if (filterConfig != null) {
-                filterChain.addFilter(filterConfig);
-                count++;
-            }
-        }
+        if (requestURI == null)
+            return cache.filters;
         
-
-        return filterChain;
+        String contextPath = context.getPath();
+        int start = contextPath == null ? 0 : contextPath.length();
+        
+        return cache.match(requestURI, requestURI.length() >= start ? start : -1);
     }
 
 
@@ -255,7 +375,7 @@ public class StandardWrapperValve extends ValveBase {
      * @param servletName
      * @return
      */
-    private boolean matchFiltersServlet(FilterMap filterMap, String servletName) {
+    private static boolean matchFiltersServlet(FilterMap filterMap, String servletName) {
         if (servletName == null)
             return false;
         
@@ -264,50 +384,41 @@ public class StandardWrapperValve extends ValveBase {
 
 
     /**
-     * 判断请求路径是否与传入的过滤映射匹配
-     * XXX 后面用动态规划进行优化
+     * 判断请求路径是否与传入的URL模式匹配
+     * 请求路径为uri从start开始的部分，匹配时不截取子串
      * 
-     * @param filterMap
-     * @param requestPath
+     * @param urlPattern URL模式
+     * @param uri 请求URI
+     * @param start 请求路径在URI中的起始位置
      * @return
      */
-    private boolean matchFiltersURL(FilterMap filterMap, String requestPath) {
-        if (requestPath == null) 
-            return false;
-
-        String urlPattern = filterMap.getUrlPattern();
-        if (urlPattern == null)
-            return false;
+    private static boolean matchFiltersURL(String urlPattern, String uri, int start) {
+        int length = uri.length() - start;
         
         // 情况一：完全匹配
-        if (urlPattern.equals(requestPath))
+        if (urlPattern.length() == length && uri.startsWith(urlPattern, start))
             return true;
         
-        
         // 情况二：路径匹配（"/*"）
         if ("/*".equals(urlPattern))
             return true;
         
-        // 情况二的分支情况
+        // 情况二的分支情况，请求路径等于前缀或以 前缀 + "/" 开头
         if (urlPattern.endsWith("/*")) {
-            String comparePath = requestPath;
-            while (true) {
-                if (urlPattern.equals(comparePath + "/*"))
-                    return true;
-                
-                int slash = comparePath.lastIndexOf('/');
-                if (slash < 0) break;
-                comparePath = comparePath.substring(0, slash);
-            }
-            return false;
+            int prefix = urlPattern.length() - 2;
+            if (length < prefix || !uri.regionMatches(start, urlPattern, 0, prefix))
+                return false;
+            return length == prefix || uri.charAt(start + prefix) == '/';
         }
         
         // 情况三：扩展名匹配（"*."）
         if (urlPattern.startsWith("*.")) {
-            int slash = requestPath.lastIndexOf('/');
-            int period = requestPath.lastIndexOf('.');
-            if (slash >= 0 && period > slash)
-                return urlPattern.equals("*." + requestPath.substring(period + 1));
+            int slash = uri.lastIndexOf('/');
+            int period = uri.lastIndexOf('.');
+            if (slash >= start && period > slash) {
+                int ext = urlPattern.length() - 2;
+                return uri.length() - period - 1 == ext && uri.regionMatches(period + 1, urlPattern, 2, ext);
+            }
         }
         
         return false;
@@ -0,0 +1,93 @@
+package com.ranni.container.wrapper;
+
+import com.alibaba.fastjson2.JSON;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 把请求中的字符串值（请求参数、路径变量）转换为形参类型的转换器。
+ * 在StandardServlet初始化时就根据形参类型选好转换器，处理请求时直接调用
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/8 14:05
+ */
+@FunctionalInterface
+public interface ValueConverter {
+
+    /**
+     * 转换
+     *
+     * @param value 请求中的字符串值，不为null
+     * @return 返回转换后的值
+     * @throws NumberFormatException 格式错误时抛出
+     */
+    Object convert(String value);
+
+
+    /**
+     * 根据类型取得转换器
+     *
+     * @param type 目标类型
+     * @return 返回对应的转换器
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static ValueConverter forType(Class<?> type) {
+        if (type == String.class || type == Object.class || type == CharSequence.class)
+            return value -> value;
+        if (type == int.class || type == Integer.class)
+            return Integer::valueOf;
+        if (type == long.class || type == Long.class)
+            return Long::valueOf;
+        if (type == double.class || type == Double.class)
+            return Double::valueOf;
+        if (type == float.class || type == Float.class)
+            return Float::valueOf;
+        if (type == short.class || type == Short.class)
+            return Short::valueOf;
+        if (type == byte.class || type == Byte.class)
+            return Byte::valueOf;
+        if (type == boolean.class || type == Boolean.class)
+            return Boolean::valueOf;
+        if (type == char.class || type == Character.class) {
+            return value -> {
+                if (value.length() != 1)
+                    throw new NumberFormatException("不是单个字符！ " + value);
+                return value.charAt(0);
+            };
+        }
+        if (type.isEnum()) {
+            Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+            return value -> Enum.valueOf(enumType, value);
+        }
+
+        return value -> JSON.parseObject(value, type);
+    }
+
+
+    /**
+     * 取得类型的默认值，基本类型的形参不能传入null
+     *
+     * @param type 目标类型
+     * @return 返回默认值
+     */
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive())
+            return null;
+        if (type == boolean.class)
+            return Boolean.FALSE;
+        if (type == char.class)
+            return '\0';
+        if (type == long.class)
+            return 0L;
+        if (type == double.class)
+            return 0D;
+        if (type == float.class)
+            return 0F;
+        if (type == short.class)
+            return (short) 0;
+        if (type == byte.class)
+            return (byte) 0;
+        return 0;
+    }
+}
@@ -5,23 +5,27 @@ import com.ranni.util.InstanceSupport;
 
 import javax.servlet.*;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
 
 /**
  * Title: HttpServer
  * Description:
+ * 过滤器链
+ * 过滤器数组由StandardWrapperValve预先计算并缓存，多个请求共享同一个数组，
+ * 过滤器链只记录当前执行到的下标。过滤器链对象随Request对象复用，
+ * 每次请求结束时调用release()释放引用
  *
  * @Author 2Executioner
  * @Email 1205878539@qq.com
  * @Date 2022-04-25 22:44
  */
 public final class ApplicationFilterChain implements FilterChain {
-    private List<FilterConfig> filters = new ArrayList(); // 过滤器
-    private Iterator iterator;
+    private static final ApplicationFilterConfig[] EMPTY = new ApplicationFilterConfig[0];
+    
+    private ApplicationFilterConfig[] filters = EMPTY; // 过滤器，只读
+    private int pos; // 下一个要执行的过滤器下标
     private Servlet servlet;
     private InstanceSupport support; // 实例监听器工具类
+    private boolean fireEvents; // 是否有实例监听器，没有就不触发实例事件
     
     
     
@@ -41,59 +45,50 @@ public final class ApplicationFilterChain implements FilterChain {
 
 
     /**
-     * 往下执行过滤器
+     * 往下执行过滤器，所有过滤器都执行过后执行servlet
      * 
      * @param request
      * @param response
      */
     private void internalDoFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
-        if (this.iterator == null)
-            this.iterator = filters.iterator();
-        
-        if (this.iterator.hasNext()) {
-             ApplicationFilterConfig filterConfig = (ApplicationFilterConfig) iterator.next();
+        if (pos < filters.length) {
+             ApplicationFilterConfig filterConfig = filters[pos++];
              Filter filter = null;
              
              try {
                  filter = filterConfig.getFilter();
-                 support.fireInstanceEvent(InstanceEvent.BEFORE_FILTER_EVENT, filter, request, response);
+                 if (fireEvents)
+                     support.fireInstanceEvent(InstanceEvent.BEFORE_FILTER_EVENT, filter, request, response);
                  filter.doFilter(request, response, this);
-                 support.fireInstanceEvent(InstanceEvent.AFTER_FILTER_EVENT, filter, request, response);
-             } catch (IOException e) {
-                 if (filter != null) {
-                     support.fireInstanceEvent(InstanceEvent.AFTER_FILTER_EVENT, filter, request, response, e);
-                 }
-                 throw e;
-             } catch (ServletException e) {
-                 if (filter != null) {
-                     support.fireInstanceEvent(InstanceEvent.AFTER_FILTER_EVENT, filter, request, response, e);
-                 }
-                 throw e;
-             } catch (RuntimeException e) {
-                 if (filter != null) {
+                 if (fireEvents)
+                     support.fireInstanceEvent(InstanceEvent.AFTER_FILTER_EVENT, filter, request, response);
+             } catch (IOException | ServletException | RuntimeException e) {
+                 if (fireEvents && filter != null) {
                      support.fireInstanceEvent(InstanceEvent.AFTER_FILTER_EVENT, filter, request, response, e);
                  }
                  throw e;
              } catch (Throwable e) {
-                 if (filter != null) {
+                 if (fireEvents && filter != null) {
                      support.fireInstanceEvent(InstanceEvent.AFTER_FILTER_EVENT, filter, request, response, e);
                  }
                  throw new ServletException(e);
              }
+             
+             // servlet由最后一个过滤器调用doFilter()时执行
+             return;
         }
         
         // 开始执行servlet的service方法
+        if (!fireEvents) {
+            servlet.service(request, response);
+            return;
+        }
+        
         try {
             support.fireInstanceEvent(InstanceEvent.BEFORE_SERVICE_EVENT, servlet, request, response);
             servlet.service(request, response);
             support.fireInstanceEvent(InstanceEvent.AFTER_SERVICE_EVENT, servlet, request, response);
-        } catch (IOException e) {
-            support.fireInstanceEvent(InstanceEvent.AFTER_SERVICE_EVENT, servlet, request, response, e);
-            throw e;
-        } catch (ServletException e) {
-            support.fireInstanceEvent(InstanceEvent.AFTER_SERVICE_EVENT, servlet, request, response, e);
-            throw e;
-        } catch (RuntimeException e) {
+        } catch (IOException | ServletException | RuntimeException e) {
             support.fireInstanceEvent(InstanceEvent.AFTER_SERVICE_EVENT, servlet, request, response, e);
             throw e;
         } catch (Throwable e) {
@@ -104,12 +99,13 @@ public final class ApplicationFilterChain implements FilterChain {
 
 
     /**
-     * 添加过滤配置
+     * 设置过滤器，数组会被多个请求共享，不能修改
      *
-     * @param filterConfig
+     * @param filters
      */
-    public void addFilter(ApplicationFilterConfig filterConfig) {
-        this.filters.add(filterConfig);
+    public void setFilters(ApplicationFilterConfig[] filters) {
+        this.filters = filters == null ? EMPTY : filters;
+        this.pos = 0;
     }
 
 
@@ -117,14 +113,19 @@ public final class ApplicationFilterChain implements FilterChain {
      * 释放资源
      */
     public void release() {
-        this.filters.clear();
-        this.iterator = null;
+        this.filters = EMPTY;
+        this.pos = 0;
         this.servlet = null;
+        this.support = null;
+        this.fireEvents = false;
     }
-    
 
-    public void setIterator(Iterator iterator) {
-        this.iterator = iterator;
+
+    /**
+     * @return 如果此过滤器链正在被使用返回<b>true</b>
+     */
+    public boolean isInUse() {
+        return servlet != null;
     }
     
 
@@ -135,5 +136,6 @@ public final class ApplicationFilterChain implements FilterChain {
     
     public void setSupport(InstanceSupport support) {
         this.support = support;
+        this.fireEvents = support != null && support.hasListeners();
     }
 }
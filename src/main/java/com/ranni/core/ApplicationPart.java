@@ -0,0 +1,252 @@
+package com.ranni.core;
+
+import com.ranni.util.http.fileupload.DeferredFileOutputStream;
+
+import javax.servlet.http.Part;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * multipart/form-data请求中的一个part<br>
+ * 小的part数据保存在内存中，大的part数据保存在上传目录的临时文件中。
+ * write()时临时文件直接移动到目标位置，不能移动的用FileChannel.transferTo()复制
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/12 16:05
+ */
+public final class ApplicationPart implements Part {
+
+    // ==================================== 属性字段 ====================================
+
+    private final Map<String, String> headers; // 头部，key为小写的头部名
+    private final DeferredFileOutputStream data; // part数据
+    private final File location; // 上传目录
+    private final String name; // 表单字段名
+    private final String submittedFileName; // 客户端的文件名，不是文件时为null
+    private File file; // 数据所在的文件，write()之后指向目标文件
+
+
+    /**
+     * @param headers part的头部
+     * @param data part数据
+     * @param location 上传目录
+     */
+    public ApplicationPart(Map<String, String> headers, DeferredFileOutputStream data, File location) {
+        this.headers = headers;
+        this.data = data;
+        this.location = location;
+        this.file = data.getFile();
+
+        String disposition = headers.get("content-disposition");
+        this.name = getDispositionParameter(disposition, "name");
+        this.submittedFileName = getDispositionParameter(disposition, "filename");
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (file == null)
+            return new ByteArrayInputStream(data.getData(), 0, (int) data.getSize());
+        return Files.newInputStream(file.toPath());
+    }
+
+
+    /**
+     * 把part数据写入文件
+     *
+     * @param fileName 文件名，相对路径以上传目录为基准
+     * @throws IOException 可能抛出I/O异常
+     */
+    @Override
+    public void write(String fileName) throws IOException {
+        File target = new File(fileName);
+        if (!target.isAbsolute())
+            target = new File(location, fileName);
+
+        if (file == null) {
+            try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer src = ByteBuffer.wrap(data.getData(), 0, (int) data.getSize());
+                while (src.hasRemaining())
+                    out.write(src);
+            }
+            return;
+        }
+
+        if (file.equals(data.getFile())) {
+            // 临时文件直接移动过去
+            try {
+                Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                file = target;
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                ;
+            }
+        }
+
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            long size = in.size();
+            long pos = 0L;
+            while (pos < size)
+                pos += in.transferTo(pos, size - pos, out);
+        }
+    }
+
+
+    /**
+     * 删除临时文件，write()移走的文件不删除
+     */
+    @Override
+    public void delete() throws IOException {
+        File temp = data.getFile();
+        if (temp != null && temp.equals(file))
+            Files.deleteIfExists(temp.toPath());
+    }
+
+
+    /**
+     * 以字符串形式取得part数据，用于普通表单字段
+     *
+     * @param charset 编码
+     * @return 返回字符串
+     * @throws IOException 可能抛出I/O异常
+     */
+    public String getString(Charset charset) throws IOException {
+        if (file == null)
+            return new String(data.getData(), 0, (int) data.getSize(), charset);
+        return new String(Files.readAllBytes(file.toPath()), charset);
+    }
+
+
+    /**
+     * 取得Content-Disposition头部中的参数
+     *
+     * @param disposition Content-Disposition头部
+     * @param param 参数名
+     * @return 返回参数值，没有返回null
+     */
+    private static String getDispositionParameter(String disposition, String param) {
+        if (disposition == null)
+            return null;
+
+        int pos = 0;
+        int len = disposition.length();
+        while (pos < len) {
+            int semicolon = indexOfUnquoted(disposition, ';', pos);
+            if (semicolon < 0)
+                semicolon = len;
+
+            int eq = disposition.indexOf('=', pos);
+            if (eq > 0 && eq < semicolon) {
+                String key = disposition.substring(pos, eq).trim();
+                if (key.equalsIgnoreCase(param)) {
+                    String value = disposition.substring(eq + 1, semicolon).trim();
+                    if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+                        value = value.substring(1, value.length() - 1).replace("\\\"", "\"");
+                    return value;
+                }
+            }
+
+            pos = semicolon + 1;
+        }
+
+        return null;
+    }
+
+
+    private static int indexOfUnquoted(String s, char c, int from) {
+        boolean quoted = false;
+        for (int i = from; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' && (i == 0 || s.charAt(i - 1) != '\\')) {
+                quoted = !quoted;
+            } else if (ch == c && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    @Override
+    public String getContentType() {
+        return headers.get("content-type");
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getSubmittedFileName() {
+        return submittedFileName;
+    }
+
+    @Override
+    public long getSize() {
+        return data.getSize();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        String value = getHeader(name);
+        if (value == null)
+            return Collections.emptyList();
+        return Collections.singletonList(value);
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return new ArrayList<>(headers.keySet());
+    }
+
+    /**
+     * @return 如果是文件返回<b>true</b>
+     */
+    public boolean isFile() {
+        return submittedFileName != null;
+    }
+
+    /**
+     * @return 如果数据保存在内存中返回<b>true</b>
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    @Override
+    public String toString() {
+        return "ApplicationPart[name=" + name + ", fileName=" + submittedFileName + ", size=" + getSize() + "]";
+    }
+}
@@ -22,6 +22,7 @@ public class ApplicationConfigure {
     private String host = "localhost"; // 所属主机
     private String ip; // ip地址
     private boolean reloadable; // 是否可重载
+    private int startupOrder; // 启动顺序，同一个Host中值小的先启动
     private int port = 8080; // 端口号
     private String scheme = "http"; // 协议
     private int debug = Logger.WARNING; // debug级别
@@ -84,6 +85,14 @@ public class ApplicationConfigure {
         this.reloadable = reloadable;
     }
 
+    public int getStartupOrder() {
+        return startupOrder;
+    }
+
+    public void setStartupOrder(int startupOrder) {
+        this.startupOrder = startupOrder;
+    }
+
     public int getPort() {
         return port;
     }
@@ -1,13 +1,18 @@
 package com.ranni.loader;
 
+import com.ranni.util.collections.ConcurrentBoundedSet;
+
 import javax.naming.directory.DirContext;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Title: HttpServer
  * Description:
+ * 注册为可并行加载的类加载器，不同的类按类名各自加锁，互不阻塞
+ * 系统类加载器和本地查找的未命中都会记入有界的缓存，同一个类不会被重复查找
  *
  * @Author 2Executioner
  * @Email 1205878539@qq.com
@@ -15,8 +20,18 @@ import java.util.*;
  */
 public abstract class AbstractClassLoader extends URLClassLoader {
 
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+
     // ==================================== 属性字段 ====================================
 
+    /**
+     * 未命中缓存的最大容量，超出后丢弃最久没有加入或者命中的一半
+     */
+    protected static final int NOT_FOUND_CACHE_SIZE = 4096;
+
     /**
      * 不允许载入的类和包
      */
@@ -42,9 +57,14 @@ public abstract class AbstractClassLoader extends URLClassLoader {
     protected ClassLoader system;
 
     /**
-     * 未找到的资源名
+     * 本地未找到的资源名
+     */
+    protected final ConcurrentBoundedSet<String> notFoundResources = new ConcurrentBoundedSet<>(NOT_FOUND_CACHE_SIZE);
+
+    /**
+     * 系统类加载器中不存在的类名
      */
-    protected Set<String> notFoundResources = new HashSet<>();
+    protected final ConcurrentBoundedSet<String> systemNotFound = new ConcurrentBoundedSet<>(NOT_FOUND_CACHE_SIZE);
 
     /**
      * 委托标志位
@@ -59,7 +79,7 @@ public abstract class AbstractClassLoader extends URLClassLoader {
     /**
      * 已经载入的缓存资源
      */
-    protected Map<String, ResourceEntry> resourceEntries = Collections.synchronizedMap(new HashMap<>());
+    protected Map<String, ResourceEntry> resourceEntries = new ConcurrentHashMap<>();
 
 
     // ==================================== 构造方法 ====================================
@@ -110,6 +130,7 @@ public abstract class AbstractClassLoader extends URLClassLoader {
      */
     public void recycle() {
         notFoundResources.clear(); // 清除未找到的资源文件缓存
+        systemNotFound.clear(); // 清除系统类加载器的未命中缓存
         resourceEntries.clear(); // 清除已解析的资源文件
     }
     
@@ -163,6 +184,7 @@ public abstract class AbstractClassLoader extends URLClassLoader {
     
     /**
      * 类加载
+     * 同一个类名的加载过程互斥，不同类名之间可以并行
      *
      * @param name
      * @param resolve
@@ -171,48 +193,53 @@ public abstract class AbstractClassLoader extends URLClassLoader {
      */
     @Override
     protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-        Class clazz = null;
-
-        // 尝试从WebappClassLoader的缓存中查询
-        clazz = findLoadedClass0(name);
-        if (clazz != null) {
-            // 是否需要重新解析
-            if (resolve)
-                resolveClass(clazz);
-            return clazz;
-        }
+        synchronized (getClassLoadingLock(name)) {
+            Class clazz = null;
 
-        // 尝试从父类的缓存中查询
-        clazz = findLoadedClass(name);
-        if (clazz != null) {
-            // 是否需要重新解析
-            if (resolve)
-                resolveClass(clazz);
-            return clazz;
-        }
+            // 尝试从WebappClassLoader的缓存中查询
+            clazz = findLoadedClass0(name);
+            if (clazz != null) {
+                // 是否需要重新解析
+                if (resolve)
+                    resolveClass(clazz);
+                return clazz;
+            }
 
-        // 从系统类加载器中加载（JDK 9之前的双亲委派机制）
-        try {
-            clazz = system.loadClass(name);
+            // 尝试从父类的缓存中查询
+            clazz = findLoadedClass(name);
+            if (clazz != null) {
+                // 是否需要重新解析
+                if (resolve)
+                    resolveClass(clazz);
+                return clazz;
+            }
+
+            // 从系统类加载器中加载（JDK 9之前的双亲委派机制）
+            clazz = loadFromSystem(name);
             if (clazz != null) {
                 // 是否需要重新加载
                 if (resolve)
                     resolveClass(clazz);
                 return clazz;
             }
-        } catch (ClassNotFoundException e) {
-            ;
-        }
 
-        // 是否委托加载，如果是被过滤的包也要启用委托
-        boolean delegateLoad = delegate || filter(name);
+            // 是否委托加载，如果是被过滤的包也要启用委托
+            boolean delegateLoad = delegate || filter(name);
 
-        // 尝试委托加载
-        if (delegateLoad) {
-            ClassLoader loader = parent == null ? system : parent;
+            // 尝试委托加载
+            if (delegateLoad) {
+                clazz = loadFromParent(name);
+                if (clazz != null) {
+                    // 是否需要重新加载
+                    if (resolve)
+                        resolveClass(clazz);
+                    return clazz;
+                }
+            }
 
+            // 尝试从本地加载
             try {
-                clazz = loader.loadClass(name);
+                clazz = findClass(name);
                 if (clazz != null) {
                     // 是否需要重新加载
                     if (resolve)
@@ -222,40 +249,67 @@ public abstract class AbstractClassLoader extends URLClassLoader {
             } catch (ClassNotFoundException e) {
                 ;
             }
-        }
 
-        // 尝试从本地加载
-        try {
-            clazz = findClass(name);
-            if (clazz != null) {
-                // 是否需要重新加载
-                if (resolve)
-                    resolveClass(clazz);
-                return clazz;
-            }
-        } catch (ClassNotFoundException e) {
-            ;
-        }
-
-        // 如果本地加载未加载上，且还没有委托加载，则尝试委托加载
-        if (!delegateLoad) {
-            ClassLoader loader = parent == null ? system : parent;
-
-            try {
-                clazz = loader.loadClass(name);
+            // 如果本地加载未加载上，且还没有委托加载，则尝试委托加载
+            if (!delegateLoad) {
+                clazz = loadFromParent(name);
                 if (clazz != null) {
                     // 是否需要重新加载
                     if (resolve)
                         resolveClass(clazz);
                     return clazz;
                 }
-            } catch (ClassNotFoundException e) {
-                ;
             }
+
+            // 没有找到这个类
+            throw new ClassNotFoundException(name);
         }
+    }
 
-        // 没有找到这个类
-        throw new ClassNotFoundException(name);
+
+    /**
+     * 从系统类加载器中加载
+     * 先查询类文件是否存在，不存在的类不会走抛出再捕获ClassNotFoundException的流程，
+     * 并记入未命中缓存
+     *
+     * @param name
+     * @return 没有找到返回null
+     */
+    protected Class loadFromSystem(String name) {
+        if (systemNotFound.contains(name))
+            return null;
+
+        String classPath = name.replace('.', '/') + ".class";
+        if (system.getResource(classPath) == null) {
+            systemNotFound.add(name);
+            return null;
+        }
+
+        try {
+            return system.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            systemNotFound.add(name);
+            return null;
+        }
+    }
+
+
+    /**
+     * 委托父类加载器加载，父类加载器就是系统类加载器时走未命中缓存
+     *
+     * @param name
+     * @return 没有找到返回null
+     */
+    protected Class loadFromParent(String name) {
+        ClassLoader loader = parent == null ? system : parent;
+        if (loader == system)
+            return loadFromSystem(name);
+
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
     }
     
 
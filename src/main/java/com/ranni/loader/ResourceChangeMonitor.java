@@ -0,0 +1,282 @@
+package com.ranni.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 基于WatchService的资源变化监视器，监视WEB-INF/classes和WEB-INF/lib
+ * 1、递归注册所有目录，新建的目录也会被注册
+ * 2、只有.class文件和.jar文件的变化是相关的变化
+ * 3、相关的变化发生后，要等到debounce毫秒内没有新的相关变化才标记为已修改，
+ *    一次部署中连续的大量变化只会被合并为一次修改
+ *
+ * 不支持WatchService的文件系统在启动时返回false，由调用者退回轮询
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/22 10:00
+ */
+public class ResourceChangeMonitor {
+
+    // ==================================== 属性字段 ====================================
+
+    private final String name; // 监视器名，用于线程名
+    private final File[] roots; // 监视的根目录
+    private long debounce = 1000L; // 合并变化的静默时间，单位毫秒
+
+    private WatchService watchService;
+    private final Map<WatchKey, Path> keys = new HashMap<>(); // 注册的目录
+    private Thread thread; // 监视线程
+    private volatile boolean running; // 是否正在运行
+    private volatile boolean modified; // 是否已修改
+
+    private boolean pending; // 是否有尚未确认的相关变化，只有监视线程访问
+    private long lastEventTime; // 最后一次相关变化的时间，只有监视线程访问
+
+
+    /**
+     * @param name 监视器名
+     * @param roots 监视的根目录
+     */
+    public ResourceChangeMonitor(String name, File... roots) {
+        this.name = name;
+        this.roots = roots;
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 注册根目录并启动监视线程
+     *
+     * @return 文件系统不支持WatchService或注册失败时返回<b>false</b>
+     */
+    public synchronized boolean start() {
+        if (running)
+            return true;
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (File root : roots)
+                register(root.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            close();
+            return false;
+        }
+
+        modified = false;
+        running = true;
+        thread = new Thread(new Monitor());
+        thread.setName("ResourceChangeMonitor[" + name + "]");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+
+    /**
+     * 停止监视线程
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!running)
+                return;
+            running = false;
+            thread = this.thread;
+            this.thread = null;
+        }
+
+        close(); // 监视线程会因为ClosedWatchServiceException退出
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * 关闭WatchService
+     */
+    private void close() {
+        if (watchService == null)
+            return;
+
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            ;
+        }
+    }
+
+
+    /**
+     * 递归注册目录
+     *
+     * @param start 开始的目录
+     * @return 目录中有相关的文件时返回<b>true</b>
+     * @throws IOException
+     */
+    private boolean register(Path start) throws IOException {
+        if (!Files.isDirectory(start))
+            return false;
+
+        boolean[] found = new boolean[1];
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                synchronized (keys) {
+                    keys.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (relevant(file))
+                    found[0] = true;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return found[0];
+    }
+
+
+    /**
+     * 是否是相关的文件
+     *
+     * @param file
+     * @return
+     */
+    protected boolean relevant(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(".class") || fileName.regionMatches(true, fileName.length() - 4, ".jar", 0, 4);
+    }
+
+
+    /**
+     * 处理一个WatchKey上的所有事件
+     *
+     * @param key
+     */
+    private void process(WatchKey key) {
+        Path dir;
+        synchronized (keys) {
+            dir = keys.get(key);
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // 事件丢失了，无法判断是否相关
+            if (event.kind() == OVERFLOW || dir == null) {
+                changed();
+                continue;
+            }
+
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                // 新建的目录，注册之前目录中可能已经有文件了
+                try {
+                    if (register(child))
+                        changed();
+                } catch (IOException e) {
+                    changed();
+                }
+            } else if (relevant(child)) {
+                changed();
+            }
+        }
+
+        // 目录已经不存在了
+        if (!key.reset()) {
+            synchronized (keys) {
+                keys.remove(key);
+            }
+        }
+    }
+
+
+    /**
+     * 记录一次相关的变化
+     */
+    private void changed() {
+        pending = true;
+        lastEventTime = System.currentTimeMillis();
+    }
+
+
+    /**
+     * 监视线程
+     */
+    private final class Monitor implements Runnable {
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    WatchKey key;
+                    if (pending) {
+                        long wait = lastEventTime + debounce - System.currentTimeMillis();
+                        key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : watchService.poll();
+                    } else {
+                        key = watchService.take();
+                    }
+
+                    if (key != null)
+                        process(key);
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    break;
+                }
+
+                // 静默时间内没有新的相关变化，合并为一次修改
+                if (pending && System.currentTimeMillis() - lastEventTime >= debounce) {
+                    pending = false;
+                    modified = true;
+                }
+            }
+        }
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    /**
+     * 是否有相关的文件被修改
+     *
+     * @return
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+
+    /**
+     * 设置合并变化的静默时间
+     *
+     * @param debounce 单位毫秒
+     */
+    public void setDebounce(long debounce) {
+        this.debounce = debounce;
+    }
+
+
+    /**
+     * 返回合并变化的静默时间
+     *
+     * @return
+     */
+    public long getDebounce() {
+        return debounce;
+    }
+}
@@ -2,12 +2,14 @@ package com.ranni.loader;
 
 import java.net.URL;
 import java.security.cert.Certificate;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 /**
  * Title: HttpServer
  * Description:
  * 类的资源视图
+ * 只保存资源的元数据，类文件的内容在定义类时重新读取，定义完即丢弃
  *
  * @Author 2Executioner
  * @Email 1205878539@qq.com
@@ -15,10 +17,12 @@ import java.util.jar.Manifest;
  */
 public class ResourceEntry {
     public long lastModified = -1L; // 最后修改时间
-    public byte[] binaryContent; // 二进制流缓存
-    public Class loadedClass; // 从路径指向的文件中解析出来的类
+    public long contentLength = -1L; // 内容长度，未知为-1
+    public volatile Class loadedClass; // 从路径指向的文件中解析出来的类
     public URL source; // "jar:" + jar包路径 + "!/" + 文件相对路径（如果是从文件夹中找到的，则该参数和codeBase一致）
     public URL codeBase; // 如果是jar中的资源，则是仓库的绝对路径，如果是文件夹中的资源，则是资源的绝对路径
     public Manifest manifest; // 从JAR加载的清单
     public Certificate[] certificates; // JAR包的CER证书
+    public String path; // 资源在JNDI容器中的路径，从JAR包中找到的资源为null
+    public JarFile jarFile; // 资源所在的JAR包，不在JAR包中为null
 }
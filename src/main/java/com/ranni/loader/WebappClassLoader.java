@@ -11,20 +11,28 @@ import javax.naming.Binding;
 import javax.naming.NameClassPair;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.CodeSource;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 /**
  * Title: HttpServer
  * Description:
+ * WEB应用的类加载器
+ * 导入JAR包时和启动时分别为JAR包和类仓库建立包索引（包路径 -> 含有此包的JAR包或仓库），
+ * 查找资源时先探测索引中对应的JAR包和仓库，启动后才出现的包在索引中没有记录，
+ * 此时再探测其余的类仓库，找到后补入索引。未命中的结果记入未命中缓存，不会被重复探测
  *
  * @Author 2Executioner
  * @Email 1205878539@qq.com
@@ -32,8 +40,28 @@ import java.util.jar.JarFile;
  */
 public class WebappClassLoader extends AbstractClassLoader implements Reloader, Lifecycle {
 
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+
     // ==================================== 属性字段 ====================================\
 
+    /**
+     * 类文件缓冲区的初始大小
+     */
+    private static final int CLASS_BUFFER_SIZE = 8192;
+
+    /**
+     * 线程上保留的类文件缓冲区的最大大小
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * 每个线程复用的类文件缓冲区
+     */
+    private static final ThreadLocal<byte[]> classBuffers = ThreadLocal.withInitial(() -> new byte[CLASS_BUFFER_SIZE]);
+
     /**
      * 锁
      */
@@ -66,18 +94,20 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
 
     /**
      * JAR包名集合
+     * 后台线程检查修改时遍历，写时复制
      */
-    protected List<String> jarNames = new ArrayList<>();
+    protected List<String> jarNames = new CopyOnWriteArrayList<>();
 
     /**
      * JAR包列表
+     * 类加载时并发按下标读取，添加很少，写时复制
      */
-    protected List<JarFile> jarFiles = new ArrayList<>();
+    protected List<JarFile> jarFiles = new CopyOnWriteArrayList<>();
 
     /**
-     * 存放JAR包中资源的文件夹集合
+     * 存放JAR包中资源的文件夹集合，与jarFiles的下标对应
      */
-    protected List<File> jarRealFiles = new ArrayList<>();
+    protected List<File> jarRealFiles = new CopyOnWriteArrayList<>();
 
     /**
      * JAR的最后修改日期
@@ -94,6 +124,87 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
      */
     protected boolean hasExternalRepositories;
 
+    /**
+     * JAR包的包索引，包路径（如 com/ranni/）-> 含有此包的JAR包在jarFiles中的下标
+     */
+    protected Map<String, int[]> jarIndex = new ConcurrentHashMap<>();
+
+    /**
+     * 类仓库的包索引，包路径 -> 含有此包的类仓库在repositories中的下标
+     */
+    protected Map<String, int[]> repositoryIndex = new ConcurrentHashMap<>();
+
+    /**
+     * 资源缓存的最大总大小，默认10MB
+     */
+    protected long resourceCacheMaxSize = 10L * 1024 * 1024;
+
+    /**
+     * 能放入资源缓存的单个资源的最大大小，默认64KB
+     */
+    protected int resourceCacheObjectMaxSize = 64 * 1024;
+
+    /**
+     * getResourceAsStream()的资源缓存
+     */
+    protected ResourceCache resourceCache = new ResourceCache();
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 按总字节数限制大小的LRU资源缓存，超出时淘汰最久未使用的资源
+     */
+    protected final class ResourceCache extends LinkedHashMap<String, byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private long size; // 当前缓存的总字节数
+
+        ResourceCache() {
+            super(16, 0.75f, true);
+        }
+
+
+        /**
+         * 取得缓存的资源内容
+         *
+         * @param name
+         * @return 没有缓存返回null
+         */
+        synchronized byte[] getContent(String name) {
+            return get(name);
+        }
+
+
+        /**
+         * 放入资源内容，并淘汰超出总大小的部分
+         *
+         * @param name
+         * @param content
+         */
+        synchronized void putContent(String name, byte[] content) {
+            byte[] old = put(name, content);
+            if (old != null)
+                size -= old.length;
+            size += content.length;
+
+            Iterator<byte[]> it = values().iterator();
+            while (size > resourceCacheMaxSize && it.hasNext()) {
+                size -= it.next().length;
+                it.remove();
+            }
+        }
+
+
+        /**
+         * 清空缓存
+         */
+        synchronized void clearContent() {
+            clear();
+            size = 0;
+        }
+    }
+
 
     // ==================================== 核心方法 ====================================
 
@@ -140,6 +251,7 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
 
     /**
      * 从本地存储中查找类
+     * 类文件的内容读入线程复用的缓冲区，定义类之后就丢弃，ResourceEntry中只保留元数据
      *
      * @param name 类名或全限定类名
      * @return
@@ -153,49 +265,64 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
 
         ResourceEntry entry = findResourceInternal(name, classPath);
 
-        if (entry == null || entry.binaryContent == null)
+        if (entry == null)
             throw new ClassNotFoundException(name);
 
         Class clazz = entry.loadedClass;
         if (clazz != null)
             return clazz;
 
-        String packageName = null;
-        int pos = name.lastIndexOf('.');
-        if (pos != -1)
-            packageName = name.substring(0, pos);
-
-        // 取得类所在的包
-        Package pkg = null;
-        if (packageName != null) {
-            pkg = getDefinedPackage(packageName);
-
-            if (pkg == null) {
-                if (entry.manifest == null) {
-                    definePackage(packageName,null, null, null, null, null,
-                            null, null);
-                } else {
-                    definePackage(packageName, entry.manifest, entry.codeBase);
+        synchronized (getClassLoadingLock(name)) { // 同类型但不同实例的加载器可加载相同的两个类（类的相等是指类加载器实例相同然后再是被加载的类相同）
+            // 双重(entry.loadedClass == null)判断，避免重复定义类
+            if (entry.loadedClass != null)
+                return entry.loadedClass;
+
+            String packageName = null;
+            int pos = name.lastIndexOf('.');
+            if (pos != -1)
+                packageName = name.substring(0, pos);
+
+            // 取得类所在的包
+            Package pkg = null;
+            if (packageName != null) {
+                pkg = getDefinedPackage(packageName);
+
+                if (pkg == null) {
+                    if (entry.manifest == null) {
+                        definePackage(packageName,null, null, null, null, null,
+                                null, null);
+                    } else {
+                        definePackage(packageName, entry.manifest, entry.codeBase);
+                    }
                 }
             }
-        }
 
-        CodeSource codeSource = new CodeSource(entry.codeBase, entry.certificates);
-
-        if (entry.loadedClass == null) {
-            synchronized (this) { // 同类型但不同实例的加载器可加载相同的两个类（类的相等是指类加载器实例相同然后再是被加载的类相同）
-                // 双重(entry.loadedClass == null)判断，避免重复创建类加载器
-                if (entry.loadedClass == null) {
-                    clazz = defineClass(name, entry.binaryContent, 0,
-                                        entry.binaryContent.length,
-                                        codeSource);
-                    entry.loadedClass = clazz;
-                } else {
-                    clazz = entry.loadedClass;
+            // 读取类文件的内容
+            ByteBuffer content = null;
+            try (InputStream is = openContent(entry, classPath)) {
+                if (is != null)
+                    content = readFully(is, borrowBuffer());
+            } catch (IOException e) {
+                log("WebappClassLoader.findClassInternal  读取类文件失败 " + classPath, e);
+            }
+
+            if (content == null)
+                throw new ClassNotFoundException(name);
+
+            try {
+                // JAR包中条目的证书要在条目内容读完后才能取得
+                if (entry.jarFile != null) {
+                    JarEntry jarEntry = entry.jarFile.getJarEntry(classPath);
+                    if (jarEntry != null)
+                        entry.certificates = jarEntry.getCertificates();
                 }
+
+                CodeSource codeSource = new CodeSource(entry.codeBase, entry.certificates);
+                clazz = defineClass(name, content, codeSource);
+                entry.loadedClass = clazz;
+            } finally {
+                returnBuffer(content.array());
             }
-        } else {
-            clazz = entry.loadedClass;
         }
 
         return clazz;
@@ -203,7 +330,7 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
     
 
     /**
-     * 从本地资源中查询并解析资源
+     * 从本地资源中查询资源，只解析资源的元数据，不读取内容
      *
      * @param name
      * @param path 相对路径
@@ -220,64 +347,54 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
         if (entry != null)
             return entry;
 
-        int contentLength = -1;
-        InputStream binaryStream = null;
-        Resource resource = null;
+        if (notFoundResources.contains(name))
+            return null;
 
-        // 尝试从repositories中找到需要被加载的类
-        for (int i = 0; resource == null
-            && i < repositories.length; i++) {
+        String packagePath = packagePath(path);
 
-            try {
-                String fullPath = repositories[i] + path;
-                Object res = resources.lookup(fullPath);
-                if (res instanceof Resource)
-                    resource = (Resource) res;
-
-                entry = new ResourceEntry();
-                try {
-                    entry.source = getURL(new File(files[i], path));
-                    entry.codeBase = entry.source;
-                } catch (MalformedURLException e) {
-                    return null;
-                }
-
-                ResourceAttributes attributes = (ResourceAttributes) resources.getAttributes(fullPath);
-                entry.lastModified = attributes.getLastModified();
-                contentLength = (int) attributes.getContentLength();
+        // 尝试从含有此包的repositories中找到需要被加载的资源
+        int[] repositoryIndexes = repositoryIndex.get(packagePath);
+        try {
+            for (int j = 0; repositoryIndexes != null && entry == null
+                && j < repositoryIndexes.length; j++) {
 
-                if (resource != null) {
-                    try {
-                        binaryStream = resource.streamContent();
-                    } catch (IOException e) {
-                        return null;
-                    }
+                entry = findInRepository(repositoryIndexes[j], path);
+            }
 
-                    synchronized (lock) {
-                        lastModifiedDates.add(entry.lastModified);
-                        paths.add(fullPath);
-                    }
-                }
+            // 索引只在启动时建立，之后才出现在类仓库中的包不在索引中，
+            // 索引未命中时再查找其余的类仓库，找到后把这个包加入索引
+            for (int i = 0; entry == null && i < repositories.length; i++) {
+                if (contains(repositoryIndexes, i))
+                    continue;
 
-            } catch (NamingException e) {
-                ;
+                entry = findInRepository(i, path);
+                if (entry != null)
+                    addToIndex(repositoryIndex, Collections.singleton(packagePath), i);
             }
-        } // for end
-
-        if (entry == null && notFoundResources.contains(name))
+        } catch (MalformedURLException e) {
             return null;
+        }
 
-        // 尝试从jarFiles中寻找
-        JarEntry jarEntry = null;
-        for (int i = 0; entry == null
-            && i < jarFiles.size(); i++) {
+        // 尝试从含有此包的jarFiles中寻找
+        int[] jarIndexes = jarIndex.get(packagePath);
+        for (int j = 0; jarIndexes != null && entry == null
+            && j < jarIndexes.length; j++) {
 
-            jarEntry = jarFiles.get(i).getJarEntry(path);
+            int i = jarIndexes[j];
+            JarFile jarFile;
+            File jarRealFile;
+            try {
+                jarFile = jarFiles.get(i);
+                jarRealFile = jarRealFiles.get(i);
+            } catch (IndexOutOfBoundsException e) {
+                return null; // 类加载器已经停止
+            }
+            JarEntry jarEntry = jarFile.getJarEntry(path);
 
             if (jarEntry != null) {
                 entry = new ResourceEntry();
                 try {
-                    entry.codeBase = getURL(jarRealFiles.get(i)); // jar包的绝对路径的URL
+                    entry.codeBase = getURL(jarRealFile); // jar包的绝对路径的URL
                     String jarFakeUrl = entry.codeBase.toString(); // jar包的绝对路径
                     jarFakeUrl = "jar:" + jarFakeUrl + "!/" + path; // emm，jar中资源的定位
                     entry.source = new URL(jarFakeUrl); // 资源地址
@@ -285,10 +402,10 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
                     return null;
                 }
 
-                contentLength = (int) jarEntry.getSize();
+                entry.jarFile = jarFile;
+                entry.contentLength = jarEntry.getSize();
                 try {
-                    entry.manifest = jarFiles.get(i).getManifest();
-                    binaryStream = jarFiles.get(i).getInputStream(jarEntry);
+                    entry.manifest = jarFile.getManifest();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -297,37 +414,344 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
 
         // 没有找到资源文件，加入未找到资源文件清单并返回null
         if (entry == null) {
-            synchronized (notFoundResources) {
-                notFoundResources.add(name);
+            notFoundResources.add(name);
+            return null;
+        }
+
+        // 找到并解析了这个资源，现在把解析好的资源对象放到集合中然后返回
+        resourceEntries.putIfAbsent(name, entry);
+        return resourceEntries.get(name);
+    }
+
+
+    /**
+     * 在指定的类仓库中查找资源，只解析资源的元数据
+     *
+     * @param i 类仓库在repositories中的下标
+     * @param path 相对路径
+     * @return 返回资源，不存在时返回null
+     * @throws MalformedURLException
+     */
+    private ResourceEntry findInRepository(int i, String path) throws MalformedURLException {
+        String fullPath = repositories[i] + path;
+        try {
+            if (!(resources.lookup(fullPath) instanceof Resource))
+                return null;
+
+            ResourceEntry entry = new ResourceEntry();
+            entry.source = getURL(new File(files[i], path));
+            entry.codeBase = entry.source;
+            entry.path = fullPath;
+            ResourceAttributes attributes = (ResourceAttributes) resources.getAttributes(fullPath);
+            entry.lastModified = attributes.getLastModified();
+            entry.contentLength = attributes.getContentLength();
+
+            synchronized (lock) {
+                lastModifiedDates.add(entry.lastModified);
+                paths.add(fullPath);
             }
+
+            return entry;
+        } catch (NamingException e) {
             return null;
         }
+    }
 
-        if (binaryStream != null) {
-            byte[] binaryContent = new byte[contentLength];
-            try {
-                int pos = 0;
-                int n = 0;
-                do {
-                    n = binaryStream.read(binaryContent, pos, contentLength - pos);
-                    pos += n;
-                } while (n > 0);
-                binaryStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+
+    /**
+     * 下标数组中是否有此下标
+     *
+     * @param indexes 可以为null
+     * @param i
+     * @return
+     */
+    private static boolean contains(int[] indexes, int i) {
+        if (indexes == null)
+            return false;
+
+        for (int index : indexes) {
+            if (index == i)
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * 打开资源的输入流
+     *
+     * @param entry 资源
+     * @param path 相对路径
+     * @return 资源已经不存在时返回null
+     * @throws IOException
+     */
+    protected InputStream openContent(ResourceEntry entry, String path) throws IOException {
+        if (entry.jarFile != null) {
+            JarEntry jarEntry = entry.jarFile.getJarEntry(path);
+            if (jarEntry == null)
                 return null;
+            return entry.jarFile.getInputStream(jarEntry);
+        }
+
+        if (entry.path != null) {
+            try {
+                Object o = resources.lookup(entry.path);
+                if (o instanceof Resource)
+                    return ((Resource) o).streamContent();
+            } catch (NamingException e) {
+                ;
             }
+        }
 
-            entry.binaryContent = binaryContent;
+        return null;
+    }
 
-            if (jarEntry != null) {
-                entry.certificates = jarEntry.getCertificates();
+
+    /**
+     * 读取流中的全部内容，缓冲区不够时按两倍扩容
+     *
+     * @param is 输入流
+     * @param buffer 初始缓冲区
+     * @return 返回包装了读取内容的ByteBuffer，其底层数组可能是扩容后的新数组
+     * @throws IOException
+     */
+    private static ByteBuffer readFully(InputStream is, byte[] buffer) throws IOException {
+        int pos = 0;
+        int n = 0;
+        while ((n = is.read(buffer, pos, buffer.length - pos)) != -1) {
+            pos += n;
+            if (pos == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length << 1);
+        }
+        return ByteBuffer.wrap(buffer, 0, pos);
+    }
+
+
+    /**
+     * 借出当前线程的类文件缓冲区
+     * 定义类时可能递归加载父类，所以借出期间线程上不保留这个缓冲区，递归的加载会另外创建一个
+     *
+     * @return
+     */
+    private static byte[] borrowBuffer() {
+        byte[] buffer = classBuffers.get();
+        classBuffers.remove();
+        return buffer;
+    }
+
+
+    /**
+     * 归还类文件缓冲区，过大的缓冲区不保留
+     *
+     * @param buffer
+     */
+    private static void returnBuffer(byte[] buffer) {
+        if (buffer.length <= MAX_POOLED_BUFFER_SIZE)
+            classBuffers.set(buffer);
+    }
+
+
+    /**
+     * 查询本地资源的URL，本地没有再从拓展仓库中查询
+     *
+     * @param name
+     * @return
+     */
+    @Override
+    public URL findResource(String name) {
+        ResourceEntry entry = findResourceInternal(name, name);
+        if (entry != null)
+            return entry.source;
+
+        if (hasExternalRepositories)
+            return super.findResource(name);
+
+        return null;
+    }
+
+
+    /**
+     * 取得资源的输入流
+     * 查找顺序与类加载相同，本地的小资源会放入资源缓存
+     *
+     * @param name
+     * @return
+     */
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        if (name == null)
+            return null;
+
+        byte[] content = resourceCache.getContent(name);
+        if (content != null)
+            return new ByteArrayInputStream(content);
+
+        ClassLoader loader = parent == null ? system : parent;
+        InputStream is = null;
+
+        // 尝试委托加载
+        if (delegate) {
+            is = loader.getResourceAsStream(name);
+            if (is != null)
+                return is;
+        }
+
+        // 尝试从本地加载
+        is = findResourceAsStream(name);
+        if (is != null)
+            return is;
+
+        // 尝试从拓展仓库加载
+        if (hasExternalRepositories) {
+            URL url = super.findResource(name);
+            if (url != null) {
+                try {
+                    return url.openStream();
+                } catch (IOException e) {
+                    ;
+                }
             }
         }
-        
-        // 找到并解析了这个资源，现在把解析好的资源对象放到集合中然后返回
-        resourceEntries.putIfAbsent(name, entry);
-        return resourceEntries.get(name);
+
+        // 本地没有，且还没有委托加载，则尝试委托加载
+        if (!delegate)
+            is = loader.getResourceAsStream(name);
+
+        return is;
+    }
+
+
+    /**
+     * 从本地资源中取得输入流
+     * 长度已知且不超过resourceCacheObjectMaxSize的资源读成数组放入资源缓存
+     *
+     * @param name
+     * @return
+     */
+    protected InputStream findResourceAsStream(String name) {
+        ResourceEntry entry = findResourceInternal(name, name);
+        if (entry == null)
+            return null;
+
+        InputStream is = null;
+        try {
+            is = openContent(entry, name);
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (is == null || entry.contentLength < 0 || entry.contentLength > resourceCacheObjectMaxSize)
+            return is;
+
+        try (InputStream in = is) {
+            byte[] content = in.readAllBytes();
+            resourceCache.putContent(name, content);
+            return new ByteArrayInputStream(content);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * 取得资源所在的包路径
+     *
+     * @param path 资源的相对路径，如 com/ranni/A.class
+     * @return 返回包路径，如 com/ranni/，没有包时返回空串
+     */
+    protected static String packagePath(String path) {
+        return path.substring(0, path.lastIndexOf('/') + 1);
+    }
+
+
+    /**
+     * 将包加入包索引
+     *
+     * @param index 包索引
+     * @param packages 包路径集合
+     * @param i JAR包或类仓库的下标
+     */
+    protected static void addToIndex(Map<String, int[]> index, Set<String> packages, int i) {
+        for (String packagePath : packages) {
+            index.merge(packagePath, new int[] { i }, (old, add) -> {
+                if (contains(old, add[0]))
+                    return old;
+                int[] res = Arrays.copyOf(old, old.length + 1);
+                res[old.length] = add[0];
+                return res;
+            });
+        }
+    }
+
+
+    /**
+     * 为JAR包建立包索引
+     * 只需要遍历JAR包的中央目录，不读取条目内容
+     *
+     * @param jarFile
+     * @param i JAR包在jarFiles中的下标
+     */
+    protected void indexJar(JarFile jarFile, int i) {
+        Set<String> packages = new HashSet<>();
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry jarEntry = entries.nextElement();
+            if (!jarEntry.isDirectory())
+                packages.add(packagePath(jarEntry.getName()));
+        }
+
+        addToIndex(jarIndex, packages, i);
+    }
+
+
+    /**
+     * 为类仓库建立包索引
+     * 通过JNDI遍历仓库的目录树，只记录直接含有文件的目录
+     *
+     * @param i 类仓库在repositories中的下标
+     */
+    protected void indexRepository(int i) {
+        if (resources == null)
+            return;
+
+        // 去掉仓库名末尾的分隔符
+        String repository = repositories[i];
+        int end = repository.length();
+        while (end > 0 && (repository.charAt(end - 1) == '/' || repository.charAt(end - 1) == '\\'))
+            end--;
+
+        Set<String> packages = new HashSet<>();
+        try {
+            Object o = resources.lookup(repository.substring(0, end));
+            if (o instanceof DirContext)
+                indexDirectory((DirContext) o, "", packages);
+        } catch (NamingException e) {
+            if (debug >= 2)
+                log("类仓库[ " + repository + " ]不存在");
+        }
+
+        addToIndex(repositoryIndex, packages, i);
+    }
+
+
+    /**
+     * 递归遍历目录，收集含有文件的包路径
+     *
+     * @param dir 目录
+     * @param packagePath 目录对应的包路径
+     * @param packages 包路径集合
+     * @throws NamingException
+     */
+    private void indexDirectory(DirContext dir, String packagePath, Set<String> packages) throws NamingException {
+        NamingEnumeration<Binding> it = dir.listBindings("");
+        while (it.hasMoreElements()) {
+            Binding binding = it.nextElement();
+            Object o = binding.getObject();
+            if (o instanceof DirContext)
+                indexDirectory((DirContext) o, packagePath + binding.getName() + "/", packages);
+            else
+                packages.add(packagePath);
+        }
     }
 
 
@@ -398,8 +822,9 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
 
 
     /**
-     * TODO 是否有文件修改了
-     * XXX 此方法有可能会因为paths和lastModifiedDates的长度不一致引发重载失败或者数组下标异常问题
+     * 轮询检查是否有文件修改了
+     * 文件系统支持WatchService时，WebappLoader使用{@link ResourceChangeMonitor}，不会调用此方法
+     * paths和lastModifiedDates总是在lock下成对添加，这里在lock下取得两者的快照再检查
      * 
      * @return
      */
@@ -407,18 +832,25 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
     public boolean modified() {
         if (debug >= 3)
             log("WebappClassLoader.modified  开始检查文件是否被修改或删除");
+
+        String[] checkPaths;
+        Long[] checkDates;
+        synchronized (lock) {
+            checkPaths = paths.toArray(new String[0]);
+            checkDates = lastModifiedDates.toArray(new Long[0]);
+        }
         
         // 检查普通文件目录
-        for (int i = 0; i < paths.size(); i++) {
+        for (int i = 0; i < checkPaths.length; i++) {
             try {
-                long lastModified = ((ResourceAttributes) resources.getAttributes(paths.get(i))).getLastModified();
-                if (lastModified != lastModifiedDates.get(i)) {
-                    log("有文件被修改了！ " + paths.get(i));
+                long lastModified = ((ResourceAttributes) resources.getAttributes(checkPaths[i])).getLastModified();
+                if (lastModified != checkDates[i]) {
+                    log("有文件被修改了！ " + checkPaths[i]);
                     return true;
                 }
                 
             } catch (NamingException e) {
-                log("资源["+ paths.get(i) +"]未找到");
+                log("资源["+ checkPaths[i] +"]未找到");
                 return true;
             }
         }
@@ -491,6 +923,11 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
 
         repositories = res1;
         files = res2;
+
+        // 启动后加入的仓库直接建立索引，启动前加入的仓库在启动时建立
+        if (started)
+            indexRepository(i);
+        notFoundResources.clear();
     }
 
 
@@ -537,8 +974,10 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
         // 此JAR包最后修改时间
         try {
             long lastModified = ((ResourceAttributes) resources.getAttributes(path)).getLastModified();
-            paths.add(path);
-            lastModifiedDates.add(lastModified);
+            synchronized (lock) {
+                paths.add(path);
+                lastModifiedDates.add(lastModified);
+            }
 
         } catch (NamingException e) {
             ;
@@ -550,9 +989,52 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
         jarFiles.add(jarFile);
         jarRealFiles.add(file);
 
+        indexJar(jarFile, jarFiles.size() - 1);
+        notFoundResources.clear();
+
         // TODO 加载清单
     }
 
+    /**
+     * 设置资源缓存的最大总大小
+     *
+     * @param resourceCacheMaxSize
+     */
+    public void setResourceCacheMaxSize(long resourceCacheMaxSize) {
+        this.resourceCacheMaxSize = resourceCacheMaxSize;
+    }
+
+
+    /**
+     * 返回资源缓存的最大总大小
+     *
+     * @return
+     */
+    public long getResourceCacheMaxSize() {
+        return resourceCacheMaxSize;
+    }
+
+
+    /**
+     * 设置能放入资源缓存的单个资源的最大大小
+     *
+     * @param resourceCacheObjectMaxSize
+     */
+    public void setResourceCacheObjectMaxSize(int resourceCacheObjectMaxSize) {
+        this.resourceCacheObjectMaxSize = resourceCacheObjectMaxSize;
+    }
+
+
+    /**
+     * 返回能放入资源缓存的单个资源的最大大小
+     *
+     * @return
+     */
+    public int getResourceCacheObjectMaxSize() {
+        return resourceCacheObjectMaxSize;
+    }
+
+
     /**
      * 不支持哦哦哦
      *
@@ -587,12 +1069,16 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
 
     
     /**
-     * 仅设置启动标志位为true
+     * 为已加入的类仓库建立包索引，然后设置启动标志位为true
      *
      * @return
      */
     @Override
-    public void start() throws LifecycleException {
+    public synchronized void start() throws LifecycleException {
+        repositoryIndex.clear();
+        for (int i = 0; i < repositories.length; i++)
+            indexRepository(i);
+
         started = true;
     }
 
@@ -620,8 +1106,13 @@ public class WebappClassLoader extends AbstractClassLoader implements Reloader,
         jarFiles.clear();
         jarRealFiles.clear();
         jarNames.clear();
-        paths.clear();
-        lastModifiedDates.clear();
+        synchronized (lock) {
+            paths.clear();
+            lastModifiedDates.clear();
+        }
+        jarIndex.clear();
+        repositoryIndex.clear();
+        resourceCache.clearContent();
         hasExternalRepositories = false;
 
         super.recycle();
@@ -22,6 +22,8 @@ import java.io.*;
 import java.lang.reflect.Constructor;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.jar.JarFile;
 
 /**
@@ -48,6 +50,8 @@ public class WebappLoader implements Loader, Lifecycle {
     private int checkInterval = 15; // 重载线程休眠时间因子
     private String classPath = Constants.WEBAPP_CLASSES;
     private String libPath = Constants.WEBAPP_LIB;
+    private ResourceChangeMonitor monitor; // 资源变化监视器，为null时通过轮询检查修改
+    private long watchDebounce = 1000L; // 监视器合并变化的静默时间，单位毫秒
     
 
     public WebappLoader() {
@@ -181,13 +185,38 @@ public class WebappLoader implements Loader, Lifecycle {
 
     /**
      * 是否有修改
+     * 有资源变化监视器时直接返回监视器的结果，否则退回类加载器的轮询检查
      * 
      * @return
      */
     @Override
     public boolean modified() {
+        ResourceChangeMonitor monitor = this.monitor;
+        if (monitor != null)
+            return monitor.isModified();
+
         return classLoader.modified();
     }
+
+
+    /**
+     * 设置监视器合并变化的静默时间
+     *
+     * @param watchDebounce 单位毫秒
+     */
+    public void setWatchDebounce(long watchDebounce) {
+        this.watchDebounce = watchDebounce;
+    }
+
+
+    /**
+     * 返回监视器合并变化的静默时间
+     *
+     * @return
+     */
+    public long getWatchDebounce() {
+        return this.watchDebounce;
+    }
     
 
     @Override
@@ -327,10 +356,55 @@ public class WebappLoader implements Loader, Lifecycle {
         } catch (Exception e) {
             log("WebappLoader.createClassLoader", e);
         }
+
+        // 启动资源变化监视器
+        startMonitor();
         
     }
 
 
+    /**
+     * 为可重载的Context启动资源变化监视器，监视类仓库和JAR包的真实目录
+     * 有目录不在文件系统上（如从WAR包中拷贝出来的）或者文件系统不支持WatchService时，
+     * 不启动监视器，由modified()退回轮询
+     */
+    private void startMonitor() {
+        if (!(container instanceof Context) || !((Context) container).getReloadable())
+            return;
+        ServletContext servletContext = ((Context) container).getServletContext();
+        if (servletContext == null)
+            return;
+
+        DirContext resources = container.getResources();
+        List<File> dirs = new ArrayList<>();
+        for (String path : new String[] { getClassesPath(), getLibPath() }) {
+            try {
+                if (!(resources.lookup(path) instanceof DirContext))
+                    continue;
+            } catch (NamingException e) {
+                continue;
+            }
+
+            String realPath = servletContext.getRealPath(path);
+            if (realPath == null) {
+                log("[ " + path + " ]不在文件系统上，使用轮询检查修改");
+                return;
+            }
+            dirs.add(new File(realPath));
+        }
+
+        if (dirs.isEmpty())
+            return;
+
+        ResourceChangeMonitor monitor = new ResourceChangeMonitor(container.getName(), dirs.toArray(new File[0]));
+        monitor.setDebounce(watchDebounce);
+        if (monitor.start())
+            this.monitor = monitor;
+        else
+            log("文件系统不支持WatchService，使用轮询检查修改");
+    }
+
+
     /**
      * 设置类加载器的访问权限
      */
@@ -573,6 +647,12 @@ public class WebappLoader implements Loader, Lifecycle {
         if (!started) throw new LifecycleException("此WebappLoader实例已经停止！");
         
         started = false;
+
+        // 停止资源变化监视器
+        if (monitor != null) {
+            monitor.stop();
+            monitor = null;
+        }
         
         if (container instanceof Context) {
             ServletContext servletContext = ((Context) container).getServletContext();
@@ -0,0 +1,600 @@
+package com.ranni.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 异步的按日期滚动的日志文件写入器
+ * 1、调用线程只把消息放入一个有界的无锁环形缓冲区，不做格式化和I/O
+ * 2、由一个后台线程批量取出消息，写入可复用的直接缓冲区，缓冲区满了或者没有新消息时
+ *    才写入FileChannel，多条消息只有一次系统调用
+ * 3、按消息的时间决定写入哪一天的文件，文件名为 prefix + yyyy-MM-dd + suffix
+ * 4、缓冲区满时按溢出策略阻塞或丢弃，被丢弃的消息数量会写入日志文件
+ * 5、写入线程是守护线程，启动时注册关闭钩子，JVM退出时即使没有调用stop()，缓冲区中的消息也会写入文件
+ *
+ * 消息可以是String（按UTF-8编码，不以换行结尾时补上换行），
+ * 也可以是已经编码好的byte[]（原样写入）
+ *
+ * 环形缓冲区是多生产者单消费者的，每个槽位有一个序号：
+ * 序号等于写入位置时槽位可写，等于写入位置+1时槽位可读，
+ * 生产者CAS抢占写入位置后写入槽位，再发布序号
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/20 10:00
+ */
+public class AsyncFileWriter {
+
+    // ==================================== 属性字段 ====================================
+
+    /**
+     * 缓冲区满时阻塞等待
+     */
+    public static final int OVERFLOW_BLOCK = 0;
+
+    /**
+     * 缓冲区满时丢弃
+     */
+    public static final int OVERFLOW_DROP = 1;
+
+    /**
+     * 缓冲区满时丢弃级别比overflowLevel低（更详细）的消息，其它的阻塞等待
+     */
+    public static final int OVERFLOW_DROP_BELOW_LEVEL = 2;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private String directory = "logs"; // 日志文件的文件夹
+    private String prefix = "ranni."; // 日志文件前缀
+    private String suffix = ".log"; // 日志文件后缀
+    private boolean timestamp; // 是否在每条消息前写入时间戳
+    private int capacity = 8192; // 环形缓冲区容量，2的幂
+    private int bufferSize = 64 * 1024; // 直接缓冲区大小
+    private int overflowPolicy = OVERFLOW_BLOCK; // 溢出策略
+    private int overflowLevel = Logger.WARNING; // OVERFLOW_DROP_BELOW_LEVEL时不会被丢弃的最低级别
+    private long maxParkTime = 1000L; // 写入线程没有消息时最长的等待时间，单位毫秒
+
+    // 环形缓冲区
+    private volatile Object[] messages;
+    private long[] times;
+    private AtomicLongArray sequences;
+    private int mask;
+    private final AtomicLong tail = new AtomicLong(); // 下一个写入位置
+    private long head; // 下一个读取位置，只有写入线程访问
+
+    private final AtomicLong dropped = new AtomicLong(); // 被丢弃的消息数量
+    private volatile boolean running; // 写入线程运行标志位
+    private volatile boolean parked; // 写入线程是否在等待新消息
+    private volatile Thread thread; // 写入线程
+    private Thread shutdownHook; // JVM退出时停止写入线程的关闭钩子
+
+    // 以下只有写入线程访问
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer buffer; // 直接缓冲区
+    private FileChannel channel; // 当前日志文件
+    private String date = ""; // 当前日志文件的日期
+    private long dayEnd; // 下一天的开始时间
+    private long second = -1L; // 缓存的时间戳对应的秒
+    private final byte[] stamp = new byte[20]; // 缓存的时间戳 yyyy-MM-dd HH:mm:ss
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 写入线程
+     */
+    private class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            for (;;) {
+                if (drain() > 0)
+                    continue;
+
+                flushBuffer();
+                if (!running && isEmpty())
+                    break;
+
+                parked = true;
+                if (isEmpty() && running)
+                    LockSupport.parkNanos(AsyncFileWriter.this, maxParkTime * 1_000_000L);
+                parked = false;
+            }
+
+            flushBuffer();
+            closeFile();
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 启动写入线程
+     * 启动之前放入的消息保留在缓冲区中，启动后写入文件
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+
+        allocate();
+
+        if (buffer == null || buffer.capacity() != bufferSize)
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+
+        running = true;
+        thread = new Thread(new Writer());
+        thread.setName("AsyncFileWriter[" + prefix + "]");
+        thread.setDaemon(true);
+        thread.start();
+
+        shutdownHook = new Thread(this::stop, "AsyncFileWriterShutdown[" + prefix + "]");
+        try {
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            shutdownHook = null; // JVM正在退出
+        }
+    }
+
+
+    /**
+     * 分配环形缓冲区，容量向上取整为2的幂
+     */
+    private synchronized void allocate() {
+        if (messages != null)
+            return;
+
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+
+        times = new long[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        mask = size - 1;
+        messages = new Object[size]; // 最后发布，其它线程看到它时其余的数组都已经分配好
+    }
+
+
+    /**
+     * 停止写入线程，缓冲区中剩余的消息都会先写入文件
+     * JVM退出时由关闭钩子调用
+     */
+    public void stop() {
+        Thread thread;
+        Thread hook;
+        synchronized (this) {
+            if (!running)
+                return;
+            running = false;
+            thread = this.thread;
+            this.thread = null;
+            hook = shutdownHook;
+            shutdownHook = null;
+        }
+
+        if (hook != null && hook != Thread.currentThread()) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                ; // JVM正在退出，钩子已经在运行
+            }
+        }
+
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * 放入一条消息
+     *
+     * @param message String或者byte[]
+     * @param time 消息的时间
+     * @param level 消息的级别
+     * @return 如果消息被丢弃返回<b>false</b>
+     */
+    public boolean publish(Object message, long time, int level) {
+        Object[] messages = this.messages;
+        if (messages == null) {
+            allocate(); // 还没有启动，先分配缓冲区，启动后再写入
+            messages = this.messages;
+        }
+
+        long pos;
+        int index;
+        for (;;) {
+            pos = tail.get();
+            index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    break;
+            } else if (diff < 0) {
+                // 缓冲区已满
+                if (!waitForSpace(level)) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+
+        messages[index] = message;
+        times[index] = time;
+        sequences.set(index, pos + 1);
+
+        if (parked)
+            LockSupport.unpark(thread);
+
+        return true;
+    }
+
+
+    /**
+     * 缓冲区已满，按溢出策略决定是否等待
+     *
+     * @param level 消息的级别
+     * @return 返回<b>true</b>表示已经等待了一会儿，应该重试
+     */
+    private boolean waitForSpace(int level) {
+        if (!running)
+            return false; // 没有消费者，等待没有意义
+
+        if (overflowPolicy == OVERFLOW_DROP
+                || (overflowPolicy == OVERFLOW_DROP_BELOW_LEVEL && level > overflowLevel))
+            return false;
+
+        LockSupport.unpark(thread);
+        LockSupport.parkNanos(50_000L);
+        return true;
+    }
+
+
+    /**
+     * @return 如果没有可读的消息返回<b>true</b>
+     */
+    private boolean isEmpty() {
+        return messages == null || sequences.get((int) (head & mask)) != head + 1;
+    }
+
+
+    /**
+     * 取出所有可读的消息写入直接缓冲区
+     *
+     * @return 返回取出的消息数量
+     */
+    private int drain() {
+        if (messages == null)
+            return 0;
+
+        long count = dropped.getAndSet(0L);
+        if (count > 0)
+            write("AsyncFileWriter: 缓冲区已满，丢弃了" + count + "条日志", System.currentTimeMillis());
+
+        int n = 0;
+        for (;;) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1)
+                break;
+
+            Object message = messages[index];
+            long time = times[index];
+            messages[index] = null;
+            sequences.set(index, head + mask + 1);
+            head++;
+            n++;
+
+            write(message, time);
+        }
+
+        return n;
+    }
+
+
+    /**
+     * 把一条消息写入直接缓冲区，必要时切换日志文件
+     *
+     * @param message
+     * @param time
+     */
+    private void write(Object message, long time) {
+        if (time >= dayEnd || channel == null)
+            rollover(time);
+
+        if (timestamp)
+            put(timestamp(time), 0, stamp.length);
+
+        if (message instanceof byte[]) {
+            byte[] bytes = (byte[]) message;
+            put(bytes, 0, bytes.length);
+            return;
+        }
+
+        String str = String.valueOf(message);
+        CharBuffer chars = CharBuffer.wrap(str);
+        encoder.reset();
+        for (;;) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                flushBuffer();
+                continue;
+            }
+            if (encoder.flush(buffer).isOverflow()) {
+                flushBuffer();
+                encoder.flush(buffer);
+            }
+            break;
+        }
+
+        if (str.isEmpty() || str.charAt(str.length() - 1) != '\n')
+            put(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+    }
+
+
+    /**
+     * 写入字节，直接缓冲区满时先写入文件
+     *
+     * @param bytes
+     * @param off
+     * @param len
+     */
+    private void put(byte[] bytes, int off, int len) {
+        while (len > 0) {
+            if (!buffer.hasRemaining())
+                flushBuffer();
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(bytes, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+
+    /**
+     * 取得消息时间对应的时间戳，同一秒内复用
+     *
+     * @param time
+     * @return
+     */
+    private byte[] timestamp(long time) {
+        long sec = Math.floorDiv(time, 1000L);
+        if (sec == second)
+            return stamp;
+
+        second = sec;
+        LocalDateTime dt = LocalDateTime.ofEpochSecond(sec, 0, zone.getRules().getOffset(Instant.ofEpochSecond(sec)));
+        digits(dt.getYear(), 0, 4);
+        stamp[4] = '-';
+        digits(dt.getMonthValue(), 5, 2);
+        stamp[7] = '-';
+        digits(dt.getDayOfMonth(), 8, 2);
+        stamp[10] = ' ';
+        digits(dt.getHour(), 11, 2);
+        stamp[13] = ':';
+        digits(dt.getMinute(), 14, 2);
+        stamp[16] = ':';
+        digits(dt.getSecond(), 17, 2);
+        stamp[19] = ' ';
+        return stamp;
+    }
+
+
+    private void digits(int value, int off, int len) {
+        for (int i = off + len - 1; i >= off; i--) {
+            stamp[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+
+    /**
+     * 消息的日期在当前文件之后时切换到新的文件
+     * 不同线程的消息时间可能略有先后，跨天时较早的消息仍写入新文件，不会切回旧文件
+     *
+     * @param time
+     */
+    private void rollover(long time) {
+        if (channel != null && time < dayEnd)
+            return;
+
+        LocalDate day = Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+        String now = day.toString();
+        if (channel != null && now.equals(date))
+            return;
+
+        flushBuffer();
+        closeFile();
+
+        date = now;
+        dayEnd = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        openFile();
+    }
+
+
+    /**
+     * 打开日志文件
+     * 相对路径相对于服务器根目录
+     */
+    private void openFile() {
+        File dir = new File(directory);
+
+        if (!dir.isAbsolute()) // 如果不是绝对路径
+            dir = new File(System.getProperty("user.dir"), directory);
+
+        dir.mkdirs(); // 不存在就创建
+
+        try {
+            File file = new File(dir, prefix + date + suffix);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            e.printStackTrace();
+            channel = null;
+        }
+    }
+
+
+    /**
+     * 关闭日志文件
+     */
+    private void closeFile() {
+        if (channel == null)
+            return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+        date = "";
+        dayEnd = 0L;
+    }
+
+
+    /**
+     * 把直接缓冲区中的内容写入文件
+     * 没有打开文件时丢弃
+     */
+    private void flushBuffer() {
+        if (buffer == null || buffer.position() == 0)
+            return;
+
+        buffer.flip();
+        try {
+            while (channel != null && buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeFile();
+        }
+        buffer.clear();
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public void setSuffix(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public boolean isTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(boolean timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 设置环形缓冲区容量，向上取整为2的幂，必须在放入第一条消息之前设置
+     *
+     * @param capacity
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = Math.max(2, capacity);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(1024, bufferSize);
+    }
+
+    public int getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(int overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * 设置溢出策略（以字符串的方式）
+     *
+     * @param overflowPolicy block、drop 或 dropBelowLevel
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        if ("block".equalsIgnoreCase(overflowPolicy)) {
+            setOverflowPolicy(OVERFLOW_BLOCK);
+        } else if ("drop".equalsIgnoreCase(overflowPolicy)) {
+            setOverflowPolicy(OVERFLOW_DROP);
+        } else if ("dropBelowLevel".equalsIgnoreCase(overflowPolicy)) {
+            setOverflowPolicy(OVERFLOW_DROP_BELOW_LEVEL);
+        }
+    }
+
+    public int getOverflowLevel() {
+        return overflowLevel;
+    }
+
+    public void setOverflowLevel(int overflowLevel) {
+        this.overflowLevel = overflowLevel;
+    }
+
+    public long getMaxParkTime() {
+        return maxParkTime;
+    }
+
+    public void setMaxParkTime(long maxParkTime) {
+        this.maxParkTime = Math.max(1L, maxParkTime);
+    }
+
+    /**
+     * @return 返回被丢弃、还没有记录到日志文件的消息数量
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -5,13 +5,14 @@ import com.ranni.lifecycle.Lifecycle;
 import com.ranni.lifecycle.LifecycleListener;
 import com.ranni.util.LifecycleSupport;
 
-import java.io.*;
-import java.sql.Timestamp;
-
 /**
  * Title: HttpServer
  * Description:
  * 将日志消息写入到日志文件中
+ * 调用线程只把消息放入AsyncFileWriter的环形缓冲区，格式化、按日期切换文件和写入
+ * 都由后台线程完成，停止时会先把缓冲区中的消息写完
+ *
+ * @see AsyncFileWriter
  *
  * @Author 2Executioner
  * @Email 1205878539@qq.com
@@ -19,12 +20,7 @@ import java.sql.Timestamp;
  */
 public class FileLogger extends LoggerBase implements Lifecycle {
     private boolean started; //  启动标志位
-    private String directory = "logs"; // 日志文件的文件夹
-    private String prefix = "ranni."; // 日志文件前缀
-    private String suffix = ".log"; // 日志文件后缀
-    private String date = ""; // 日期
-    private PrintWriter writer; // 写入流
-    private boolean timestamp; // 是否记录时间戳
+    private final AsyncFileWriter writer = new AsyncFileWriter(); // 异步写入器
 
     protected LifecycleSupport lifecycle = new LifecycleSupport(this); // 生命周期管理实例
 
@@ -36,24 +32,31 @@ public class FileLogger extends LoggerBase implements Lifecycle {
      */
     @Override
     public void log(String msg) {
-        String strTime = new Timestamp(System.currentTimeMillis()).toString().substring(0, 19);
-        String now = strTime.substring(0, 10);
-
-        if (!date.equals(now)) {
-            synchronized (this) {
-                close();
-                date = now;
-                open();
-            }
-        }
-
-        if (writer != null) {
-            if (timestamp) {
-                writer.print(strTime + " " + msg);
-            } else {
-                writer.print(msg);
-            }
-        }
+        writer.publish(msg, System.currentTimeMillis(), INFORMATION);
+    }
+
+    /**
+     * 将信息和异常写入日志文件，级别为ERROR
+     *
+     * @param msg
+     * @param throwable
+     */
+    @Override
+    public void log(String msg, Throwable throwable) {
+        writer.publish(format(msg, throwable), System.currentTimeMillis(), ERROR);
+    }
+
+    /**
+     * 将信息和级别写入日志
+     * 如果设置的级别比传入的日志级别高，那就将信息写入日志
+     *
+     * @param msg
+     * @param verbosity
+     */
+    @Override
+    public void log(String msg, int verbosity) {
+        if (this.verbosity >= verbosity)
+            writer.publish(msg, System.currentTimeMillis(), verbosity);
     }
 
     /**
@@ -61,7 +64,57 @@ public class FileLogger extends LoggerBase implements Lifecycle {
      * @param timestamp
      */
     public void setTimestamp(boolean timestamp) {
-        this.timestamp = timestamp;
+        writer.setTimestamp(timestamp);
+    }
+
+    /**
+     * 设置日志文件的文件夹，相对路径相对于服务器根目录
+     * @param directory
+     */
+    public void setDirectory(String directory) {
+        writer.setDirectory(directory);
+    }
+
+    /**
+     * 设置日志文件前缀
+     * @param prefix
+     */
+    public void setPrefix(String prefix) {
+        writer.setPrefix(prefix);
+    }
+
+    /**
+     * 设置日志文件后缀
+     * @param suffix
+     */
+    public void setSuffix(String suffix) {
+        writer.setSuffix(suffix);
+    }
+
+    /**
+     * 设置缓冲区可以容纳的消息数量
+     * @param capacity
+     */
+    public void setCapacity(int capacity) {
+        writer.setCapacity(capacity);
+    }
+
+    /**
+     * 设置缓冲区满时的溢出策略
+     * @see AsyncFileWriter#setOverflowPolicy(String)
+     *
+     * @param overflowPolicy block、drop 或 dropBelowLevel
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        writer.setOverflowPolicy(overflowPolicy);
+    }
+
+    /**
+     * 设置溢出策略为dropBelowLevel时不会被丢弃的最低级别
+     * @param overflowLevel
+     */
+    public void setOverflowLevel(int overflowLevel) {
+        writer.setOverflowLevel(overflowLevel);
     }
 
     /**
@@ -109,6 +162,7 @@ public class FileLogger extends LoggerBase implements Lifecycle {
     public void start() throws LifecycleException {
         if (started) throw new LifecycleException("此FileLogger实例已经启动！");
         lifecycle.fireLifecycleEvent(Lifecycle.START_EVENT, null);
+        writer.start();
         started = true;
     }
 
@@ -122,38 +176,6 @@ public class FileLogger extends LoggerBase implements Lifecycle {
         if (!started) throw new LifecycleException("此FileLogger实例已经停止！");
         lifecycle.fireLifecycleEvent(Lifecycle.STOP_EVENT, null);
         started = false;
-        close();
-    }
-
-    /**
-     * 打开日志文件
-     * 应该在服务器文件根目录下的log文件夹中打开
-     */
-    private void open() {
-        File dir = new File(directory);
-
-        if (!dir.isAbsolute()) // 如果不是绝对路径
-            dir = new File(System.getProperty("user.dir"), directory);
-
-        dir.mkdir(); // 不存在就创建
-
-        try {
-            String filepath = dir.getAbsolutePath() + File.separator + prefix + date + suffix;
-            writer = new PrintWriter(new FileWriter(dir), true);
-        } catch (IOException e) {
-            e.printStackTrace();
-            writer = null;
-        }
-    }
-
-    /**
-     * 关闭文件输出流
-     */
-    private void close() {
-        if (writer == null) return;
-        writer.flush();
-        writer.close();
-        writer = null;
-        date = "";
+        writer.stop();
     }
 }
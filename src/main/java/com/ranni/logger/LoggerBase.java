@@ -156,6 +156,17 @@ public abstract class LoggerBase implements Logger {
      */
     @Override
     public void log(String msg, Throwable throwable) {
+        log(format(msg, throwable));
+    }
+
+    /**
+     * 把信息和异常的堆栈拼接成一条日志
+     *
+     * @param msg
+     * @param throwable
+     * @return
+     */
+    protected String format(String msg, Throwable throwable) {
         CharArrayWriter buf = new CharArrayWriter();
         PrintWriter writer = new PrintWriter(buf);
         writer.println(msg);
@@ -169,7 +180,8 @@ public abstract class LoggerBase implements Logger {
             writer.println("----- Root Cause -----");
             rootCause.printStackTrace(writer);
         }
-        log(buf.toString());
+        writer.flush();
+        return buf.toString();
     }
 
     /**
@@ -749,6 +749,14 @@ public class FileDirContext extends BaseDirContext {
         public URI getURI() {
             return file.toURI();
         }
+
+
+        /**
+         * @return 返回资源对应的文件
+         */
+        public File getFile() {
+            return file;
+        }
         
 
         /**
@@ -296,7 +296,7 @@ public class ProxyDirContext implements DirContext {
                 int pos = 0;
                 byte[] b = new byte[length];
                 while (pos < length) {
-                    int read = is.read(b);
+                    int read = is.read(b, pos, length - pos);
                     if (read < 0) break;
                     pos += read;
                 }
@@ -66,7 +66,7 @@ public class Resource {
      * @param binaryContext
      */
     public void setContext(byte[] binaryContext) {
-        this.binaryContent = binaryContent;
+        this.binaryContent = binaryContext;
     }
 
     /**
@@ -43,6 +43,7 @@ public class ResourceAttributes implements Attributes {
     protected Date creationDate; // 创建日期
     protected boolean collection; // 集合标志位
     protected String name;
+    protected String etag; // 实体标签
 
     // 要转换的日期格式
     protected static final SimpleDateFormat formats[] = {
@@ -455,4 +456,47 @@ public class ResourceAttributes implements Attributes {
         if (attributes == null)
             attributes.put(LAST_MODIFIED, date);
     }
+
+
+    /**
+     * 返回资源的实体标签（ETag）
+     * 如果没有设置过强ETag，则用内容长度和最后修改时间生成一个弱ETag
+     *
+     * @return
+     */
+    public String getETag() {
+        if (etag != null)
+            return etag;
+
+        if (attributes != null) {
+            Attribute attribute = attributes.get(ETAG);
+            if (attribute != null) {
+                try {
+                    etag = attribute.get().toString();
+                } catch (NamingException e) {
+                    ;
+                }
+            }
+        }
+
+        if (etag == null) {
+            long contentLength = getContentLength();
+            long lastModified = getLastModified();
+            if (contentLength >= 0 || lastModified >= 0)
+                etag = "W/\"" + contentLength + "-" + lastModified + "\"";
+        }
+
+        return etag;
+    }
+
+    /**
+     * 设置实体标签
+     *
+     * @param etag
+     */
+    public void setETag(String etag) {
+        this.etag = etag;
+        if (attributes != null)
+            attributes.put(ETAG, etag);
+    }
 }
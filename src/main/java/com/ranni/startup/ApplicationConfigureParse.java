@@ -102,6 +102,7 @@ public class ApplicationConfigureParse extends ConfigureParseBase {
             context.setDocBase(docBase);
             context.setPath("/" + docBase);
             context.setReloadable(applicationConfigure.isReloadable());
+            context.setStartupOrder(applicationConfigure.getStartupOrder());
             context.setBackgroundProcessorDelay(applicationConfigure.getBackgroundProcessorDelay());
             WebappLoader webappLoader = new WebappLoader();
             webappLoader.setClassesPath(prefix);
@@ -7,6 +7,7 @@ import com.ranni.connector.Mapper;
 import com.ranni.container.Container;
 import com.ranni.container.Context;
 import com.ranni.container.Engine;
+import com.ranni.container.Wrapper;
 import com.ranni.container.context.StandardContext;
 import com.ranni.container.scope.ApplicationContext;
 import com.ranni.container.wrapper.StandardWrapper;
@@ -15,19 +16,18 @@ import com.ranni.deploy.FilterMap;
 import com.ranni.lifecycle.Lifecycle;
 import com.ranni.lifecycle.LifecycleEvent;
 import com.ranni.lifecycle.LifecycleListener;
+import com.ranni.loader.Loader;
 import com.ranni.logger.Logger;
-import com.ranni.naming.FileDirContext;
+import com.ranni.util.scan.AnnotationScanner;
 
-import javax.naming.Binding;
-import javax.naming.NameClassPair;
-import javax.naming.NamingEnumeration;
-import javax.naming.NamingException;
-import javax.naming.directory.DirContext;
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.annotation.MultipartConfig;
+import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 
 /**
  * Title: HttpServer
@@ -38,6 +38,9 @@ import java.util.Queue;
  * @Date 2022/5/6 15:47
  */
 public class ContextConfig implements LifecycleListener {    
+    private static final int DEFAULT_FILE_SIZE_THRESHOLD = 64 * 1024; // controller默认的part内存阈值
+    private static final String CONTROLLER_INDEX = "controllers.idx"; // controller索引文件名
+
     private Context context; // 关联的Context容器
     private int debug = Logger.INFORMATION; // 日志输出级别
     private boolean ok; // 是否配置成功标志位
@@ -197,46 +200,36 @@ public class ContextConfig implements LifecycleListener {
 
     /**
      * 扫描controller
-     * XXX - 这是个极其耗时长的工作
+     * 直接读取类目录和JAR包中的类文件找出有@Controller注解的类，只有这些类会被加载，
+     * 扫描结果保存在工作目录的索引文件中，类文件和JAR包都没有变化时下次启动不再扫描
      * 
      * @param paths
      */
     private void scanController(String[] paths) {
-        DirContext resources = context.getResources();
+        Loader loader = context.getLoader();
+        File workDir = (File) context.getServletContext().getAttribute(Globals.WORK_DIR_ATTR);
+        File classesDir = realDirectory(loader.getClassesPath(), workDir);
+        File libDir = realDirectory(loader.getLibPath(), workDir);
+        File[] jars = libDir == null ? null : libDir.listFiles((dir, name) -> name.endsWith(".jar"));
+        File indexFile = workDir == null ? null : new File(workDir, CONTROLLER_INDEX);
+
+        List<String> controllers = null;
+        try {
+            controllers = new AnnotationScanner(Controller.class).scan(paths, classesDir, jars, indexFile);
+        } catch (IOException e) {
+            ok = false;
+            log("ContextConfig.scanController  扫描controller失败", e);
+            return;
+        }
 
-        for (String path : paths) {
-            try {
-                NamingEnumeration<NameClassPair> it = resources.list(context.getLoader().getClassesPath() + "\\" + path.replaceAll("\\.", "\\\\"));
-                Queue<NamingEnumeration<NameClassPair>> queue = new LinkedList<>();
-                Queue<String> segments = new LinkedList<>();
-                queue.offer(it);
-                segments.offer("."); // 上一段包名
-                
-                while (!queue.isEmpty()) {
-                    it = queue.poll();
-                    String segment = segments.poll();
-                    while (it.hasMore()) {
-                        Binding binding = (Binding) it.nextElement(); // FIXME - webapp打成jar包的情况没做处理
-                        if (binding.getObject() instanceof FileDirContext) {
-                            queue.offer(resources.list(((FileDirContext) binding.getObject()).getDocBase()));
-                            segments.offer(segment + '.' + binding.getName() + '.');
-                        } else {
-                            try {
-                                // 添加到容器中
-                                String controllerName = binding.getName().substring(0, binding.getName().length() - 6);
-                                addController(path + segment + controllerName);
-                                
-                            } catch (Exception e) {
-                                ok = false;
-                                e.printStackTrace();
-                                return;
-                            }
-                        }
-                    }
-                }
-                
+        if (debug >= Logger.INFORMATION)
+            log("扫描到" + controllers.size() + "个controller");
 
-            } catch (NamingException e) {
+        for (String controller : controllers) {
+            try {
+                // 添加到容器中
+                addController(controller);
+            } catch (Exception e) {
                 ok = false;
                 e.printStackTrace();
                 return;
@@ -245,6 +238,26 @@ public class ContextConfig implements LifecycleListener {
     }
 
 
+    /**
+     * 取得webapp中的目录在文件系统上的位置
+     * 与WebappLoader一致，没有真实路径（如WAR包）时为WebappLoader拷贝到工作目录中的位置
+     *
+     * @param path
+     * @param workDir
+     * @return 目录不存在返回null
+     */
+    private File realDirectory(String path, File workDir) {
+        String realPath = context.getServletContext().getRealPath(path);
+        File dir = null;
+        if (realPath != null)
+            dir = new File(realPath);
+        else if (workDir != null)
+            dir = new File(workDir, path);
+
+        return dir != null && dir.isDirectory() ? dir : null;
+    }
+
+
     /**
      * 添加这个controller类到全局上下文作用域中
      * 创建一个对应的模板servlet实例
@@ -273,12 +286,15 @@ public class ContextConfig implements LifecycleListener {
         }
 
         Container child = context.findChild(controller);
+        Engine engine = (Engine) context.getParent().getParent();
+        Mapper mapper = engine.getService().getMapper();
 
         // 进入到这里说明子容器也已经都启动了
         if (child != null) {
             if (child instanceof Lifecycle)
                 ((Lifecycle) child).stop();
 
+            mapper.removeWrapper((Wrapper) child);
             context.removeChild(child);
         }
         
@@ -289,13 +305,46 @@ public class ContextConfig implements LifecycleListener {
         standardWrapper = new StandardWrapper();
         standardWrapper.setServletClass(servletBaseClass);
         standardWrapper.setName(controller);
-        standardWrapper.setPath(annotation.value());
+        standardWrapper.setPath(toWildcardPath(annotation.value()));
+        standardWrapper.setMultipartConfigElement(getMultipartConfig(aClass));
         context.addServletMapping(annotation.value(), controller); // XXX - 需要移除此方法
         context.addChild(standardWrapper);
-        Engine engine = (Engine) context.getParent().getParent();
-        Mapper mapper = engine.getService().getMapper();
         mapper.addWrapper(standardWrapper);
     }
+
+
+    /**
+     * 取得controller的Multipart配置，controller上有@MultipartConfig注解就按注解配置，
+     * 否则小于默认阈值的part保存在内存中，大小不做额外限制（仍受连接器的maxPostSize限制）
+     *
+     * @param aClass controller类
+     * @return 返回Multipart配置
+     */
+    private MultipartConfigElement getMultipartConfig(Class<?> aClass) {
+        MultipartConfig multipartConfig = aClass.getDeclaredAnnotation(MultipartConfig.class);
+        if (multipartConfig != null)
+            return new MultipartConfigElement(multipartConfig);
+
+        return new MultipartConfigElement("", -1L, -1L, DEFAULT_FILE_SIZE_THRESHOLD);
+    }
+
+
+    /**
+     * controller下的所有方法都由同一个wrapper处理，
+     * 所以controller的路径要作为前缀匹配的路径（/xxx/*）注册到Mapper中
+     * 
+     * @param path controller注解上的路径
+     * @return 返回前缀匹配的路径
+     */
+    private String toWildcardPath(String path) {
+        if (path == null || path.isEmpty() || "/".equals(path))
+            return "/*";
+        if (path.endsWith("/*"))
+            return path;
+        if (path.endsWith("/"))
+            return path + "*";
+        return path + "/*";
+    }
     
 
     /**
@@ -12,6 +12,7 @@ import com.ranni.deploy.ServerConfigure;
 import com.ranni.lifecycle.Lifecycle;
 import com.ranni.lifecycle.LifecycleException;
 import com.ranni.loader.AbstractClassLoader;
+import com.ranni.logger.Logger;
 import com.ranni.naming.FileDirContext;
 import com.ranni.naming.Resource;
 import com.ranni.naming.ResourceAttributes;
@@ -26,9 +27,8 @@ import java.net.URL;
 import java.security.CodeSigner;
 import java.security.CodeSource;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -50,11 +50,6 @@ public class StandardServerStartup implements ServerStartup {
      */
     private volatile static StandardServerStartup instance;
 
-    /**
-     * 扫描线程完成数
-     */
-    private static AtomicInteger finishCount = new AtomicInteger(0);
-
     /**
      * 扫描文件数
      */
@@ -110,7 +105,7 @@ public class StandardServerStartup implements ServerStartup {
     /**
      * 启动包装类集合
      */
-    protected List<BootstrapWrapper> bootstrapWrappers = new ArrayList<>();
+    protected List<BootstrapWrapper> bootstrapWrappers = new CopyOnWriteArrayList<>();
     
     /**
      * 等待超时时长 （秒）
@@ -387,9 +382,9 @@ public class StandardServerStartup implements ServerStartup {
 
 
     /**
-     * webapp启动类的扫描线程
+     * webapp启动类的扫描任务
      */
-    private class WebappBootstrapScan implements Runnable {
+    private class WebappBootstrapScan implements Supplier<BootstrapWrapper> {
         private File file;
 
         public WebappBootstrapScan(File file) {
@@ -397,11 +392,12 @@ public class StandardServerStartup implements ServerStartup {
         }
         
         @Override
-        public void run() {
+        public BootstrapWrapper get() {
             try {
-                scanBootstrap(file);
+                return scanBootstrap(file);
             } catch (IOException e) {
                 e.printStackTrace();
+                return null;
             }
         }
 
@@ -413,8 +409,9 @@ public class StandardServerStartup implements ServerStartup {
          * 往后就交给启动实例的代理类配置Context的参数并加入对应的Host容器。
          * 
          * @param file
+         * @return 返回找到的启动类的包装类，没有找到返回null
          */
-        private void scanBootstrap(File file) throws IOException {
+        private BootstrapWrapper scanBootstrap(File file) throws IOException {
             Queue<File> queue = new LinkedList<>();
             List<File> classFiles = new LinkedList<>();
             queue.offer(file);
@@ -441,50 +438,43 @@ public class StandardServerStartup implements ServerStartup {
                     String path = f.getCanonicalPath();
                     Class<?> aClass = loader.loadClass(path.substring(canonicalPath.length()));
                     
-                    if (aClass != null && aClass.getDeclaredAnnotation(WebBootstrap.class) != null) {                        
-                        bootstrapWrappers.add(new BootstrapWrapper(aClass));                      
-                        return;
+                    if (aClass != null && aClass.getDeclaredAnnotation(WebBootstrap.class) != null) {
+                        BootstrapWrapper wrapper = new BootstrapWrapper(aClass);
+                        bootstrapWrappers.add(wrapper);
+                        return wrapper;
                     }
                 } catch (ClassNotFoundException e) {
                     e.printStackTrace();
                 } 
             }
+            
+            return null;
         }
     }
 
 
     /**
      * 容器扫描
+     * 每个war包的解压、每个webapp的启动类扫描和启动类的启动都是一个异步任务，
+     * 一个webapp扫描完成后立即启动它的启动类，不用等待其它webapp
      */
-    class ContextScan implements Runnable {
+    class ContextScan {
 
         private Host host;
-        private Service service;
+        private Executor executor;
 
-        public ContextScan(Host host, Service service) {
+        public ContextScan(Host host, Executor executor) {
             this.host = host;
-            this.service = service;
-        }
-
-
-        /**
-         * 容器扫描
-         */
-        @Override
-        public void run() {
-            try {
-                scanContext();                
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            finishCount.incrementAndGet();
+            this.executor = executor;
         }
 
 
         /**
          * 扫描容器
+         * 
+         * @return 返回这个Host下所有webapp的启动任务
          */
-        private void scanContext() throws IOException {
+        public CompletableFuture<Void> scan() throws IOException {
             ServerConfigure serverConfigure = configureMap.getConfigure();
 
             Map<String, File> webapps = new HashMap<>();
@@ -495,7 +485,7 @@ public class StandardServerStartup implements ServerStartup {
             File repository = new File(path);
 
             if (!repository.exists())
-                return;
+                return CompletableFuture.completedFuture(null);
 
             if (!repository.isDirectory())
                 throw new FilerException("此路径应该是个目录！");
@@ -511,27 +501,88 @@ public class StandardServerStartup implements ServerStartup {
                 }
             }
 
-            // 删除不需要解压的war（未修改的war包就不需要解压）
-            Iterator<File> iterator = wars.iterator();
-            while (iterator.hasNext()) {
-                File file1 = iterator.next();
-                int end = file1.getName().length() - 4;
-                String name = file1.getName().substring(0, end);                
-                File file2 = webapps.get(name);                
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            
+            // 需要解压的war包（未修改的war包就不需要解压），解压完成后再扫描
+            for (File war : wars) {
+                int end = war.getName().length() - 4;
+                String name = war.getName().substring(0, end);                
+                File webapp = webapps.get(name);                
                 
-                if (file2 != null && file2.lastModified() >= file1.lastModified()) {
-                    // war包未修改
-                    iterator.remove();
-                } else {
-                    String absolutePath = file1.getAbsolutePath().substring(0, end);
-                    WARDecUtil.unzip(file1);
-                    webapps.put(name, new File(absolutePath));
-                }
+                if (webapp != null && webapp.lastModified() >= war.lastModified())
+                    continue; // war包未修改
+                
+                webapps.remove(name);
+                File dir = new File(war.getAbsolutePath().substring(0, war.getAbsolutePath().length() - 4));
+                futures.add(WARDecUtil.unzipAsync(war)
+                        .exceptionally(e -> {
+                            e.printStackTrace();
+                            return 0;
+                        })
+                        .thenCompose(v -> startWebapp(dir)));
             }
 
             // 扫描启动类
-            for (File file : webapps.values()) {
-                new WebappBootstrapScan(file).run();
+            for (File file : webapps.values())
+                futures.add(startWebapp(file));
+            
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+        }
+
+
+        /**
+         * 扫描webapp的启动类，找到后立即调用启动类的main方法
+         * 耗时从任务开始执行时算起，不包括在线程池中排队的时间。
+         * 上次启动失败的启动类不再启动
+         * 
+         * @param file webapp目录
+         * @return
+         */
+        private CompletableFuture<Void> startWebapp(File file) {
+            WebappBootstrapScan scan = new WebappBootstrapScan(file);
+            return CompletableFuture.runAsync(() -> {
+                long start = System.nanoTime();
+                BootstrapWrapper wrapper = scan.get();
+                if (wrapper == null)
+                    return;
+
+                String name = host.getName() + File.separator + file.getName();
+                if (wrapper.prevStatus == BootstrapStatus.FAIL) {
+                    log("StandardServerStartup  webapp[ " + name + " ]上次启动失败，跳过", null);
+                    return;
+                }
+
+                try {
+                    wrapper.startup();
+                } catch (Exception e) {
+                    wrapper.prevStatus = BootstrapStatus.FAIL;
+                    log("StandardServerStartup  webapp[ " + name + " ]启动失败！", e);
+                    return;
+                }
+
+                log("StandardServerStartup  webapp[ " + name + " ]扫描并启动耗时 "
+                        + (System.nanoTime() - start) / 1000000L + "ms", null);
+            }, executor);
+        }
+
+
+        /**
+         * 通过Host的日志记录器记录日志，没有日志记录器时输出到标准输出
+         *
+         * @param message
+         * @param throwable 可以为null
+         */
+        private void log(String message, Throwable throwable) {
+            Logger logger = host.getLogger();
+            if (logger != null) {
+                if (throwable == null)
+                    logger.log(message);
+                else
+                    logger.log(message, throwable);
+            } else {
+                System.out.println(message);
+                if (throwable != null)
+                    throwable.printStackTrace();
             }
         }
     }
@@ -728,7 +779,6 @@ public class StandardServerStartup implements ServerStartup {
      */
     @Override
     public void recycle() {
-        finishCount.set(0);
         scanFiles.clear();
         this.started = false;
         this.configureMap = null;
@@ -811,56 +861,36 @@ public class StandardServerStartup implements ServerStartup {
         }
         
         if (startingMode == StartingMode.SERVER) {
-            // 多线程扫描context容器
+            // 各个Host并行扫描context容器，扫描到的启动类立即启动
+            Executor executor = engine.getService()::execute;
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
             for (Container host : engine.findChildren()) {
-                engine.getService().execute(new ContextScan((Host) host, engine.getService()));
+                try {
+                    futures.add(new ContextScan((Host) host, executor).scan());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
 
+            CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
             long end = getAwaitTime();
-            if (finishCount.get() != engine.findChildren().length) { // 这个比较不存在并发问题
-                try {
-                    if (end > 0) {
-                        int i = 0;
-                        for (; i < end; i++) {
-                            if (finishCount.get() == engine.findChildren().length) {
-                                break;
-                            }
-
-                            Thread.sleep(1000);
-                        }
-                        if (i >= end) {
-                            throw new TimeoutException("StandardServerStartup.initialize 容器扫描超时！");
-                        }
-
-                    } else {
-                        while (finishCount.get() != engine.findChildren().length) {
-                            Thread.sleep(1000);
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    ;
+            try {
+                if (end > 0) {
+                    all.get(end, TimeUnit.SECONDS);
+                } else {
+                    all.get();
                 }
+            } catch (TimeoutException e) {
+                throw new TimeoutException("StandardServerStartup.initialize 容器扫描超时！");
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
         
         // 到这里服务端初始化完成
         initialized = true;
-        
-        if (startingMode == StartingMode.SERVER) {
-            // 通过服务器启动
-            for (BootstrapWrapper wrapper : bootstrapWrappers) {
-                if (wrapper.prevStatus == BootstrapStatus.FAIL) {
-                   continue; 
-                }
-                
-                try {
-                    wrapper.startup();
-                } catch (Exception e) {
-                    wrapper.prevStatus = BootstrapStatus.FAIL;
-                    e.printStackTrace();
-                }
-            }
-        }
     }
 
 
@@ -135,17 +135,7 @@ public final class WebApplication {
                     configure.setWorkDir(path);
                 }
                 
-                Context context = fitApplicationConfigure(clazz, serverStartup.getServer(), configure);
-
-                // 加入到服务器中
-                Engine engine = serverStartup.getEngine();
-                Host host = (Host) engine.findChild(configure.getHost());
-                engine.setDefaultHost(host.getName()); // 设置默认主机
-
-                // 设置host
-                Mapper mapper = engine.getService().getMapper();
-                mapper.addHost(host, new String[0]);
-                mapper.addContext(context, null);
+                fitApplicationConfigure(clazz, serverStartup.getServer(), configure);
 
             } catch (Exception e) {
                 e.printStackTrace();
@@ -153,7 +143,8 @@ public final class WebApplication {
             }
             
             // 启动服务器（如果服务器没有启动的话）
-            if (!serverStartup.getStarted()) {
+            // 服务器启动方式下由服务器在扫描完所有webapp后统一启动
+            if (serverStartup.getStartingMode() != StartingMode.SERVER && !serverStartup.getStarted()) {
                 try {
                     serverStartup.startup();
                 } catch (Exception e) {
@@ -174,7 +165,7 @@ public final class WebApplication {
     }
 
     
-    private static Context fitApplicationConfigure(Class webappBootstrapClazz, Server server, ApplicationConfigure configure) {
+    private static synchronized Context fitApplicationConfigure(Class webappBootstrapClazz, Server server, ApplicationConfigure configure) {
         URL url = webappBootstrapClazz.getResource("");
         StandardContext context = null;
         Connector connector = null;
@@ -190,8 +181,9 @@ public final class WebApplication {
             Service service = services[services.length - 1];
             Engine engine = service.getContainer();
             Host host = (Host) engine.findChild(configure.getHost());
-            Mapper mapper = new Mapper();
-            service.setMapper(mapper);
+            // 多个webapp共用一个映射器
+            if (service.getMapper() == null)
+                service.setMapper(new Mapper());
 
             // 如果没有host，就新建一个
             if (host == null) {
@@ -208,6 +200,7 @@ public final class WebApplication {
             context.setDocBase(docBase);
             context.setPath(path);
             context.setReloadable(configure.isReloadable());
+            context.setStartupOrder(configure.getStartupOrder());
             context.setBackgroundProcessorDelay(configure.getBackgroundProcessorDelay());
 
             WebappLoader webappLoader = new WebappLoader();
@@ -229,6 +222,14 @@ public final class WebApplication {
                 service = server.findService(serviceName);
                 service.addConnector(connector);
             }
+
+            // 加入到服务器中，映射也在同步方法中注册，多个webapp并发启动时不会丢失映射
+            engine = serverStartup.getEngine();
+            engine.setDefaultHost(host.getName()); // 设置默认主机
+
+            Mapper mapper = engine.getService().getMapper();
+            mapper.addHost(host, new String[0]);
+            mapper.addContext(context, null);
         }
         
         return context;
@@ -21,7 +21,7 @@ import javax.servlet.ServletResponse;
  */
 public final class InstanceSupport {
 
-    private InstanceListener listeners[] = new InstanceListener[0];
+    private volatile InstanceListener listeners[] = new InstanceListener[0];
     private Wrapper wrapper = null;
 
 
@@ -38,6 +38,14 @@ public final class InstanceSupport {
     }
 
 
+    /**
+     * @return 如果注册了实例监听器返回<b>true</b>
+     */
+    public boolean hasListeners() {
+        return listeners.length > 0;
+    }
+
+
     public void addInstanceListener(InstanceListener listener) {
 
         synchronized (listeners) {
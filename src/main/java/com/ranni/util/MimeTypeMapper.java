@@ -0,0 +1,69 @@
+package com.ranni.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 根据文件扩展名取得对应的MIME类型，默认的映射表在
+ * MimeTypeMapperDefault.properties中
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2022-07-20 10:12
+ */
+public class MimeTypeMapper {
+    public static final String DEFAULT_RESOURCE = "/com/ranni/util/MimeTypeMapperDefault.properties";
+
+    private Properties map = new Properties();
+
+    public MimeTypeMapper() {
+        this(DEFAULT_RESOURCE);
+    }
+
+    public MimeTypeMapper(String path) {
+        try (InputStream input = this.getClass().getResourceAsStream(path)) {
+            map.load(input);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 取得文件对应的MIME类型
+     *
+     * @param file 文件名或文件路径
+     * @return 返回MIME类型，如果没有对应的映射则返回null
+     */
+    public String getMimeType(String file) {
+        if (file == null)
+            return null;
+
+        int period = file.lastIndexOf('.');
+        if (period < 0 || file.indexOf('/', period) >= 0)
+            return null;
+
+        String extension = file.substring(period + 1);
+        if (extension.isEmpty())
+            return null;
+
+        String mimeType = map.getProperty(extension);
+        if (mimeType != null)
+            return mimeType;
+
+        return map.getProperty(extension.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * 添加一条扩展名和MIME类型的映射
+     *
+     * @param extension 扩展名
+     * @param mimeType MIME类型
+     */
+    public void addMimeType(String extension, String mimeType) {
+        map.setProperty(extension, mimeType);
+    }
+}
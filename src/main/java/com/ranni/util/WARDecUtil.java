@@ -1,13 +1,21 @@
 package com.ranni.util;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.List;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -15,25 +23,33 @@ import java.util.zip.ZipFile;
  * Title: HttpServer
  * Description:
  * war包解压工具
- * 
+ * 1、先读取中央目录，把条目按大小分成多个解压任务，大条目单独一个任务，小条目凑够BATCH_SIZE字节一个任务，
+ *    所有任务在有界的线程池中并行执行，所有任务完成时返回的CompletableFuture完成
+ * 2、用FileChannel和每个线程一个的大缓冲区写文件，先写入同一目录下的临时文件，写完再原子地替换目标文件，
+ *    正在运行的webapp不会读到写了一半的文件
+ * 3、重新部署时，大小和CRC与中央目录中记录的都相同的文件不再重写
+ *
  * @Author 2Executioner
  * @Email 1205878539@qq.com
  * @Date 2022/5/14 17:02
  */
 public final class WARDecUtil {
     private static final int MAX_THREAD = 8; // 最大线程数
+    private static final int BUFFER_SIZE = 256 * 1024; // 每个线程读写用的缓冲区大小，256KB
+    private static final long BATCH_SIZE = 1024 * 1024; // 一个解压任务至少处理的字节数，1MB
     private volatile static WARDecUtil warDecUtil; // WARDecUtil的实例
-    private volatile static AtomicInteger count; // 原子整型，最多只有一个此实例，多个WARDecUtil实例访问的是同一个atomicInteger
-    private AtomicInteger finishCount = new AtomicInteger(0); // 完成线程数量计数
+    private volatile static AtomicInteger count; // 解压完成的压缩文件数，最多只有一个此实例，多个WARDecUtil实例访问的是同一个atomicInteger
+    private volatile static ThreadPoolExecutor executor; // 默认的解压线程池
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE)); // 读写缓冲区
     private ConcurrentLinkedDeque<File> files; // 需要解压的压缩文件
 
     private WARDecUtil() {}
-    
-    
+
+
     /**
      * 获取单例的WARDecUtil实例
      * 调用此方法，会重置值
-     * 
+     *
      * @return
      */
     public static WARDecUtil getInstance() {
@@ -47,7 +63,7 @@ public final class WARDecUtil {
         } else {
             warDecUtil.recycleAll();
         }
-        
+
         return warDecUtil;
     }
 
@@ -57,8 +73,7 @@ public final class WARDecUtil {
      */
     public void recycleAll() {
         count.set(0);
-        finishCount.set(0);
-        files.clear();
+        recycle();
     }
 
 
@@ -66,14 +81,15 @@ public final class WARDecUtil {
      * 仅仅初始化一个实例内的变量
      */
     public void recycle() {
-        finishCount.set(0);
-        files.clear();
+        if (files != null)
+            files.clear();
     }
 
 
     /**
-     * 返回计数结果
-     * 
+     * 返回解压成功的压缩文件数
+     * 后台解压时，只有{@link #unzip(ConcurrentLinkedDeque, boolean)}返回的任务完成之后才是最终结果
+     *
      * @return
      */
     public int getCount() {
@@ -81,133 +97,292 @@ public final class WARDecUtil {
             return count.get();
         }
     }
-    
+
 
     /**
-     * 解压任务内部类
+     * 返回默认的解压线程池
+     * 由于解压文件并不是一直都要进行的工作，所以线程空闲一段时间后就会销毁
+     *
+     * @return
      */
-    private static class UnzipTask implements Runnable {
-        private WARDecUtil warDecUtil;
-
-        public UnzipTask(WARDecUtil warDecUtil) {
-            this.warDecUtil = warDecUtil;
-        }
-
-        @Override
-        public void run() {
-            while (!warDecUtil.files.isEmpty()) {
-                try {
-                    unzip(warDecUtil.files.pop());
-                    
-                    // 统计
-                    count.incrementAndGet();
-                } catch (NoSuchElementException e) {
-                    // 抛出此异常是多线程的竞争，但是并无需加锁，直接跳出循环即可
-                    break;
+    private static Executor getExecutor() {
+        if (executor == null) {
+            synchronized (WARDecUtil.class) {
+                if (executor == null) {
+                    AtomicInteger threadCount = new AtomicInteger();
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREAD, MAX_THREAD, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), r -> {
+                                Thread thread = new Thread(r, "WARDecUtil-" + threadCount.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
                 }
             }
-
-            warDecUtil.finishCount.incrementAndGet();
         }
+
+        return executor;
     }
-    
+
 
     /**
-     * 正式解压压缩文件
+     * 正式解压压缩文件，解压完成后才返回
      * 注意，重新解压的压缩文件会覆盖原来的内容
      * 但是，压缩文件中如果有文件被删除了，之前提取出来了的被删除的文件还是会存在于文件夹中
+     * 不要在解压线程池的线程中调用此方法
      *
      * @param file
      */
     public static void unzip(File file) {
-        ZipFile zipFile = null;
+        try {
+            unzipAsync(file).join();
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
 
+
+    /**
+     * 在默认的解压线程池中解压压缩文件
+     *
+     * @param file
+     * @return 返回解压任务，结果为实际写入的文件数
+     */
+    public static CompletableFuture<Integer> unzipAsync(File file) {
+        return unzipAsync(file, getExecutor());
+    }
+
+
+    /**
+     * 解压压缩文件
+     * 读取中央目录和创建目录在调用线程中完成，文件内容的解压由executor并行执行
+     *
+     * @param file
+     * @param executor 执行解压任务的线程池
+     * @return 返回解压任务，结果为实际写入的文件数
+     */
+    public static CompletableFuture<Integer> unzipAsync(File file, Executor executor) {
         if (file.isDirectory() || !file.canRead())
-            return;
+            return CompletableFuture.completedFuture(0);
 
+        ZipFile zipFile;
         try {
             zipFile = new ZipFile(file);
-        } catch (Exception e) {
-            return;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
 
         String absolutePath = file.getAbsolutePath();
-        String base = absolutePath.substring(0, absolutePath.lastIndexOf(".")) + File.separator;
-
-        Enumeration<? extends ZipEntry> entries = zipFile.entries();
-        while (entries.hasMoreElements()) {
-            ZipEntry zipEntry = entries.nextElement();
-            File target = new File(base + zipEntry.getName());
-
-            if (!zipEntry.isDirectory()) {
-                if (!target.exists()) {
-                    try {
-                        target.createNewFile();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+        Path base = new File(absolutePath.substring(0, absolutePath.lastIndexOf("."))).toPath().normalize();
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        try {
+            List<ZipEntry> batch = new ArrayList<>();
+            long batchSize = 0;
+
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                Path target = base.resolve(zipEntry.getName()).normalize();
+
+                // 不允许解压到war包目录的外面
+                if (!target.startsWith(base))
+                    throw new IOException("非法的压缩条目！" + zipEntry.getName());
+
+                if (zipEntry.isDirectory()) {
+                    target.toFile().mkdirs();
+                    continue;
+                }
+
+                long size = Math.max(zipEntry.getSize(), 0);
+                if (size >= BATCH_SIZE) {
+                    futures.add(submit(zipFile, base, List.of(zipEntry), executor));
+                } else {
+                    batch.add(zipEntry);
+                    batchSize += size;
+                    if (batchSize >= BATCH_SIZE) {
+                        futures.add(submit(zipFile, base, batch, executor));
+                        batch = new ArrayList<>();
+                        batchSize = 0;
                     }
                 }
+            }
 
-                // 拷贝文件内容
-                try (InputStream is = zipFile.getInputStream(zipEntry);
-                     FileOutputStream fos = new FileOutputStream(target)) {
+            if (!batch.isEmpty())
+                futures.add(submit(zipFile, base, batch, executor));
 
-                    byte[] buffer = new byte[1024 * 10]; // 10MB的读取
-                    int len = -1;
-                    while ((len = is.read(buffer, 0, buffer.length)) != -1) {
-                        fos.write(buffer, 0, len);
-                    }
-                    fos.flush();
-                } catch (IOException e) {
-                    e.printStackTrace();
+        } catch (IOException | RuntimeException e) {
+            // 已经提交的任务结束后再关闭压缩文件
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .whenComplete((v, t) -> close(zipFile));
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .whenComplete((v, t) -> close(zipFile))
+                .thenApply(v -> {
+                    int written = 0;
+                    for (CompletableFuture<Integer> future : futures)
+                        written += future.join();
+                    return written;
+                });
+    }
+
+
+    /**
+     * 提交一个解压任务
+     *
+     * @param zipFile
+     * @param base 解压目录
+     * @param entries 要解压的条目
+     * @param executor
+     * @return 返回解压任务，结果为实际写入的文件数
+     */
+    private static CompletableFuture<Integer> submit(ZipFile zipFile, Path base, List<ZipEntry> entries, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            int written = 0;
+            try {
+                for (ZipEntry zipEntry : entries) {
+                    if (extract(zipFile, zipEntry, base.resolve(zipEntry.getName()).normalize()))
+                        written++;
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return written;
+        }, executor);
+    }
+
+
+    /**
+     * 解压一个条目
+     *
+     * @param zipFile
+     * @param zipEntry
+     * @param target 目标文件
+     * @return 返回是否写入了文件，文件没有变化返回<b>false</b>
+     * @throws IOException
+     */
+    private static boolean extract(ZipFile zipFile, ZipEntry zipEntry, Path target) throws IOException {
+        File file = target.toFile();
+        ByteBuffer buffer = buffers.get();
+
+        // 大小和CRC都相同，说明文件没有变化
+        if (file.isFile() && zipEntry.getSize() == file.length() && zipEntry.getCrc() != -1
+                && crc(target, buffer) == zipEntry.getCrc()) {
+            return false;
+        }
+
+        Path parent = target.getParent();
+        Files.createDirectories(parent);
+
+        // 先写入同一目录下的临时文件，保证能原子地替换目标文件。一个条目只由一个线程解压，临时文件名带上线程id
+        Path temp = parent.resolve("." + target.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            try (InputStream is = zipFile.getInputStream(zipEntry);
+                 FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                byte[] array = buffer.array();
+                int len;
+                while ((len = is.readNBytes(array, 0, array.length)) > 0) {
+                    buffer.clear().limit(len);
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
                 }
+            }
+
+            if (zipEntry.getTime() != -1)
+                temp.toFile().setLastModified(zipEntry.getTime());
 
-            } else {
-                target.mkdirs();
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
             }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
         }
+
+        return true;
     }
-    
+
+
+    /**
+     * 计算文件的CRC32
+     *
+     * @param path
+     * @param buffer
+     * @return
+     * @throws IOException
+     */
+    private static long crc(Path path, ByteBuffer buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+
+    /**
+     * 关闭压缩文件
+     *
+     * @param zipFile
+     */
+    private static void close(ZipFile zipFile) {
+        try {
+            zipFile.close();
+        } catch (IOException e) {
+            ;
+        }
+    }
+
 
     /**
      * 解压压缩文件
-     * 由于解压文件并不是一直都要进行的工作，所以创建的线程需要在用完之后就销毁
-     * 
-     * @param files 
-     * @param background 是否开启后台线程解压，如果开启，会创建新的WARDecUtil实例并新开启一个线程进行解压工作
+     * 后台解压时{@link #getCount()}在任务完成之前还在增长，需要结果时等待返回的任务
+     *
+     * @param files
+     * @param background 是否在后台解压，如果是，提交解压任务后立即返回
+     * @return 返回所有压缩文件都处理完时完成的任务，结果为此次解压成功的压缩文件数，不会异常完成
      */
-    public void unzip(ConcurrentLinkedDeque<File> files, boolean background) {
-        
-        if (background) {
-                       
-            new Thread(new Runnable() {
-                
-                @Override
-                public void run() {
-                    WARDecUtil warDecUtil = new WARDecUtil();
-                    warDecUtil.unzip(files, false);
-                }
-                
-            }).start();            
-            
-        } else {
-            
-            this.files = files;
-            int number = Math.min(files.size() / MAX_THREAD, MAX_THREAD);
-
-            for (int i = 0; i < number; i++)
-                new Thread(new UnzipTask(this)).start();
-            
-            while (finishCount.get() < number) {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
+    public CompletableFuture<Integer> unzip(ConcurrentLinkedDeque<File> files, boolean background) {
+        this.files = files;
+
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        File file;
+        while ((file = files.poll()) != null) {
+            futures.add(unzipAsync(file).handle((written, e) -> {
+                if (e != null) {
                     e.printStackTrace();
+                    return false;
                 }
-            }
-
-            finishCount.set(0);                    
+                count.incrementAndGet(); // 统计
+                return true;
+            }));
         }
-        
+
+        CompletableFuture<Integer> res = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    int unzipped = 0;
+                    for (CompletableFuture<Boolean> future : futures) {
+                        if (future.join())
+                            unzipped++;
+                    }
+                    return unzipped;
+                });
+
+        if (!background)
+            res.join();
+
+        return res;
     }
 }
@@ -0,0 +1,101 @@
+package com.ranni.util.collections;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 有界的并发集合，不加锁
+ * 元素分为新、旧两代，都是ConcurrentHashMap的键集合。新元素放入新一代，
+ * 新一代达到容量的一半时整体变成旧一代，原来的旧一代被丢弃，
+ * 因此最多保存capacity个元素，最近加入或者最近被查到的元素会被保留下来
+ *
+ * 换代时并发加入的少量元素可能丢失，只适合用作未命中缓存这类丢失后可以重新计算的场景
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/22 16:40
+ */
+public final class ConcurrentBoundedSet<E> {
+    private final int generationSize; // 每一代的容量
+    private volatile Set<E> young = ConcurrentHashMap.newKeySet(); // 新一代
+    private volatile Set<E> old = ConcurrentHashMap.newKeySet(); // 旧一代
+
+
+    /**
+     * @param capacity 最大容量
+     */
+    public ConcurrentBoundedSet(int capacity) {
+        this.generationSize = Math.max(1, capacity >> 1);
+    }
+
+
+    /**
+     * 是否包含此元素
+     * 只在旧一代中的元素会被移到新一代，避免常用的元素在换代时被丢弃
+     *
+     * @param e
+     * @return
+     */
+    public boolean contains(E e) {
+        if (young.contains(e))
+            return true;
+
+        if (old.contains(e)) {
+            add(e);
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * 加入元素，新一代已满时先换代
+     *
+     * @param e
+     */
+    public void add(E e) {
+        Set<E> young = this.young;
+        if (young.size() >= generationSize) {
+            synchronized (this) {
+                if (this.young == young) {
+                    old = young;
+                    this.young = young = ConcurrentHashMap.newKeySet();
+                } else {
+                    young = this.young;
+                }
+            }
+        }
+        young.add(e);
+    }
+
+
+    /**
+     * 移除元素
+     *
+     * @param e
+     */
+    public void remove(E e) {
+        young.remove(e);
+        old.remove(e);
+    }
+
+
+    /**
+     * 清空所有元素
+     */
+    public void clear() {
+        young.clear();
+        old.clear();
+    }
+
+
+    /**
+     * @return 返回元素数量，两代中都有的元素会被计算两次
+     */
+    public int size() {
+        return young.size() + old.size();
+    }
+}
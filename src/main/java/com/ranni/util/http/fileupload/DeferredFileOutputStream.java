@@ -0,0 +1,173 @@
+package com.ranni.util.http.fileupload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 存放part数据的输出流<br>
+ * 数据量不超过阈值时保存在内存中，超过阈值后把已有数据和后续数据
+ * 通过FileChannel写入上传目录下的临时文件
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/12 15:30
+ */
+public final class DeferredFileOutputStream extends OutputStream {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int threshold; // 保存在内存中的最大字节数
+    private final long maxSize; // 允许的最大字节数，小于0表示不限制
+    private final File directory; // 临时文件所在的目录
+    private byte[] memory = EMPTY; // 内存中的数据
+    private long size; // 已写入的字节数
+    private File file; // 临时文件
+    private FileChannel channel; // 临时文件的通道
+    private boolean closed;
+
+
+    /**
+     * @param threshold 保存在内存中的最大字节数
+     * @param maxSize 允许的最大字节数，小于0表示不限制
+     * @param directory 临时文件所在的目录
+     */
+    public DeferredFileOutputStream(int threshold, long maxSize, File directory) {
+        this.threshold = Math.max(threshold, 0);
+        this.maxSize = maxSize;
+        this.directory = directory;
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+
+    /**
+     * 写入数据，超过阈值时转存到临时文件
+     *
+     * @throws IllegalStateException 超过最大字节数时抛出
+     * @throws IOException 可能抛出I/O异常
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("DeferredFileOutputStream  输出流已关闭！");
+        if (len <= 0)
+            return;
+        if (maxSize >= 0 && size + len > maxSize)
+            throw new IllegalStateException("上传文件超出最大限制！ maxFileSize：" + maxSize);
+
+        if (channel == null && size + len > threshold)
+            spill();
+
+        if (channel != null) {
+            ByteBuffer src = ByteBuffer.wrap(b, off, len);
+            while (src.hasRemaining())
+                channel.write(src);
+        } else {
+            int newSize = (int) size + len;
+            if (newSize > memory.length)
+                memory = Arrays.copyOf(memory, Math.min(Math.max(newSize, Math.max(memory.length << 1, INITIAL_CAPACITY)), threshold));
+            System.arraycopy(b, off, memory, (int) size, len);
+        }
+
+        size += len;
+    }
+
+
+    /**
+     * 把内存中的数据转存到临时文件
+     *
+     * @throws IOException 可能抛出I/O异常
+     */
+    private void spill() throws IOException {
+        file = File.createTempFile("upload_", ".tmp", directory);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer src = ByteBuffer.wrap(memory, 0, (int) size);
+        while (src.hasRemaining())
+            channel.write(src);
+
+        memory = EMPTY;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+        if (channel != null)
+            channel.close();
+    }
+
+
+    /**
+     * 出错时关闭并删除临时文件
+     */
+    public void discard() {
+        try {
+            close();
+        } catch (IOException e) {
+            ;
+        }
+
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                ;
+            }
+        }
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    /**
+     * @return 如果数据保存在内存中返回<b>true</b>
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+
+    /**
+     * @return 返回内存中的数据，有效长度为getSize()，数据在临时文件中时返回null
+     */
+    public byte[] getData() {
+        return file == null ? memory : null;
+    }
+
+
+    /**
+     * @return 返回临时文件，数据在内存中时返回null
+     */
+    public File getFile() {
+        return file;
+    }
+
+
+    /**
+     * @return 返回已写入的字节数
+     */
+    public long getSize() {
+        return size;
+    }
+}
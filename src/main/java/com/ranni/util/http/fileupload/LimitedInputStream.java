@@ -0,0 +1,85 @@
+package com.ranni.util.http.fileupload;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 限制读取字节数的输入流，用于在流式解析时限制整个请求体的大小
+ * 子类可以重写limitExceeded()来抛出其它异常
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/12 15:52
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+    private final long limit; // 允许读取的最大字节数
+    private long count; // 已读取的字节数
+
+
+    /**
+     * @param in 被包装的输入流
+     * @param limit 允许读取的最大字节数
+     */
+    public LimitedInputStream(InputStream in, long limit) {
+        super(in);
+        this.limit = limit;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0)
+            checkLimit(1);
+        return b;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0)
+            checkLimit(n);
+        return n;
+    }
+
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0)
+            checkLimit(skipped);
+        return skipped;
+    }
+
+
+    @Override
+    public void close() {
+        // 请求的输入流由连接器管理，这里不关闭
+    }
+
+
+    /**
+     * @throws IllegalStateException 超出限制时抛出
+     */
+    private void checkLimit(long n) {
+        count += n;
+        if (count > limit)
+            limitExceeded(limit);
+    }
+
+
+    /**
+     * 读取的字节数超出限制时调用
+     *
+     * @param limit 允许读取的最大字节数
+     * @throws IllegalStateException 默认抛出IllegalStateException
+     */
+    protected void limitExceeded(long limit) {
+        throw new IllegalStateException("请求体超出最大限制！ maxRequestSize：" + limit);
+    }
+}
@@ -0,0 +1,342 @@
+package com.ranni.util.http.fileupload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * multipart/form-data请求体的流式解析器<br>
+ * 只持有一个固定大小的缓冲区，边从输入流读取边查找分隔符，请求体不会被整个读入内存。
+ * 分隔符的查找使用Boyer-Moore-Horspool算法，每次不匹配时按坏字符表跳跃，
+ * 缓冲区末尾不足一个分隔符长度的数据保留到下一次填充后再比较
+ *
+ * 请求体格式：
+ * <pre>
+ * preamble CRLF
+ * --boundary CRLF
+ * headers CRLF CRLF
+ * body CRLF
+ * --boundary CRLF
+ * ...
+ * --boundary-- CRLF
+ * epilogue
+ * </pre>
+ * 解析时把分隔符统一视为 CRLF--boundary，并在缓冲区开头预置一个CRLF，
+ * 这样第一个分隔符和后面的分隔符可以用同一种方式处理
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/12 14:08
+ */
+public final class MultipartStream {
+
+    // ==================================== 属性字段 ====================================
+
+    /**
+     * 默认缓冲区大小
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * 头部的最大长度
+     */
+    public static final int HEADER_PART_SIZE_MAX = 10240;
+
+    private static final byte CR = 0x0D;
+    private static final byte LF = 0x0A;
+    private static final byte DASH = 0x2D;
+
+    private static final byte[] HEADER_SEPARATOR = { CR, LF, CR, LF };
+
+    private final InputStream input; // 请求体输入流
+    private final byte[] delimiter; // CRLF--boundary
+    private final int[] skipTable; // 坏字符跳跃表
+    private final byte[] buffer; // 缓冲区
+    private final Charset headerCharset; // 头部的编码
+    private int head; // 缓冲区中下一个未处理的字节
+    private int tail; // 缓冲区中有效数据的末尾
+    private boolean eof; // 输入流是否已读完
+
+
+    /**
+     * 创建解析器
+     *
+     * @param input 请求体输入流
+     * @param boundary Content-Type中的boundary参数
+     * @param bufferSize 缓冲区大小
+     * @param headerCharset 头部的编码
+     * @throws IllegalArgumentException 缓冲区比分隔符还小时抛出
+     */
+    public MultipartStream(InputStream input, byte[] boundary, int bufferSize, Charset headerCharset) {
+        this.input = input;
+        this.headerCharset = headerCharset;
+
+        delimiter = new byte[boundary.length + 4];
+        delimiter[0] = CR;
+        delimiter[1] = LF;
+        delimiter[2] = DASH;
+        delimiter[3] = DASH;
+        System.arraycopy(boundary, 0, delimiter, 4, boundary.length);
+
+        if (bufferSize < (delimiter.length << 1))
+            throw new IllegalArgumentException("MultipartStream  缓冲区太小！ " + bufferSize);
+
+        skipTable = new int[256];
+        int last = delimiter.length - 1;
+        for (int i = 0; i < skipTable.length; i++)
+            skipTable[i] = delimiter.length;
+        for (int i = 0; i < last; i++)
+            skipTable[delimiter[i] & 0xFF] = last - i;
+
+        buffer = new byte[bufferSize];
+
+        // 预置CRLF，使第一个分隔符也是CRLF--boundary的形式
+        buffer[0] = CR;
+        buffer[1] = LF;
+        tail = 2;
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 跳过前言部分，定位到第一个分隔符之后
+     *
+     * @return 如果还有part返回<b>true</b>
+     * @throws IOException 可能抛出I/O异常
+     */
+    public boolean skipPreamble() throws IOException {
+        readBodyData(null);
+        return readBoundary();
+    }
+
+
+    /**
+     * 读取分隔符后面的两个字节，判断是否还有下一个part
+     *
+     * @return 如果还有part返回<b>true</b>，如果是结束分隔符返回<b>false</b>
+     * @throws IOException 可能抛出I/O异常，请求体格式错误时抛出MalformedStreamException
+     */
+    public boolean readBoundary() throws IOException {
+        if (!fill(delimiter.length + 2))
+            throw new MalformedStreamException("请求体在分隔符处意外结束！");
+
+        head += delimiter.length;
+        byte b1 = buffer[head++];
+        byte b2 = buffer[head++];
+
+        if (b1 == DASH && b2 == DASH)
+            return false;
+        if (b1 == CR && b2 == LF)
+            return true;
+
+        throw new MalformedStreamException("分隔符后面的字符错误！");
+    }
+
+
+    /**
+     * 读取当前part的头部
+     *
+     * @return 返回头部，key为小写的头部名
+     * @throws IOException 可能抛出I/O异常，头部格式错误时抛出MalformedStreamException
+     */
+    public Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+
+        // 空头部，直接就是CRLF
+        if (fill(2) && buffer[head] == CR && buffer[head + 1] == LF) {
+            head += 2;
+            return headers;
+        }
+
+        // 头部必须能完整放进缓冲区
+        int maxSize = Math.min(HEADER_PART_SIZE_MAX, buffer.length);
+        int end;
+        int from = head;
+        while ((end = indexOf(HEADER_SEPARATOR, from)) < 0) {
+            if (tail - head >= maxSize)
+                throw new MalformedStreamException("头部超出最大长度！ " + maxSize);
+
+            int scanned = tail - head;
+            if (!fill(scanned + 1))
+                throw new MalformedStreamException("请求体在头部意外结束！");
+            from = Math.max(head, head + scanned - HEADER_SEPARATOR.length + 1);
+        }
+
+        String text = new String(buffer, head, end - head, headerCharset);
+        head = end + HEADER_SEPARATOR.length;
+
+        int start = 0;
+        while (start < text.length()) {
+            int lineEnd = text.indexOf("\r\n", start);
+            if (lineEnd < 0)
+                lineEnd = text.length();
+
+            int colon = text.indexOf(':', start);
+            if (colon > start && colon < lineEnd) {
+                String name = text.substring(start, colon).trim().toLowerCase(Locale.ENGLISH);
+                String value = text.substring(colon + 1, lineEnd).trim();
+                headers.merge(name, value, (a, b) -> a + "," + b);
+            }
+
+            start = lineEnd + 2;
+        }
+
+        return headers;
+    }
+
+
+    /**
+     * 读取当前part的数据，直到遇到下一个分隔符<br>
+     * 数据直接从内部缓冲区写入out，中间不再复制
+     *
+     * @param out 输出流，为null则丢弃数据
+     * @return 返回读取的字节数
+     * @throws IOException 可能抛出I/O异常，没有找到分隔符时抛出MalformedStreamException
+     */
+    public long readBodyData(OutputStream out) throws IOException {
+        long total = 0L;
+        int keep = delimiter.length - 1;
+
+        for (;;) {
+            int pos = findDelimiter();
+            if (pos >= 0) {
+                int n = pos - head;
+                if (n > 0 && out != null)
+                    out.write(buffer, head, n);
+                total += n;
+                head = pos;
+                return total;
+            }
+
+            // 末尾可能是分隔符的开头，保留下来
+            int n = tail - head - keep;
+            if (n > 0) {
+                if (out != null)
+                    out.write(buffer, head, n);
+                total += n;
+                head += n;
+            }
+
+            if (!fill(tail - head + 1))
+                throw new MalformedStreamException("请求体在part数据处意外结束！");
+        }
+    }
+
+
+    /**
+     * 丢弃结束分隔符之后的所有数据
+     *
+     * @throws IOException 可能抛出I/O异常
+     */
+    public void discardEpilogue() throws IOException {
+        head = tail = 0;
+        while (!eof) {
+            if (input.read(buffer, 0, buffer.length) < 0)
+                eof = true;
+        }
+    }
+
+
+    /**
+     * 在缓冲区中查找分隔符，Boyer-Moore-Horspool算法
+     *
+     * @return 返回分隔符在缓冲区中的下标，没有找到返回-1
+     */
+    private int findDelimiter() {
+        byte[] buffer = this.buffer;
+        byte[] delimiter = this.delimiter;
+        int last = delimiter.length - 1;
+        int limit = tail - delimiter.length;
+        int pos = head;
+
+        while (pos <= limit) {
+            int i = last;
+            while (buffer[pos + i] == delimiter[i]) {
+                if (i == 0)
+                    return pos;
+                i--;
+            }
+            pos += skipTable[buffer[pos + last] & 0xFF];
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * 在缓冲区中朴素查找字节序列，只用于查找头部结束符
+     *
+     * @param pattern 要查找的字节序列
+     * @param from 起始位置
+     * @return 返回下标，没有找到返回-1
+     */
+    private int indexOf(byte[] pattern, int from) {
+        int limit = tail - pattern.length;
+        outer:
+        for (int i = from; i <= limit; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+
+    /**
+     * 保证缓冲区中至少有min个未处理的字节
+     *
+     * @param min 最少的字节数
+     * @return 如果输入流已经结束且数据不足返回<b>false</b>
+     * @throws IOException 可能抛出I/O异常
+     */
+    private boolean fill(int min) throws IOException {
+        if (tail - head >= min)
+            return true;
+
+        if (min > buffer.length)
+            throw new MalformedStreamException("MultipartStream  缓冲区不足！ " + min);
+
+        // 把未处理的数据移到缓冲区开头
+        if (head > 0) {
+            int remaining = tail - head;
+            if (remaining > 0)
+                System.arraycopy(buffer, head, buffer, 0, remaining);
+            head = 0;
+            tail = remaining;
+        }
+
+        while (tail - head < min && !eof) {
+            int n = input.read(buffer, tail, buffer.length - tail);
+            if (n < 0) {
+                eof = true;
+            } else {
+                tail += n;
+            }
+        }
+
+        return tail - head >= min;
+    }
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 请求体格式错误
+     */
+    public static class MalformedStreamException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedStreamException(String message) {
+            super(message);
+        }
+    }
+}
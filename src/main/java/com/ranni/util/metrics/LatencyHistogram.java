@@ -0,0 +1,153 @@
+package com.ranni.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 无锁的延迟直方图，单位微秒
+ * 桶的划分与HdrHistogram相同：0~15每个值一个桶，之后每个2的幂区间再均分成16个桶，
+ * 相对误差不超过1/16。桶的数量固定，记录只是一次数组下标计算和一次原子自增
+ *
+ * 能记录的最大值为2^36微秒（约19小时），更大的值记入最后一个桶
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/21 9:30
+ */
+public final class LatencyHistogram {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // 每个区间的桶数
+    private static final int MAX_MSB = 36; // 最大值的最高位
+    private static final int BUCKETS = (MAX_MSB - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS); // 每个桶的计数
+    private final LongAdder count = new LongAdder(); // 总次数
+    private final LongAdder sum = new LongAdder(); // 总和
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L); // 最大值
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 记录一个值
+     *
+     * @param micros 单位微秒，小于0时按0记录
+     */
+    public void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+
+        counts.incrementAndGet(bucketIndex(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+
+    /**
+     * 计算值所在的桶
+     *
+     * @param value
+     * @return
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb > MAX_MSB)
+            return BUCKETS - 1;
+
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+
+    /**
+     * 返回桶的上界（包含）
+     *
+     * @param index
+     * @return
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+
+    /**
+     * 取得当前的统计快照
+     * 记录和快照同时进行时，快照中的各项之间可能有细微的不一致
+     *
+     * @return
+     */
+    public LatencySnapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = counts.get(i);
+            total += buckets[i];
+        }
+
+        long maxValue = max.get();
+        return new LatencySnapshot(total, sum.sum(), maxValue,
+                percentile(buckets, total, 0.50, maxValue),
+                percentile(buckets, total, 0.90, maxValue),
+                percentile(buckets, total, 0.99, maxValue),
+                percentile(buckets, total, 0.999, maxValue));
+    }
+
+
+    /**
+     * 计算百分位数，返回所在桶的上界，且不超过最大值
+     *
+     * @param buckets
+     * @param total
+     * @param quantile
+     * @param maxValue
+     * @return
+     */
+    private static long percentile(long[] buckets, long total, double quantile, long maxValue) {
+        if (total == 0)
+            return 0L;
+
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.min(bucketUpperBound(i), maxValue);
+        }
+        return maxValue;
+    }
+
+
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0L);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    public long getCount() {
+        return count.sum();
+    }
+}
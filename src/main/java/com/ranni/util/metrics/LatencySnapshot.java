@@ -0,0 +1,71 @@
+package com.ranni.util.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 延迟直方图的快照，单位微秒
+ * 作为MXBean的属性类型时会被转换成CompositeData
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/21 9:50
+ */
+public final class LatencySnapshot {
+    private final long count; // 次数
+    private final long sum; // 总和
+    private final long max; // 最大值
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+
+
+    @ConstructorProperties({"count", "sum", "max", "p50", "p90", "p99", "p999"})
+    public LatencySnapshot(long count, long sum, long max, long p50, long p90, long p99, long p999) {
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+    }
+
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return 返回平均值，没有记录时返回0
+     */
+    public long getMean() {
+        return count == 0 ? 0L : sum / count;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+}
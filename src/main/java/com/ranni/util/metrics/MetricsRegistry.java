@@ -0,0 +1,263 @@
+package com.ranni.util.metrics;
+
+import com.ranni.connector.coyote.RequestGroupInfo;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 请求统计的注册中心，全局单例
+ * 连接器、Host和Context各自持有一个RequestGroupInfo，注册到这里之后：
+ * 1、作为MXBean注册到平台MBeanServer，ObjectName为 Ranni:type=RequestMetrics,service="xxx",scope=xxx,name="xxx"，
+ *    同名的MBean已经存在时（例如同一个JVM中的另一个同名服务）不覆盖它，只是不注册MBean
+ * 2、可以通过{@link #writeText(Appendable)}以Prometheus文本格式导出
+ *
+ * 统计的所有者作为键，请求路径上按所有者查找不需要拼接名称。
+ * 所有者注销之后不能再注册，停止过程中还在结束的请求不会把它重新注册回来，
+ * 重新启动时调用{@link #reopen(Object)}
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/21 10:30
+ */
+public final class MetricsRegistry {
+
+    // ==================================== 属性字段 ====================================
+
+    public static final String DOMAIN = "Ranni"; // JMX域名
+
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    private final Map<Object, Entry> entries = new ConcurrentHashMap<>(); // 所有者 -> 统计
+    private final Set<Object> stopped = Collections.newSetFromMap(new WeakHashMap<>()); // 已经注销的所有者，由this保护
+
+
+    private MetricsRegistry() {
+    }
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 注册的统计
+     */
+    private static final class Entry {
+        private final String service; // 所属的服务
+        private final String scope; // 范围，connector、host或context
+        private final String name; // 名称
+        private final RequestGroupInfo info; // 统计
+        private final ObjectName oname; // 注册的MBean名，注册失败为null
+
+        Entry(String service, String scope, String name, RequestGroupInfo info, ObjectName oname) {
+            this.service = service;
+            this.scope = scope;
+            this.name = name;
+            this.info = info;
+            this.oname = oname;
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+
+    /**
+     * 注册统计，所有者已经注册过时返回已有的统计
+     * 所有者已经注销时不再注册，直接返回传入的统计，它不会被导出
+     *
+     * @param owner 所有者
+     * @param service 所属的服务名
+     * @param scope 范围，connector、host或context
+     * @param name 名称
+     * @param info 统计
+     * @return 返回注册的统计
+     */
+    public RequestGroupInfo register(Object owner, String service, String scope, String name, RequestGroupInfo info) {
+        Entry entry = entries.get(owner);
+        if (entry != null)
+            return entry.info;
+
+        synchronized (this) {
+            if (stopped.contains(owner))
+                return info;
+
+            entry = entries.get(owner);
+            if (entry == null) {
+                String svc = service == null ? "" : service;
+                entry = new Entry(svc, scope, name, info, registerMBean(svc, scope, name, info));
+                entries.put(owner, entry);
+            }
+        }
+        return entry.info;
+    }
+
+
+    /**
+     * 所有者重新启动，允许再次注册
+     *
+     * @param owner
+     */
+    public synchronized void reopen(Object owner) {
+        stopped.remove(owner);
+    }
+
+
+    /**
+     * 取得所有者的统计
+     *
+     * @param owner
+     * @return 没有注册返回null
+     */
+    public RequestGroupInfo find(Object owner) {
+        Entry entry = entries.get(owner);
+        return entry == null ? null : entry.info;
+    }
+
+
+    /**
+     * 注销统计
+     *
+     * @param owner
+     */
+    public void unregister(Object owner) {
+        Entry entry;
+        synchronized (this) {
+            stopped.add(owner);
+            entry = entries.remove(owner);
+        }
+        if (entry == null || entry.oname == null)
+            return;
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(entry.oname))
+                server.unregisterMBean(entry.oname);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * 注册MBean，同名的MBean已经存在时不覆盖它
+     *
+     * @param service
+     * @param scope
+     * @param name
+     * @param info
+     * @return 返回ObjectName，失败或者同名的MBean已经存在时返回null
+     */
+    private ObjectName registerMBean(String service, String scope, String name, RequestGroupInfo info) {
+        try {
+            ObjectName oname = new ObjectName(DOMAIN + ":type=RequestMetrics,service=" + ObjectName.quote(service)
+                    + ",scope=" + scope + ",name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(info, oname);
+            return oname;
+        } catch (InstanceAlreadyExistsException e) {
+            System.out.println("MetricsRegistry.registerMBean  MBean已经存在，不再注册！ " + e.getMessage());
+            return null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+    /**
+     * 以Prometheus文本格式导出所有统计
+     * 计数和毫秒时间为counter，直方图按百分位数导出为summary，单位微秒
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeText(Appendable out) throws IOException {
+        List<Entry> list = new ArrayList<>(entries.values());
+        list.sort((a, b) -> !a.service.equals(b.service) ? a.service.compareTo(b.service)
+                : a.scope.equals(b.scope) ? a.name.compareTo(b.name) : a.scope.compareTo(b.scope));
+
+        writeCounter(out, list, "ranni_requests_total", "counter", 0);
+        writeCounter(out, list, "ranni_errors_total", "counter", 1);
+        writeCounter(out, list, "ranni_bytes_sent_total", "counter", 2);
+        writeCounter(out, list, "ranni_bytes_received_total", "counter", 3);
+        writeCounter(out, list, "ranni_processing_time_milliseconds_total", "counter", 4);
+        writeCounter(out, list, "ranni_max_time_milliseconds", "gauge", 5);
+
+        out.append("# TYPE ranni_request_latency_microseconds summary\n");
+        for (Entry entry : list)
+            writeSummary(out, "ranni_request_latency_microseconds", labels(entry, null), entry.info.getRequestTime());
+
+        out.append("# TYPE ranni_stage_latency_microseconds summary\n");
+        for (Entry entry : list) {
+            for (Map.Entry<String, LatencySnapshot> stage : entry.info.getStageTimes().entrySet())
+                writeSummary(out, "ranni_stage_latency_microseconds", labels(entry, stage.getKey()), stage.getValue());
+        }
+    }
+
+
+    private static void writeCounter(Appendable out, List<Entry> list, String metric, String type, int field) throws IOException {
+        out.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+        for (Entry entry : list) {
+            RequestGroupInfo info = entry.info;
+            long value;
+            switch (field) {
+                case 0: value = info.getRequestCount(); break;
+                case 1: value = info.getErrorCount(); break;
+                case 2: value = info.getBytesSent(); break;
+                case 3: value = info.getBytesReceived(); break;
+                case 4: value = info.getProcessingTime(); break;
+                default: value = info.getMaxTime(); break;
+            }
+            out.append(metric).append('{').append(labels(entry, null)).append("} ")
+                    .append(Long.toString(value)).append('\n');
+        }
+    }
+
+
+    private static void writeSummary(Appendable out, String metric, String labels, LatencySnapshot snapshot) throws IOException {
+        writeQuantile(out, metric, labels, "0.5", snapshot.getP50());
+        writeQuantile(out, metric, labels, "0.9", snapshot.getP90());
+        writeQuantile(out, metric, labels, "0.99", snapshot.getP99());
+        writeQuantile(out, metric, labels, "0.999", snapshot.getP999());
+        writeQuantile(out, metric, labels, "1", snapshot.getMax());
+        out.append(metric).append("_sum{").append(labels).append("} ").append(Long.toString(snapshot.getSum())).append('\n');
+        out.append(metric).append("_count{").append(labels).append("} ").append(Long.toString(snapshot.getCount())).append('\n');
+    }
+
+
+    private static void writeQuantile(Appendable out, String metric, String labels, String quantile, long value) throws IOException {
+        out.append(metric).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                .append(Long.toString(value)).append('\n');
+    }
+
+
+    private static String labels(Entry entry, String stage) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("service=\"").append(escape(entry.service))
+                .append("\",scope=\"").append(entry.scope)
+                .append("\",name=\"").append(escape(entry.name)).append('"');
+        if (stage != null)
+            sb.append(",stage=\"").append(stage).append('"');
+        return sb.toString();
+    }
+
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
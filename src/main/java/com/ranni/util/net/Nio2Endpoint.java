@@ -1,6 +1,7 @@
 package com.ranni.util.net;
 
 import com.ranni.connector.ApplicationBufferHandler;
+import com.ranni.util.buf.ByteBufferUtils;
 import com.ranni.util.collections.SynchronizedStack;
 
 import java.io.*;
@@ -8,7 +9,9 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.*;
 
 /**
@@ -62,6 +65,11 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel, Asynchronous
      */
     private long previousAcceptedSocketNanoTime = 0;
 
+    /**
+     * 发送文件时，每次映射到内存中的文件区域的最大字节数。默认8MB
+     */
+    private int sendfileMapSize = 8 * 1024 * 1024;
+
 
     // ==================================== 内部类 ====================================
 
@@ -70,6 +78,8 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel, Asynchronous
      */
     public static class SendfileData extends SendfileDataBase {
         private FileChannel fchannel;
+        // 当前正在发送的文件映射区域
+        private MappedByteBuffer buffer;
         // 内部使用
         private boolean doneInline = false;
         private boolean error = false;
@@ -220,9 +230,6 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel, Asynchronous
 
     /**
      * NIO2 socket包装类
-     * 
-     * TODO:
-     * XXX - 文件操作待实现
      */
     public static class Nio2SocketWrapper extends SocketWrapperBase<Nio2Channel> {
 
@@ -266,6 +273,22 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel, Asynchronous
          */
         private boolean writeNotify = false;
 
+        /**
+         * 文件发送处理器。文件区域以内存映射的方式直接交给
+         * socket发送，不经过socket缓冲区处理器的堆内缓冲区
+         */
+        private final CompletionHandler<Integer, SendfileData> sendfileHandler;
+
+        /**
+         * 正在发送的文件数据
+         */
+        private volatile SendfileData sendfileData = null;
+
+        /**
+         * 每次映射的文件区域的最大字节数
+         */
+        private final int sendfileMapSize;
+
 
         // ==================================== 构造方法 ====================================
         
@@ -446,6 +469,75 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel, Asynchronous
                 }
             }; // this.gatheringWriteCompletionHandler赋值end
             
+            this.sendfileMapSize = endpoint.getSendfileMapSize();
+            
+            // 创建文件发送处理器
+            this.sendfileHandler = new CompletionHandler<Integer, SendfileData>() {
+                @Override
+                public void completed(Integer nWrite, SendfileData attachment) {
+                    if (nWrite.intValue() < 0) {
+                        failed(new EOFException("发送文件失败"), attachment);
+                        return;
+                    }
+                    
+                    if (!attachment.buffer.hasRemaining()) {
+                        // 当前映射的文件区域已经发送完毕，释放映射
+                        ByteBufferUtils.cleanDirectBuffer(attachment.buffer);
+                        attachment.buffer = null;
+                        
+                        if (attachment.length <= 0) {
+                            // 文件全部发送完毕
+                            closeSendfile(attachment);
+                            if (Nio2Endpoint.isInline()) {
+                                attachment.doneInline = true;
+                            } else {
+                                switch (attachment.keepAliveState) {
+                                    case NONE: {
+                                        getEndpoint().processSocket(Nio2SocketWrapper.this, SocketEvent.DISCONNECT, false);
+                                        break;
+                                    }
+                                    case PIPELINED: {
+                                        // 输入缓冲区中还有流水线请求，直接处理
+                                        if (!getEndpoint().processSocket(Nio2SocketWrapper.this, SocketEvent.OPEN_READ, true)) {
+                                            close();
+                                        }
+                                        break;
+                                    }
+                                    case OPEN: {
+                                        registerReadInterest();
+                                        break;
+                                    }
+                                }
+                            }
+                            return;
+                        }
+                        
+                        // 映射下一段文件区域
+                        try {
+                            mapSendfileRegion(attachment);
+                        } catch (IOException e) {
+                            failed(e, attachment);
+                            return;
+                        }
+                    }
+                    
+                    getSocket().write(attachment.buffer, toTimeout(getWriteTimeout()),
+                            TimeUnit.MILLISECONDS, attachment, this);
+                }
+                
+
+                @Override
+                public void failed(Throwable exc, SendfileData attachment) {
+                    closeSendfile(attachment);
+                    if (!Nio2Endpoint.isInline()) {
+                        getEndpoint().processSocket(Nio2SocketWrapper.this, SocketEvent.ERROR, false);
+                    } else {
+                        attachment.doneInline = true;
+                        attachment.error = true;
+                    }
+                }
+            }; // this.sendfileHandler赋值end
+            
         }
 
 
@@ -944,7 +1036,13 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel, Asynchronous
                 reset(Nio2Channel.CLOSED_NIO2_CHANNEL);
             }
             
-            // TODO - 关闭文件发送信道
+            // 关闭文件发送信道
+            // 异步写可能还在使用映射区域，这里不能释放映射，写操作因为socket关闭而失败后，
+            // 由sendfileHandler.failed()释放
+            SendfileData data = sendfileData;
+            if (data != null) {
+                closeSendfile(data, false);
+            }
         }
 
 
@@ -993,9 +1091,105 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel, Asynchronous
         }
 
         
+        /**
+         * 发送文件。文件按 {@link #sendfileMapSize} 大小分段映射到内存中，
+         * 映射区域直接交给socket异步写出，文件内容不会被复制到socket缓冲
+         * 区处理器的缓冲区中，也不会进入Java堆。<br>
+         * 如果整个文件在当前线程中内联地发送完了，返回 {@link SendfileState#DONE}，
+         * 否则返回 {@link SendfileState#PENDING}，剩余的数据由 {@link #sendfileHandler}
+         * 继续发送，发送完毕后根据 {@link SendfileDataBase#keepAliveState} 决定
+         * 关闭连接还是继续处理下一个请求。
+         * 
+         * @param sendfileData 要发送的文件数据
+         * @return 返回文件发送状态
+         */
         @Override
         public SendfileState processSendfile(SendfileDataBase sendfileData) {
-            return null;
+            SendfileData data = (SendfileData) sendfileData;
+            this.sendfileData = data;
+            
+            try {
+                if (data.fchannel == null || !data.fchannel.isOpen()) {
+                    data.fchannel = FileChannel.open(new File(data.fileName).toPath(), StandardOpenOption.READ);
+                }
+                if (data.length <= 0) {
+                    // 没有需要发送的数据
+                    closeSendfile(data);
+                    return SendfileState.DONE;
+                }
+                mapSendfileRegion(data);
+            } catch (IOException e) {
+                closeSendfile(data);
+                return SendfileState.ERROR;
+            }
+            
+            Nio2Endpoint.startInline();
+            getSocket().write(data.buffer, toTimeout(getWriteTimeout()), TimeUnit.MILLISECONDS,
+                    data, sendfileHandler);
+            Nio2Endpoint.endInline();
+            
+            if (data.doneInline) {
+                if (data.error) {
+                    return SendfileState.ERROR;
+                } else {
+                    return SendfileState.DONE;
+                }
+            } else {
+                return SendfileState.PENDING;
+            }
+        }
+
+
+        /**
+         * 将文件的下一段区域映射到内存中，并更新文件数据的位置和剩余长度
+         * 
+         * @param data 文件数据
+         * @throws IOException 可能抛出I/O异常
+         */
+        private void mapSendfileRegion(SendfileData data) throws IOException {
+            long size = Math.min(data.length, sendfileMapSize);
+            if (data.pos + size > data.fchannel.size()) {
+                throw new EOFException("发送的文件区域超出了文件大小");
+            }
+            data.buffer = data.fchannel.map(FileChannel.MapMode.READ_ONLY, data.pos, size);
+            data.pos += size;
+            data.length -= size;
+        }
+
+
+        /**
+         * 结束文件发送，释放文件映射并关闭文件信道
+         * 只能在没有异步写正在使用映射区域时调用
+         * 
+         * @param data 文件数据
+         */
+        private void closeSendfile(SendfileData data) {
+            closeSendfile(data, true);
+        }
+
+
+        /**
+         * 结束文件发送并关闭文件信道
+         * 
+         * @param data 文件数据
+         * @param unmap 是否释放文件映射，还有异步写可能在使用映射区域时必须为<b>false</b>，
+         *              访问已经释放的映射区域会导致JVM崩溃
+         */
+        private void closeSendfile(SendfileData data, boolean unmap) {
+            if (sendfileData == data) {
+                sendfileData = null;
+            }
+            if (unmap && data.buffer != null) {
+                ByteBufferUtils.cleanDirectBuffer(data.buffer);
+                data.buffer = null;
+            }
+            if (data.fchannel != null) {
+                try {
+                    data.fchannel.close();
+                } catch (IOException e) {
+                    ;
+                }
+            }
         }
 
 
@@ -1174,8 +1368,6 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel, Asynchronous
                 return writePending.availablePermits() == 0;
             }
         }
-        
-        // TODO - 文件发送
     }
 
 
@@ -1313,6 +1505,24 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel, Asynchronous
     }
 
 
+    /**
+     * @return 返回发送文件时每次映射的文件区域的最大字节数
+     */
+    public int getSendfileMapSize() {
+        return sendfileMapSize;
+    }
+
+
+    /**
+     * 设置发送文件时每次映射的文件区域的最大字节数
+     * 
+     * @param sendfileMapSize 映射区域的最大字节数
+     */
+    public void setSendfileMapSize(int sendfileMapSize) {
+        this.sendfileMapSize = sendfileMapSize;
+    }
+    
+
     /**
      * @return 返回socket通信通道集合
      */
@@ -0,0 +1,279 @@
+package com.ranni.util.scan;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 直接读取类文件，判断类上是否有指定的运行时可见注解，不需要定义类
+ * 1、解析常量池，只记录Utf8常量的位置和Class常量引用的名字，如果常量池中根本没有注解的描述符，
+ *    这个类一定没有这个注解，不再往下解析
+ * 2、跳过接口、字段和方法，在类的属性中找到RuntimeVisibleAnnotations，逐个比较注解的类型
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/23 10:00
+ */
+public final class AnnotationReader {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final byte[] RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] data; // 类文件内容
+    private int pos; // 当前读取位置
+    private int[] utf8Offsets; // 常量池下标 -> Utf8常量内容的偏移，不是Utf8常量为0
+    private int[] classNames; // 常量池下标 -> Class常量引用的名字的下标，不是Class常量为0
+
+
+    private AnnotationReader(byte[] data) {
+        this.data = data;
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 类上有指定的注解时返回类名
+     *
+     * @param data 类文件内容
+     * @param descriptor 注解的描述符，如 Lcom/ranni/annotation/core/Controller;
+     * @return 返回全限定类名，没有这个注解或者不是合法的类文件返回null
+     */
+    public static String getAnnotatedClassName(byte[] data, byte[] descriptor) {
+        try {
+            return new AnnotationReader(data).read(descriptor);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null; // 类文件被截断了
+        }
+    }
+
+
+    /**
+     * 取得注解的描述符
+     *
+     * @param annotationName 注解的全限定类名
+     * @return
+     */
+    public static byte[] toDescriptor(String annotationName) {
+        return ("L" + annotationName.replace('.', '/') + ";").getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    private String read(byte[] descriptor) {
+        if (u4() != MAGIC)
+            return null;
+        pos += 4; // 次版本号和主版本号
+
+        if (!readConstantPool(descriptor))
+            return null;
+
+        pos += 2; // 访问标志
+        int thisClass = u2();
+        pos += 2; // 父类
+        int interfaces = u2();
+        pos += 2 * interfaces; // 接口
+        skipMembers(); // 字段
+        skipMembers(); // 方法
+
+        int attributesCount = u2();
+        for (int i = 0; i < attributesCount; i++) {
+            int nameIndex = u2();
+            int length = u4();
+            int end = pos + length;
+
+            if (utf8Equals(nameIndex, RUNTIME_VISIBLE_ANNOTATIONS)) {
+                int annotations = u2();
+                for (int j = 0; j < annotations; j++) {
+                    if (utf8Equals(u2(), descriptor))
+                        return className(thisClass);
+                    skipAnnotationBody();
+                }
+            }
+
+            pos = end;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * 解析常量池
+     *
+     * @param descriptor 注解的描述符
+     * @return 常量池中有注解的描述符返回<b>true</b>
+     */
+    private boolean readConstantPool(byte[] descriptor) {
+        int count = u2();
+        utf8Offsets = new int[count];
+        classNames = new int[count];
+        boolean found = false;
+
+        for (int i = 1; i < count; i++) {
+            int tag = u1();
+            switch (tag) {
+                case 1: // Utf8
+                    int length = u2();
+                    utf8Offsets[i] = pos;
+                    if (!found && equals(pos, length, descriptor))
+                        found = true;
+                    pos += length;
+                    break;
+                case 7: // Class
+                    classNames[i] = u2();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    pos += 2;
+                    break;
+                case 15: // MethodHandle
+                    pos += 3;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    pos += 4;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    pos += 8;
+                    i++; // 占两个下标
+                    break;
+                default:
+                    throw new ArrayIndexOutOfBoundsException("未知的常量类型 " + tag);
+            }
+        }
+
+        return found;
+    }
+
+
+    /**
+     * 跳过字段或方法表
+     */
+    private void skipMembers() {
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            pos += 6; // 访问标志、名字、描述符
+            skipAttributes();
+        }
+    }
+
+
+    /**
+     * 跳过属性表
+     */
+    private void skipAttributes() {
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            pos += 2;
+            int length = u4();
+            pos += length;
+        }
+    }
+
+
+    /**
+     * 跳过注解类型之后的元素值对
+     */
+    private void skipAnnotationBody() {
+        int pairs = u2();
+        for (int i = 0; i < pairs; i++) {
+            pos += 2; // 元素名
+            skipElementValue();
+        }
+    }
+
+
+    /**
+     * 跳过一个元素值
+     */
+    private void skipElementValue() {
+        int tag = u1();
+        switch (tag) {
+            case 'e': // 枚举，类型名和常量名
+                pos += 4;
+                break;
+            case '@': // 嵌套的注解
+                pos += 2;
+                skipAnnotationBody();
+                break;
+            case '[': // 数组
+                int count = u2();
+                for (int i = 0; i < count; i++)
+                    skipElementValue();
+                break;
+            default: // 基本类型、String和Class，都是一个常量池下标
+                pos += 2;
+                break;
+        }
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    private int u1() {
+        return data[pos++] & 0xff;
+    }
+
+    private int u2() {
+        return ((data[pos++] & 0xff) << 8) | (data[pos++] & 0xff);
+    }
+
+    private int u4() {
+        return (u2() << 16) | u2();
+    }
+
+
+    /**
+     * 常量池中的Utf8常量是否与bytes相同
+     *
+     * @param index 常量池下标
+     * @param bytes
+     * @return
+     */
+    private boolean utf8Equals(int index, byte[] bytes) {
+        if (index <= 0 || index >= utf8Offsets.length || utf8Offsets[index] == 0)
+            return false;
+
+        int offset = utf8Offsets[index];
+        int length = ((data[offset - 2] & 0xff) << 8) | (data[offset - 1] & 0xff);
+        return equals(offset, length, bytes);
+    }
+
+
+    private boolean equals(int offset, int length, byte[] bytes) {
+        if (length != bytes.length)
+            return false;
+
+        for (int i = 0; i < length; i++) {
+            if (data[offset + i] != bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * 取得Class常量的全限定类名
+     *
+     * @param index Class常量的下标
+     * @return
+     */
+    private String className(int index) {
+        int nameIndex = classNames[index];
+        int offset = utf8Offsets[nameIndex];
+        int length = ((data[offset - 2] & 0xff) << 8) | (data[offset - 1] & 0xff);
+        return new String(data, offset, length, StandardCharsets.UTF_8).replace('/', '.');
+    }
+}
@@ -0,0 +1,349 @@
+package com.ranni.util.scan;
+
+import com.ranni.util.HexUtils;
+
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 扫描指定包下有某个注解的类，只读取类文件，不加载类
+ * 1、类目录中包对应的目录下的所有.class文件，和JAR包中包路径下的所有.class条目都会被扫描
+ * 2、类文件按数量切分成小任务，每个JAR包一个任务，由ForkJoinPool并行执行
+ * 3、扫描结果和扫描范围的指纹一起保存到索引文件，指纹由包名、类文件的路径、大小、修改时间
+ *    和JAR包的路径、大小、修改时间计算得到，下次扫描时指纹相同就直接使用索引文件的结果
+ *
+ * @see AnnotationReader
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/23 10:30
+ */
+public class AnnotationScanner {
+
+    // ==================================== 属性字段 ====================================
+
+    private static final int THRESHOLD = 64; // 每个任务最多扫描的类文件数
+
+    private final String annotationName; // 注解的全限定类名
+    private final byte[] descriptor; // 注解的描述符
+    private ForkJoinPool pool = ForkJoinPool.commonPool(); // 执行扫描任务的线程池
+
+
+    public AnnotationScanner(Class<? extends Annotation> annotation) {
+        this.annotationName = annotation.getName();
+        this.descriptor = AnnotationReader.toDescriptor(annotationName);
+    }
+
+
+    // ==================================== 内部类 ====================================
+
+    /**
+     * 扫描一段类文件，超过THRESHOLD个就对半切分
+     */
+    private final class FilesTask extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+        private final int from;
+        private final int to;
+
+        FilesTask(List<File> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                FilesTask left = new FilesTask(files, from, middle);
+                left.fork();
+                List<String> res = new FilesTask(files, middle, to).compute();
+                res.addAll(left.join());
+                return res;
+            }
+
+            List<String> res = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                try {
+                    String className = AnnotationReader.getAnnotatedClassName(Files.readAllBytes(files.get(i).toPath()), descriptor);
+                    if (className != null)
+                        res.add(className);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return res;
+        }
+    }
+
+
+    /**
+     * 扫描一个JAR包中包路径下的类文件
+     */
+    private final class JarTask extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final File jar;
+        private final String[] packagePaths;
+
+        JarTask(File jar, String[] packagePaths) {
+            this.jar = jar;
+            this.packagePaths = packagePaths;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> res = new ArrayList<>();
+            try (JarFile jarFile = new JarFile(jar, false)) {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if (entry.isDirectory() || !name.endsWith(".class") || !inPackages(name, packagePaths))
+                        continue;
+
+                    try (InputStream is = jarFile.getInputStream(entry)) {
+                        String className = AnnotationReader.getAnnotatedClassName(is.readAllBytes(), descriptor);
+                        if (className != null)
+                            res.add(className);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return res;
+        }
+    }
+
+
+    // ==================================== 核心方法 ====================================
+
+    /**
+     * 扫描有注解的类
+     *
+     * @param packages 要扫描的包名
+     * @param classesDir 类目录，可以为null
+     * @param jars JAR包，可以为null
+     * @param indexFile 索引文件，为null时不使用索引
+     * @return 返回按类名排序的全限定类名
+     * @throws IOException
+     */
+    public List<String> scan(String[] packages, File classesDir, File[] jars, File indexFile) throws IOException {
+        String[] packagePaths = new String[packages.length];
+        for (int i = 0; i < packages.length; i++)
+            packagePaths[i] = packages[i].isEmpty() ? "" : packages[i].replace('.', '/') + "/";
+
+        if (jars == null)
+            jars = new File[0];
+        jars = jars.clone();
+        Arrays.sort(jars);
+
+        List<File> classFiles = listClassFiles(classesDir, packagePaths);
+        String fingerprint = fingerprint(packagePaths, classesDir, classFiles, jars);
+
+        // 扫描范围没有变化，直接使用索引
+        if (indexFile != null) {
+            List<String> res = readIndex(indexFile, fingerprint);
+            if (res != null)
+                return res;
+        }
+
+        List<RecursiveTask<List<String>>> tasks = new ArrayList<>();
+        if (!classFiles.isEmpty())
+            tasks.add(new FilesTask(classFiles, 0, classFiles.size()));
+        for (File jar : jars)
+            tasks.add(new JarTask(jar, packagePaths));
+
+        Set<String> classNames = new TreeSet<>();
+        if (!tasks.isEmpty()) {
+            classNames.addAll(pool.invoke(new RecursiveTask<List<String>>() {
+                @Override
+                protected List<String> compute() {
+                    invokeAll(tasks);
+                    List<String> res = new ArrayList<>();
+                    for (RecursiveTask<List<String>> task : tasks)
+                        res.addAll(task.join());
+                    return res;
+                }
+            }));
+        }
+
+        List<String> res = new ArrayList<>(classNames);
+        if (indexFile != null)
+            writeIndex(indexFile, fingerprint, res);
+
+        return res;
+    }
+
+
+    /**
+     * 列出类目录中各个包下的所有类文件，按路径排序并去重
+     *
+     * @param classesDir
+     * @param packagePaths
+     * @return
+     * @throws IOException
+     */
+    private List<File> listClassFiles(File classesDir, String[] packagePaths) throws IOException {
+        if (classesDir == null)
+            return new ArrayList<>();
+
+        Set<File> files = new TreeSet<>();
+        for (String packagePath : packagePaths) {
+            File dir = new File(classesDir, packagePath);
+            if (!dir.isDirectory())
+                continue;
+
+            try (Stream<Path> stream = Files.walk(dir.toPath())) {
+                stream.filter(path -> path.toString().endsWith(".class") && Files.isRegularFile(path))
+                      .forEach(path -> files.add(path.toFile()));
+            }
+        }
+
+        return new ArrayList<>(files);
+    }
+
+
+    /**
+     * 条目是否在要扫描的包下
+     *
+     * @param name
+     * @param packagePaths
+     * @return
+     */
+    private static boolean inPackages(String name, String[] packagePaths) {
+        for (String packagePath : packagePaths) {
+            if (name.startsWith(packagePath))
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * 计算扫描范围的指纹
+     *
+     * @param packagePaths
+     * @param classesDir
+     * @param classFiles
+     * @param jars
+     * @return
+     */
+    private String fingerprint(String[] packagePaths, File classesDir, List<File> classFiles, File[] jars) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        update(digest, annotationName);
+        for (String packagePath : packagePaths)
+            update(digest, packagePath);
+
+        int base = classesDir == null ? 0 : classesDir.getPath().length();
+        for (File file : classFiles)
+            update(digest, file.getPath().substring(base) + '|' + file.length() + '|' + file.lastModified());
+
+        for (File jar : jars)
+            update(digest, jar.getAbsolutePath() + '|' + jar.length() + '|' + jar.lastModified());
+
+        return HexUtils.toHexString(digest.digest());
+    }
+
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+
+
+    /**
+     * 读取索引文件
+     * 第一行是指纹，之后每行一个类名
+     *
+     * @param indexFile
+     * @param fingerprint
+     * @return 索引文件不存在或者指纹不同返回null
+     */
+    private List<String> readIndex(File indexFile, String fingerprint) {
+        if (!indexFile.isFile())
+            return null;
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            if (!fingerprint.equals(reader.readLine()))
+                return null;
+
+            List<String> res = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty())
+                    res.add(line);
+            }
+            return res;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * 写入索引文件，先写临时文件再替换，不会留下写了一半的索引
+     *
+     * @param indexFile
+     * @param fingerprint
+     * @param classNames
+     */
+    private void writeIndex(File indexFile, String fingerprint, List<String> classNames) {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            File parent = indexFile.getParentFile();
+            if (parent != null)
+                parent.mkdirs();
+
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(fingerprint);
+                writer.newLine();
+                for (String className : classNames) {
+                    writer.write(className);
+                    writer.newLine();
+                }
+            }
+
+            try {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+        }
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    /**
+     * 设置执行扫描任务的线程池，默认为ForkJoinPool.commonPool()
+     *
+     * @param pool
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+}
@@ -0,0 +1,152 @@
+package com.ranni.connector;
+
+import com.ranni.container.MappingData;
+import com.ranni.container.Wrapper;
+import com.ranni.util.buf.CharChunk;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.MappingMatch;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * Mapper中编译后的wrapper路由表：精确、最长前缀、扩展名、默认四级匹配以及写时复制的增删
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/26 10:20
+ */
+public class WrapperRouterTest {
+
+    private final Mapper mapper = new Mapper();
+    private final Wrapper exact = wrapper("exact");
+    private final Wrapper api = wrapper("api");
+    private final Wrapper apiUser = wrapper("apiUser");
+    private final Wrapper jsp = wrapper("jsp");
+    private final Wrapper fallback = wrapper("default");
+    private Mapper.WrapperRouter router;
+
+
+    @Before
+    public void setUp() {
+        router = mapper.new WrapperRouter()
+                .addWrapper("/index", exact)
+                .addWrapper("/api/*", api)
+                .addWrapper("/api/user/*", apiUser)
+                .addWrapper("*.jsp", jsp)
+                .addWrapper("/", fallback);
+    }
+
+
+    @Test
+    public void exactMatchWins() {
+        MappingData data = map(router, "/index", 0);
+        assertSame(exact, data.wrapper);
+        assertEquals(MappingMatch.EXACT, data.matchType);
+    }
+
+
+    @Test
+    public void longestPrefixMatchWins() {
+        MappingData data = map(router, "/api/user/42", 0);
+        assertSame(apiUser, data.wrapper);
+        assertEquals(MappingMatch.PATH, data.matchType);
+        assertEquals("/api/user", data.wrapperPath.toString());
+        assertEquals("/42", data.pathInfo.toString());
+
+        data = map(router, "/api/order/7", 0);
+        assertSame(api, data.wrapper);
+        assertEquals("/order/7", data.pathInfo.toString());
+
+        // 前缀必须在路径段边界上结束
+        data = map(router, "/apix", 0);
+        assertSame(fallback, data.wrapper);
+    }
+
+
+    @Test
+    public void extensionAndDefaultMatch() {
+        MappingData data = map(router, "/pages/a.jsp", 0);
+        assertSame(jsp, data.wrapper);
+        assertEquals(MappingMatch.EXTENSION, data.matchType);
+
+        data = map(router, "/static/a.css", 0);
+        assertSame(fallback, data.wrapper);
+        assertEquals(MappingMatch.DEFAULT, data.matchType);
+    }
+
+
+    @Test
+    public void contextOffsetIsSkipped() {
+        MappingData data = map(router, "/shop/index", "/shop".length());
+        assertSame(exact, data.wrapper);
+    }
+
+
+    @Test
+    public void removeIsCopyOnWrite() {
+        Mapper.WrapperRouter removed = router.removeWrapper("/api/user/*");
+        assertNotNull(removed);
+        assertSame(api, map(removed, "/api/user/42", 0).wrapper);
+
+        // 旧的路由表不受影响
+        assertSame(apiUser, map(router, "/api/user/42", 0).wrapper);
+
+        assertNull(router.removeWrapper("/missing"));
+    }
+
+
+    @Test
+    public void addReplacesSamePath() {
+        Wrapper other = wrapper("other");
+        Mapper.WrapperRouter replaced = router.addWrapper("/index", other);
+        assertSame(other, map(replaced, "/index", 0).wrapper);
+        assertEquals(router.exactWrappers.length, replaced.exactWrappers.length);
+    }
+
+
+    @Test
+    public void manyPathsShareCompiledTree() {
+        Mapper.WrapperRouter r = mapper.new WrapperRouter();
+        Wrapper[] wrappers = new Wrapper[200];
+        for (int i = 0; i < wrappers.length; i++) {
+            wrappers[i] = wrapper("w" + i);
+            r = r.addWrapper("/p/" + i, wrappers[i]);
+        }
+
+        for (int i = 0; i < wrappers.length; i++)
+            assertSame(wrappers[i], map(r, "/p/" + i, 0).wrapper);
+        assertNull(map(r, "/p/200", 0).wrapper);
+        assertNull(map(r, "/p/", 0).wrapper);
+    }
+
+
+    private static MappingData map(Mapper.WrapperRouter router, String uri, int offset) {
+        char[] chars = uri.toCharArray();
+        CharChunk chunk = new CharChunk();
+        chunk.setChars(chars, 0, chars.length);
+        MappingData data = new MappingData();
+        router.map(chunk, offset, data);
+        return data;
+    }
+
+
+    private static Wrapper wrapper(String name) {
+        return (Wrapper) Proxy.newProxyInstance(Wrapper.class.getClassLoader(), new Class<?>[] { Wrapper.class },
+                (proxy, method, args) -> {
+                    if ("toString".equals(method.getName()))
+                        return name;
+                    if ("hashCode".equals(method.getName()))
+                        return System.identityHashCode(proxy);
+                    if ("equals".equals(method.getName()))
+                        return proxy == args[0];
+                    if ("getName".equals(method.getName()))
+                        return name;
+                    return null;
+                });
+    }
+}
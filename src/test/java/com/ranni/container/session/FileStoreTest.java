@@ -0,0 +1,191 @@
+package com.ranni.container.session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 基于文件的session存储器：存取往返、重新打开后重建索引、崩溃时的不完整记录、校验失败的记录以及压缩
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/26 16:30
+ */
+public class FileStoreTest {
+
+    private File dir;
+    private StandardManager manager;
+    private FileStore store;
+
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("filestore").toFile();
+        manager = new StandardManager();
+        store = newStore();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null)
+            store.stop();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        dir.delete();
+    }
+
+
+    @Test
+    public void saveLoadRemoveRoundTrip() throws Exception {
+        store.save(session("a", "user", "alice"));
+        store.save(session("b", "user", "bob"));
+        store.save(session("a", "user", "alice2")); // 覆盖
+
+        assertEquals(2, store.getSize());
+        assertEquals("alice2", store.load("a").getSession().getAttribute("user"));
+        assertEquals("bob", store.load("b").getSession().getAttribute("user"));
+
+        store.remove("b");
+        assertNull(store.load("b"));
+        assertNull(store.load("missing"));
+    }
+
+
+    @Test
+    public void reopenRebuildsIndex() throws Exception {
+        store.save(session("a", "k", "1"));
+        store.save(session("b", "k", "2"));
+        store.remove("a");
+        store.save(session("b", "k", "3"));
+        reopen();
+
+        assertEquals(1, store.getSize());
+        assertNull(store.load("a"));
+        assertEquals("3", store.load("b").getSession().getAttribute("k"));
+    }
+
+
+    @Test
+    public void tornTailIsTruncated() throws Exception {
+        store.save(session("a", "k", "1"));
+        store.stop();
+        long good = file().length();
+
+        // 模拟写入第二条记录时进程崩溃，只写入了一半
+        store = newStore();
+        store.save(session("b", "k", "2"));
+        store.stop();
+        long full = file().length();
+        try (RandomAccessFile raf = new RandomAccessFile(file(), "rw")) {
+            raf.setLength(good + (full - good) / 2);
+        }
+
+        store = newStore();
+        assertEquals(1, store.getSize());
+        assertEquals("1", store.load("a").getSession().getAttribute("k"));
+        assertNull(store.load("b"));
+        assertEquals(good, file().length());
+
+        // 截断后可以继续追加
+        store.save(session("c", "k", "3"));
+        reopen();
+        assertEquals(2, store.getSize());
+    }
+
+
+    @Test
+    public void corruptedRecordFailsChecksum() throws Exception {
+        store.save(session("a", "k", "1"));
+        store.stop();
+        long good = file().length();
+
+        store = newStore();
+        store.save(session("b", "k", "2"));
+        store.stop();
+
+        // 长度完整，但内容中的一个字节被改写
+        try (RandomAccessFile raf = new RandomAccessFile(file(), "rw")) {
+            long pos = good + (file().length() - good) - 3;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xFF);
+        }
+
+        store = newStore();
+        assertEquals(1, store.getSize());
+        assertNull(store.load("b"));
+        assertEquals(good, file().length());
+    }
+
+
+    @Test
+    public void compactionKeepsLiveRecords() throws Exception {
+        byte[] payload = new byte[64 * 1024];
+        for (int i = 0; i < 40; i++) {
+            StandardSession session = session("big", "i", String.valueOf(i));
+            session.setAttribute("payload", payload);
+            store.save(session);
+        }
+        store.save(session("small", "k", "v"));
+        store.save(session("gone", "k", "v"));
+        store.remove("gone");
+
+        assertTrue(store.needsCompaction());
+        long before = file().length();
+        store.compact();
+        assertTrue(file().length() < before / 10);
+        assertFalse(store.needsCompaction());
+
+        assertEquals("39", store.load("big").getSession().getAttribute("i"));
+        assertEquals("v", store.load("small").getSession().getAttribute("k"));
+
+        reopen();
+        assertEquals(2, store.getSize());
+        assertNull(store.load("gone"));
+        assertEquals("39", store.load("big").getSession().getAttribute("i"));
+    }
+
+
+    private FileStore newStore() throws Exception {
+        FileStore store = new FileStore();
+        store.setManager(manager);
+        store.setDirectory(dir.getAbsolutePath());
+        store.start();
+        return store;
+    }
+
+
+    private void reopen() throws Exception {
+        store.stop();
+        store = newStore();
+    }
+
+
+    private File file() {
+        return new File(dir, FileStore.DEFAULT_FILE_NAME);
+    }
+
+
+    private StandardSession session(String id, String name, Object value) {
+        StandardSession session = new StandardSession(null);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(600);
+        session.setId(id);
+        session.setAttribute(name, value);
+        return session;
+    }
+}
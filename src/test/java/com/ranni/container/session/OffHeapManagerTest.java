@@ -0,0 +1,163 @@
+package com.ranni.container.session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 堆外session管理器与堆内的StandardManager对比：
+ * 换出后堆内不再持有session，换入后数据一致并释放直接内存中的块，空页被回收，
+ * 同时输出两者查找session的耗时作为参考
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/26 18:40
+ */
+public class OffHeapManagerTest {
+
+    private static final int SESSIONS = 2000;
+    private static final int PAYLOAD = 1024;
+
+    private StandardManager heap;
+    private OffHeapManager offHeap;
+    private OffHeapStore store;
+
+
+    @Before
+    public void setUp() throws Exception {
+        heap = new StandardManager();
+        heap.setStore(null);
+        heap.start();
+
+        offHeap = new OffHeapManager();
+        offHeap.setMaxIdleSwap(0);
+        offHeap.setMinIdleSwap(0);
+        store = new OffHeapStore();
+        store.setPageSize(64 * 1024);
+        offHeap.setStore(store);
+        offHeap.start();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        heap.stop();
+        offHeap.stop();
+    }
+
+
+    @Test
+    public void swappedOutSessionsMatchHeapManager() {
+        String[] heapIds = populate(heap);
+        String[] offHeapIds = populate(offHeap);
+
+        offHeap.processMaxIdleSwaps();
+        assertEquals(0, offHeap.findSessions().length);
+        assertEquals(SESSIONS, store.getSize());
+        assertTrue(store.getAllocatedMemory() > 0);
+
+        long heapNanos = 0L;
+        long offHeapNanos = 0L;
+        for (int i = 0; i < SESSIONS; i++) {
+            long start = System.nanoTime();
+            Session a = heap.findSession(heapIds[i]);
+            heapNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Session b = offHeap.findSession(offHeapIds[i]);
+            offHeapNanos += System.nanoTime() - start;
+
+            assertNotNull(b);
+            assertEquals(a.getSession().getAttribute("n"), b.getSession().getAttribute("n"));
+            assertArrayEquals((byte[]) a.getSession().getAttribute("payload"),
+                    (byte[]) b.getSession().getAttribute("payload"));
+        }
+
+        System.out.println("OffHeapManagerTest  findSession  heap: " + heapNanos / SESSIONS
+                + "ns/op  off-heap swap-in: " + offHeapNanos / SESSIONS + "ns/op");
+
+        // 换入后释放块，所有页都空了
+        assertEquals(0, store.getSize());
+        assertEquals(0L, store.getAllocatedMemory());
+    }
+
+
+    @Test
+    public void emptyPagesAreReusedBySizeClasses() throws Exception {
+        StandardSession small = session("small", new byte[16]);
+        StandardSession large = session("large", new byte[16 * 1024]);
+
+        for (int i = 0; i < 200; i++) {
+            small.setId("small" + i);
+            store.save(small);
+        }
+        long peak = store.getAllocatedMemory();
+        for (int i = 0; i < 200; i++)
+            store.remove("small" + i);
+        assertEquals(0L, store.getAllocatedMemory());
+
+        // 被释放的页可以给其它等级使用，不会超出之前的峰值太多
+        for (int i = 0; i < 3; i++) {
+            large.setId("large" + i);
+            store.save(large);
+        }
+        assertTrue(store.getAllocatedMemory() <= Math.max(peak, 3 * store.getPageSize()));
+        assertEquals(3, store.getSize());
+        assertEquals(16 * 1024, ((byte[]) store.load("large1").getSession().getAttribute("payload")).length);
+    }
+
+
+    @Test
+    public void indexSurvivesChurn() throws Exception {
+        StandardSession session = session("x", new byte[8]);
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 5000; i++) {
+            session.setId("s" + i);
+            store.save(session);
+            expected.add("s" + i);
+            if (i % 3 == 0) {
+                store.remove("s" + (i / 2));
+                expected.remove("s" + (i / 2));
+            }
+        }
+
+        assertEquals(expected.size(), store.getSize());
+        for (int i = 0; i < 5000; i++)
+            assertEquals("s" + i, expected.contains("s" + i), store.load("s" + i) != null);
+        assertEquals(store.keys().length, store.getSize());
+    }
+
+
+    private static String[] populate(StandardManager manager) {
+        String[] ids = new String[SESSIONS];
+        long old = System.currentTimeMillis() - 1000L;
+        for (int i = 0; i < SESSIONS; i++) {
+            Session session = manager.createSession();
+            session.setCreationTime(old);
+            byte[] payload = new byte[PAYLOAD];
+            payload[0] = (byte) i;
+            session.getSession().setAttribute("n", i);
+            session.getSession().setAttribute("payload", payload);
+            ids[i] = session.getIdInternal();
+        }
+        return ids;
+    }
+
+
+    private static StandardSession session(String id, byte[] payload) {
+        StandardSession session = new StandardSession(null);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(600);
+        session.setId(id);
+        session.setAttribute("payload", payload);
+        return session;
+    }
+}
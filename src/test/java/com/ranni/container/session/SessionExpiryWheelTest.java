@@ -0,0 +1,137 @@
+package com.ranni.container.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * session过期时间轮：到期处理、访问后顺延、跨层级联、作废条目以及过期session的回收
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/26 14:10
+ */
+public class SessionExpiryWheelTest {
+
+    private static final long TICK = 1000L;
+
+
+    @Test
+    public void sessionExpiresAtItsDeadline() {
+        long now = System.currentTimeMillis();
+        SessionExpiryWheel wheel = new SessionExpiryWheel(TICK);
+        StandardSession session = session("a", now, 5);
+        wheel.schedule(session);
+
+        List<Session> expired = new ArrayList<>();
+        assertEquals(0, wheel.advance(now + 3 * TICK, expired::add));
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(now + 6 * TICK, expired::add));
+        assertSame(session, expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+
+    @Test
+    public void accessPostponesExpiry() {
+        long now = System.currentTimeMillis();
+        SessionExpiryWheel wheel = new SessionExpiryWheel(TICK);
+        StandardSession session = session("a", now, 5);
+        wheel.schedule(session);
+
+        // 访问只更新访问时间，原来的槽到期时按新的过期时间重新放入
+        session.restoreAccessTime(now, now + 4 * TICK);
+        List<Session> expired = new ArrayList<>();
+        assertEquals(0, wheel.advance(now + 6 * TICK, expired::add));
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(now + 10 * TICK, expired::add));
+    }
+
+
+    @Test
+    public void longIntervalsCascadeThroughLevels() {
+        long now = System.currentTimeMillis();
+        SessionExpiryWheel wheel = new SessionExpiryWheel(TICK);
+        StandardSession shortLived = session("short", now, 30);
+        StandardSession longLived = session("long", now, 2 * 3600); // 第2层
+        wheel.schedule(shortLived);
+        wheel.schedule(longLived);
+
+        List<Session> expired = new ArrayList<>();
+        for (long t = now; t <= now + 3600 * TICK; t += 60 * TICK)
+            wheel.advance(t, expired::add);
+        assertEquals(1, expired.size());
+        assertSame(shortLived, expired.get(0));
+
+        for (long t = now + 3600 * TICK; t <= now + 2 * 3600 * TICK + TICK; t += 60 * TICK)
+            wheel.advance(t, expired::add);
+        wheel.advance(now + 2 * 3600 * TICK + 2 * TICK, expired::add);
+        assertEquals(2, expired.size());
+        assertSame(longLived, expired.get(1));
+    }
+
+
+    @Test
+    public void staleEntriesAreDropped() {
+        long now = System.currentTimeMillis();
+        SessionExpiryWheel wheel = new SessionExpiryWheel(TICK);
+        StandardSession invalidated = session("a", now, 5);
+        StandardSession rotated = session("b", now, 5);
+        wheel.schedule(invalidated);
+        wheel.schedule(rotated);
+
+        invalidated.setValid(false);
+        rotated.setId("c"); // id改变后原来的条目作废
+
+        List<Session> expired = new ArrayList<>();
+        assertEquals(0, wheel.advance(now + 10 * TICK, expired::add));
+        assertEquals(0, wheel.size());
+    }
+
+
+    @Test
+    public void longPauseRebuildsWheel() {
+        long now = System.currentTimeMillis();
+        SessionExpiryWheel wheel = new SessionExpiryWheel(TICK);
+        wheel.schedule(session("a", now, 5));
+        wheel.schedule(session("b", now, 3 * 24 * 3600));
+
+        List<Session> expired = new ArrayList<>();
+        assertEquals(1, wheel.advance(now + 24 * 3600 * TICK, expired::add));
+        assertEquals(1, wheel.size());
+    }
+
+
+    @Test
+    public void publishedSessionsAreNotRecycled() {
+        StandardManager manager = new StandardManager();
+
+        // 交给过请求的session过期后不能进入回收队列
+        Session published = manager.createSession();
+        published.expire();
+        assertTrue(manager.recycled.isEmpty());
+
+        // 还没交给过请求的session可以复用
+        StandardSession replica = manager.createEmptySession();
+        replica.setValid(true);
+        replica.setId("replica");
+        replica.expire();
+        assertEquals(1, manager.recycled.size());
+        assertSame(replica, manager.createSession());
+    }
+
+
+    private static StandardSession session(String id, long now, int maxInactiveInterval) {
+        StandardSession session = new StandardSession(null);
+        session.setValid(true);
+        session.setCreationTime(now);
+        session.setMaxInactiveInterval(maxInactiveInterval);
+        session.setId(id);
+        return session;
+    }
+}
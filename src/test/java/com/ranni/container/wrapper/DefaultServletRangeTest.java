@@ -0,0 +1,87 @@
+package com.ranni.container.wrapper;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * DefaultServlet的Range请求头解析和区间合并
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/26 10:00
+ */
+public class DefaultServletRangeTest {
+
+    @Test
+    public void parseSingleRange() {
+        List<DefaultServlet.Range> ranges = DefaultServlet.parseRanges("bytes=0-99", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).start);
+        assertEquals(99, ranges.get(0).end);
+        assertEquals(1000, ranges.get(0).length);
+    }
+
+
+    @Test
+    public void parseOpenAndSuffixRanges() {
+        List<DefaultServlet.Range> ranges = DefaultServlet.parseRanges("bytes=900-", 1000);
+        assertEquals(900, ranges.get(0).start);
+        assertEquals(999, ranges.get(0).end);
+
+        ranges = DefaultServlet.parseRanges("bytes=-100", 1000);
+        assertEquals(900, ranges.get(0).start);
+        assertEquals(999, ranges.get(0).end);
+
+        // 后缀比资源长时从头开始
+        ranges = DefaultServlet.parseRanges("bytes=-5000", 1000);
+        assertEquals(0, ranges.get(0).start);
+    }
+
+
+    @Test
+    public void endBeyondLengthIsClamped() {
+        List<DefaultServlet.Range> ranges = DefaultServlet.parseRanges("bytes=10-5000", 1000);
+        assertEquals(999, ranges.get(0).end);
+    }
+
+
+    @Test
+    public void invalidRangesAreRejected() {
+        assertNull(DefaultServlet.parseRanges("items=0-10", 1000));
+        assertNull(DefaultServlet.parseRanges("bytes=", 1000));
+        assertNull(DefaultServlet.parseRanges("bytes=20-10", 1000));
+        assertNull(DefaultServlet.parseRanges("bytes=1000-", 1000));
+        assertNull(DefaultServlet.parseRanges("bytes=-0", 1000));
+        assertNull(DefaultServlet.parseRanges("bytes=a-b", 1000));
+        assertNull(DefaultServlet.parseRanges("bytes=5", 1000));
+    }
+
+
+    @Test
+    public void overlappingAndAdjacentRangesAreMerged() {
+        List<DefaultServlet.Range> ranges = DefaultServlet.parseRanges("bytes=500-599,0-99,50-149,150-199,700-", 1000);
+        assertEquals(3, ranges.size());
+        assertEquals(0, ranges.get(0).start);
+        assertEquals(199, ranges.get(0).end);
+        assertEquals(500, ranges.get(1).start);
+        assertEquals(599, ranges.get(1).end);
+        assertEquals(700, ranges.get(2).start);
+        assertEquals(999, ranges.get(2).end);
+    }
+
+
+    @Test
+    public void repeatedRangesCollapseToOne() {
+        StringBuilder header = new StringBuilder("bytes=0-999");
+        for (int i = 0; i < 1000; i++)
+            header.append(",0-999");
+
+        List<DefaultServlet.Range> ranges = DefaultServlet.parseRanges(header.toString(), 1000);
+        assertEquals(1, ranges.size());
+    }
+}
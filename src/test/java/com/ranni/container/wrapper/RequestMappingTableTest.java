@@ -0,0 +1,138 @@
+package com.ranni.container.wrapper;
+
+import com.ranni.annotation.core.PathVariable;
+import com.ranni.annotation.core.RequestMapping;
+import com.ranni.annotation.core.RequestParam;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 按路径段编译的处理方法映射表、路径变量的提取以及形参绑定失败时的异常
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/26 11:20
+ */
+public class RequestMappingTableTest {
+
+    public enum Color { RED, GREEN }
+
+    public static class Controller {
+        @RequestMapping(value = "/user/{id}", method = "GET")
+        public String user(@PathVariable("id") int id) { return "user" + id; }
+
+        @RequestMapping(value = "/user/me", method = "GET")
+        public String me() { return "me"; }
+
+        @RequestMapping(value = "/user/{id}/order/{no}", method = "POST")
+        public String order(@PathVariable("id") long id, @PathVariable("no") String no) { return id + "/" + no; }
+
+        @RequestMapping(value = "/color/{c}")
+        public String color(@PathVariable("c") Color c, @RequestParam("n") int n) { return c + ":" + n; }
+    }
+
+    private final RequestMappingTable table = new RequestMappingTable();
+
+
+    @Before
+    public void setUp() throws Exception {
+        for (Method method : Controller.class.getDeclaredMethods()) {
+            RequestMapping mapping = method.getDeclaredAnnotation(RequestMapping.class);
+            if (mapping != null)
+                table.addHandler(method, mapping);
+        }
+    }
+
+
+    @Test
+    public void literalSegmentBeatsVariable() throws Exception {
+        int[] offsets = table.newOffsets();
+        HandlerMethod handler = table.match("GET", "/user/me", 0, offsets);
+        assertEquals("me", handler.invoke(new Controller(), handler.bindArguments(null, null, "/user/me", offsets)));
+
+        handler = table.match("GET", "/user/42", 0, offsets);
+        assertEquals("user42", invoke(handler, "/user/42", offsets, Map.of()));
+    }
+
+
+    @Test
+    public void variablesAreExtractedAfterContextOffset() throws Exception {
+        String uri = "/shop/user/7/order/a%20b";
+        int[] offsets = table.newOffsets();
+        HandlerMethod handler = table.match("POST", uri, "/shop".length(), offsets);
+        assertNotNull(handler);
+        assertEquals(2, table.getMaxVariables());
+        assertEquals("7", uri.substring(offsets[0], offsets[1]));
+        assertEquals("7/a b", invoke(handler, uri, offsets, Map.of()));
+    }
+
+
+    @Test
+    public void headFallsBackToGetAndAllowListsMethods() {
+        int[] offsets = table.newOffsets();
+        assertNotNull(table.match("HEAD", "/user/1", 0, offsets));
+        assertNull(table.match("POST", "/user/1", 0, offsets));
+        assertEquals("OPTIONS, GET, HEAD", table.getAllowedMethods("/user/1", 0));
+        assertNull(table.getAllowedMethods("/missing", 0));
+
+        // 没有限制请求方法的模板匹配任何方法
+        assertNotNull(table.match("DELETE", "/color/RED", 0, offsets));
+    }
+
+
+    @Test
+    public void unmatchedSegmentCountReturnsNull() {
+        int[] offsets = table.newOffsets();
+        assertNull(table.match("GET", "/user", 0, offsets));
+        assertNull(table.match("GET", "/user/1/extra", 0, offsets));
+    }
+
+
+    @Test
+    public void bindingFailuresAreBadRequests() throws Exception {
+        int[] offsets = table.newOffsets();
+
+        HandlerMethod handler = table.match("GET", "/user/abc", 0, offsets);
+        assertBindingFails(handler, "/user/abc", offsets, Map.of());
+
+        handler = table.match("GET", "/color/BLUE", 0, offsets);
+        assertBindingFails(handler, "/color/BLUE", offsets, Map.of("n", "1"));
+
+        handler = table.match("GET", "/color/RED", 0, offsets);
+        assertBindingFails(handler, "/color/RED", offsets, Map.of("n", "x"));
+        assertEquals("RED:3", invoke(handler, "/color/RED", offsets, Map.of("n", "3")));
+    }
+
+
+    private static void assertBindingFails(HandlerMethod handler, String uri, int[] offsets,
+                                           Map<String, String> params) throws Exception {
+        try {
+            handler.bindArguments(request(params), null, uri, offsets);
+            fail("应该绑定失败");
+        } catch (ParameterBindingException e) {
+            ;
+        }
+    }
+
+
+    private static Object invoke(HandlerMethod handler, String uri, int[] offsets,
+                                 Map<String, String> params) throws Exception {
+        return handler.invoke(new Controller(), handler.bindArguments(request(params), null, uri, offsets));
+    }
+
+
+    private static HttpServletRequest request(Map<String, String> params) {
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                (proxy, method, args) -> "getParameter".equals(method.getName()) ? params.get(args[0]) : null);
+    }
+}
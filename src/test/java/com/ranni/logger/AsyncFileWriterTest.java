@@ -0,0 +1,196 @@
+package com.ranni.logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 环形缓冲区日志写入器：多线程写入不丢失且每个线程内有序、启动前放入的消息、
+ * 丢弃计数、byte[]原样写入，以及JVM退出时没有调用stop()也会写完缓冲区
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/27 10:00
+ */
+public class AsyncFileWriterTest {
+
+    private File dir;
+    private AsyncFileWriter writer;
+
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("asyncwriter").toFile();
+        writer = newWriter(dir);
+    }
+
+
+    @After
+    public void tearDown() {
+        writer.stop();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        dir.delete();
+    }
+
+
+    @Test
+    public void concurrentProducersLoseNothingAndKeepPerThreadOrder() throws Exception {
+        writer.setCapacity(64); // 远小于消息总数，生产者会在缓冲区满时阻塞等待
+        writer.start();
+
+        int threads = 4;
+        int perThread = 5000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++)
+                    assertTrue(writer.publish("t" + id + " " + i, System.currentTimeMillis(), Logger.INFORMATION));
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        start.countDown();
+        for (Thread producer : producers)
+            producer.join();
+        writer.stop();
+
+        List<String> lines = readLines();
+        assertEquals(threads * perThread, lines.size());
+
+        int[] next = new int[threads];
+        for (String line : lines) {
+            int space = line.indexOf(' ');
+            int id = Integer.parseInt(line.substring(1, space));
+            assertEquals(line, next[id]++, Integer.parseInt(line.substring(space + 1)));
+        }
+        for (int n : next)
+            assertEquals(perThread, n);
+    }
+
+
+    @Test
+    public void messagesPublishedBeforeStartAreWrittenAfterStart() throws Exception {
+        writer.publish("early", System.currentTimeMillis(), Logger.INFORMATION);
+        assertEquals(0, dir.list().length);
+
+        writer.start();
+        writer.publish("late", System.currentTimeMillis(), Logger.INFORMATION);
+        writer.stop();
+
+        assertEquals(List.of("early", "late"), readLines());
+    }
+
+
+    @Test
+    public void fullBufferWithoutConsumerDropsAndReportsCount() throws Exception {
+        writer.setCapacity(4);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++)
+            assertTrue(writer.publish("m" + i, now, Logger.INFORMATION));
+        assertFalse(writer.publish("m4", now, Logger.INFORMATION));
+        assertFalse(writer.publish("m5", now, Logger.INFORMATION));
+        assertEquals(2, writer.getDropped());
+
+        writer.start();
+        writer.stop();
+
+        List<String> lines = readLines();
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("2"));
+        assertEquals(List.of("m0", "m1", "m2", "m3"), lines.subList(1, 5));
+        assertEquals(0, writer.getDropped());
+    }
+
+
+    @Test
+    public void bytesAreWrittenVerbatimAndStringsGetLineSeparator() throws Exception {
+        writer.start();
+        long now = System.currentTimeMillis();
+        writer.publish("a".getBytes(StandardCharsets.UTF_8), now, Logger.INFORMATION);
+        writer.publish("b\n".getBytes(StandardCharsets.UTF_8), now, Logger.INFORMATION);
+        writer.publish("中文", now, Logger.INFORMATION);
+        writer.publish("d\n", now, Logger.INFORMATION);
+        writer.stop();
+
+        String content = new String(Files.readAllBytes(logFile().toPath()), StandardCharsets.UTF_8);
+        assertEquals("ab\n中文" + System.lineSeparator() + "d\n", content);
+    }
+
+
+    @Test
+    public void shutdownHookFlushesWithoutStop() throws Exception {
+        Process process = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                ExitWithoutStop.class.getName(), dir.getAbsolutePath())
+                .redirectErrorStream(true)
+                .start();
+        assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(0, process.exitValue());
+
+        List<String> lines = readLines();
+        assertEquals(ExitWithoutStop.COUNT, lines.size());
+        assertEquals("line " + (ExitWithoutStop.COUNT - 1), lines.get(ExitWithoutStop.COUNT - 1));
+    }
+
+
+    /**
+     * 在子进程中运行：放入消息后直接退出，不调用stop()
+     */
+    public static class ExitWithoutStop {
+        static final int COUNT = 200000;
+
+        public static void main(String[] args) {
+            AsyncFileWriter writer = newWriter(new File(args[0]));
+            writer.setCapacity(COUNT); // 不会阻塞，退出时缓冲区中还有大量消息
+            writer.start();
+            for (int i = 0; i < COUNT; i++)
+                writer.publish("line " + i, System.currentTimeMillis(), Logger.INFORMATION);
+            System.exit(0);
+        }
+    }
+
+
+    private static AsyncFileWriter newWriter(File dir) {
+        AsyncFileWriter writer = new AsyncFileWriter();
+        writer.setDirectory(dir.getAbsolutePath());
+        writer.setPrefix("test.");
+        return writer;
+    }
+
+
+    private File logFile() {
+        File[] files = dir.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+
+    private List<String> readLines() throws Exception {
+        return Files.readAllLines(logFile().toPath(), StandardCharsets.UTF_8);
+    }
+}
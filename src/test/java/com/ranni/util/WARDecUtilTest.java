@@ -0,0 +1,159 @@
+package com.ranni.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * war包解压：首次解压、没有变化的文件不再重写、变化的文件被原子替换、
+ * 解压到war包目录外面的条目被拒绝，以及后台解压的计数
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/27 16:00
+ */
+public class WARDecUtilTest {
+
+    private File dir;
+
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("wardec").toFile();
+    }
+
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+
+    @Test
+    public void skipsUnchangedFilesAndReplacesChangedOnes() throws Exception {
+        byte[] big = new byte[3 * 1024 * 1024]; // 超过一批的大小，单独一个任务
+        for (int i = 0; i < big.length; i++)
+            big[i] = (byte) (i * 31);
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("index.html", bytes("<html/>"));
+        entries.put("WEB-INF/web.xml", bytes("<web-app/>"));
+        entries.put("WEB-INF/lib/big.bin", big);
+        File war = war("app.war", entries);
+        File base = new File(dir, "app");
+
+        assertEquals(3, (int) WARDecUtil.unzipAsync(war).join());
+        assertArrayEquals(bytes("<web-app/>"), Files.readAllBytes(new File(base, "WEB-INF/web.xml").toPath()));
+        assertArrayEquals(big, Files.readAllBytes(new File(base, "WEB-INF/lib/big.bin").toPath()));
+
+        // 重新部署，内容都没有变化
+        long modified = new File(base, "index.html").lastModified();
+        assertEquals(0, (int) WARDecUtil.unzipAsync(war).join());
+        assertEquals(modified, new File(base, "index.html").lastModified());
+
+        // 长度相同但内容被改过的文件会被重写，更长的旧文件会被替换成正确的长度
+        Files.write(new File(base, "WEB-INF/web.xml").toPath(), bytes("<web-ap!/>"));
+        Files.write(new File(base, "index.html").toPath(), bytes("<html>much longer</html>"));
+        assertEquals(2, (int) WARDecUtil.unzipAsync(war).join());
+        assertArrayEquals(bytes("<web-app/>"), Files.readAllBytes(new File(base, "WEB-INF/web.xml").toPath()));
+        assertArrayEquals(bytes("<html/>"), Files.readAllBytes(new File(base, "index.html").toPath()));
+
+        // 不会留下临时文件
+        try (Stream<Path> paths = Files.walk(base.toPath())) {
+            assertFalse(paths.anyMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+
+    @Test
+    public void rejectsEntriesOutsideTheWarDirectory() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("ok.txt", bytes("ok"));
+        entries.put("../evil.txt", bytes("evil"));
+        entries.put("WEB-INF/../../../evil2.txt", bytes("evil"));
+        File war = war("slip.war", entries);
+
+        try {
+            WARDecUtil.unzipAsync(war).join();
+            fail("条目在war包目录外面");
+        } catch (CompletionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+        }
+
+        assertFalse(new File(dir, "evil.txt").exists());
+        assertFalse(new File(dir.getParentFile(), "evil2.txt").exists());
+    }
+
+
+    @Test
+    public void backgroundUnzipCountIsFinalWhenTheFutureCompletes() throws Exception {
+        Map<String, byte[]> good = new LinkedHashMap<>();
+        good.put("a.txt", bytes("a"));
+        Map<String, byte[]> bad = new LinkedHashMap<>();
+        bad.put("../b.txt", bytes("b"));
+
+        ConcurrentLinkedDeque<File> files = new ConcurrentLinkedDeque<>(Arrays.asList(
+                war("one.war", good), war("two.war", good), war("bad.war", bad)));
+
+        WARDecUtil util = WARDecUtil.getInstance();
+        assertEquals(2, (int) util.unzip(files, true).join());
+        assertEquals(2, util.getCount());
+        assertTrue(new File(dir, "one/a.txt").isFile());
+        assertTrue(new File(dir, "two/a.txt").isFile());
+
+        // 前台解压返回时已经全部完成
+        util.recycleAll();
+        files.add(new File(dir, "one.war"));
+        assertTrue(util.unzip(files, false).isDone());
+        assertEquals(1, util.getCount());
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    private File war(String name, Map<String, byte[]> entries) throws Exception {
+        File war = new File(dir, name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(war))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return war;
+    }
+
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,216 @@
+package com.ranni.util.scan;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title: HttpServer
+ * Description:
+ * 类文件注解读取器：类上的运行时注解、只在方法上的注解、CLASS保留策略的注解、
+ * 需要跳过的复杂注解元素值、long/double常量占两个下标、截断和非法的类文件，
+ * 以及扫描器对类目录、JAR包和索引文件的处理
+ *
+ * @Author 2Executioner
+ * @Email 1205878539@qq.com
+ * @Date 2023/2/27 14:00
+ */
+public class AnnotationReaderTest {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Marker {
+        String value() default "";
+    }
+
+    @Retention(RetentionPolicy.CLASS)
+    @interface Invisible {
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Complex {
+        ElementType type();
+        Marker nested();
+        int[] numbers();
+        Class<?> clazz();
+        String[] names();
+    }
+
+    @Marker("plain")
+    static class Annotated {
+    }
+
+    // Marker排在一个带有各种元素值的注解之后，读取器必须正确跳过前一个注解
+    @Complex(type = ElementType.METHOD, nested = @Marker("inner"), numbers = { 1, 2, 3 },
+            clazz = String.class, names = { "a", "b" })
+    @Marker
+    static class AnnotatedAfterComplex {
+    }
+
+    // 嵌套注解中有Marker，但类上没有
+    @Complex(type = ElementType.TYPE, nested = @Marker, numbers = {}, clazz = Object.class, names = {})
+    static class NestedOnly {
+    }
+
+    static class OnlyOnMethod {
+        @Marker
+        public void handle() {
+        }
+    }
+
+    @Invisible
+    static class ClassRetention {
+    }
+
+    // 常量池中有long和double常量
+    @Marker
+    static class WideConstants {
+        long l(long x) {
+            return x * 1234567890123L;
+        }
+
+        double d(double x) {
+            return x * 3.14159265358979;
+        }
+    }
+
+    static class NotAnnotated {
+    }
+
+
+    private static final byte[] MARKER = AnnotationReader.toDescriptor(Marker.class.getName());
+
+    private File dir;
+
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("scan").toFile();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        delete(dir);
+    }
+
+
+    @Test
+    public void findsRuntimeAnnotationOnClass() throws Exception {
+        assertEquals(Annotated.class.getName(), read(Annotated.class));
+        assertEquals(AnnotatedAfterComplex.class.getName(), read(AnnotatedAfterComplex.class));
+        assertEquals(WideConstants.class.getName(), read(WideConstants.class));
+    }
+
+
+    @Test
+    public void ignoresAnnotationsNotOnTheClass() throws Exception {
+        assertNull(read(NotAnnotated.class));
+        assertNull(read(OnlyOnMethod.class));
+        assertNull(read(NestedOnly.class));
+        assertNull(read(ClassRetention.class));
+        assertNull(AnnotationReader.getAnnotatedClassName(bytes(ClassRetention.class),
+                AnnotationReader.toDescriptor(Invisible.class.getName())));
+    }
+
+
+    @Test
+    public void rejectsTruncatedAndInvalidClassFiles() throws Exception {
+        byte[] data = bytes(Annotated.class);
+        for (int length = 0; length < data.length / 2; length += 7) // 常量池还没有读完
+            assertNull("length " + length, AnnotationReader.getAnnotatedClassName(Arrays.copyOf(data, length), MARKER));
+
+        assertNull(AnnotationReader.getAnnotatedClassName("not a class file".getBytes(), MARKER));
+
+        byte[] badTag = data.clone();
+        badTag[10] = (byte) 99; // 第一个常量的类型
+        assertNull(AnnotationReader.getAnnotatedClassName(badTag, MARKER));
+    }
+
+
+    @Test
+    public void scansClassesDirectoryAndJars() throws Exception {
+        File classes = new File(dir, "classes");
+        copy(classes, Annotated.class, NotAnnotated.class, OnlyOnMethod.class);
+        copy(new File(classes, "other"), WideConstants.class); // 不在扫描的包下
+
+        File jar = new File(dir, "lib.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (Class<?> clazz : Arrays.asList(AnnotatedAfterComplex.class, ClassRetention.class)) {
+                out.putNextEntry(new JarEntry(entryName(clazz)));
+                out.write(bytes(clazz));
+                out.closeEntry();
+            }
+        }
+
+        AnnotationScanner scanner = new AnnotationScanner(Marker.class);
+        File index = new File(dir, "index/annotations.idx");
+        String[] packages = { AnnotationReaderTest.class.getPackage().getName() };
+
+        List<String> expected = Arrays.asList(Annotated.class.getName(), AnnotatedAfterComplex.class.getName());
+        assertEquals(expected, scanner.scan(packages, classes, new File[] { jar }, index));
+        assertTrue(index.isFile());
+
+        // 扫描范围没有变化时直接读取索引
+        List<String> lines = Files.readAllLines(index.toPath());
+        Files.write(index.toPath(), Arrays.asList(lines.get(0), "from.Index"));
+        assertEquals(Collections.singletonList("from.Index"), scanner.scan(packages, classes, new File[] { jar }, index));
+
+        // 类文件变化后指纹不同，重新扫描
+        new File(classes, entryName(NotAnnotated.class)).delete();
+        assertEquals(expected, scanner.scan(packages, classes, new File[] { jar }, index));
+    }
+
+
+    // ==================================== 其它方法 ====================================
+
+    private static String read(Class<?> clazz) throws Exception {
+        return AnnotationReader.getAnnotatedClassName(bytes(clazz), MARKER);
+    }
+
+
+    private static String entryName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/') + ".class";
+    }
+
+
+    private static byte[] bytes(Class<?> clazz) throws Exception {
+        try (InputStream in = clazz.getClassLoader().getResourceAsStream(entryName(clazz))) {
+            assertNotNull(in);
+            return in.readAllBytes();
+        }
+    }
+
+
+    private static void copy(File root, Class<?>... classes) throws Exception {
+        for (Class<?> clazz : classes) {
+            File file = new File(root, entryName(clazz));
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), bytes(clazz));
+        }
+    }
+
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}